@@ -0,0 +1,44 @@
+#!/bin/bash
+#
+# Copyright 2013 Twitter, Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Run on the daemon node per specific cluster, instead of running
+# hraven-etl.sh periodically. Runs until stopped, loading and processing
+# each batch of job files as soon as it has been preprocessed.
+# Usage ./jobFilePipeline.sh [hbaseconfdir] [schedulerpoolname]
+#   [historyrawdir] [historyprocessingdir] [cluster] [batchsize]
+#   [defaultrawfilesizelimit] [threads] [machinetype]
+
+if [ $# -ne 9 ]
+then
+  echo "Usage: `basename $0` [hbaseconfdir] [schedulerpoolname] [historyrawdir] [historyprocessingdir] [cluster] [batchsize] [defaultrawfilesizelimit] [threads] [machinetype]"
+  exit 1
+fi
+
+source $(dirname $0)/hraven-etl-env.sh
+
+myscriptname=$(basename "$0" .sh)
+stopfile=$HRAVEN_PID_DIR/$myscriptname.stop
+
+if [ -f $stopfile ]; then
+  echo "Error: not allowed to run. Remove $stopfile continue." 1>&2
+  exit 1
+fi
+
+create_pidfile $HRAVEN_PID_DIR
+trap 'cleanup_pidfile_and_exit $HRAVEN_PID_DIR' INT TERM EXIT
+
+hadoop --config $1 jar $hravenEtlJar com.twitter.hraven.etl.JobFilePipeline -libjars=$LIBJARS -Dmapred.fairscheduler.pool=$2 -d -i $3 -o $4 -c $5 -b $6 -s $7 -t $8 -m $9
@@ -123,6 +123,20 @@ public class AggregationConstants {
    */
   public static final int RETRY_COUNT = 100;
 
+  /**
+   * number of jobs a map task combines before writing their aggregations
+   */
+  public static final String AGGREGATION_BUFFER_SIZE_CONF_KEY =
+      "hraven.aggregation.buffer.size";
+  public static final int DEFAULT_AGGREGATION_BUFFER_SIZE = 1000;
+
+  /**
+   * longest time in milliseconds a map task holds on to combined aggregations
+   */
+  public static final String AGGREGATION_BUFFER_MILLIS_CONF_KEY =
+      "hraven.aggregation.buffer.millis";
+  public static final long DEFAULT_AGGREGATION_BUFFER_MILLIS = 60000L;
+
   /**
    * type of aggregation : daily, weekly
    */
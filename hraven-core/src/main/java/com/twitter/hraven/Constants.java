@@ -416,6 +416,148 @@ public class Constants {
   /** name of the type of machine the job ran on */
   public static final String HRAVEN_MACHINE_TYPE = "hraven.machinetype.name";
 
+  /**
+   * Used to pass boolean to the job file processing mappers to indicate
+   * whether hadoop2 history events are read directly off the avro records
+   * (true) or go through the json text round trip (false)
+   */
+  public static final String DIRECT_AVRO_DECODE_CONF_KEY = "hraven.etl.avro.direct.decode";
+  public static final boolean DEFAULT_DIRECT_AVRO_DECODE = true;
+
+  /**
+   * Whether the job file processing mappers read job confs with the streaming
+   * {@link com.twitter.hraven.util.RawJobConf} parser (true) or load them into
+   * a Hadoop Configuration (false). The streaming parser stores the c!
+   * columns exactly as named in the file, without the columns a Configuration
+   * adds for the replacement names of deprecated keys, and does not expand
+   * variables in the values the job description is derived from.
+   */
+  public static final String RAW_JOB_CONF_PARSER_CONF_KEY =
+      "hraven.etl.jobconf.raw.parser";
+  public static final boolean DEFAULT_RAW_JOB_CONF_PARSER = false;
+
+  /**
+   * Whether flow scans limit the number of runs on the region servers using
+   * {@link com.twitter.hraven.datasource.RunMatchFilter}. Requires the
+   * hraven-core jar on the region server classpath.
+   */
+  public static final String RUN_MATCH_FILTER_CONF_KEY = "hraven.flow.scan.runmatchfilter";
+  public static final boolean DEFAULT_RUN_MATCH_FILTER = false;
+
+  /**
+   * Up to how many apps are summarized in parallel when looking up new apps
+   */
+  public static final String NEW_APPS_THREADS_CONF_KEY = "hraven.newapps.threads";
+  public static final int DEFAULT_NEW_APPS_THREADS = 10;
+
+  /**
+   * Upper bound on the estimated size of the job and flow results cached by
+   * the REST server, 0 disables the cache
+   */
+  public static final String RESULT_CACHE_MAX_BYTES_CONF_KEY = "hraven.rest.cache.max.bytes";
+  public static final long DEFAULT_RESULT_CACHE_MAX_BYTES = 128L * 1024 * 1024;
+
+  /** how long finished job and flow results stay cached */
+  public static final String RESULT_CACHE_TTL_CONF_KEY = "hraven.rest.cache.ttl.seconds";
+  public static final long DEFAULT_RESULT_CACHE_TTL = 3600L;
+
+  /** how long results of jobs and flows that may still change stay cached */
+  public static final String RESULT_CACHE_RUNNING_TTL_CONF_KEY =
+      "hraven.rest.cache.running.ttl.seconds";
+  public static final long DEFAULT_RESULT_CACHE_RUNNING_TTL = 60L;
+
+  /**
+   * how long after its last job finished a flow may still get new jobs, and is
+   * cached with the running ttl
+   */
+  public static final String RESULT_CACHE_FLOW_SETTLE_CONF_KEY =
+      "hraven.rest.cache.flow.settle.seconds";
+  public static final long DEFAULT_RESULT_CACHE_FLOW_SETTLE = 1800L;
+
+  /**
+   * Up to how many regions of the raw table are scanned in parallel to divide
+   * the jobs to process into batches, 1 scans the whole range in one scan
+   */
+  public static final String RAW_KEY_SCAN_THREADS_CONF_KEY = "hraven.etl.raw.key.scan.threads";
+  public static final int DEFAULT_RAW_KEY_SCAN_THREADS = 1;
+
+  /**
+   * Up to how many raw rows the processing jobs fetch per rpc, as long as they
+   * fit in {@link #RAW_SCAN_MAX_RESULT_SIZE_CONF_KEY}. All of the rows fetched
+   * in one rpc have to be processed within hbase.client.scanner.timeout.period
+   * or the scanner lease expires, so raise it along with this.
+   */
+  public static final String RAW_SCAN_CACHING_CONF_KEY = "hraven.etl.raw.scan.caching";
+  public static final int DEFAULT_RAW_SCAN_CACHING = 1;
+
+  /**
+   * Up to how many bytes of raw rows the processing jobs fetch per rpc, a row
+   * larger than this is still fetched on its own
+   */
+  public static final String RAW_SCAN_MAX_RESULT_SIZE_CONF_KEY =
+      "hraven.etl.raw.scan.max.result.size";
+  public static final long DEFAULT_RAW_SCAN_MAX_RESULT_SIZE = 32L * 1024 * 1024;
+
+  /**
+   * Whether the processing jobs fetch the next raw rows while the current ones
+   * are processed
+   */
+  public static final String RAW_SCAN_PREFETCH_CONF_KEY = "hraven.etl.raw.scan.prefetch";
+  public static final boolean DEFAULT_RAW_SCAN_PREFETCH = false;
+
+  /**
+   * How many directories of the job history done dir are listed at the same
+   * time when looking for job files to load
+   */
+  public static final String FILE_LISTING_THREADS_CONF_KEY = "hraven.etl.file.listing.threads";
+  public static final int DEFAULT_FILE_LISTING_THREADS = 4;
+
+  /**
+   * Whether the preprocessor skips yyyy/MM and yyyy/MM/dd directories of the
+   * done dir whose name is outside of the modification time range. Only safe
+   * when job files are never copied into the done dir more than a day after
+   * the date the directory is named after, as the copy gets a new
+   * modification time.
+   */
+  public static final String FILE_LISTING_PRUNE_DATE_DIRS_CONF_KEY =
+      "hraven.etl.file.listing.prune.date.dirs";
+  public static final boolean DEFAULT_FILE_LISTING_PRUNE_DATE_DIRS = false;
+
+  /**
+   * Up to how many listed job files the preprocessor sorts in memory, larger
+   * listings are sorted in runs of this size spilled to local disk
+   */
+  public static final String PREPROCESS_SORT_RUN_SIZE_CONF_KEY =
+      "hraven.etl.preprocess.sort.run.size";
+  public static final int DEFAULT_PREPROCESS_SORT_RUN_SIZE = 200000;
+
+  /**
+   * Local directory the preprocessor spills sorted runs of job files to,
+   * java.io.tmpdir if not set
+   */
+  public static final String PREPROCESS_SORT_DIR_CONF_KEY = "hraven.etl.preprocess.sort.dir";
+
+  /**
+   * Up to how many job files the loader and the processor handle in the ETL
+   * process itself rather than in a MapReduce job, 0 to always submit jobs
+   */
+  public static final String IN_PROCESS_MAX_JOB_FILES_CONF_KEY =
+      "hraven.etl.inprocess.max.job.files";
+  public static final int DEFAULT_IN_PROCESS_MAX_JOB_FILES = 100;
+
+  /**
+   * How many threads map the job files that are handled in process
+   */
+  public static final String IN_PROCESS_THREADS_CONF_KEY = "hraven.etl.inprocess.threads";
+  public static final int DEFAULT_IN_PROCESS_THREADS = 4;
+
+  /**
+   * Up to how many bytes of mutations the services that buffer their writes
+   * hold before sending them
+   */
+  public static final String WRITE_BUFFER_SIZE_CONF_KEY = "hraven.write.buffer.size";
+  public static final long DEFAULT_WRITE_BUFFER_SIZE = 2L * 1024 * 1024;
+
   /** name of the properties file used for cluster to cluster identifier mapping */
   public static final String HRAVEN_CLUSTER_PROPERTIES_FILENAME = "hRavenClusters.properties";
 }
@@ -0,0 +1,214 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+/**
+ * Metrics of one REST endpoint: the request latency and the HBase rows and
+ * cells scanned per request as {@link Histogram}s, the latency of the last
+ * request, and the number of requests, failed requests and response bytes
+ * serialized as counters.
+ * <p>
+ * Each request calls {@link #start()}, marks the returned {@link Request} as
+ * succeeded when it is done and stops it in a {@code finally} block. While a
+ * request runs, the scans done for it on the request thread are attributed
+ * to it through {@link #recordScan(long, long)}. Stopping the request ends
+ * that, the response bytes are added to the stopped request once the
+ * response has been serialized.
+ */
+public class EndpointMetrics {
+
+  private static final ThreadLocal<Request> CURRENT_REQUEST =
+      new ThreadLocal<Request>();
+
+  private final String name;
+  private final Histogram latency = new Histogram();
+  private final AtomicLong lastLatency = new AtomicLong();
+  private final Histogram hbaseRows = new Histogram();
+  private final Histogram hbaseCells = new Histogram();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * @param name prefix of the exported stat names
+   */
+  public EndpointMetrics(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Exports the metrics as stats named after this endpoint. The latency of
+   * the last request is exported as {@code <name>_LATENCY}, its percentiles
+   * with the suffixes of {@link Histogram#export(String)}.
+   */
+  public void export() {
+    exportCounter(name + "_LATENCY", lastLatency);
+    latency.export(name + "_LATENCY");
+    hbaseRows.export(name + "_HBASE_ROWS");
+    hbaseCells.export(name + "_HBASE_CELLS");
+    exportCounter(name + "_REQUESTS", requests);
+    exportCounter(name + "_ERRORS", errors);
+    exportCounter(name + "_BYTES", bytes);
+  }
+
+  private static void exportCounter(String name, final AtomicLong counter) {
+    Stats.export(new StatImpl<Long>(name) {
+      @Override
+      public Long read() {
+        return counter.get();
+      }
+    });
+  }
+
+  /**
+   * Starts timing a request on the current thread.
+   */
+  public Request start() {
+    Request request = new Request(this);
+    CURRENT_REQUEST.set(request);
+    return request;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Histogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * @return the latency of the last request in milliseconds
+   */
+  public AtomicLong getLastLatency() {
+    return lastLatency;
+  }
+
+  public Histogram getHbaseRows() {
+    return hbaseRows;
+  }
+
+  public Histogram getHbaseCells() {
+    return hbaseCells;
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * @return the request last started on this thread, {@code null} if none
+   */
+  public static Request currentRequest() {
+    return CURRENT_REQUEST.get();
+  }
+
+  /**
+   * Attributes work done on this thread to the request, for work that is
+   * handed off to other threads.
+   *
+   * @param request the request, may be {@code null}
+   * @return the request that was attributed to before
+   */
+  public static Request setCurrentRequest(Request request) {
+    Request previous = CURRENT_REQUEST.get();
+    if (request == null) {
+      CURRENT_REQUEST.remove();
+    } else {
+      CURRENT_REQUEST.set(request);
+    }
+    return previous;
+  }
+
+  /**
+   * Adds the rows and cells of an HBase scan to the request running on this
+   * thread, if any.
+   */
+  public static void recordScan(long rows, long cells) {
+    Request request = CURRENT_REQUEST.get();
+    if (request != null) {
+      request.rows.addAndGet(rows);
+      request.cells.addAndGet(cells);
+    }
+  }
+
+  /**
+   * One request to an endpoint.
+   */
+  public static class Request {
+    private final EndpointMetrics endpoint;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong cells = new AtomicLong();
+    private boolean succeeded;
+
+    Request(EndpointMetrics endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    public EndpointMetrics getEndpoint() {
+      return endpoint;
+    }
+
+    /**
+     * Marks the request as successfully handled.
+     */
+    public void succeeded() {
+      succeeded = true;
+    }
+
+    /**
+     * Records the request, as an error if it has not succeeded, and stops
+     * attributing the scans on this thread to it.
+     */
+    public void stop() {
+      if (CURRENT_REQUEST.get() == this) {
+        CURRENT_REQUEST.remove();
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(
+          System.nanoTime() - startNanos);
+      endpoint.latency.record(millis);
+      endpoint.lastLatency.set(millis);
+      endpoint.hbaseRows.record(rows.get());
+      endpoint.hbaseCells.record(cells.get());
+      endpoint.requests.incrementAndGet();
+      if (!succeeded) {
+        endpoint.errors.incrementAndGet();
+      }
+    }
+
+    /**
+     * Adds the bytes of the serialized response.
+     */
+    public void recordBytes(long count) {
+      endpoint.bytes.addAndGet(count);
+    }
+  }
+}
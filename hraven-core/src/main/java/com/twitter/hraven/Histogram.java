@@ -0,0 +1,210 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+/**
+ * Lock-free histogram of non-negative values, such as request latencies.
+ * <p>
+ * Values are counted in log-linear buckets: 8 buckets per power of two, so a
+ * reported percentile is at most 12.5% above the actual value. Recording a
+ * value is a few atomic increments, so request threads never block on it.
+ * <p>
+ * Percentiles and the max are reported for the last complete window (a minute
+ * by default), so that they show how the service is doing now rather than
+ * since it started.
+ */
+public class Histogram {
+
+  public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /** sub-buckets per power of two, as a number of bits */
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT =
+      bucketIndex(Long.MAX_VALUE) + 1;
+
+  private final long windowMillis;
+  private final AtomicReference<Window> current;
+  private volatile Window previous;
+
+  public Histogram() {
+    this(DEFAULT_WINDOW_MILLIS);
+  }
+
+  /**
+   * @param windowMillis length of the windows the percentiles are reported for
+   */
+  public Histogram(long windowMillis) {
+    this.windowMillis = windowMillis;
+    long now = System.currentTimeMillis();
+    this.current = new AtomicReference<Window>(new Window(now + windowMillis));
+    this.previous = new Window(now);
+  }
+
+  /**
+   * Records a value, negative values are recorded as 0.
+   */
+  public void record(long value) {
+    currentWindow(System.currentTimeMillis()).record(Math.max(0L, value));
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the value at the percentile in the last complete window, 0 if no
+   *         values were recorded in it
+   */
+  public long getPercentile(double percentile) {
+    return completeWindow().getPercentile(percentile);
+  }
+
+  /**
+   * @return the highest value in the last complete window
+   */
+  public long getMax() {
+    return completeWindow().max.get();
+  }
+
+  /**
+   * @return the number of values in the last complete window
+   */
+  public long getCount() {
+    return completeWindow().count.get();
+  }
+
+  /**
+   * Exports the p50, p90, p99 and max of this histogram as stats with the
+   * given name prefix.
+   */
+  public void export(String namePrefix) {
+    exportPercentile(namePrefix + "_P50", 50);
+    exportPercentile(namePrefix + "_P90", 90);
+    exportPercentile(namePrefix + "_P99", 99);
+    Stats.export(new StatImpl<Long>(namePrefix + "_MAX") {
+      @Override
+      public Long read() {
+        return getMax();
+      }
+    });
+  }
+
+  private void exportPercentile(String name, final double percentile) {
+    Stats.export(new StatImpl<Long>(name) {
+      @Override
+      public Long read() {
+        return getPercentile(percentile);
+      }
+    });
+  }
+
+  private Window currentWindow(long now) {
+    Window window = current.get();
+    while (now >= window.end) {
+      Window next = new Window(now + windowMillis);
+      if (current.compareAndSet(window, next)) {
+        // values racing with the switch may still land in the previous window
+        previous = window;
+        return next;
+      }
+      window = current.get();
+    }
+    return window;
+  }
+
+  private Window completeWindow() {
+    long now = System.currentTimeMillis();
+    currentWindow(now);
+    Window window = previous;
+    if (window.end + windowMillis <= now) {
+      // nothing was recorded in the last window
+      return new Window(now);
+    }
+    return window;
+  }
+
+  /**
+   * @return the bucket counting the value
+   */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket =
+        (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @return the highest value counted by the bucket
+   */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    long upperBound = lowerBound + (1L << shift) - 1;
+    // the last bucket would overflow
+    return upperBound < lowerBound ? Long.MAX_VALUE : upperBound;
+  }
+
+  /**
+   * Values recorded until {@code end}.
+   */
+  private static final class Window {
+    private final long end;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Window(long end) {
+      this.end = end;
+    }
+
+    void record(long value) {
+      buckets.incrementAndGet(bucketIndex(value));
+      count.incrementAndGet();
+      long currentMax = max.get();
+      while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+        currentMax = max.get();
+      }
+    }
+
+    long getPercentile(double percentile) {
+      long total = count.get();
+      if (total == 0) {
+        return 0L;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100.0);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank && seen > 0) {
+          return Math.min(bucketUpperBound(i), max.get());
+        }
+      }
+      return max.get();
+    }
+  }
+}
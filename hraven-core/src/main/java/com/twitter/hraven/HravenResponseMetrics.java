@@ -10,52 +10,113 @@ import com.twitter.common.stats.Stats;
  *
  */
 public class HravenResponseMetrics {
+  public final static String JOB_API = "JOB_API";
+  public static final EndpointMetrics JOB_API_METRICS =
+      new EndpointMetrics(JOB_API);
   public final static String JOB_API_LATENCY = "JOB_API_LATENCY";
   public static AtomicLong JOB_API_LATENCY_VALUE;
 
+  public final static String FLOW_API = "FLOW_API";
+  public static final EndpointMetrics FLOW_API_METRICS =
+      new EndpointMetrics(FLOW_API);
   public final static String FLOW_API_LATENCY = "FLOW_API_LATENCY";
   public static AtomicLong FLOW_API_LATENCY_VALUE;
 
+  public final static String FLOW_STATS_API = "FLOW_STATS_API";
+  public static final EndpointMetrics FLOW_STATS_API_METRICS =
+      new EndpointMetrics(FLOW_STATS_API);
   public final static String FLOW_STATS_API_LATENCY = "FLOW_STATS_API_LATENCY";
   public static AtomicLong FLOW_STATS_API_LATENCY_VALUE;
 
+  public final static String FLOW_VERSION_API = "FLOW_VERSION_API";
+  public static final EndpointMetrics FLOW_VERSION_API_METRICS =
+      new EndpointMetrics(FLOW_VERSION_API);
   public final static String FLOW_VERSION_API_LATENCY = "FLOW_VERSION_API_LATENCY";
   public static AtomicLong FLOW_VERSION_API_LATENCY_VALUE;
 
   public final static String FLOW_HBASE_RESULT_SIZE = "FLOW_HBASE_RESULT_SIZE";
   public static AtomicDouble FLOW_HBASE_RESULT_SIZE_VALUE;
 
+  public final static String JOBFLOW_API = "JOBFLOW_API";
+  public static final EndpointMetrics JOBFLOW_API_METRICS =
+      new EndpointMetrics(JOBFLOW_API);
   public final static String JOBFLOW_API_LATENCY = "JOBFLOW_API_LATENCY";
   public static AtomicLong JOBFLOW_API_LATENCY_VALUE;
 
+  public final static String TASKS_API = "TASKS_API";
+  public static final EndpointMetrics TASKS_API_METRICS =
+      new EndpointMetrics(TASKS_API);
   public final static String TASKS_API_LATENCY = "TASKS_API_LATENCY";
   public static AtomicLong TASKS_API_LATENCY_VALUE;
 
+  public final static String APPVERSIONS_API = "APPVERSIONS_API";
+  public static final EndpointMetrics APPVERSIONS_API_METRICS =
+      new EndpointMetrics(APPVERSIONS_API);
   public final static String APPVERSIONS_API_LATENCY = "APPVERSIONS_API_LATENCY";
   public static AtomicLong APPVERSIONS_API_LATENCY_VALUE;
 
+  public final static String HDFS_STATS_API = "HDFS_STATS_API";
+  public static final EndpointMetrics HDFS_STATS_API_METRICS =
+      new EndpointMetrics(HDFS_STATS_API);
   public final static String HDFS_STATS_API_LATENCY = "HDFS_STATS_API_LATENCY";
   public static AtomicLong HDFS_STATS_API_LATENCY_VALUE;
 
+  public final static String HDFS_TIMESERIES_API = "HDFS_TIMESERIES_API";
+  public static final EndpointMetrics HDFS_TIMESERIES_API_METRICS =
+      new EndpointMetrics(HDFS_TIMESERIES_API);
   public final static String HDFS_TIMESERIES_API_LATENCY = "HDFS_TIMESERIES_API_LATENCY";
   public static AtomicLong HDFS_TIMESERIES_API_LATENCY_VALUE;
 
+  public final static String NEW_JOBS_API = "NEW_JOBS_API";
+  public static final EndpointMetrics NEW_JOBS_API_METRICS =
+      new EndpointMetrics(NEW_JOBS_API);
   public final static String NEW_JOBS_API_LATENCY = "NEW_JOBS_API_LATENCY";
   public static AtomicLong NEW_JOBS_API_LATENCY_VALUE;
 
+  public final static String ALL_APPS_API = "ALL_APPS_API";
+  public static final EndpointMetrics ALL_APPS_API_METRICS =
+      new EndpointMetrics(ALL_APPS_API);
+
+  public final static String RESULT_CACHE_HITS = "RESULT_CACHE_HITS";
+  public static AtomicLong RESULT_CACHE_HITS_VALUE;
+
+  public final static String RESULT_CACHE_MISSES = "RESULT_CACHE_MISSES";
+  public static AtomicLong RESULT_CACHE_MISSES_VALUE;
+
+  public final static String RESULT_CACHE_EVICTIONS = "RESULT_CACHE_EVICTIONS";
+  public static AtomicLong RESULT_CACHE_EVICTIONS_VALUE;
+
+  public final static String RESULT_CACHE_BYTES = "RESULT_CACHE_BYTES";
+  public static AtomicLong RESULT_CACHE_BYTES_VALUE;
+
   static {
     /** initialize metrics */
-    JOB_API_LATENCY_VALUE = Stats.exportLong(JOB_API_LATENCY);
-    FLOW_API_LATENCY_VALUE = Stats.exportLong(FLOW_API_LATENCY);
-    FLOW_STATS_API_LATENCY_VALUE = Stats.exportLong(FLOW_STATS_API_LATENCY);
-    FLOW_VERSION_API_LATENCY_VALUE = Stats.exportLong(FLOW_VERSION_API_LATENCY);
+    JOB_API_METRICS.export();
+    JOB_API_LATENCY_VALUE = JOB_API_METRICS.getLastLatency();
+    FLOW_API_METRICS.export();
+    FLOW_API_LATENCY_VALUE = FLOW_API_METRICS.getLastLatency();
+    FLOW_STATS_API_METRICS.export();
+    FLOW_STATS_API_LATENCY_VALUE = FLOW_STATS_API_METRICS.getLastLatency();
+    FLOW_VERSION_API_METRICS.export();
+    FLOW_VERSION_API_LATENCY_VALUE = FLOW_VERSION_API_METRICS.getLastLatency();
     FLOW_HBASE_RESULT_SIZE_VALUE = Stats.exportDouble(FLOW_HBASE_RESULT_SIZE);
-    JOBFLOW_API_LATENCY_VALUE = Stats.exportLong(JOBFLOW_API_LATENCY);
-    TASKS_API_LATENCY_VALUE = Stats.exportLong(TASKS_API_LATENCY);
-    APPVERSIONS_API_LATENCY_VALUE = Stats.exportLong(APPVERSIONS_API_LATENCY);
-    HDFS_STATS_API_LATENCY_VALUE = Stats.exportLong(HDFS_STATS_API_LATENCY);
-    HDFS_TIMESERIES_API_LATENCY_VALUE = Stats.exportLong(HDFS_TIMESERIES_API_LATENCY);
-    NEW_JOBS_API_LATENCY_VALUE = Stats.exportLong(NEW_JOBS_API_LATENCY);
+    JOBFLOW_API_METRICS.export();
+    JOBFLOW_API_LATENCY_VALUE = JOBFLOW_API_METRICS.getLastLatency();
+    TASKS_API_METRICS.export();
+    TASKS_API_LATENCY_VALUE = TASKS_API_METRICS.getLastLatency();
+    APPVERSIONS_API_METRICS.export();
+    APPVERSIONS_API_LATENCY_VALUE = APPVERSIONS_API_METRICS.getLastLatency();
+    HDFS_STATS_API_METRICS.export();
+    HDFS_STATS_API_LATENCY_VALUE = HDFS_STATS_API_METRICS.getLastLatency();
+    HDFS_TIMESERIES_API_METRICS.export();
+    HDFS_TIMESERIES_API_LATENCY_VALUE = HDFS_TIMESERIES_API_METRICS.getLastLatency();
+    NEW_JOBS_API_METRICS.export();
+    NEW_JOBS_API_LATENCY_VALUE = NEW_JOBS_API_METRICS.getLastLatency();
+    ALL_APPS_API_METRICS.export();
+    RESULT_CACHE_HITS_VALUE = Stats.exportLong(RESULT_CACHE_HITS);
+    RESULT_CACHE_MISSES_VALUE = Stats.exportLong(RESULT_CACHE_MISSES);
+    RESULT_CACHE_EVICTIONS_VALUE = Stats.exportLong(RESULT_CACHE_EVICTIONS);
+    RESULT_CACHE_BYTES_VALUE = Stats.exportLong(RESULT_CACHE_BYTES);
 
   }
 }
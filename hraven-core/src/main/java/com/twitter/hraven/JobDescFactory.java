@@ -17,6 +17,9 @@ package com.twitter.hraven;
 
 import org.apache.hadoop.conf.Configuration;
 
+import com.twitter.hraven.util.HadoopConfUtil;
+import com.twitter.hraven.util.JobConfProperties;
+
 /**
  * Deal with {@link JobDesc} implementations.
  */
@@ -36,6 +39,16 @@ public class JobDescFactory {
    * @return framework specific JobDescFactory
    */
   public static JobDescFactoryBase getFrameworkSpecificJobDescFactory(Configuration jobConf) {
+    return getFrameworkSpecificJobDescFactory(HadoopConfUtil.wrap(jobConf));
+  }
+
+  /**
+   * get framework specific JobDescFactory based on configuration
+   * @param jobConf properties of the job configuration
+   * @return framework specific JobDescFactory
+   */
+  public static JobDescFactoryBase getFrameworkSpecificJobDescFactory(
+      JobConfProperties jobConf) {
     Framework framework = getFramework(jobConf);
 
     switch (framework) {
@@ -58,6 +71,21 @@ public class JobDescFactory {
    */
   public static JobDesc createJobDesc(QualifiedJobId qualifiedJobId,
       long submitTimeMillis, Configuration jobConf) {
+    return createJobDesc(qualifiedJobId, submitTimeMillis,
+        HadoopConfUtil.wrap(jobConf));
+  }
+
+  /**
+   * @param submitTimeMillis
+   * @param qualifiedJobId
+   *          Identifier for the job for the given job configuration
+   * @param jobConf
+   *          the properties of the jobConf for the given job, such as a
+   *          {@link com.twitter.hraven.util.RawJobConf}.
+   * @return the job description for the given JobConfiguration.
+   */
+  public static JobDesc createJobDesc(QualifiedJobId qualifiedJobId,
+      long submitTimeMillis, JobConfProperties jobConf) {
     return getFrameworkSpecificJobDescFactory(jobConf).create(qualifiedJobId, submitTimeMillis,
         jobConf);
   }
@@ -68,6 +96,15 @@ public class JobDescFactory {
    * @return which framerwork was used to launch that configuration.
    */
   public static Framework getFramework(Configuration jobConf) {
+    return getFramework(HadoopConfUtil.wrap(jobConf));
+  }
+
+  /**
+   * @param jobConf
+   *          the properties of a given job configuration.
+   * @return which framerwork was used to launch that configuration.
+   */
+  public static Framework getFramework(JobConfProperties jobConf) {
     // Check if this is a pig job
     boolean isPig = jobConf.get(Constants.PIG_CONF_KEY) != null;
     if (isPig) {
@@ -89,6 +126,16 @@ public class JobDescFactory {
    * @return
    */
   public static String getCluster(Configuration jobConf) {
+    return getCluster(HadoopConfUtil.wrap(jobConf));
+  }
+
+  /**
+   * Returns the cluster that a give job was run on by mapping the jobtracker hostname to an
+   * identifier.
+   * @param jobConf the properties of the job configuration
+   * @return
+   */
+  public static String getCluster(JobConfProperties jobConf) {
     String jobtracker = jobConf.get(RESOURCE_MANAGER_KEY);
     if (jobtracker == null) {
       jobtracker = jobConf.get(JOBTRACKER_KEY);
@@ -18,6 +18,7 @@ package com.twitter.hraven;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import com.twitter.hraven.util.HadoopConfUtil;
+import com.twitter.hraven.util.JobConfProperties;
 import com.twitter.hraven.util.StringUtil;
 
 /**
@@ -42,7 +43,23 @@ public abstract class JobDescFactoryBase {
    * @return the identifier for the job in the JobHistory table.
    */
   abstract JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
-      Configuration jobConf);
+      JobConfProperties jobConf);
+
+  /**
+   * @param qualifiedJobId
+   *          jobId qualified with cluster.
+   * @param submitTimeMillis
+   *          the job, script or flow submit time in milliseconds since January
+   *          1, 1970 UTC
+   * @param jobConf
+   *          of the job.
+   * @return the identifier for the job in the JobHistory table.
+   */
+  JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
+      Configuration jobConf) {
+    return create(qualifiedJobId, submitTimeMillis,
+        HadoopConfUtil.wrap(jobConf));
+  }
 
   /**
    * Factory method to be used by subclasses.
@@ -60,7 +77,8 @@ public abstract class JobDescFactoryBase {
    *          Identifying one single run of a version of an app.
    * @return a JobKey with the given parameters and the userName added.
    */
-  protected JobDesc create(QualifiedJobId qualifiedJobId, Configuration jobConf,
+  protected JobDesc create(QualifiedJobId qualifiedJobId,
+      JobConfProperties jobConf,
       String appId, String version, Framework framework, long submitTimeMillis) {
 
     if (null == qualifiedJobId) {
@@ -82,6 +100,16 @@ public abstract class JobDescFactoryBase {
    *         parsed, then {@link Constants#UNKNOWN} will be returned.
    */
   public String getAppId(Configuration jobConf) {
+    return getAppId(HadoopConfUtil.wrap(jobConf));
+  }
+
+  /**
+   * @param jobConf
+   *          from which to pull the properties
+   * @return a non-empty non-null string with the jobId. If the jobId cannot be
+   *         parsed, then {@link Constants#UNKNOWN} will be returned.
+   */
+  public String getAppId(JobConfProperties jobConf) {
 
     // Defensive coding
     if (jobConf == null) {
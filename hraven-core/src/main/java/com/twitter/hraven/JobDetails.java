@@ -23,9 +23,12 @@ import java.util.NavigableMap;
 import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.apache.commons.lang.NotImplementedException;
@@ -43,6 +46,59 @@ import com.twitter.hraven.util.ByteUtil;
 )
 public class JobDetails implements Comparable<JobDetails> {
 
+  // columns the job stats are read from
+  private static final byte[] QUEUE_COLUMN = Bytes.add(
+      Constants.JOB_CONF_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES,
+      Constants.HRAVEN_QUEUE_BYTES);
+  private static final byte[] MAP_FILE_BYTES_READ = counterColumn(
+      Constants.MAP_COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTERS,
+      Constants.FILES_BYTES_READ);
+  private static final byte[] MAP_FILE_BYTES_WRITTEN = counterColumn(
+      Constants.MAP_COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTERS,
+      Constants.FILES_BYTES_WRITTEN);
+  private static final byte[] REDUCE_FILE_BYTES_READ = counterColumn(
+      Constants.REDUCE_COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTERS,
+      Constants.FILES_BYTES_READ);
+  private static final byte[] HDFS_BYTES_READ = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTERS,
+      Constants.HDFS_BYTES_READ);
+  private static final byte[] HDFS_BYTES_WRITTEN = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTERS,
+      Constants.HDFS_BYTES_WRITTEN);
+  private static final byte[] SLOTS_MILLIS_MAPS = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.JOBINPROGRESS_COUNTER,
+      Constants.SLOTS_MILLIS_MAPS);
+  private static final byte[] SLOTS_MILLIS_REDUCES = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.JOBINPROGRESS_COUNTER,
+      Constants.SLOTS_MILLIS_REDUCES);
+  private static final byte[] REDUCE_SHUFFLE_BYTES = counterColumn(
+      Constants.REDUCE_COUNTER_COLUMN_PREFIX, Constants.TASK_COUNTER,
+      Constants.REDUCE_SHUFFLE_BYTES);
+  private static final byte[] MAP_FILE_BYTES_READ_HADOOP2 = counterColumn(
+      Constants.MAP_COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTER_HADOOP2,
+      Constants.FILES_BYTES_READ);
+  private static final byte[] MAP_FILE_BYTES_WRITTEN_HADOOP2 = counterColumn(
+      Constants.MAP_COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTER_HADOOP2,
+      Constants.FILES_BYTES_WRITTEN);
+  private static final byte[] REDUCE_FILE_BYTES_READ_HADOOP2 = counterColumn(
+      Constants.REDUCE_COUNTER_COLUMN_PREFIX,
+      Constants.FILESYSTEM_COUNTER_HADOOP2, Constants.FILES_BYTES_READ);
+  private static final byte[] HDFS_BYTES_READ_HADOOP2 = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTER_HADOOP2,
+      Constants.HDFS_BYTES_READ);
+  private static final byte[] HDFS_BYTES_WRITTEN_HADOOP2 = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.FILESYSTEM_COUNTER_HADOOP2,
+      Constants.HDFS_BYTES_WRITTEN);
+  private static final byte[] SLOTS_MILLIS_MAPS_HADOOP2 = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.JOB_COUNTER_HADOOP2,
+      Constants.SLOTS_MILLIS_MAPS);
+  private static final byte[] SLOTS_MILLIS_REDUCES_HADOOP2 = counterColumn(
+      Constants.COUNTER_COLUMN_PREFIX, Constants.JOB_COUNTER_HADOOP2,
+      Constants.SLOTS_MILLIS_REDUCES);
+  private static final byte[] REDUCE_SHUFFLE_BYTES_HADOOP2 = counterColumn(
+      Constants.REDUCE_COUNTER_COLUMN_PREFIX, Constants.TASK_COUNTER_HADOOP2,
+      Constants.REDUCE_SHUFFLE_BYTES);
+
   // job key -- maps to row key
   private JobKey jobKey;
 
@@ -85,6 +141,15 @@ public class JobDetails implements Comparable<JobDetails> {
   private CounterMap mapCounters = new CounterMap();
   private CounterMap reduceCounters = new CounterMap();
 
+  /**
+   * raw job columns that config and counters are decoded from on first
+   * access, null once everything has been decoded
+   */
+  private NavigableMap<byte[], byte[]> infoValues;
+
+  /** size of the cells the job was populated from */
+  private long rawSize;
+
   // tasks
   private List<TaskDetails> tasks = new ArrayList<TaskDetails>();
 
@@ -367,6 +432,15 @@ public class JobDetails implements Comparable<JobDetails> {
     this.tasks.addAll(tasks);
   }
 
+  /**
+   * @return the size in bytes of the HBase cells the job was populated from,
+   *         not counting its tasks, 0 if it was not populated from HBase
+   */
+  @JsonIgnore
+  public long getRawSize() {
+    return rawSize;
+  }
+
   public List<TaskDetails> getTasks() {
     return this.tasks;
   }
@@ -379,27 +453,56 @@ public class JobDetails implements Comparable<JobDetails> {
     this.queue = queue;
   }
 
-  public Configuration getConfiguration() {
+  public synchronized Configuration getConfiguration() {
+    if (this.config == null && this.infoValues != null) {
+      this.config = JobHistoryService.parseConfiguration(this.infoValues);
+      releaseInfoValues();
+    }
     return this.config;
   }
 
-  public CounterMap getCounters() {
+  public synchronized CounterMap getCounters() {
+    if (this.counters == null && this.infoValues != null) {
+      this.counters = JobHistoryService.parseCounters(
+          Constants.COUNTER_COLUMN_PREFIX_BYTES, this.infoValues);
+      releaseInfoValues();
+    }
     return this.counters;
   }
 
-  public CounterMap getMapCounters() {
+  public synchronized CounterMap getMapCounters() {
+    if (this.mapCounters == null && this.infoValues != null) {
+      this.mapCounters = JobHistoryService.parseCounters(
+          Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES, this.infoValues);
+      releaseInfoValues();
+    }
     return this.mapCounters;
   }
 
-  public CounterMap getReduceCounters() {
+  public synchronized CounterMap getReduceCounters() {
+    if (this.reduceCounters == null && this.infoValues != null) {
+      this.reduceCounters = JobHistoryService.parseCounters(
+          Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES, this.infoValues);
+      releaseInfoValues();
+    }
     return this.reduceCounters;
   }
 
+  /**
+   * drops the raw job columns once config and all counters have been decoded
+   */
+  private void releaseInfoValues() {
+    if (this.config != null && this.counters != null
+        && this.mapCounters != null && this.reduceCounters != null) {
+      this.infoValues = null;
+    }
+  }
+
   // for JSON deserialization
-  void setConfiguration(Configuration config) { this.config = config; }
-  void setCounters(CounterMap counters) { this.counters = counters; }
-  void setMapCounters(CounterMap mapCounters) { this.mapCounters = mapCounters; }
-  void setReduceCounters(CounterMap reduceCounters) { this.reduceCounters = reduceCounters; }
+  synchronized void setConfiguration(Configuration config) { this.config = config; }
+  synchronized void setCounters(CounterMap counters) { this.counters = counters; }
+  synchronized void setMapCounters(CounterMap mapCounters) { this.mapCounters = mapCounters; }
+  synchronized void setReduceCounters(CounterMap reduceCounters) { this.reduceCounters = reduceCounters; }
   
   /**
    * Do not use, this is for JSON deserialization only.
@@ -431,6 +534,28 @@ public class JobDetails implements Comparable<JobDetails> {
     }
   }
 
+  /**
+   * return the value of a counter column from the NavigableMap as a long,
+   * without decoding the other counters
+   * @param column counter column qualifier
+   * @param infoValues
+   * @return counter value or 0L
+   */
+  private static long getCounterValue(final byte[] column,
+      final NavigableMap<byte[], byte[]> infoValues) {
+    byte[] value = infoValues.get(column);
+    return value == null ? 0L : Bytes.toLong(value);
+  }
+
+  /**
+   * @return the column qualifier of the given counter
+   */
+  private static byte[] counterColumn(String columnPrefix, String group,
+      String name) {
+    return Bytes.toBytes(columnPrefix + Constants.SEP + group + Constants.SEP
+        + name);
+  }
+
   /**
    * return an enum value from the NavigableMap for hadoop version
    * @param key
@@ -450,10 +575,22 @@ public class JobDetails implements Comparable<JobDetails> {
     }
   }
 
-  /** TODO: refactor this out into a data access layer */
+  /**
+   * Populates the job from its job_history row. The job configuration and
+   * counters are only decoded when first accessed.
+   * TODO: refactor this out into a data access layer
+   */
   public void populate(Result result) {
     // process job-level stats and properties
     NavigableMap<byte[], byte[]> infoValues = result.getFamilyMap(Constants.INFO_FAM_BYTES);
+    long size = 0L;
+    Cell[] cells = result.rawCells();
+    if (cells != null) {
+      for (Cell cell : cells) {
+        size += CellUtil.estimatedSerializedSizeOf(cell);
+      }
+    }
+    this.rawSize = size;
 
     this.jobId = ByteUtil.getValueAsString(JobHistoryKeys.KEYS_TO_BYTES
           .get(JobHistoryKeys.JOBID), infoValues);
@@ -499,81 +636,37 @@ public class JobDetails implements Comparable<JobDetails> {
         ByteUtil.getValueAsLong(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FAILED_REDUCES),
           infoValues);
 
-    this.config = JobHistoryService.parseConfiguration(infoValues);
-    this.queue = this.config.get(Constants.HRAVEN_QUEUE);
-    this.counters = JobHistoryService.parseCounters(Constants.COUNTER_COLUMN_PREFIX_BYTES,
-        infoValues);
-    this.mapCounters = JobHistoryService.parseCounters(Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES,
-        infoValues);
-    this.reduceCounters = JobHistoryService.parseCounters(Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES,
-        infoValues);
+    // config and counters are decoded on first access, the job stats are
+    // read straight from their counter columns
+    synchronized (this) {
+      this.infoValues = infoValues;
+      this.config = null;
+      this.counters = null;
+      this.mapCounters = null;
+      this.reduceCounters = null;
+    }
+    this.queue = ByteUtil.getValueAsString(QUEUE_COLUMN, infoValues);
 
     // populate stats from counters for this job based on
     // hadoop version
     if (this.hadoopVersion == HadoopVersion.TWO) {
-      // map file bytes read
-      this.mapFileBytesRead = getCounterValueAsLong(this.mapCounters, 
-            Constants.FILESYSTEM_COUNTER_HADOOP2, Constants.FILES_BYTES_READ);
-
-      // map file bytes written
-      this.mapFileBytesWritten = getCounterValueAsLong(this.mapCounters,
-            Constants.FILESYSTEM_COUNTER_HADOOP2, Constants.FILES_BYTES_WRITTEN);
-
-      // reduce file bytes read
-      this.reduceFileBytesRead = getCounterValueAsLong(this.reduceCounters,
-            Constants.FILESYSTEM_COUNTER_HADOOP2, Constants.FILES_BYTES_READ);
-
-      // hdfs bytes read
-      this.hdfsBytesRead = getCounterValueAsLong(this.counters, Constants.FILESYSTEM_COUNTER_HADOOP2,
-            Constants.HDFS_BYTES_READ);
-
-      // hdfs bytes written
-      this.hdfsBytesWritten = getCounterValueAsLong(this.counters, Constants.FILESYSTEM_COUNTER_HADOOP2,
-            Constants.HDFS_BYTES_WRITTEN);
-
-      // map slot millis
-      this.mapSlotMillis = getCounterValueAsLong(this.counters, Constants.JOB_COUNTER_HADOOP2,
-            Constants.SLOTS_MILLIS_MAPS);
-
-      // reduce slot millis
-      this.reduceSlotMillis = getCounterValueAsLong(this.counters, Constants.JOB_COUNTER_HADOOP2,
-            Constants.SLOTS_MILLIS_REDUCES);
-
-      // reduce shuffle bytes
-      this.reduceShuffleBytes = getCounterValueAsLong(this.reduceCounters, Constants.TASK_COUNTER_HADOOP2,
-            Constants.REDUCE_SHUFFLE_BYTES);
+      this.mapFileBytesRead = getCounterValue(MAP_FILE_BYTES_READ_HADOOP2, infoValues);
+      this.mapFileBytesWritten = getCounterValue(MAP_FILE_BYTES_WRITTEN_HADOOP2, infoValues);
+      this.reduceFileBytesRead = getCounterValue(REDUCE_FILE_BYTES_READ_HADOOP2, infoValues);
+      this.hdfsBytesRead = getCounterValue(HDFS_BYTES_READ_HADOOP2, infoValues);
+      this.hdfsBytesWritten = getCounterValue(HDFS_BYTES_WRITTEN_HADOOP2, infoValues);
+      this.mapSlotMillis = getCounterValue(SLOTS_MILLIS_MAPS_HADOOP2, infoValues);
+      this.reduceSlotMillis = getCounterValue(SLOTS_MILLIS_REDUCES_HADOOP2, infoValues);
+      this.reduceShuffleBytes = getCounterValue(REDUCE_SHUFFLE_BYTES_HADOOP2, infoValues);
     } else { // presume it's hadoop1
-      // map file bytes read
-      this.mapFileBytesRead = getCounterValueAsLong(this.mapCounters, Constants.FILESYSTEM_COUNTERS,
-            Constants.FILES_BYTES_READ);
-
-      // map file bytes written
-      this.mapFileBytesWritten = getCounterValueAsLong(this.mapCounters, Constants.FILESYSTEM_COUNTERS,
-            Constants.FILES_BYTES_WRITTEN);
-
-      // reduce file bytes read
-      this.reduceFileBytesRead = getCounterValueAsLong(this.reduceCounters, Constants.FILESYSTEM_COUNTERS,
-            Constants.FILES_BYTES_READ);
-
-      // hdfs bytes read
-      this.hdfsBytesRead = getCounterValueAsLong(this.counters, Constants.FILESYSTEM_COUNTERS,
-            Constants.HDFS_BYTES_READ);
-
-      // hdfs bytes written
-      this.hdfsBytesWritten = getCounterValueAsLong(this.counters, Constants.FILESYSTEM_COUNTERS,
-            Constants.HDFS_BYTES_WRITTEN);
-
-      // map slot millis
-      this.mapSlotMillis = getCounterValueAsLong(this.counters, Constants.JOBINPROGRESS_COUNTER,
-            Constants.SLOTS_MILLIS_MAPS);
-
-      // reduce slot millis
-      this.reduceSlotMillis = getCounterValueAsLong(this.counters, Constants.JOBINPROGRESS_COUNTER,
-            Constants.SLOTS_MILLIS_REDUCES);
-
-      // reduce shuffle bytes
-      this.reduceShuffleBytes = getCounterValueAsLong(this.reduceCounters, Constants.TASK_COUNTER,
-            Constants.REDUCE_SHUFFLE_BYTES);
+      this.mapFileBytesRead = getCounterValue(MAP_FILE_BYTES_READ, infoValues);
+      this.mapFileBytesWritten = getCounterValue(MAP_FILE_BYTES_WRITTEN, infoValues);
+      this.reduceFileBytesRead = getCounterValue(REDUCE_FILE_BYTES_READ, infoValues);
+      this.hdfsBytesRead = getCounterValue(HDFS_BYTES_READ, infoValues);
+      this.hdfsBytesWritten = getCounterValue(HDFS_BYTES_WRITTEN, infoValues);
+      this.mapSlotMillis = getCounterValue(SLOTS_MILLIS_MAPS, infoValues);
+      this.reduceSlotMillis = getCounterValue(SLOTS_MILLIS_REDUCES, infoValues);
+      this.reduceShuffleBytes = getCounterValue(REDUCE_SHUFFLE_BYTES, infoValues);
     }
     // populate the task-level data
     // TODO: make sure to properly implement setTasks(...) before adding TaskDetails
@@ -17,6 +17,8 @@ package com.twitter.hraven;
 
 import org.apache.hadoop.conf.Configuration;
 
+import com.twitter.hraven.util.JobConfProperties;
+
 /**
  * Used to create {@link JobKey} instances that can deal with
  * {@link Configuration} file (contents) for {@link Framework#NONE}
@@ -29,11 +31,11 @@ public class MRJobDescFactory extends JobDescFactoryBase {
    * 
    * @see
    * com.twitter.hraven.JobKeyFactoryBase#create(com.twitter.corestorage
-   * .rhaven.QualifiedJobId, long, org.apache.hadoop.conf.Configuration)
+   * .rhaven.QualifiedJobId, long, com.twitter.hraven.util.JobConfProperties)
    */
   @Override
   JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
-      Configuration jobConf) {
+      JobConfProperties jobConf) {
     // TODO: Get the actual values appropriate for the plain Hadoop jobs.
 
     String appId = getAppId(jobConf);
@@ -20,6 +20,8 @@ import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
 
+import com.twitter.hraven.util.JobConfProperties;
+
 /**
  * Used to {@link JobKey} instances that can deal with {@link Configuration}
  * file (contents) for {@link Framework#PIG}
@@ -39,7 +41,7 @@ public class PigJobDescFactory extends JobDescFactoryBase {
    * 
    * @see
    * com.twitter.hraven.JobKeyFactoryBase#create(com.twitter.corestorage
-   * .rhaven.QualifiedJobId, long, org.apache.hadoop.conf.Configuration)
+   * .rhaven.QualifiedJobId, long, com.twitter.hraven.util.JobConfProperties)
    */
   @Override
   public JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
@@ -20,6 +20,7 @@ import java.util.Map;
 import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
@@ -54,6 +55,9 @@ public class TaskDetails implements Comparable<TaskDetails> {
   private long shuffleFinished;
   private long sortFinished;
 
+  /** size of the column names and values the task was populated from */
+  private long rawSize;
+
   @JsonCreator
   public TaskDetails(@JsonProperty("taskKey") TaskKey taskKey) {
     this.taskKey = taskKey;
@@ -216,6 +220,15 @@ public class TaskDetails implements Comparable<TaskDetails> {
     this.sortFinished = sortFinished;
   }
 
+  /**
+   * @return the size in bytes of the column names and values the task was
+   *         populated from, 0 if it was not populated from HBase
+   */
+  @JsonIgnore
+  public long getRawSize() {
+    return rawSize;
+  }
+
   /**
    * Looks through the hbase result's map of task details
    * and populates fields of {@link TaskDetails}
@@ -223,6 +236,12 @@ public class TaskDetails implements Comparable<TaskDetails> {
    */
   public void populate(Map<byte[],byte[]> taskValues) {
 
+    long size = 0L;
+    for (Map.Entry<byte[], byte[]> taskValue : taskValues.entrySet()) {
+      size += taskValue.getKey().length + taskValue.getValue().length;
+    }
+    this.rawSize = size;
+
     this.taskId = ByteUtil.getValueAsString(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TASKID),
       taskValues);
     this.type = ByteUtil.getValueAsString(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TASK_TYPE),
@@ -0,0 +1,147 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.twitter.hraven.AggregationConstants;
+import com.twitter.hraven.AppAggregationKey;
+import com.twitter.hraven.JobDetails;
+
+/**
+ * The stats of one or more jobs of an app, summed up for one row of the daily
+ * or weekly aggregation table. The jobs are added to the row together by
+ * {@link AppSummaryService#aggregate(AggregationConstants.AGGREGATION_TYPE, java.util.Collection)}.
+ */
+public class AppAggregation {
+
+  private final AggregationConstants.AGGREGATION_TYPE aggType;
+  private final AppAggregationKey key;
+
+  private long totalJobs;
+  private long totalMaps;
+  private long totalReduces;
+  private long megabyteMillis;
+  private long mapSlotMillis;
+  private long reduceSlotMillis;
+  private double cost;
+  /** number of jobs per run id */
+  private final Map<Long, Long> runJobs = new TreeMap<Long, Long>();
+  private final Set<String> queues = new LinkedHashSet<String>();
+  /** the raw rows the jobs were read from */
+  private final List<byte[]> sourceRows = new ArrayList<byte[]>();
+
+  public AppAggregation(AggregationConstants.AGGREGATION_TYPE aggType,
+      AppAggregationKey key) {
+    this.aggType = aggType;
+    this.key = key;
+  }
+
+  /**
+   * Adds the stats of a job of this app and aggregation period.
+   *
+   * @param jobDetails the job
+   * @param sourceRow the raw row of the job, may be {@code null}
+   */
+  public void add(JobDetails jobDetails, byte[] sourceRow) {
+    totalJobs++;
+    totalMaps += jobDetails.getTotalMaps();
+    totalReduces += jobDetails.getTotalReduces();
+    megabyteMillis += jobDetails.getMegabyteMillis();
+    mapSlotMillis += jobDetails.getMapSlotMillis();
+    reduceSlotMillis += jobDetails.getReduceSlotMillis();
+    cost += jobDetails.getCost();
+
+    long runId = jobDetails.getJobKey().getRunId();
+    Long jobs = runJobs.get(runId);
+    runJobs.put(runId, jobs == null ? 1L : jobs + 1L);
+
+    if (jobDetails.getQueue() != null) {
+      queues.add(jobDetails.getQueue());
+    }
+    if (sourceRow != null) {
+      sourceRows.add(sourceRow);
+    }
+  }
+
+  public AggregationConstants.AGGREGATION_TYPE getAggType() {
+    return aggType;
+  }
+
+  public AppAggregationKey getKey() {
+    return key;
+  }
+
+  public long getTotalJobs() {
+    return totalJobs;
+  }
+
+  public long getTotalMaps() {
+    return totalMaps;
+  }
+
+  public long getTotalReduces() {
+    return totalReduces;
+  }
+
+  public long getMegabyteMillis() {
+    return megabyteMillis;
+  }
+
+  public long getMapSlotMillis() {
+    return mapSlotMillis;
+  }
+
+  public long getReduceSlotMillis() {
+    return reduceSlotMillis;
+  }
+
+  public double getCost() {
+    return cost;
+  }
+
+  /**
+   * @return the number of jobs of each run
+   */
+  public Map<Long, Long> getRunJobs() {
+    return Collections.unmodifiableMap(runJobs);
+  }
+
+  /**
+   * @return the queues the jobs ran in, in the order they were seen
+   */
+  public Set<String> getQueues() {
+    return Collections.unmodifiableSet(queues);
+  }
+
+  /**
+   * @return the raw rows of the jobs
+   */
+  public List<byte[]> getSourceRows() {
+    return Collections.unmodifiableList(sourceRows);
+  }
+
+  @Override
+  public String toString() {
+    return aggType + " aggregation of " + totalJobs + " jobs for " + key;
+  }
+}
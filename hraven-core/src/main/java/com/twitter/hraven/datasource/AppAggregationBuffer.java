@@ -0,0 +1,131 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.twitter.hraven.AggregationConstants;
+import com.twitter.hraven.AppAggregationKey;
+import com.twitter.hraven.JobDetails;
+
+/**
+ * Combines the aggregations of the jobs processed by a map task, so that all
+ * jobs of an app and aggregation period are written to their aggregation table
+ * row at once. The buffer is full when it holds a given number of jobs or its
+ * oldest job was added a given time ago, and has to be flushed then and
+ * before the task finishes.
+ * <p>
+ * Not thread safe.
+ */
+public class AppAggregationBuffer {
+
+  private final AppSummaryService appSummaryService;
+  private final int maxJobs;
+  private final long maxMillis;
+
+  /** aggregations by row, per aggregation table */
+  private final Map<AggregationConstants.AGGREGATION_TYPE, Map<byte[], AppAggregation>> aggregations =
+      new EnumMap<AggregationConstants.AGGREGATION_TYPE, Map<byte[], AppAggregation>>(
+          AggregationConstants.AGGREGATION_TYPE.class);
+  private final AppAggregationKeyConverter aggConv =
+      new AppAggregationKeyConverter();
+
+  private int jobs = 0;
+  private long firstAddMillis = 0L;
+
+  /**
+   * @param appSummaryService writes the aggregations
+   * @param maxJobs number of jobs at which the buffer is full
+   * @param maxMillis time after the first add at which the buffer is full
+   */
+  public AppAggregationBuffer(AppSummaryService appSummaryService,
+      int maxJobs, long maxMillis) {
+    this.appSummaryService = appSummaryService;
+    this.maxJobs = maxJobs;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * Adds a job to the aggregation of its app.
+   *
+   * @param jobDetails the job
+   * @param aggType the aggregation table to add it to
+   * @param sourceRow the raw row of the job, returned with its aggregation
+   *          once written
+   */
+  public void add(JobDetails jobDetails,
+      AggregationConstants.AGGREGATION_TYPE aggType, byte[] sourceRow) {
+    Map<byte[], AppAggregation> rows = aggregations.get(aggType);
+    if (rows == null) {
+      // row keys rather than app keys, which ignore the aggregation period
+      rows = new TreeMap<byte[], AppAggregation>(Bytes.BYTES_COMPARATOR);
+      aggregations.put(aggType, rows);
+    }
+    AppAggregationKey key =
+        appSummaryService.getAggregationKey(jobDetails.getJobKey(), aggType);
+    byte[] rowKey = aggConv.toBytes(key);
+    AppAggregation aggregation = rows.get(rowKey);
+    if (aggregation == null) {
+      aggregation = new AppAggregation(aggType, key);
+      rows.put(rowKey, aggregation);
+    }
+    aggregation.add(jobDetails, sourceRow);
+
+    if (jobs == 0) {
+      firstAddMillis = System.currentTimeMillis();
+    }
+    jobs++;
+  }
+
+  /**
+   * @return the number of jobs added since the last flush
+   */
+  public int size() {
+    return jobs;
+  }
+
+  /**
+   * @return whether the buffer should be flushed
+   */
+  public boolean isFull() {
+    return jobs > 0 && (jobs >= maxJobs
+        || System.currentTimeMillis() - firstAddMillis >= maxMillis);
+  }
+
+  /**
+   * Writes the buffered aggregations and empties the buffer.
+   *
+   * @return the aggregations that were written, the jobs of the others were
+   *         not aggregated and may be aggregated again
+   */
+  public List<AppAggregation> flush() {
+    List<AppAggregation> written = new ArrayList<AppAggregation>();
+    for (Map.Entry<AggregationConstants.AGGREGATION_TYPE, Map<byte[], AppAggregation>> rows : aggregations
+        .entrySet()) {
+      written.addAll(appSummaryService.aggregate(rows.getKey(),
+          rows.getValue().values()));
+    }
+    aggregations.clear();
+    jobs = 0;
+    return written;
+  }
+}
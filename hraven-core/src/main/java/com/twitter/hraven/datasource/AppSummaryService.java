@@ -18,10 +18,18 @@ package com.twitter.hraven.datasource;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
@@ -29,6 +37,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.Get;
@@ -36,6 +45,7 @@ import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.filter.CompareFilter;
@@ -46,11 +56,13 @@ import org.apache.hadoop.hbase.filter.WhileMatchFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.twitter.hraven.AggregationConstants;
 import com.twitter.hraven.AppAggregationKey;
 import com.twitter.hraven.AppKey;
 import com.twitter.hraven.AppSummary;
 import com.twitter.hraven.Constants;
+import com.twitter.hraven.EndpointMetrics;
 import com.twitter.hraven.Flow;
 import com.twitter.hraven.JobDetails;
 import com.twitter.hraven.JobKey;
@@ -64,6 +76,12 @@ public class AppSummaryService {
 
   private final Connection hbaseConnection;
 
+  /** how many apps are summarized at the same time */
+  private final int newAppsThreads;
+
+  /** summarizes the apps of all calls to {@link #getNewApps} */
+  private final ExecutorService newAppsExecutor;
+
   private AppAggregationKeyConverter aggConv = new AppAggregationKeyConverter();
 
   /**
@@ -79,6 +97,21 @@ public class AppSummaryService {
   public AppSummaryService(Connection hbaseConnection)
       throws IOException {
     this.hbaseConnection = hbaseConnection;
+    this.newAppsThreads = Math.max(1,
+        hbaseConnection.getConfiguration().getInt(
+            Constants.NEW_APPS_THREADS_CONF_KEY,
+            Constants.DEFAULT_NEW_APPS_THREADS));
+    // the threads are only started once apps are summarized
+    this.newAppsExecutor = Executors.newFixedThreadPool(newAppsThreads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("hraven-newapps-%d").build());
+  }
+
+  /**
+   * Stops the threads summarizing new apps.
+   */
+  public void close() {
+    newAppsExecutor.shutdownNow();
   }
 
   /**
@@ -123,19 +156,81 @@ public class AppSummaryService {
               + e.toString());
     }
 
-    List<AppSummary> newApps = new ArrayList<AppSummary>();
-    for (AppKey ak : newAppsKeys) {
-      AppSummary anApp = new AppSummary(ak);
-      List<Flow> flows =
-          jhs.getFlowSeries(ak.getCluster(), ak.getUserName(), ak.getAppId(),
-              null, Boolean.FALSE, startTime, endTime, Integer.MAX_VALUE);
-      for (Flow f : flows) {
-        anApp.addFlow(f);
+    return summarizeApps(jhs, newAppsKeys, startTime, endTime);
+  }
+
+  /**
+   * Summarizes the flows of each app within the time range. The flow scans
+   * for the apps are issued in parallel, up to
+   * {@link Constants#NEW_APPS_THREADS_CONF_KEY} at a time for all callers of
+   * this service, and only read the job columns needed for the summary.
+   *
+   * @param jhs the job history service to read the flows from
+   * @param appKeys the apps to summarize
+   * @param startTime the start time for the flows to be looked at
+   * @param endTime the end time for the flows to be looked at
+   * @return app summaries in the same order as the app keys
+   * @throws IOException
+   */
+  List<AppSummary> summarizeApps(final JobHistoryService jhs,
+      List<AppKey> appKeys, final long startTime, final long endTime)
+      throws IOException {
+    List<AppSummary> newApps = new ArrayList<AppSummary>(appKeys.size());
+    if (appKeys.isEmpty()) {
+      return newApps;
+    }
+
+    // the scans of the pool threads are done for the current request
+    final EndpointMetrics.Request request = EndpointMetrics.currentRequest();
+    Stopwatch timer = new Stopwatch().start();
+    List<Future<AppSummary>> appFutures =
+        new ArrayList<Future<AppSummary>>(appKeys.size());
+    try {
+      for (final AppKey ak : appKeys) {
+        appFutures.add(newAppsExecutor.submit(new Callable<AppSummary>() {
+          @Override
+          public AppSummary call() throws IOException {
+            EndpointMetrics.Request previous =
+                EndpointMetrics.setCurrentRequest(request);
+            try {
+              AppSummary anApp = new AppSummary(ak);
+              List<Flow> flows = jhs.getFlowSummarySeries(ak.getCluster(),
+                  ak.getUserName(), ak.getAppId(), startTime, endTime,
+                  Integer.MAX_VALUE);
+              for (Flow f : flows) {
+                anApp.addFlow(f);
+              }
+              return anApp;
+            } finally {
+              EndpointMetrics.setCurrentRequest(previous);
+            }
+          }
+        }));
+      }
+
+      for (Future<AppSummary> appFuture : appFutures) {
+        newApps.add(appFuture.get());
       }
-      newApps.add(anApp);
+    } catch (RejectedExecutionException e) {
+      throw new IOException("Cannot summarize new apps once closed", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while summarizing new apps", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to summarize new apps", e.getCause());
+    } finally {
+      // the apps left are not needed once one failed
+      for (Future<AppSummary> appFuture : appFutures) {
+        appFuture.cancel(true);
+      }
+      timer.stop();
     }
+    LOG.info("Summarized " + appKeys.size() + " apps with up to "
+        + newAppsThreads + " threads in " + timer);
     return newApps;
-
   }
 
   /**
@@ -160,12 +255,17 @@ public class AppSummaryService {
       versionsTable = hbaseConnection
           .getTable(TableName.valueOf(Constants.HISTORY_APP_VERSION_TABLE));
       scanner = versionsTable.getScanner(scan);
+      // cluster, user, app and remainder start and end positions of a row
+      int[] boundaries = new int[8];
       for (Result result : scanner) {
         if (result != null && !result.isEmpty()) {
           rowCount++;
           colCount += result.size();
-          // TODO dogpiledays resultSize += result.getWritableSize();
-          AppKey appKey = getNewAppKeyFromResult(result, startTime, endTime);
+          for (Cell cell : result.rawCells()) {
+            resultSize += KeyValueUtil.length(cell);
+          }
+          AppKey appKey = getNewAppKeyFromResult(result, startTime, endTime,
+              boundaries);
           if (appKey != null) {
             newAppsKeys.add(appKey);
           }
@@ -175,6 +275,7 @@ public class AppSummaryService {
         }
       }
       timer.stop();
+      EndpointMetrics.recordScan(rowCount, colCount);
       LOG.info(" Fetched from hbase " + rowCount + " rows, " + colCount
           + " columns, " + resultSize + " bytes ( " + resultSize / (1024 * 1024)
           + ") MB, in total time of " + timer);
@@ -196,17 +297,12 @@ public class AppSummaryService {
    * @param result
    * @param startTime
    * @param endTime
+   * @param boundaries reused for the segment positions of every row
    * @return flow key
    * @throws IOException
    */
   private AppKey getNewAppKeyFromResult(Result result, long startTime,
-      long endTime) throws IOException {
-
-    byte[] rowKey = result.getRow();
-    byte[][] keyComponents = ByteUtil.split(rowKey, Constants.SEP_BYTES);
-    String cluster = Bytes.toString(keyComponents[0]);
-    String user = Bytes.toString(keyComponents[1]);
-    String appId = Bytes.toString(keyComponents[2]);
+      long endTime, int[] boundaries) throws IOException {
 
     NavigableMap<byte[], byte[]> valueMap =
         result.getFamilyMap(Constants.INFO_FAM_BYTES);
@@ -218,11 +314,25 @@ public class AppSummaryService {
         runId = tsl;
       }
     }
-    if ((runId >= startTime) && (runId <= endTime)) {
-      AppKey ak = new AppKey(cluster, user, appId);
-      return ak;
+    if ((runId < startTime) || (runId > endTime)) {
+      return null;
     }
-    return null;
+
+    // locate cluster!user!appId without copying the row
+    Cell firstCell = result.rawCells()[0];
+    byte[] rowArray = firstCell.getRowArray();
+    int segments = ByteUtil.splitOffsets(rowArray, firstCell.getRowOffset(),
+        firstCell.getRowLength(), Constants.SEP_BYTES, boundaries);
+    if (segments < 3) {
+      LOG.warn("Skipping app version row without cluster, user and app "
+          + Bytes.toStringBinary(rowArray, firstCell.getRowOffset(),
+              firstCell.getRowLength()));
+      return null;
+    }
+    return new AppKey(
+        Bytes.toString(rowArray, boundaries[0], boundaries[1] - boundaries[0]),
+        Bytes.toString(rowArray, boundaries[2], boundaries[3] - boundaries[2]),
+        Bytes.toString(rowArray, boundaries[4], boundaries[5] - boundaries[4]));
   }
 
   /**
@@ -232,33 +342,127 @@ public class AppSummaryService {
    */
   public boolean aggregateJobDetails(JobDetails jobDetails,
       AggregationConstants.AGGREGATION_TYPE aggType) {
+    AppAggregation aggregation = new AppAggregation(aggType,
+        getAggregationKey(jobDetails.getJobKey(), aggType));
+    aggregation.add(jobDetails, null);
+    return !aggregate(aggType, Collections.singletonList(aggregation))
+        .isEmpty();
+  }
+
+  /**
+   * @return the key of the aggregation table row the job is aggregated into
+   */
+  public AppAggregationKey getAggregationKey(JobKey jobKey,
+      AggregationConstants.AGGREGATION_TYPE aggType) {
+    return new AppAggregationKey(jobKey.getCluster(), jobKey.getUserName(),
+        jobKey.getAppId(), getTimestamp(jobKey.getRunId(), aggType));
+  }
+
+  /**
+   * Adds the aggregated job stats to their rows in the daily or weekly
+   * aggregation table. The steps that can be repeated are written first: the
+   * user and app id of all rows in one batch, then the queues of each row.
+   * The counters of all rows are then incremented in one batch, an
+   * aggregation is written once its increment succeeded. The cost of each
+   * written row is added last, a failure to do so is logged but the
+   * aggregation still counts as written so that its jobs are not counted
+   * again when they are aggregated again.
+   *
+   * @param aggType the aggregation table to write to
+   * @param aggregations the aggregations, for distinct rows
+   * @return the aggregations that were written. The others failed, errors are
+   *         logged rather than thrown so that processing is unaffected by
+   *         aggregation errors.
+   */
+  public List<AppAggregation> aggregate(
+      AggregationConstants.AGGREGATION_TYPE aggType,
+      Collection<AppAggregation> aggregations) {
+    List<AppAggregation> written =
+        new ArrayList<AppAggregation>(aggregations.size());
+    if (aggregations.isEmpty()) {
+      return written;
+    }
+
+    TableName tableName = null;
+    switch (aggType) {
+    case DAILY:
+      tableName = TableName.valueOf(AggregationConstants.AGG_DAILY_TABLE);
+      break;
+    case WEEKLY:
+      tableName = TableName.valueOf(AggregationConstants.AGG_WEEKLY_TABLE);
+      break;
+    default:
+      LOG.error("Unknown aggregation type : " + aggType);
+      return written;
+    }
+
     Table aggTable = null;
     try {
-      switch (aggType) {
-      case DAILY:
-        aggTable = hbaseConnection
-            .getTable(TableName.valueOf(AggregationConstants.AGG_DAILY_TABLE));
-        break;
-      case WEEKLY:
-        aggTable = hbaseConnection
-            .getTable(TableName.valueOf(AggregationConstants.AGG_WEEKLY_TABLE));
-        ;
-        break;
-      default:
-        LOG.error("Unknown aggregation type : " + aggType);
-        return false;
+      aggTable = hbaseConnection.getTable(tableName);
+      LOG.info("Aggregating " + aggType + " stats of " + aggregations.size()
+          + " apps");
+
+      // a put for username, appid per row
+      List<AppAggregation> batched =
+          new ArrayList<AppAggregation>(aggregations);
+      List<Row> puts = new ArrayList<Row>(batched.size());
+      for (AppAggregation aggregation : batched) {
+        Put p = new Put(aggConv.toBytes(aggregation.getKey()));
+        p.addColumn(Constants.INFO_FAM_BYTES, AggregationConstants.USER_BYTES,
+            Bytes.toBytes(aggregation.getKey().getUserName()));
+        p.addColumn(Constants.INFO_FAM_BYTES,
+            AggregationConstants.APP_ID_COL_BYTES,
+            Bytes.toBytes(aggregation.getKey().getAppId()));
+        puts.add(p);
+      }
+      Object[] putResults = batch(aggTable, aggType, puts);
+
+      // the queues of the rows that were put
+      List<AppAggregation> queued =
+          new ArrayList<AppAggregation>(batched.size());
+      for (int i = 0; i < batched.size(); i++) {
+        AppAggregation aggregation = batched.get(i);
+        if (!(putResults[i] instanceof Result)) {
+          LOG.error("Could not write " + aggregation + ", put: "
+              + putResults[i]);
+          continue;
+        }
+        try {
+          updateQueues(aggTable, aggregation);
+          queued.add(aggregation);
+        } catch (IOException ioe) {
+          LOG.error("Caught exception while attempting to aggregate "
+              + aggregation, ioe);
+        }
       }
 
-      // create row key
-      JobKey jobKey = jobDetails.getJobKey();
-      AppAggregationKey appAggKey =
-          new AppAggregationKey(jobKey.getCluster(), jobKey.getUserName(),
-              jobKey.getAppId(), getTimestamp(jobKey.getRunId(), aggType));
-      LOG.info("Aggregating " + aggType + " stats for  " + jobKey.toString());
-      Increment aggIncrement = incrementAppSummary(appAggKey, jobDetails);
-      aggTable.increment(aggIncrement);
-      boolean status = updateMoreAggInfo(aggTable, appAggKey, jobDetails);
-      return status;
+      // one increment per row with queues, once it succeeded the aggregation
+      // must not be written again
+      List<Row> increments = new ArrayList<Row>(queued.size());
+      for (AppAggregation aggregation : queued) {
+        increments.add(incrementAppSummary(
+            aggConv.toBytes(aggregation.getKey()), aggregation));
+      }
+      Object[] incrementResults = batch(aggTable, aggType, increments);
+
+      for (int i = 0; i < queued.size(); i++) {
+        AppAggregation aggregation = queued.get(i);
+        if (!(incrementResults[i] instanceof Result)) {
+          LOG.error("Could not write " + aggregation + ", increment: "
+              + incrementResults[i]);
+          continue;
+        }
+        written.add(aggregation);
+        try {
+          updateCost(aggTable, aggregation);
+        } catch (IOException ioe) {
+          LOG.error("Caught exception while attempting to add the cost of "
+              + aggregation, ioe);
+        }
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      LOG.error("Interrupted while aggregating for " + aggType + " table ", ie);
     }
     /*
      * try to catch all exceptions so that processing is unaffected by
@@ -268,7 +472,6 @@ public class AppSummaryService {
     catch (Exception e) {
       LOG.error("Caught exception while attempting to aggregate for " + aggType
           + " table ", e);
-      return false;
     } finally {
       if (aggTable != null) {
         try {
@@ -278,6 +481,30 @@ public class AppSummaryService {
         }
       }
     }
+    return written;
+  }
+
+  /**
+   * runs the actions in one batch
+   * @return the results of the actions, the failed ones are not a
+   *         {@link Result}
+   * @throws InterruptedException
+   */
+  private Object[] batch(Table aggTable,
+      AggregationConstants.AGGREGATION_TYPE aggType, List<Row> actions)
+      throws InterruptedException {
+    Object[] results = new Object[actions.size()];
+    if (actions.isEmpty()) {
+      return results;
+    }
+    try {
+      aggTable.batch(actions, results);
+    } catch (IOException ioe) {
+      // the results tell which of the actions failed
+      LOG.error("Caught exception while attempting to aggregate for "
+          + aggType + " table ", ioe);
+    }
+    return results;
   }
 
   /**
@@ -306,54 +533,69 @@ public class AppSummaryService {
    * @return queue list
    */
   String createQueueListValue(JobDetails jobDetails, String existingQueues) {
-    /*
-     * check if queue already exists append separator at the end to avoid
-     * "false" queue match via substring match
-     */
-    String queue = jobDetails.getQueue();
-    queue = queue.concat(Constants.SEP);
-
-    if (existingQueues == null) {
-      return queue;
-    }
+    return createQueueListValue(Collections.singleton(jobDetails.getQueue()),
+        existingQueues);
+  }
 
-    if (!existingQueues.contains(queue)) {
-      existingQueues = existingQueues.concat(queue);
+  /**
+   * looks at {@Link String} to see if the queue names already are stored, if
+   * not, adds them
+   * @param queues the queue names to add
+   * @param existingQueues the stored queue list, {@code null} if none
+   * @return queue list
+   */
+  String createQueueListValue(Collection<String> queues,
+      String existingQueues) {
+    for (String queue : queues) {
+      /*
+       * check if queue already exists append separator at the end to avoid
+       * "false" queue match via substring match
+       */
+      queue = queue.concat(Constants.SEP);
+
+      if (existingQueues == null) {
+        existingQueues = queue;
+      } else if (!existingQueues.contains(queue)) {
+        existingQueues = existingQueues.concat(queue);
+      }
     }
     return existingQueues;
   }
 
   /**
    * creates an Increment to aggregate job details
-   * @param {@link AppAggregationKey}
-   * @param {@link JobDetails}
+   * @param rowKey the row of the {@link AppAggregationKey}
+   * @param {@link AppAggregation}
    * @return {@link Increment}
    */
-  private Increment incrementAppSummary(AppAggregationKey appAggKey,
-      JobDetails jobDetails) {
-    Increment aggIncrement = new Increment(aggConv.toBytes(appAggKey));
+  private Increment incrementAppSummary(byte[] rowKey,
+      AppAggregation aggregation) {
+    Increment aggIncrement = new Increment(rowKey);
     aggIncrement.addColumn(Constants.INFO_FAM_BYTES,
-        AggregationConstants.TOTAL_MAPS_BYTES, jobDetails.getTotalMaps());
+        AggregationConstants.TOTAL_MAPS_BYTES, aggregation.getTotalMaps());
     aggIncrement.addColumn(Constants.INFO_FAM_BYTES,
-        AggregationConstants.TOTAL_REDUCES_BYTES, jobDetails.getTotalReduces());
+        AggregationConstants.TOTAL_REDUCES_BYTES,
+        aggregation.getTotalReduces());
     aggIncrement.addColumn(Constants.INFO_FAM_BYTES,
         AggregationConstants.MEGABYTEMILLIS_BYTES,
-        jobDetails.getMegabyteMillis());
+        aggregation.getMegabyteMillis());
     aggIncrement.addColumn(Constants.INFO_FAM_BYTES,
         AggregationConstants.SLOTS_MILLIS_MAPS_BYTES,
-        jobDetails.getMapSlotMillis());
+        aggregation.getMapSlotMillis());
     aggIncrement.addColumn(Constants.INFO_FAM_BYTES,
         AggregationConstants.SLOTS_MILLIS_REDUCES_BYTES,
-        jobDetails.getReduceSlotMillis());
+        aggregation.getReduceSlotMillis());
     aggIncrement.addColumn(Constants.INFO_FAM_BYTES,
-        AggregationConstants.SLOTS_MILLIS_REDUCES_BYTES,
-        jobDetails.getReduceSlotMillis());
+        AggregationConstants.TOTAL_JOBS_BYTES, aggregation.getTotalJobs());
+    // the number of runs is incremented for every job
     aggIncrement.addColumn(Constants.INFO_FAM_BYTES,
-        AggregationConstants.TOTAL_JOBS_BYTES, 1L);
+        AggregationConstants.NUMBER_RUNS_BYTES, aggregation.getTotalJobs());
 
-    byte[] numberRowsCol = Bytes.toBytes(jobDetails.getJobKey().getRunId());
-    aggIncrement.addColumn(AggregationConstants.SCRATCH_FAM_BYTES,
-        numberRowsCol, 1L);
+    // counts the jobs seen for each run id
+    for (Map.Entry<Long, Long> run : aggregation.getRunJobs().entrySet()) {
+      aggIncrement.addColumn(AggregationConstants.SCRATCH_FAM_BYTES,
+          Bytes.toBytes(run.getKey()), run.getValue());
+    }
 
     return aggIncrement;
   }
@@ -382,55 +624,43 @@ public class AppSummaryService {
     return 0L;
   }
 
+
   /**
-   * creates {@link Put} for inserting additional info into agg tables
-   * @param {@link AppAggregationKey}
-   * @param {@link JobDetails}
-   * @return {@link Put}
+   * updates the queue list of an aggregation table row
+   * @param aggTable the aggregation table
+   * @param aggregation the job stats added to the row
    * @throws IOException
    */
-  boolean updateMoreAggInfo(Table aggTable, AppAggregationKey appAggKey,
-      JobDetails jobDetails) throws IOException {
-
+  void updateQueues(Table aggTable, AppAggregation aggregation)
+      throws IOException {
+    byte[] rowKey = aggConv.toBytes(aggregation.getKey());
     int attempts = 0;
     boolean status = false;
-    // update number of runs
-    while ((!status) && (attempts < AggregationConstants.RETRY_COUNT)) {
-      status = updateNumberRuns(appAggKey, aggTable, jobDetails);
-      attempts++;
-    }
-
-    // update queue
-    attempts = 0;
-    status = false;
     while ((!status) && (attempts < AggregationConstants.RETRY_COUNT)) {
-      status = updateQueue(appAggKey, aggTable, jobDetails);
+      status = updateQueue(rowKey, aggTable, aggregation.getQueues());
       attempts++;
     }
+  }
 
-    // update cost
-    attempts = 0;
-    status = false;
+  /**
+   * adds the cost of the aggregated jobs to an aggregation table row
+   * @param aggTable the aggregation table
+   * @param aggregation the job stats added to the row
+   * @throws IOException
+   */
+  void updateCost(Table aggTable, AppAggregation aggregation)
+      throws IOException {
+    byte[] rowKey = aggConv.toBytes(aggregation.getKey());
+    int attempts = 0;
+    boolean status = false;
     while ((!status) && (attempts < AggregationConstants.RETRY_COUNT)) {
-      status = updateCost(appAggKey, aggTable, jobDetails);
+      status = updateCost(rowKey, aggTable, aggregation.getCost());
       attempts++;
     }
-
-    // create a put for username, appid
-    byte[] rowKey = aggConv.toBytes(appAggKey);
-    Put p = new Put(rowKey);
-    p.addColumn(Constants.INFO_FAM_BYTES, AggregationConstants.USER_BYTES,
-        Bytes.toBytes(appAggKey.getUserName()));
-    p.addColumn(Constants.INFO_FAM_BYTES, AggregationConstants.APP_ID_COL_BYTES,
-        Bytes.toBytes(appAggKey.getAppId()));
-    aggTable.put(p);
-    return true;
   }
 
-  private boolean updateCost(AppAggregationKey appAggKey, Table aggTable,
-      JobDetails jobDetails) throws IOException {
-    byte[] rowKey = aggConv.toBytes(appAggKey);
-
+  private boolean updateCost(byte[] rowKey, Table aggTable, double cost)
+      throws IOException {
     Get g = new Get(rowKey);
     g.addColumn(AggregationConstants.INFO_FAM_BYTES,
         AggregationConstants.JOBCOST_BYTES);
@@ -446,7 +676,7 @@ public class AppSummaryService {
       existingCostBytes = Bytes.toBytes(existingCost);
     }
 
-    double newCost = existingCost + jobDetails.getCost();
+    double newCost = existingCost + cost;
     if (LOG.isTraceEnabled()) {
       LOG.trace(" total app aggregated cost  " + newCost);
     }
@@ -461,9 +691,11 @@ public class AppSummaryService {
    * updates the queue list for this app aggregation
    * @throws IOException
    */
-  boolean updateQueue(AppAggregationKey appAggKey, Table aggTable,
-      JobDetails jobDetails) throws IOException {
-    byte[] rowKey = aggConv.toBytes(appAggKey);
+  boolean updateQueue(byte[] rowKey, Table aggTable, Collection<String> queues)
+      throws IOException {
+    if (queues.isEmpty()) {
+      return true;
+    }
 
     Get g = new Get(rowKey);
     g.addColumn(AggregationConstants.INFO_FAM_BYTES,
@@ -481,7 +713,7 @@ public class AppSummaryService {
     }
 
     // get details for the queue list to be inserted
-    String insertQueues = createQueueListValue(jobDetails, existingQueues);
+    String insertQueues = createQueueListValue(queues, existingQueues);
 
     // if existing and to be inserted queue lists are different, then
     // execute check and put
@@ -524,85 +756,6 @@ public class AppSummaryService {
     return r.getValue(famBytes, colBytes);
   }
 
-  private boolean updateNumberRuns(AppAggregationKey appAggKey, Table aggTable,
-      JobDetails jobDetails) throws IOException {
-
-    byte[] rowKey = aggConv.toBytes(appAggKey);
-
-    Get g = new Get(rowKey);
-    g.addColumn(AggregationConstants.INFO_FAM_BYTES,
-        AggregationConstants.NUMBER_RUNS_BYTES);
-    byte[] numberRowsCol = Bytes.toBytes(jobDetails.getJobKey().getRunId());
-    g.addColumn(AggregationConstants.SCRATCH_FAM_BYTES, numberRowsCol);
-    Result r = aggTable.get(g);
-
-    if (LOG.isTraceEnabled()) {
-      LOG.trace(" jobkey " + jobDetails.getJobKey().toString()
-          + " runid in updateNumberRuns " + jobDetails.getJobKey().getRunId());
-    }
-    long numberRuns = getNumberRunsScratch(
-        r.getFamilyMap(AggregationConstants.SCRATCH_FAM_BYTES));
-    if (numberRuns == 1L) {
-      // generate check and put
-      // since first run id was inserted, we increment the number of runs
-      // it is possible that some other map task inserted
-      // the first run id for a job in this flow
-      // hence we check and put the number of runs in info col family
-      return incrNumberRuns(
-          r.getColumnCells(AggregationConstants.INFO_FAM_BYTES,
-              AggregationConstants.NUMBER_RUNS_BYTES),
-          aggTable, appAggKey);
-    } else {
-      // no need to update, since this was not
-      // the first app seen for this run id
-      return true;
-    }
-  }
-
-  /**
-   * checks and increments the number of runs for this app aggregation. no need
-   * to retry, since another map task may have updated it in the mean time
-   * @throws IOException
-   */
-  boolean incrNumberRuns(List<Cell> column, Table aggTable,
-      AppAggregationKey appAggKey) throws IOException {
-
-    /*
-     * check if this is the very first insert for numbers for this app in that
-     * case, there will no existing column/value for number of run in info col
-     * family null signifies non existence of the column for {@link
-     * Table.checkAndPut}
-     */
-    long expectedValueBeforePut = 0L;
-    if (column.size() > 0) {
-      try {
-        expectedValueBeforePut = Bytes.toLong(column.get(0).getValue());
-      } catch (NumberFormatException e) {
-        LOG.error(
-            "Could not read existing value for number of runs during aggregation"
-                + appAggKey.toString());
-        return false;
-      }
-    }
-
-    byte[] rowKey = aggConv.toBytes(appAggKey);
-
-    long insertValue = 1L;
-    byte[] expectedValueBeforePutBytes = null;
-    if (expectedValueBeforePut != 0L) {
-      insertValue = 1 + expectedValueBeforePut;
-      expectedValueBeforePutBytes = Bytes.toBytes(expectedValueBeforePut);
-    }
-    byte[] insertValueBytes = Bytes.toBytes(insertValue);
-
-    if (LOG.isTraceEnabled()) {
-      LOG.trace(" before statusCheckAndPut " + insertValue + " "
-          + expectedValueBeforePut);
-    }
-    return executeCheckAndPut(aggTable, rowKey, expectedValueBeforePutBytes,
-        insertValueBytes, AggregationConstants.INFO_FAM_BYTES,
-        AggregationConstants.NUMBER_RUNS_BYTES);
-  }
 
   /**
    * gets list of all apps in the specified time frame from the aggregate tables
@@ -667,7 +820,9 @@ public class AppSummaryService {
         if (result != null && !result.isEmpty()) {
           rowCount++;
           colCount += result.size();
-          // TODO dogpile days resultSize += result.getWritableSize();
+          for (Cell cell : result.rawCells()) {
+            resultSize += KeyValueUtil.length(cell);
+          }
           apptimer.start();
           byte[] rowKey = result.getRow();
           AppAggregationKey appAggKey = aggConv.fromBytes(rowKey);
@@ -695,6 +850,7 @@ public class AppSummaryService {
         }
       }
       timer.stop();
+      EndpointMetrics.recordScan(rowCount, colCount);
       LOG.info(" Fetched from hbase " + rowCount + " rows, " + colCount
           + " columns, " + resultSize + " bytes ( " + resultSize / (1024 * 1024)
           + ") MB, in \n total timer of " + timer + " elapsedMillis:"
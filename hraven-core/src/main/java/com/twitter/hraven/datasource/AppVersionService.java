@@ -17,7 +17,9 @@ package com.twitter.hraven.datasource;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,8 +43,17 @@ import com.twitter.hraven.Constants;
 public class AppVersionService {
   private static Log LOG = LogFactory.getLog(AppVersionService.class);
 
+  /** up to how many versions are remembered when writes are buffered */
+  private static final int KNOWN_VERSIONS_SIZE = 10000;
+
   private final Connection hbaseConnection;
 
+  /**
+   * The earliest timestamp stored for each version this service has seen,
+   * {@code null} if versions are not remembered
+   */
+  private final Map<String, Long> knownVersions;
+
   /**
    * Opens a new connection to HBase server and opens connections to the tables.
    *
@@ -53,7 +64,34 @@ public class AppVersionService {
    */
   public AppVersionService(Connection hbaseConnection)
       throws IOException {
+    this(hbaseConnection, false);
+  }
+
+  /**
+   * @param hbaseConnection used to connect to the HBase tables
+   * @param bufferWrites whether to save the round trips of repeated
+   *          {@link #addVersion} calls. Adding a version is a conditional put,
+   *          which cannot be buffered, so instead the timestamps stored for
+   *          the most recently added versions are remembered, and a version
+   *          is only written when it is new or its timestamp is earlier.
+   * @throws IOException
+   */
+  public AppVersionService(Connection hbaseConnection, boolean bufferWrites)
+      throws IOException {
     this.hbaseConnection = hbaseConnection;
+    if (bufferWrites) {
+      knownVersions = Collections.synchronizedMap(
+          new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+              return size() > KNOWN_VERSIONS_SIZE;
+            }
+          });
+    } else {
+      knownVersions = null;
+    }
   }
 
   /**
@@ -166,6 +204,20 @@ public class AppVersionService {
       String version, long timestamp) throws IOException {
     boolean updated = false;
 
+    String knownKey = null;
+    if (knownVersions != null) {
+      knownKey = new StringBuilder(cluster).append(Constants.SEP).append(user)
+          .append(Constants.SEP).append(appId).append(Constants.SEP)
+          .append(version).toString();
+      Long knownTimestamp = knownVersions.get(knownKey);
+      if (knownTimestamp != null && knownTimestamp <= timestamp) {
+        // stored timestamps only ever get earlier, no update necessary
+        return false;
+      }
+    }
+    // the timestamp stored for the version once done, if known
+    Long storedTimestamp = null;
+
     // check if the version already exists
     byte[] rowKey = getRowKey(cluster, user, appId);
     byte[] versionCol = Bytes.toBytes(version);
@@ -200,6 +252,7 @@ public class AppVersionService {
           } else {
             // version exists and exceeds our value, no update necessary
             checkForUpdate = false;
+            storedTimestamp = storedTS;
           }
         } else {
           // no stored value
@@ -213,7 +266,9 @@ public class AppVersionService {
           updated = versionsTable.checkAndPut(rowKey, Constants.INFO_FAM_BYTES,
               versionCol, expectedValue, p);
           checkForUpdate = !updated;
-          if (!updated) {
+          if (updated) {
+            storedTimestamp = timestamp;
+          } else {
             LOG.warn("Update of cluster=" + cluster + ", user=" + user
                 + ", app=" + appId + ", version=" + version + " to timestamp "
                 + timestamp + " failed because currently set value changed!"
@@ -227,6 +282,9 @@ public class AppVersionService {
       }
     }
 
+    if (knownKey != null && storedTimestamp != null) {
+      knownVersions.put(knownKey, storedTimestamp);
+    }
     return updated;
   }
 
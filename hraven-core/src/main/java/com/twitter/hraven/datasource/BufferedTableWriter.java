@@ -0,0 +1,247 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.Histogram;
+
+/**
+ * Writes the mutations of a service to one table through a shared
+ * {@link BufferedMutator}, so that callers writing a row at a time do not wait
+ * for a round trip per row.
+ * <p>
+ * Mutations are buffered up to {@link Constants#WRITE_BUFFER_SIZE_CONF_KEY}
+ * bytes, after which they are sent in the background. A caller only blocks
+ * when the mutations sent before are still in flight. Mutations are only
+ * guaranteed to be written once {@link #flush()} or {@link #close()} returns;
+ * a mutation that could not be written fails the call that sent it, which may
+ * be a later one.
+ * <p>
+ * The time callers spend in {@link #mutate(Mutation)} and in {@link #flush()}
+ * is recorded in microseconds, and the buffered and failed mutations are
+ * counted. These {@link WriteMetrics} are shared by all writers to a table, and
+ * exported as stats named after the table when its first writer is created.
+ */
+public class BufferedTableWriter implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(BufferedTableWriter.class);
+
+  /** the write metrics of each table written to */
+  private static final ConcurrentMap<TableName, WriteMetrics> TABLE_METRICS =
+      new ConcurrentHashMap<TableName, WriteMetrics>();
+
+  private final TableName tableName;
+  private final BufferedMutator mutator;
+  private final WriteMetrics metrics;
+
+  /**
+   * @param hbaseConnection to write with, its configuration holds the size of
+   *          the write buffer
+   * @param tableName the table to write to
+   * @throws IOException when the mutator cannot be created
+   */
+  public BufferedTableWriter(Connection hbaseConnection, TableName tableName)
+      throws IOException {
+    this.tableName = tableName;
+    this.metrics = getTableMetrics(tableName);
+    long writeBufferSize = hbaseConnection.getConfiguration().getLong(
+        Constants.WRITE_BUFFER_SIZE_CONF_KEY,
+        Constants.DEFAULT_WRITE_BUFFER_SIZE);
+    BufferedMutatorParams params = new BufferedMutatorParams(tableName)
+        .writeBufferSize(writeBufferSize)
+        .listener(new BufferedMutator.ExceptionListener() {
+          @Override
+          public void onException(RetriesExhaustedWithDetailsException e,
+              BufferedMutator mutator)
+              throws RetriesExhaustedWithDetailsException {
+            metrics.failures.addAndGet(e.getNumExceptions());
+            LOG.error("Failed to write " + e.getNumExceptions()
+                + " mutations to " + BufferedTableWriter.this.tableName, e);
+            throw e;
+          }
+        });
+    this.mutator = hbaseConnection.getBufferedMutator(params);
+  }
+
+  /**
+   * Buffers a mutation.
+   *
+   * @throws IOException when earlier mutations could not be written
+   */
+  public void mutate(Mutation mutation) throws IOException {
+    long start = System.nanoTime();
+    try {
+      mutator.mutate(mutation);
+      metrics.mutations.incrementAndGet();
+    } finally {
+      metrics.mutateLatency.record(micros(start));
+    }
+  }
+
+  /**
+   * Buffers mutations.
+   *
+   * @throws IOException when earlier mutations could not be written
+   */
+  public void mutate(List<? extends Mutation> mutationList)
+      throws IOException {
+    long start = System.nanoTime();
+    try {
+      mutator.mutate(mutationList);
+      metrics.mutations.addAndGet(mutationList.size());
+    } finally {
+      metrics.mutateLatency.record(micros(start));
+    }
+  }
+
+  /**
+   * Sends all buffered mutations and waits for them to be written.
+   *
+   * @throws IOException when mutations could not be written
+   */
+  public void flush() throws IOException {
+    long start = System.nanoTime();
+    try {
+      mutator.flush();
+    } finally {
+      metrics.flushLatency.record(micros(start));
+    }
+  }
+
+  /**
+   * Flushes the buffered mutations and releases the mutator.
+   *
+   * @throws IOException when mutations could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    long start = System.nanoTime();
+    try {
+      mutator.close();
+    } finally {
+      metrics.flushLatency.record(micros(start));
+    }
+  }
+
+  private static long micros(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * @return the metrics of the table, exported as stats the first time they
+   *         are asked for
+   */
+  static WriteMetrics getTableMetrics(TableName tableName) {
+    WriteMetrics metrics = TABLE_METRICS.get(tableName);
+    if (metrics == null) {
+      WriteMetrics newMetrics = new WriteMetrics();
+      metrics = TABLE_METRICS.putIfAbsent(tableName, newMetrics);
+      if (metrics == null) {
+        // stats can only be exported once per name
+        metrics = newMetrics;
+        metrics.export(tableName.getNameAsString().toUpperCase()
+            .replaceAll("\\W", "_") + "_WRITES");
+      }
+    }
+    return metrics;
+  }
+
+  public TableName getTableName() {
+    return tableName;
+  }
+
+  /**
+   * @return the metrics of all writers to this table
+   */
+  public WriteMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Write metrics of a table, exported as {@code <TABLE>_WRITES_MUTATE_MICROS},
+   * {@code <TABLE>_WRITES_FLUSH_MICROS}, {@code <TABLE>_WRITES_MUTATIONS} and
+   * {@code <TABLE>_WRITES_FAILURES}.
+   */
+  public static class WriteMetrics {
+    private final Histogram mutateLatency = new Histogram();
+    private final Histogram flushLatency = new Histogram();
+    private final AtomicLong mutations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private void export(String namePrefix) {
+      mutateLatency.export(namePrefix + "_MUTATE_MICROS");
+      flushLatency.export(namePrefix + "_FLUSH_MICROS");
+      exportCounter(namePrefix + "_MUTATIONS", mutations);
+      exportCounter(namePrefix + "_FAILURES", failures);
+    }
+
+    private static void exportCounter(String name, final AtomicLong counter) {
+      Stats.export(new StatImpl<Long>(name) {
+        @Override
+        public Long read() {
+          return counter.get();
+        }
+      });
+    }
+
+    /**
+     * @return the time spent buffering mutations, in microseconds
+     */
+    public Histogram getMutateLatency() {
+      return mutateLatency;
+    }
+
+    /**
+     * @return the time spent flushing, in microseconds
+     */
+    public Histogram getFlushLatency() {
+      return flushLatency;
+    }
+
+    /**
+     * @return how many mutations were buffered
+     */
+    public long getMutations() {
+      return mutations.get();
+    }
+
+    /**
+     * @return how many mutations could not be written
+     */
+    public long getFailures() {
+      return failures.get();
+    }
+  }
+}
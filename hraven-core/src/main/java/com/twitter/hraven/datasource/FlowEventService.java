@@ -58,6 +58,11 @@ public class FlowEventService {
   private FlowKeyConverter flowKeyConverter = new FlowKeyConverter();
   private FlowEventKeyConverter keyConverter = new FlowEventKeyConverter();
 
+  /**
+   * Buffers the added events, {@code null} if they are written right away
+   */
+  private final BufferedTableWriter eventWriter;
+
   /**
    * Used to add events to the flow event table.
    *
@@ -65,14 +70,53 @@ public class FlowEventService {
    * @throws IOException
    */
   public FlowEventService(Connection hbaseConnection) throws IOException {
+    this(hbaseConnection, false);
+  }
+
+  /**
+   * Used to add events to the flow event table.
+   *
+   * @param hbaseConnection Used to connect to get references to HBase tables.
+   * @param bufferWrites whether added events are buffered rather than written
+   *          right away. They are written on {@link #flush()}, on
+   *          {@link #close()}, before events are read, and whenever the buffer
+   *          fills up.
+   * @throws IOException
+   */
+  public FlowEventService(Connection hbaseConnection, boolean bufferWrites)
+      throws IOException {
     this.hbaseConnection = hbaseConnection;
+    this.eventWriter = bufferWrites ? new BufferedTableWriter(hbaseConnection,
+        TableName.valueOf(Constants.FLOW_EVENT_TABLE)) : null;
   }
 
   /**
-   * close open connections to tables and the hbase cluster.
+   * @return the writer buffering the added events, to read its metrics.
+   *         {@code null} if events are not buffered.
+   */
+  public BufferedTableWriter getEventWriter() {
+    return eventWriter;
+  }
+
+  /**
+   * Writes the buffered events, if any.
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    if (eventWriter != null) {
+      eventWriter.flush();
+    }
+  }
+
+  /**
+   * close open connections to tables and the hbase cluster, writing the
+   * buffered events.
    * @throws IOException
    */
   public void close() throws IOException {
+    if (eventWriter != null) {
+      eventWriter.close();
+    }
   }
 
   /**
@@ -82,6 +126,10 @@ public class FlowEventService {
    */
   public void addEvent(FlowEvent event) throws IOException {
     Put p = createPutForEvent(event);
+    if (eventWriter != null) {
+      eventWriter.mutate(p);
+      return;
+    }
     Table eventTable = null;
     try {
       eventTable = hbaseConnection
@@ -104,6 +152,10 @@ public class FlowEventService {
     for (FlowEvent e : events) {
       puts.add(createPutForEvent(e));
     }
+    if (eventWriter != null) {
+      eventWriter.mutate(puts);
+      return;
+    }
     Table eventTable = null;
     try {
       eventTable = hbaseConnection
@@ -128,6 +180,8 @@ public class FlowEventService {
     Scan scan = new Scan(startKey);
     scan.setFilter(new WhileMatchFilter(new PrefixFilter(startKey)));
 
+    // read our own buffered events too
+    flush();
     List<FlowEvent> results = new ArrayList<FlowEvent>();
     ResultScanner scanner = null;
     Table eventTable = null;
@@ -175,6 +229,8 @@ public class FlowEventService {
     Scan scan = new Scan(startKey);
     scan.setFilter(new WhileMatchFilter(new PrefixFilter(keyPrefix)));
 
+    // read our own buffered events too
+    flush();
     List<FlowEvent> results = new ArrayList<FlowEvent>();
     ResultScanner scanner = null;
     Table eventTable = null;
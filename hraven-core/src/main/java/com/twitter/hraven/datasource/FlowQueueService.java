@@ -66,12 +66,64 @@ public class FlowQueueService {
 
   private Connection hbaseConnection = null;
 
+  /**
+   * Buffers the flow updates, {@code null} if they are written right away
+   */
+  private final BufferedTableWriter flowQueueWriter;
+
   public FlowQueueService(Connection hbaseConnection) throws IOException {
+    this(hbaseConnection, false);
+  }
+
+  /**
+   * @param hbaseConnection Used to connect to get references to HBase tables.
+   * @param bufferWrites whether flow updates are buffered rather than written
+   *          right away. They are written on {@link #flush()}, on
+   *          {@link #close()}, before flows are read or moved, and whenever
+   *          the buffer fills up.
+   * @throws IOException
+   */
+  public FlowQueueService(Connection hbaseConnection, boolean bufferWrites)
+      throws IOException {
     this.hbaseConnection = hbaseConnection;
+    this.flowQueueWriter = bufferWrites ? new BufferedTableWriter(
+        hbaseConnection, TableName.valueOf(Constants.FLOW_QUEUE_TABLE)) : null;
+  }
+
+  /**
+   * @return the writer buffering the flow updates, to read its metrics.
+   *         {@code null} if updates are not buffered.
+   */
+  public BufferedTableWriter getFlowQueueWriter() {
+    return flowQueueWriter;
+  }
+
+  /**
+   * Writes the buffered flow updates, if any.
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    if (flowQueueWriter != null) {
+      flowQueueWriter.flush();
+    }
+  }
+
+  /**
+   * Writes the buffered flow updates and releases the writer.
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    if (flowQueueWriter != null) {
+      flowQueueWriter.close();
+    }
   }
 
   public void updateFlow(FlowQueueKey key, Flow flow) throws IOException {
     Put p = createPutForFlow(key, flow);
+    if (flowQueueWriter != null) {
+      flowQueueWriter.mutate(p);
+      return;
+    }
     Table flowQueueTable = null;
     try {
       flowQueueTable = hbaseConnection
@@ -87,7 +139,9 @@ public class FlowQueueService {
   /**
    * Moves a flow_queue record from one row key to another. All Cells in the
    * existing row will be written to the new row. This would primarily be used
-   * for transitioning a flow's data from one status to another.
+   * for transitioning a flow's data from one status to another. When updates
+   * are buffered, the buffered updates are written before the existing row is
+   * read, and the move itself is buffered.
    *
    * @param oldKey the existing row key to move
    * @param newKey the new row key to move to
@@ -95,6 +149,8 @@ public class FlowQueueService {
    */
   public void moveFlow(FlowQueueKey oldKey, FlowQueueKey newKey)
       throws DataException, IOException {
+    // the row to move may still be buffered
+    flush();
     byte[] oldRowKey = queueKeyConverter.toBytes(oldKey);
     Get get = new Get(oldRowKey);
     Table flowQueueTable = null;
@@ -113,10 +169,15 @@ public class FlowQueueService {
         p.addColumn(CellUtil.cloneFamily(c), CellUtil.cloneQualifier(c),
             CellUtil.cloneValue(c));
       }
-      flowQueueTable.put(p);
       // delete the old row
       Delete d = new Delete(oldRowKey);
-      flowQueueTable.delete(d);
+      if (flowQueueWriter != null) {
+        flowQueueWriter.mutate(p);
+        flowQueueWriter.mutate(d);
+      } else {
+        flowQueueTable.put(p);
+        flowQueueTable.delete(d);
+      }
     } finally {
       if (flowQueueTable != null) {
         flowQueueTable.close();
@@ -155,6 +216,8 @@ public class FlowQueueService {
       FlowQueueKey key = new FlowQueueKey(cluster, status, timestamp, flowId);
       gets.add(new Get(queueKeyConverter.toBytes(key)));
     }
+    // read our own buffered updates too
+    flush();
     Table flowQueueTable = null;
     Result[] results = null;
     try {
@@ -226,6 +289,8 @@ public class FlowQueueService {
 
     // get back the results in a single response
     scan.setCaching(limit);
+    // read our own buffered updates too
+    flush();
     List<Flow> results = new ArrayList<Flow>(limit);
     ResultScanner scanner = null;
     Table flowQueueTable = null;
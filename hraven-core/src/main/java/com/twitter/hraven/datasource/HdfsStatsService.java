@@ -27,6 +27,8 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.Result;
@@ -41,6 +43,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 
 import com.google.common.base.Stopwatch;
+import com.twitter.hraven.EndpointMetrics;
 import com.twitter.hraven.HdfsConstants;
 import com.twitter.hraven.HdfsStats;
 import com.twitter.hraven.HdfsStatsKey;
@@ -179,6 +182,7 @@ public class HdfsStatsService {
     ResultScanner scanner = null;
     Stopwatch timer = new Stopwatch().start();
     int rowCount = 0;
+    int resultCount = 0;
     long colCount = 0;
     long resultSize = 0;
 
@@ -190,8 +194,11 @@ public class HdfsStatsService {
       scanner = hdfsUsageTable.getScanner(scan);
       for (Result result : scanner) {
         if (result != null && !result.isEmpty()) {
+          resultCount++;
           colCount += result.size();
-          // TODO dogpiledays resultSize += result.getWritableSize();
+          for (Cell cell : result.rawCells()) {
+            resultSize += KeyValueUtil.length(cell);
+          }
           rowCount = populateHdfsStats(result, hdfsStats, checkPath, path,
               starttime, endtime, rowCount);
           // return if we've already hit the limit
@@ -202,6 +209,7 @@ public class HdfsStatsService {
       }
 
       timer.stop();
+      EndpointMetrics.recordScan(resultCount, colCount);
       LOG.info("In createFromScanResults For cluster " + cluster
           + " Fetched from hbase " + rowCount + " rows, " + colCount
           + " columns, " + resultSize + " bytes ( " + resultSize / (1024 * 1024)
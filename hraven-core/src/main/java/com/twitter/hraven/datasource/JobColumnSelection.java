@@ -0,0 +1,194 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Selects which configuration and counter columns are read from job history
+ * rows. All the other job columns are always read.
+ * <p>
+ * Configuration and counter columns make up most of a job row, so when a
+ * caller only needs a few of them, the selection is pushed down into the
+ * {@code Scan} or {@code Get} as a qualifier filter and HBase does not ship
+ * the rest. The {@link Constants#HRAVEN_QUEUE} configuration property and
+ * the counters that {@link com.twitter.hraven.JobDetails} derives its stats
+ * from are always selected.
+ */
+public class JobColumnSelection {
+
+  /** selects all of the columns of a job row */
+  public static final JobColumnSelection ALL =
+      new JobColumnSelection(null, null);
+
+  /** counter groups the job stats are derived from */
+  private static final String[] STATS_COUNTER_GROUPS = {
+      Constants.FILESYSTEM_COUNTERS, Constants.FILESYSTEM_COUNTER_HADOOP2,
+      Constants.JOBINPROGRESS_COUNTER, Constants.JOB_COUNTER_HADOOP2,
+      Constants.TASK_COUNTER, Constants.TASK_COUNTER_HADOOP2 };
+
+  private static final String[] COUNTER_PREFIXES = {
+      Constants.COUNTER_COLUMN_PREFIX, Constants.MAP_COUNTER_COLUMN_PREFIX,
+      Constants.REDUCE_COUNTER_COLUMN_PREFIX };
+
+  private final List<String> configKeys;
+  private final List<String> counterNames;
+
+  /**
+   * @param configKeys configuration properties to read, or {@code null} to
+   *          read all of them
+   * @param counterNames counters to read, as {@code group.counterName}, or
+   *          {@code null} to read all of them
+   */
+  public JobColumnSelection(Collection<String> configKeys,
+      Collection<String> counterNames) {
+    this.configKeys = configKeys == null ? null
+        : Collections.unmodifiableList(new ArrayList<String>(configKeys));
+    this.counterNames = counterNames == null ? null
+        : Collections.unmodifiableList(new ArrayList<String>(counterNames));
+  }
+
+  /**
+   * @return the selected configuration properties, {@code null} for all
+   */
+  public List<String> getConfigKeys() {
+    return configKeys;
+  }
+
+  /**
+   * @return the selected counters, {@code null} for all
+   */
+  public List<String> getCounterNames() {
+    return counterNames;
+  }
+
+  /**
+   * @return whether all columns of the job rows are selected
+   */
+  public boolean isAll() {
+    return configKeys == null && counterNames == null;
+  }
+
+  /**
+   * Creates the qualifier filter for this selection. Only
+   * {@code INCLUDE}/{@code SKIP} decisions are made, so the filter can be
+   * combined with row filters in a {@code MUST_PASS_ALL} {@link FilterList}.
+   *
+   * @return the filter, or {@code null} if all columns are selected
+   */
+  public Filter createFilter() {
+    if (isAll()) {
+      return null;
+    }
+
+    // columns outside of the projected column prefixes
+    FilterList others = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+    // projected columns that were asked for
+    FilterList selected = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+
+    if (configKeys != null) {
+      others.addFilter(excludePrefix(Constants.JOB_CONF_COLUMN_PREFIX));
+      selected.addFilter(include(configColumn(Constants.HRAVEN_QUEUE)));
+      for (String key : configKeys) {
+        selected.addFilter(include(configColumn(key)));
+      }
+    }
+
+    if (counterNames != null) {
+      for (String prefix : COUNTER_PREFIXES) {
+        others.addFilter(excludePrefix(prefix));
+        for (String group : STATS_COUNTER_GROUPS) {
+          selected.addFilter(includePrefix(Bytes.toBytes(
+              prefix + Constants.SEP + group + Constants.SEP)));
+        }
+        for (String counterName : counterNames) {
+          // counter group names are dotted too, the counter name comes last
+          int lastDot = counterName.lastIndexOf('.');
+          if (lastDot > 0 && lastDot < counterName.length() - 1) {
+            selected.addFilter(include(Bytes.toBytes(prefix + Constants.SEP
+                + counterName.substring(0, lastDot) + Constants.SEP
+                + counterName.substring(lastDot + 1))));
+          }
+        }
+      }
+    }
+
+    FilterList columns = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+    columns.addFilter(others);
+    columns.addFilter(selected);
+    return columns;
+  }
+
+  private static byte[] configColumn(String key) {
+    return Bytes.toBytes(Constants.JOB_CONF_COLUMN_PREFIX + Constants.SEP + key);
+  }
+
+  private static Filter excludePrefix(String columnPrefix) {
+    return new QualifierFilter(CompareFilter.CompareOp.NOT_EQUAL,
+        new BinaryPrefixComparator(
+            Bytes.toBytes(columnPrefix + Constants.SEP)));
+  }
+
+  private static Filter includePrefix(byte[] qualifierPrefix) {
+    return new QualifierFilter(CompareFilter.CompareOp.EQUAL,
+        new BinaryPrefixComparator(qualifierPrefix));
+  }
+
+  private static Filter include(byte[] qualifier) {
+    return new QualifierFilter(CompareFilter.CompareOp.EQUAL,
+        new BinaryComparator(qualifier));
+  }
+
+  @Override
+  public int hashCode() {
+    return new HashCodeBuilder().append(configKeys).append(counterNames)
+        .toHashCode();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof JobColumnSelection)) {
+      return false;
+    }
+    JobColumnSelection otherSelection = (JobColumnSelection) other;
+    return new EqualsBuilder().append(configKeys, otherSelection.configKeys)
+        .append(counterNames, otherSelection.counterNames).isEquals();
+  }
+
+  @Override
+  public String toString() {
+    return "JobColumnSelection [configKeys=" + configKeys + ", counterNames="
+        + counterNames + "]";
+  }
+}
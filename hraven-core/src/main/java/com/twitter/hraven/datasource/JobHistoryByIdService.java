@@ -86,6 +86,25 @@ public class JobHistoryByIdService {
     return null;
   }
 
+  /**
+   * Returns the put for the secondary index record cluster!jobId->jobKey, so
+   * that callers can write it along with their other puts, for instance to
+   * {@link Constants#HISTORY_BY_JOBID_TABLE} through a MultiTableOutputFormat.
+   *
+   * @param jobKey of the job to index
+   * @return the put inserting (or updating) the row with jobid as the key
+   */
+  public Put getIndexPut(JobKey jobKey) {
+    byte[] jobKeyBytes = jobKeyConv.toBytes(jobKey);
+    byte[] rowKeyBytes = jobIdConv.toBytes(
+        new QualifiedJobId(jobKey.getCluster(), jobKey.getJobId()));
+
+    Put p = new Put(rowKeyBytes);
+    p.addColumn(Constants.INFO_FAM_BYTES, Constants.ROWKEY_COL_BYTES,
+        jobKeyBytes);
+    return p;
+  }
+
   /**
    * Create the secondary indexes records cluster!jobId->jobKey.
    *
@@ -100,15 +119,7 @@ public class JobHistoryByIdService {
       try {
         historyByJobIdTable = hbaseConnection
             .getTable(TableName.valueOf(Constants.HISTORY_BY_JOBID_TABLE));
-        byte[] jobKeyBytes = jobKeyConv.toBytes(jobKey);
-        byte[] rowKeyBytes = jobIdConv.toBytes(
-            new QualifiedJobId(jobKey.getCluster(), jobKey.getJobId()));
-
-        // Insert (or update) row with jobid as the key
-        Put p = new Put(rowKeyBytes);
-        p.addColumn(Constants.INFO_FAM_BYTES, Constants.ROWKEY_COL_BYTES,
-            jobKeyBytes);
-        historyByJobIdTable.put(p);
+        historyByJobIdTable.put(getIndexPut(jobKey));
       } finally {
         if (historyByJobIdTable != null) {
           historyByJobIdTable.close();
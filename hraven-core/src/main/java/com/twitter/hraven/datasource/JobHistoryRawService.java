@@ -18,10 +18,18 @@ package com.twitter.hraven.datasource;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +40,7 @@ import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -39,16 +48,20 @@ import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.InclusiveStopFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueExcludeFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.twitter.hraven.Constants;
 import com.twitter.hraven.JobId;
 import com.twitter.hraven.QualifiedJobId;
 import com.twitter.hraven.Range;
 import com.twitter.hraven.util.BatchUtil;
+import com.twitter.hraven.util.RawJobConf;
 
 /**
  * Used to store and retrieve {@link ProcessRecord} objects.
@@ -56,6 +69,9 @@ import com.twitter.hraven.util.BatchUtil;
 public class JobHistoryRawService {
   private static Log LOG = LogFactory.getLog(JobHistoryRawService.class);
 
+  /** rows fetched per rpc when only the keys are returned */
+  private static final int KEY_SCAN_CACHING = 1000;
+
   private QualifiedJobIdConverter idConv = new QualifiedJobIdConverter();
 
   private final Connection hbaseConnection;
@@ -151,6 +167,183 @@ public class JobHistoryRawService {
     return scans;
   }
 
+  /**
+   * Like {@link #getHistoryRawTableScans(String, String, String, boolean, int)}
+   * but with the raw table keys enumerated by up to the given number of
+   * threads, one scan per region. Only the row keys are returned by the region
+   * servers, and each scan cuts its rows into batches as they stream in, so
+   * the job ids are never all held in memory. As batches do not span regions,
+   * there may be up to one partial batch per region.
+   *
+   * @param threads up to how many regions to scan in parallel, 1 or less
+   *          scans the whole range in a single scan
+   * @return the scans of the batches, in row order
+   * @throws IOException
+   * @throws RowKeyParseException when rows returned from the Raw table do not
+   *           conform to the expected row key.
+   */
+  public List<Scan> getHistoryRawTableScans(String cluster, String minJobId,
+      String maxJobId, boolean reprocess, int batchSize, int threads)
+      throws IOException, RowKeyParseException {
+    if (threads <= 1) {
+      return getHistoryRawTableScans(cluster, minJobId, maxJobId, reprocess,
+          batchSize);
+    }
+
+    Scan keyScan =
+        getHistoryRawTableScan(cluster, minJobId, maxJobId, reprocess, false);
+    // the value filters still see the values, only the returned cells are
+    // stripped of them
+    ((FilterList) keyScan.getFilter()).addFilter(new KeyOnlyFilter());
+    keyScan.setCaching(KEY_SCAN_CACHING);
+
+    List<Scan> regionScans = new ArrayList<Scan>();
+    RegionLocator locator = hbaseConnection
+        .getRegionLocator(TableName.valueOf(Constants.HISTORY_RAW_TABLE));
+    try {
+      Pair<byte[][], byte[][]> startEndKeys = locator.getStartEndKeys();
+      for (int i = 0; i < startEndKeys.getFirst().length; i++) {
+        Scan regionScan = getRegionScan(keyScan,
+            startEndKeys.getFirst()[i], startEndKeys.getSecond()[i]);
+        if (regionScan != null) {
+          regionScans.add(regionScan);
+        }
+      }
+    } finally {
+      locator.close();
+    }
+    LOG.info("Scanning " + Constants.HISTORY_RAW_TABLE + " table from "
+        + minJobId + " to " + maxJobId + " in " + regionScans.size()
+        + " regions with " + threads + " threads");
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(threads, Math.max(1, regionScans.size())),
+        new ThreadFactoryBuilder().setNameFormat("raw-key-scan-%d")
+            .setDaemon(true).build());
+    List<Range<JobId>> ranges = new ArrayList<Range<JobId>>();
+    int jobCount = 0;
+    try {
+      List<Future<RegionBatches>> futures =
+          new ArrayList<Future<RegionBatches>>(regionScans.size());
+      for (Scan regionScan : regionScans) {
+        futures.add(executor.submit(new RegionBatchScan(regionScan, batchSize)));
+      }
+      // regions are in row order, and so are their batches
+      for (Future<RegionBatches> future : futures) {
+        RegionBatches batches = future.get();
+        ranges.addAll(batches.ranges);
+        jobCount += batches.jobCount;
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scanning "
+          + Constants.HISTORY_RAW_TABLE, ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RowKeyParseException) {
+        throw (RowKeyParseException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    LOG.info("Dividing " + jobCount + " jobs in " + ranges.size()
+        + " ranges.");
+    List<Scan> scans = new LinkedList<Scan>();
+    for (Range<JobId> range : ranges) {
+      scans.add(getHistoryRawTableScan(cluster, range.getMin().getJobIdString(),
+          range.getMax().getJobIdString(), reprocess, true));
+    }
+    return scans;
+  }
+
+  /**
+   * @return a copy of the scan restricted to the region, {@code null} if the
+   *         scan does not overlap the region
+   * @throws IOException
+   */
+  static Scan getRegionScan(Scan scan, byte[] regionStart, byte[] regionEnd)
+      throws IOException {
+    byte[] start = scan.getStartRow();
+    byte[] stop = scan.getStopRow();
+    if (Bytes.compareTo(regionStart, start) > 0) {
+      start = regionStart;
+    }
+    if (regionEnd.length > 0
+        && (stop.length == 0 || Bytes.compareTo(regionEnd, stop) < 0)) {
+      stop = regionEnd;
+    }
+    if (stop.length > 0 && Bytes.compareTo(start, stop) >= 0) {
+      return null;
+    }
+    Scan regionScan = new Scan(scan);
+    regionScan.setStartRow(start);
+    regionScan.setStopRow(stop);
+    return regionScan;
+  }
+
+  /**
+   * The batches of the jobs in one region
+   */
+  private static class RegionBatches {
+    private final List<Range<JobId>> ranges = new ArrayList<Range<JobId>>();
+    private int jobCount = 0;
+  }
+
+  /**
+   * Scans the keys of one region and cuts them into batches as they are read
+   */
+  private class RegionBatchScan implements Callable<RegionBatches> {
+    private final Scan scan;
+    private final int batchSize;
+
+    RegionBatchScan(Scan scan, int batchSize) {
+      this.scan = scan;
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    public RegionBatches call() throws IOException, RowKeyParseException {
+      RegionBatches batches = new RegionBatches();
+      JobId batchMin = null;
+      JobId last = null;
+      int batchCount = 0;
+      Table rawTable = hbaseConnection
+          .getTable(TableName.valueOf(Constants.HISTORY_RAW_TABLE));
+      ResultScanner scanner = null;
+      try {
+        scanner = rawTable.getScanner(scan);
+        for (Result result : scanner) {
+          last = getQualifiedJobIdFromResult(result);
+          if (batchMin == null) {
+            batchMin = last;
+          }
+          batches.jobCount++;
+          if (++batchCount == batchSize) {
+            batches.ranges.add(new Range<JobId>(batchMin, last));
+            batchMin = null;
+            batchCount = 0;
+          }
+        }
+        if (batchMin != null) {
+          batches.ranges.add(new Range<JobId>(batchMin, last));
+        }
+      } finally {
+        try {
+          if (scanner != null) {
+            scanner.close();
+          }
+        } finally {
+          rawTable.close();
+        }
+      }
+      return batches;
+    }
+  }
+
   /**
    * Get a {@link Scan} to go through all the records loaded in the
    * {@link Constants#HISTORY_RAW_TABLE} that match the given parameters.
@@ -426,6 +619,45 @@ public class JobHistoryRawService {
     return jobConf;
   }
 
+  /**
+   * Reads the job configuration straight from the cell bytes in one streaming
+   * pass, without copying the cell value or loading a {@link Configuration}.
+   *
+   * @param result from the {@link Scan} from
+   *          {@link getHistoryRawTableScan(String, String, String, boolean,
+   *          boolean, boolean)}
+   * @return the properties of the configuration part.
+   * @throws MissingColumnInResultException when the result does not contain
+   *           {@link Constants#RAW_FAM}, {@link Constants#JOBCONF_COL}.
+   */
+  public RawJobConf createRawJobConfFromResult(Result result)
+      throws MissingColumnInResultException {
+
+    if (result == null) {
+      throw new IllegalArgumentException("Cannot create RawJobConf from null");
+    }
+
+    Cell cell = result.getColumnLatestCell(Constants.RAW_FAM_BYTES,
+        Constants.JOBCONF_COL_BYTES);
+    if (cell == null || cell.getValueLength() == 0) {
+      throw new MissingColumnInResultException(Constants.RAW_FAM_BYTES,
+          Constants.JOBCONF_COL_BYTES);
+    }
+
+    try {
+      RawJobConf jobConf = RawJobConf.parse(cell.getValueArray(),
+          cell.getValueOffset(), cell.getValueLength());
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Loaded " + jobConf.size()
+            + " job configuration properties from result");
+      }
+      return jobConf;
+    } catch (XMLStreamException e) {
+      throw new ProcessingException("Invalid configuration from result "
+          + Bytes.toStringBinary(result.getRow()), e);
+    }
+  }
+
   /**
    * @param cluster the identifier for the Hadoop cluster on which a job ran
    * @param jobId the identifier of the job as run on the JobTracker.
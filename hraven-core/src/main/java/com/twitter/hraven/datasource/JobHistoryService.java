@@ -17,15 +17,20 @@ package com.twitter.hraven.datasource;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.Delete;
@@ -38,6 +43,8 @@ import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter.RowRange;
 import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.QualifierFilter;
 import org.apache.hadoop.hbase.filter.RegexStringComparator;
@@ -46,10 +53,10 @@ import org.apache.hadoop.hbase.filter.WhileMatchFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.util.concurrent.AtomicDouble;
 import com.twitter.hraven.Constants;
 import com.twitter.hraven.Counter;
 import com.twitter.hraven.CounterMap;
+import com.twitter.hraven.EndpointMetrics;
 import com.twitter.hraven.Flow;
 import com.twitter.hraven.FlowKey;
 import com.twitter.hraven.HravenResponseMetrics;
@@ -62,19 +69,55 @@ import com.twitter.hraven.TaskDetails;
 import com.twitter.hraven.TaskKey;
 import com.twitter.hraven.util.ByteUtil;
 import com.twitter.hraven.util.HadoopConfUtil;
+import com.twitter.hraven.util.JobConfProperties;
+import com.twitter.hraven.util.RawJobConf;
 
 /**
  */
 public class JobHistoryService {
   private static Log LOG = LogFactory.getLog(JobHistoryService.class);
 
+  /**
+   * The job columns needed to summarize flows with
+   * {@link com.twitter.hraven.AppSummary#addFlow(Flow)}
+   */
+  static final byte[][] FLOW_SUMMARY_COLUMNS = {
+      JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.SUBMIT_TIME),
+      JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TOTAL_MAPS),
+      JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TOTAL_REDUCES),
+      JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.hadoopversion),
+      Constants.MEGABYTEMILLIS_BYTES,
+      Bytes.add(Constants.JOB_CONF_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES,
+          Constants.HRAVEN_QUEUE_BYTES),
+      Bytes.toBytes(Constants.COUNTER_COLUMN_PREFIX + Constants.SEP
+          + Constants.JOBINPROGRESS_COUNTER + Constants.SEP
+          + Constants.SLOTS_MILLIS_MAPS),
+      Bytes.toBytes(Constants.COUNTER_COLUMN_PREFIX + Constants.SEP
+          + Constants.JOBINPROGRESS_COUNTER + Constants.SEP
+          + Constants.SLOTS_MILLIS_REDUCES),
+      Bytes.toBytes(Constants.COUNTER_COLUMN_PREFIX + Constants.SEP
+          + Constants.JOB_COUNTER_HADOOP2 + Constants.SEP
+          + Constants.SLOTS_MILLIS_MAPS),
+      Bytes.toBytes(Constants.COUNTER_COLUMN_PREFIX + Constants.SEP
+          + Constants.JOB_COUNTER_HADOOP2 + Constants.SEP
+          + Constants.SLOTS_MILLIS_REDUCES) };
+
   private final Connection hbaseConnection;
   private final JobHistoryByIdService idService;
   private final JobKeyConverter jobKeyConv = new JobKeyConverter();
   private final TaskKeyConverter taskKeyConv = new TaskKeyConverter();
+  /** sorts right after the separator following the job key of task rows */
+  private static final byte[] TASK_STOP_SEP_BYTES =
+      Bytes.toBytes(String.valueOf((char) (Constants.SEP_CHAR + 1)));
 
   private final int defaultScannerCaching;
 
+  /**
+   * whether flow scans limit the runs returned on the server side,
+   * see {@link Constants#RUN_MATCH_FILTER_CONF_KEY}
+   */
+  private final boolean useRunMatchFilter;
+
   /**
    * Service to query job history.
    *
@@ -92,6 +135,8 @@ public class JobHistoryService {
     idService = new JobHistoryByIdService(hbaseConnection);
     defaultScannerCaching =
         hbaseConf.getInt("hbase.client.scanner.caching", 100);
+    useRunMatchFilter = hbaseConf.getBoolean(
+        Constants.RUN_MATCH_FILTER_CONF_KEY, Constants.DEFAULT_RUN_MATCH_FILTER);
   }
 
   /**
@@ -191,6 +236,23 @@ public class JobHistoryService {
    */
   public Flow getFlowByJobID(String cluster, String jobId,
       boolean populateTasks) throws IOException {
+    return getFlowByJobID(cluster, jobId, populateTasks,
+        JobColumnSelection.ALL);
+  }
+
+  /**
+   * Returns the {@link Flow} instance containing the given job ID, reading
+   * only the selected configuration and counter columns of the jobs.
+   *
+   * @param cluster the cluster identifier
+   * @param jobId the job identifier
+   * @param populateTasks whether or not to populate the task details for each
+   *          job
+   * @param columns the job columns to read
+   * @return
+   */
+  public Flow getFlowByJobID(String cluster, String jobId,
+      boolean populateTasks, JobColumnSelection columns) throws IOException {
     Flow flow = null;
     JobKey key = idService.getJobKeyById(new QualifiedJobId(cluster, jobId));
     if (key != null) {
@@ -205,7 +267,16 @@ public class JobHistoryService {
       // start scanning history at cluster!user!app!run!
       scan.setStartRow(startRow);
       // require that all results match this flow prefix
-      scan.setFilter(new WhileMatchFilter(new PrefixFilter(startRow)));
+      Filter prefixFilter = new WhileMatchFilter(new PrefixFilter(startRow));
+      Filter columnFilter = columns.createFilter();
+      if (columnFilter != null) {
+        FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+        filters.addFilter(prefixFilter);
+        filters.addFilter(columnFilter);
+        scan.setFilter(filters);
+      } else {
+        scan.setFilter(prefixFilter);
+      }
 
       List<Flow> flows = createFromResults(scan, populateTasks, 1);
       if (flows.size() > 0) {
@@ -222,7 +293,20 @@ public class JobHistoryService {
    * @param version - version to match
    * @return Scan
    */
-  private Scan createFlowScan(byte[] rowPrefix, int limit, String version) {
+  Scan createFlowScan(byte[] rowPrefix, int limit, String version) {
+    return createFlowScan(rowPrefix, limit, version, JobColumnSelection.ALL);
+  }
+
+  /**
+   * creates a scan for flow data
+   * @param rowPrefix - start row prefix
+   * @param limit - limit on scanned results
+   * @param version - version to match
+   * @param columns - job columns to read
+   * @return Scan
+   */
+  Scan createFlowScan(byte[] rowPrefix, int limit, String version,
+      JobColumnSelection columns) {
     Scan scan = new Scan();
     scan.setStartRow(rowPrefix);
 
@@ -231,20 +315,39 @@ public class JobHistoryService {
     scan.setCaching(Math.min(limit, defaultScannerCaching));
     // require that all rows match the prefix we're looking for
     Filter prefixFilter = new WhileMatchFilter(new PrefixFilter(rowPrefix));
-    // if version is passed, restrict the rows returned to that version
-    if (version != null && version.length() > 0) {
-      FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
-      filters.addFilter(prefixFilter);
-      filters.addFilter(new SingleColumnValueFilter(Constants.INFO_FAM_BYTES,
-          Constants.VERSION_COLUMN_BYTES, CompareFilter.CompareOp.EQUAL,
-          Bytes.toBytes(version)));
-      scan.setFilter(filters);
-    } else {
+    FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+    filters.addFilter(prefixFilter);
+    // only ship the selected config and counter columns
+    Filter columnFilter = columns.createFilter();
+    if (columnFilter != null) {
+      filters.addFilter(columnFilter);
+    }
+    if (useRunMatchFilter) {
+      // stop on the server side once limit runs (of the version) have been
+      // returned
+      filters.addFilter(new RunMatchFilter(rowPrefix, limit, version));
+    } else if (version != null && version.length() > 0) {
+      // if version is passed, restrict the rows returned to that version
+      filters.addFilter(getVersionFilter(version));
+    }
+    if (filters.getFilters().size() == 1) {
       scan.setFilter(prefixFilter);
+    } else {
+      scan.setFilter(filters);
     }
     return scan;
   }
 
+  /**
+   * @param version app version to match
+   * @return filter restricting the rows returned to the given version
+   */
+  private Filter getVersionFilter(String version) {
+    return new SingleColumnValueFilter(Constants.INFO_FAM_BYTES,
+        Constants.VERSION_COLUMN_BYTES, CompareFilter.CompareOp.EQUAL,
+        Bytes.toBytes(version));
+  }
+
   /**
    * Returns the most recent {@link Flow} runs, up to {@code limit} instances.
    * If the {@code version} parameter is non-null, the returned results will be
@@ -262,7 +365,6 @@ public class JobHistoryService {
    */
   public List<Flow> getFlowSeries(String cluster, String user, String appId,
       String version, boolean populateTasks, int limit) throws IOException {
-    // TODO: use RunMatchFilter to limit scan on the server side
     byte[] rowPrefix = Bytes.toBytes(
         cluster + Constants.SEP + user + Constants.SEP + appId + Constants.SEP);
     Scan scan = createFlowScan(rowPrefix, limit, version);
@@ -289,12 +391,79 @@ public class JobHistoryService {
   public List<Flow> getFlowSeries(String cluster, String user, String appId,
       String version, boolean populateTasks, long startTime, long endTime,
       int limit) throws IOException {
-    // TODO: use RunMatchFilter to limit scan on the server side
+    return getFlowSeries(cluster, user, appId, version, populateTasks,
+        startTime, endTime, limit, JobColumnSelection.ALL);
+  }
+
+  /**
+   * Returns the most recent {@link Flow} runs within that time range, up to
+   * {@code limit} instances, reading only the selected configuration and
+   * counter columns of the jobs.
+   *
+   * @param cluster the cluster where the jobs were run
+   * @param user the user running the jobs
+   * @param appId the application identifier for the jobs
+   * @param version if non-null, only flows matching this application version
+   *          will be returned
+   * @param populateTasks if {@code true}, then TaskDetails will be populated
+   *          for each job
+   * @param startTime the start time for the flows to be looked at
+   * @param endTime the end time for the flows to be looked at
+   * @param limit the maximum number of flows to return
+   * @param columns the job columns to read
+   * @return
+   */
+  public List<Flow> getFlowSeries(String cluster, String user, String appId,
+      String version, boolean populateTasks, long startTime, long endTime,
+      int limit, JobColumnSelection columns) throws IOException {
     byte[] rowPrefix = Bytes.toBytes(
         cluster + Constants.SEP + user + Constants.SEP + appId + Constants.SEP);
-    Scan scan = createFlowScan(rowPrefix, limit, version);
+    Scan scan = createFlowScan(rowPrefix, limit, version, columns);
+    setTimeBounds(scan, rowPrefix, startTime, endTime);
+    return createFromResults(scan, populateTasks, limit);
+  }
 
-    // set the start and stop rows for scan so that it's time bound
+  /**
+   * Returns the most recent {@link Flow} runs within that time range, up to
+   * {@code limit} instances, for summarizing an app.
+   *
+   * <p>
+   * <strong>Note:</strong> this retrieval method only reads the job columns
+   * listed in {@link #FLOW_SUMMARY_COLUMNS}, so the jobs carry the stats
+   * that {@link com.twitter.hraven.AppSummary#addFlow(Flow)} uses, but
+   * no configuration and only the slot millis counters.
+   * </p>
+   *
+   * @param cluster the cluster where the jobs were run
+   * @param user the user running the jobs
+   * @param appId the application identifier for the jobs
+   * @param startTime the start time for the flows to be looked at
+   * @param endTime the end time for the flows to be looked at
+   * @param limit the maximum number of flows to return
+   * @return
+   */
+  public List<Flow> getFlowSummarySeries(String cluster, String user,
+      String appId, long startTime, long endTime, int limit)
+      throws IOException {
+    byte[] rowPrefix = Bytes.toBytes(
+        cluster + Constants.SEP + user + Constants.SEP + appId + Constants.SEP);
+    Scan scan = createFlowScan(rowPrefix, limit, null);
+    setTimeBounds(scan, rowPrefix, startTime, endTime);
+    for (byte[] column : FLOW_SUMMARY_COLUMNS) {
+      scan.addColumn(Constants.INFO_FAM_BYTES, column);
+    }
+    return createFromResults(scan, false, limit);
+  }
+
+  /**
+   * sets the start and stop rows for scan so that it's time bound
+   * @param scan flow scan
+   * @param rowPrefix cluster!user!appId! of the flows
+   * @param startTime the start time for the flows to be looked at, 0 for none
+   * @param endTime the end time for the flows to be looked at, 0 for none
+   */
+  private void setTimeBounds(Scan scan, byte[] rowPrefix, long startTime,
+      long endTime) {
     if (endTime != 0) {
       byte[] scanStartRow;
       // use end time in start row, if present
@@ -312,7 +481,6 @@ public class JobHistoryService {
           Bytes.add(rowPrefix, Bytes.toBytes(stopRunId), Constants.SEP_BYTES);
       scan.setStopRow(scanStopRow);
     }
-    return createFromResults(scan, populateTasks, limit);
   }
 
   /**
@@ -357,7 +525,6 @@ public class JobHistoryService {
       }
     }
 
-    // TODO: use RunMatchFilter to limit scan on the server side
     Scan scan = new Scan();
     scan.setStartRow(scanStartRow);
     FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
@@ -375,10 +542,8 @@ public class JobHistoryService {
     }
 
     // if version is passed, restrict the rows returned to that version
-    if (version != null && version.length() > 0) {
-      filters.addFilter(new SingleColumnValueFilter(Constants.INFO_FAM_BYTES,
-          Constants.VERSION_COLUMN_BYTES, CompareFilter.CompareOp.EQUAL,
-          Bytes.toBytes(version)));
+    if (!useRunMatchFilter && version != null && version.length() > 0) {
+      filters.addFilter(getVersionFilter(version));
     }
 
     // filter out all config columns except the queue name
@@ -386,6 +551,11 @@ public class JobHistoryService {
         new RegexStringComparator(
             "^c\\!((?!" + Constants.HRAVEN_QUEUE + ").)*$")));
 
+    if (useRunMatchFilter) {
+      // added last, so that only rows passing all other filters are counted
+      filters.addFilter(new RunMatchFilter(rowPrefix, limit, version));
+    }
+
     scan.setFilter(filters);
 
     LOG.info("scan : \n " + scan.toJSON() + " \n");
@@ -423,15 +593,49 @@ public class JobHistoryService {
    */
   public JobDetails getJobByJobID(QualifiedJobId jobId, boolean populateTasks)
       throws IOException {
+    return getJobByJobID(jobId, populateTasks, JobColumnSelection.ALL);
+  }
+
+  /**
+   * Returns a specific job's data by job ID, reading only the selected
+   * configuration and counter columns
+   * @param cluster the cluster identifier
+   * @param cluster the job ID
+   * @param populateTasks if {@code true} populate the {@link TaskDetails}
+   *          records for the job
+   * @param columns the job columns to read
+   */
+  public JobDetails getJobByJobID(String cluster, String jobId,
+      boolean populateTasks, JobColumnSelection columns) throws IOException {
+    return getJobByJobID(new QualifiedJobId(cluster, jobId), populateTasks,
+        columns);
+  }
+
+  /**
+   * Returns a specific job's data by job ID, reading only the selected
+   * configuration and counter columns
+   * @param jobId the fully qualified cluster + job identifier
+   * @param populateTasks if {@code true} populate the {@link TaskDetails}
+   *          records for the job
+   * @param columns the job columns to read
+   */
+  public JobDetails getJobByJobID(QualifiedJobId jobId, boolean populateTasks,
+      JobColumnSelection columns) throws IOException {
     JobDetails job = null;
     JobKey key = idService.getJobKeyById(jobId);
     if (key != null) {
       byte[] historyKey = jobKeyConv.toBytes(key);
+      Get get = new Get(historyKey);
+      Filter columnFilter = columns.createFilter();
+      if (columnFilter != null) {
+        get.setFilter(columnFilter);
+      }
       Table historyTable =
           hbaseConnection.getTable(TableName.valueOf(Constants.HISTORY_TABLE));
-      Result result = historyTable.get(new Get(historyKey));
+      Result result = historyTable.get(get);
       historyTable.close();
       if (result != null && !result.isEmpty()) {
+        EndpointMetrics.recordScan(1, result.size());
         job = new JobDetails(key);
         job.populate(result);
         if (populateTasks) {
@@ -465,25 +669,42 @@ public class JobHistoryService {
           hbaseConnection.getTable(TableName.valueOf(Constants.HISTORY_TABLE));
       scanner = historyTable.getScanner(scan);
       Flow currentFlow = null;
+      // the cluster!user!appId!encodedRunId row prefix of the current flow
+      byte[] currentFlowKey = null;
+      JobKeyView keyView = new JobKeyView();
       for (Result result : scanner) {
         if (result != null && !result.isEmpty()) {
           rowCount++;
           colCount += result.size();
-          // TODO dogpiledays resultSize += result.getWritableSize();
-          JobKey currentKey = jobKeyConv.fromBytes(result.getRow());
+          for (Cell cell : result.rawCells()) {
+            resultSize += KeyValueUtil.length(cell);
+          }
+          Cell firstCell = result.rawCells()[0];
+          keyView.set(firstCell.getRowArray(), firstCell.getRowOffset(),
+              firstCell.getRowLength());
+          if (!keyView.isJobKey()) {
+            LOG.warn("Skipping row with an incomplete job key "
+                + Bytes.toStringBinary(keyView.getBytes(), keyView.getOffset(),
+                    keyView.getLength()));
+            continue;
+          }
           // empty runId is special cased -- we need to treat each job as it's
           // own flow
-          if (currentFlow == null || !currentFlow.contains(currentKey)
-              || currentKey.getRunId() == 0) {
+          if (currentFlow == null || !keyView.isSameFlow(currentFlowKey)
+              || keyView.getRunId() == 0) {
             // return if we've already hit the limit
             if (flows.size() >= maxCount) {
               break;
             }
-            currentFlow = new Flow(new FlowKey(currentKey));
+            currentFlow = new Flow(new FlowKey(keyView.getCluster(),
+                keyView.getUserName(), keyView.getAppId(),
+                keyView.getRunId()));
+            currentFlowKey = ByteUtil.safeCopy(keyView.getBytes(),
+                keyView.getOffset(), keyView.getFlowKeyLength());
             flows.add(currentFlow);
           }
           timerJob.start();
-          JobDetails job = new JobDetails(currentKey);
+          JobDetails job = new JobDetails(keyView.toJobKey());
           job.populate(result);
           currentFlow.addJob(job);
           jobCount++;
@@ -492,12 +713,12 @@ public class JobHistoryService {
       }
       historyTable.close();
       timer.stop();
+      EndpointMetrics.recordScan(rowCount, colCount);
       LOG.info("Fetched from hbase " + rowCount + " rows, " + colCount
           + " columns, " + flows.size() + " flows and " + jobCount
           + " jobs taking up " + resultSize + " bytes ( "
-          + resultSize / (1024.0 * 1024.0) + " atomic double: "
-          + new AtomicDouble(resultSize / (1024.0 * 1024.0))
-          + ") MB, in total time of " + timer + " with  " + timerJob
+          + resultSize / (1024.0 * 1024.0) + ") MB, in total time of " + timer
+          + " with  " + timerJob
           + " spent inJobDetails & Flow population");
 
       // export the size of data fetched from hbase as a metric
@@ -517,9 +738,9 @@ public class JobHistoryService {
   }
 
   /**
-   * Populate the task details for the jobs in the given flows. <strong>Note
-   * that all flows are expected to share the same cluster, user, and
-   * appId.</strong>
+   * Populate the task details for the jobs in the given flows. The scan reads
+   * only the task rows of the given jobs, with one row range per job, so that
+   * no tasks of unrelated jobs in between are streamed back.
    *
    * @param flows
    */
@@ -528,65 +749,90 @@ public class JobHistoryService {
       return;
     }
 
-    // for simplicity, we assume that flows are ordered and consecutive
-    JobKey startJob = null;
-    // find the first job
+    // jobs by the first row of their tasks, in task table order
+    NavigableMap<byte[], JobDetails> jobsByTaskRow =
+        new TreeMap<byte[], JobDetails>(Bytes.BYTES_COMPARATOR);
+    List<RowRange> ranges = new ArrayList<RowRange>();
+    byte[] stopRow = null;
     for (Flow f : flows) {
-      List<JobDetails> jobs = f.getJobs();
-      if (jobs != null && jobs.size() > 0) {
-        startJob = jobs.get(0).getJobKey();
-        break;
+      for (JobDetails j : f.getJobs()) {
+        byte[] jobKey = jobKeyConv.toBytes(j.getJobKey());
+        byte[] startKey = Bytes.add(jobKey, Constants.SEP_BYTES);
+        if (jobsByTaskRow.put(startKey, j) == null) {
+          byte[] jobStopRow = getTaskStopRow(jobKey);
+          ranges.add(new RowRange(startKey, true, jobStopRow, false));
+          if (stopRow == null || Bytes.compareTo(jobStopRow, stopRow) > 0) {
+            stopRow = jobStopRow;
+          }
+        }
       }
     }
 
-    if (startJob == null) {
+    if (ranges.isEmpty()) {
       LOG.info("No start job found for flows");
       return;
     }
 
-    byte[] startKey =
-        Bytes.add(jobKeyConv.toBytes(startJob), Constants.SEP_BYTES);
     Scan scan = new Scan();
-    scan.setStartRow(startKey);
+    scan.setStartRow(jobsByTaskRow.firstKey());
+    scan.setStopRow(stopRow);
+    // sorts and merges the ranges
+    scan.setFilter(new MultiRowRangeFilter(ranges));
     // expect a lot of tasks on average
     scan.setCaching(500);
 
     Table taskTable = hbaseConnection
         .getTable(TableName.valueOf(Constants.HISTORY_TASK_TABLE));
     ResultScanner scanner = taskTable.getScanner(scan);
+    int rowCount = 0;
+    long colCount = 0;
+    JobKeyView keyView = new JobKeyView();
+    // the rows come back in the order of the jobs, so the job of a row is
+    // found by moving forward through them
+    Iterator<Entry<byte[], JobDetails>> jobs =
+        jobsByTaskRow.entrySet().iterator();
+    Entry<byte[], JobDetails> job = null;
+    Entry<byte[], JobDetails> nextJob = jobs.next();
     try {
-      Result currentResult = scanner.next();
-      for (Flow f : flows) {
-        for (JobDetails j : f.getJobs()) {
-          // within each job we advance through the scanner til we pass keys
-          // matching the current job
-          while (currentResult != null && !currentResult.isEmpty()) {
-            TaskKey taskKey = taskKeyConv.fromBytes(currentResult.getRow());
-            // see if this task belongs to the current job
-            int comparison = j.getJobKey().compareTo(taskKey);
-            if (comparison < 0) {
-              // advance to next job (without advancing current result)
-              break;
-            } else if (comparison > 0) {
-              // advance tasks up to current job
-            } else {
-              // belongs to the current job
-              TaskDetails task = new TaskDetails(taskKey);
-              task.populate(
-                  currentResult.getFamilyMap(Constants.INFO_FAM_BYTES));
-              j.addTask(task);
-            }
-            currentResult = scanner.next();
-          }
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Added " + j.getTasks().size() + " tasks to job "
-                + j.getJobKey().toString());
-          }
+      for (Result currentResult : scanner) {
+        if (currentResult == null || currentResult.isEmpty()) {
+          continue;
+        }
+        rowCount++;
+        colCount += currentResult.size();
+        Cell firstCell = currentResult.rawCells()[0];
+        byte[] rowArray = firstCell.getRowArray();
+        int rowOffset = firstCell.getRowOffset();
+        int rowLength = firstCell.getRowLength();
+        // the job whose task rows start at or before this row
+        while (nextJob != null && Bytes.compareTo(nextJob.getKey(), 0,
+            nextJob.getKey().length, rowArray, rowOffset, rowLength) <= 0) {
+          job = nextJob;
+          nextJob = jobs.hasNext() ? jobs.next() : null;
+        }
+        if (job == null || rowLength < job.getKey().length
+            || !Bytes.equals(job.getKey(), 0, job.getKey().length, rowArray,
+                rowOffset, job.getKey().length)) {
+          continue;
         }
+        keyView.set(rowArray, rowOffset, rowLength);
+        if (!keyView.isTaskKey()) {
+          continue;
+        }
+        // the task shares the key of its job instead of decoding its own
+        TaskDetails task = new TaskDetails(
+            keyView.toTaskKey(job.getValue().getJobKey()));
+        task.populate(currentResult.getFamilyMap(Constants.INFO_FAM_BYTES));
+        job.getValue().addTask(task);
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Added " + rowCount + " tasks to " + jobsByTaskRow.size()
+            + " jobs");
       }
     } finally {
       scanner.close();
       taskTable.close();
+      EndpointMetrics.recordScan(rowCount, colCount);
     }
   }
 
@@ -603,15 +849,27 @@ public class JobHistoryService {
         .getTable(TableName.valueOf(Constants.HISTORY_TASK_TABLE));
     Scan scan = getTaskScan(job.getJobKey());
     ResultScanner scanner = taskTable.getScanner(scan);
+    int rowCount = 0;
+    long colCount = 0;
+    JobKeyView keyView = new JobKeyView();
     try {
       // advance through the scanner til we pass keys matching the job
       for (Result currentResult : scanner) {
         if (currentResult == null || currentResult.isEmpty()) {
           break;
         }
-
-        TaskKey taskKey = taskKeyConv.fromBytes(currentResult.getRow());
-        TaskDetails task = new TaskDetails(taskKey);
+        rowCount++;
+        colCount += currentResult.size();
+
+        Cell firstCell = currentResult.rawCells()[0];
+        keyView.set(firstCell.getRowArray(), firstCell.getRowOffset(),
+            firstCell.getRowLength());
+        if (!keyView.isTaskKey()) {
+          continue;
+        }
+        // the scan only returns the task rows of the job
+        TaskDetails task =
+            new TaskDetails(keyView.toTaskKey(job.getJobKey()));
         task.populate(currentResult.getFamilyMap(Constants.INFO_FAM_BYTES));
         job.addTask(task);
       }
@@ -622,6 +880,7 @@ public class JobHistoryService {
     } finally {
       scanner.close();
       taskTable.close();
+      EndpointMetrics.recordScan(rowCount, colCount);
     }
   }
 
@@ -632,10 +891,11 @@ public class JobHistoryService {
    * @return a {@code Scan} instance for the job_history_task table
    */
   private Scan getTaskScan(JobKey jobKey) {
-    byte[] startKey =
-        Bytes.add(jobKeyConv.toBytes(jobKey), Constants.SEP_BYTES);
+    byte[] jobKeyBytes = jobKeyConv.toBytes(jobKey);
+    byte[] startKey = Bytes.add(jobKeyBytes, Constants.SEP_BYTES);
     Scan scan = new Scan();
     scan.setStartRow(startKey);
+    scan.setStopRow(getTaskStopRow(jobKeyBytes));
     // only return tasks for this job
     scan.setFilter(new WhileMatchFilter(new PrefixFilter(startKey)));
     // expect a lot of tasks on average
@@ -643,6 +903,15 @@ public class JobHistoryService {
     return scan;
   }
 
+  /**
+   * @param jobKey the serialized job key
+   * @return the row just past the task rows of the job in the
+   *         job_history_task table
+   */
+  private static byte[] getTaskStopRow(byte[] jobKey) {
+    return Bytes.add(jobKey, TASK_STOP_SEP_BYTES);
+  }
+
   /**
    * Converts serialized configuration properties back in to a Configuration
    * object.
@@ -655,7 +924,8 @@ public class JobHistoryService {
     Configuration config = new Configuration(false);
     byte[] configPrefix =
         Bytes.add(Constants.JOB_CONF_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES);
-    for (Map.Entry<byte[], byte[]> entry : keyValues.entrySet()) {
+    for (Map.Entry<byte[], byte[]> entry : prefixEntries(configPrefix,
+        keyValues)) {
       byte[] key = entry.getKey();
       if (Bytes.startsWith(key, configPrefix)
           && key.length > configPrefix.length) {
@@ -667,6 +937,26 @@ public class JobHistoryService {
     return config;
   }
 
+  /**
+   * @param prefix column qualifier prefix
+   * @param keyValues column values
+   * @return the entries starting at the prefix if the columns are sorted, all
+   *         of the entries otherwise
+   */
+  private static Iterable<Map.Entry<byte[], byte[]>> prefixEntries(
+      byte[] prefix, Map<byte[], byte[]> keyValues) {
+    if (keyValues instanceof NavigableMap) {
+      NavigableMap<byte[], byte[]> sorted =
+          (NavigableMap<byte[], byte[]>) keyValues;
+      // the prefix itself is the smallest key that starts with it, and the
+      // prefix with its last byte incremented is the first key past it
+      byte[] stop = Arrays.copyOf(prefix, prefix.length);
+      stop[stop.length - 1]++;
+      return sorted.subMap(prefix, true, stop, false).entrySet();
+    }
+    return keyValues.entrySet();
+  }
+
   /**
    * Converts encoded key values back into counter objects.
    *
@@ -677,7 +967,8 @@ public class JobHistoryService {
       Map<byte[], byte[]> keyValues) {
     CounterMap counterValues = new CounterMap();
     byte[] counterPrefix = Bytes.add(prefix, Constants.SEP_BYTES);
-    for (Map.Entry<byte[], byte[]> entry : keyValues.entrySet()) {
+    for (Map.Entry<byte[], byte[]> entry : prefixEntries(counterPrefix,
+        keyValues)) {
       byte[] key = entry.getKey();
       if (Bytes.startsWith(key, counterPrefix)
           && key.length > counterPrefix.length) {
@@ -712,6 +1003,23 @@ public class JobHistoryService {
    */
   static void setHravenQueueNamePut(Configuration jobConf, Put jobPut,
       JobKey jobKey, byte[] jobConfColumnPrefix) {
+    setHravenQueueNamePut(HadoopConfUtil.wrap(jobConf), jobPut, jobKey,
+        jobConfColumnPrefix);
+  }
+
+  /**
+   * sets the hRavenQueueName in the jobPut so that it's independent of
+   * hadoop1/hadoop2 queue/pool names
+   *
+   * @param jobConf
+   * @param jobPut
+   * @param jobKey
+   * @param jobConfColumnPrefix
+   *
+   * @throws IllegalArgumentException if neither config param is found
+   */
+  static void setHravenQueueNamePut(JobConfProperties jobConf, Put jobPut,
+      JobKey jobKey, byte[] jobConfColumnPrefix) {
 
     String hRavenQueueName = HadoopConfUtil.getQueueName(jobConf);
     if (hRavenQueueName.equalsIgnoreCase(Constants.DEFAULT_VALUE_QUEUENAME)) {
@@ -738,6 +1046,26 @@ public class JobHistoryService {
    * @return puts for the given job configuration
    */
   public static List<Put> getHbasePuts(JobDesc jobDesc, Configuration jobConf) {
+    return getHbasePuts(jobDesc, jobConf, HadoopConfUtil.wrap(jobConf));
+  }
+
+  /**
+   * Returns the HBase {@code Put} instances to store for the given job conf
+   * read with {@link RawJobConf}. Each property will be stored as a separate
+   * key value, exactly as it is named in the job conf file. Unlike
+   * {@link #getHbasePuts(JobDesc, Configuration)}, no key values are added
+   * for the replacement names of deprecated keys.
+   *
+   * @param jobDesc the {@link JobDesc} generated for the job
+   * @param jobConf the job configuration
+   * @return puts for the given job configuration
+   */
+  public static List<Put> getHbasePuts(JobDesc jobDesc, RawJobConf jobConf) {
+    return getHbasePuts(jobDesc, jobConf, jobConf);
+  }
+
+  private static List<Put> getHbasePuts(JobDesc jobDesc,
+      Iterable<Entry<String, String>> properties, JobConfProperties jobConf) {
     List<Put> puts = new LinkedList<Put>();
 
     JobKey jobKey = new JobKey(jobDesc);
@@ -755,7 +1083,7 @@ public class JobHistoryService {
         Bytes.toBytes(Constants.JOB_CONF_COLUMN_PREFIX + Constants.SEP);
 
     // Create puts for all the parameters in the job configuration
-    Iterator<Entry<String, String>> jobConfIterator = jobConf.iterator();
+    Iterator<Entry<String, String>> jobConfIterator = properties.iterator();
     while (jobConfIterator.hasNext()) {
       Entry<String, String> entry = jobConfIterator.next();
       // Prefix the job conf entry column with an indicator to
@@ -56,9 +56,7 @@ public class JobKeyConverter implements ByteConverter<JobKey> {
    */
   @Override
   public JobKey fromBytes(byte[] bytes) {
-    byte[][] splits = splitJobKey(bytes);
-    // no combined runId + jobId, parse as is
-    return parseJobKey(splits);
+    return new JobKeyView().set(bytes).toJobKey();
   }
 
   /**
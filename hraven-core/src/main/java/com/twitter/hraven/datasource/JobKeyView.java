@@ -0,0 +1,349 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobId;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskKey;
+import com.twitter.hraven.util.ByteUtil;
+
+/**
+ * A reusable view over the bytes of a job or task row key, as written by
+ * {@link JobKeyConverter} and {@link TaskKeyConverter}:
+ * <pre>
+ *   cluster!user!appId!encodedRunId!jobId(!taskId)?
+ * </pre>
+ * Pointing the view at a row only locates the key components within the row
+ * bytes, it copies nothing. The components can be read as offsets and lengths
+ * into {@link #getBytes()}, and are only turned into Strings when asked for.
+ * Rows scanned in key order mostly repeat the cluster, user and app of the row
+ * before, so the Strings of the previous row are reused when the bytes match,
+ * and cluster and user names are interned.
+ * <p>
+ * A view is meant to be reused for all rows of a scan by a single thread and
+ * is not thread safe.
+ */
+public class JobKeyView {
+
+  /** length of the encoded run id */
+  private static final int RUN_ID_LENGTH = Bytes.SIZEOF_LONG;
+  /** length of the encoded job id: job epoch and job sequence */
+  private static final int JOB_ID_LENGTH = 2 * Bytes.SIZEOF_LONG;
+
+  /** cluster, user, app and remainder start and end positions */
+  private final int[] boundaries = new int[8];
+  private int segments;
+
+  private byte[] bytes;
+  private int offset;
+  private int length;
+
+  private int runIdOffset = -1;
+  private int jobIdOffset = -1;
+  private int taskIdOffset = -1;
+  private int taskIdLength;
+
+  private final CachedString cluster = new CachedString(true);
+  private final CachedString userName = new CachedString(true);
+  private final CachedString appId = new CachedString(false);
+
+  /**
+   * Points the view at a complete row key.
+   *
+   * @param rowKey the row key bytes
+   * @return this view
+   */
+  public JobKeyView set(byte[] rowKey) {
+    return set(rowKey, 0, rowKey.length);
+  }
+
+  /**
+   * Points the view at a row key within a larger array, such as the row of a
+   * {@link org.apache.hadoop.hbase.Cell}.
+   *
+   * @param buffer holding the row key
+   * @param rowOffset where the row key starts in the buffer
+   * @param rowLength the length of the row key
+   * @return this view
+   */
+  public JobKeyView set(byte[] buffer, int rowOffset, int rowLength) {
+    this.bytes = buffer;
+    this.offset = rowOffset;
+    this.length = rowLength;
+    this.segments = ByteUtil.splitOffsets(buffer, rowOffset, rowLength,
+        Constants.SEP_BYTES, boundaries);
+
+    runIdOffset = -1;
+    jobIdOffset = -1;
+    taskIdOffset = -1;
+    taskIdLength = 0;
+    if (segments == 4) {
+      // the run id may contain the separator bytes, so the remainder is
+      // split on the encoded lengths instead
+      int remainderStart = boundaries[6];
+      int remainderEnd = boundaries[7];
+      if (remainderEnd - remainderStart >= RUN_ID_LENGTH) {
+        runIdOffset = remainderStart;
+        int jobIdStart =
+            remainderStart + RUN_ID_LENGTH + Constants.SEP_BYTES.length;
+        if (remainderEnd - jobIdStart >= JOB_ID_LENGTH) {
+          jobIdOffset = jobIdStart;
+          int taskIdStart =
+              jobIdStart + JOB_ID_LENGTH + Constants.SEP_BYTES.length;
+          if (remainderEnd >= taskIdStart) {
+            taskIdOffset = taskIdStart;
+            taskIdLength = remainderEnd - taskIdStart;
+          }
+        }
+      }
+    }
+    return this;
+  }
+
+  /**
+   * @return the array holding the row key
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return where the row key starts in {@link #getBytes()}
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the length of the row key
+   */
+  public int getLength() {
+    return length;
+  }
+
+  public int getClusterOffset() {
+    return boundaries[0];
+  }
+
+  public int getClusterLength() {
+    return boundaries[1] - boundaries[0];
+  }
+
+  /**
+   * @return where the user name starts, or -1 when the key has none
+   */
+  public int getUserNameOffset() {
+    return (segments > 1) ? boundaries[2] : -1;
+  }
+
+  public int getUserNameLength() {
+    return (segments > 1) ? boundaries[3] - boundaries[2] : 0;
+  }
+
+  /**
+   * @return where the app id starts, or -1 when the key has none
+   */
+  public int getAppIdOffset() {
+    return (segments > 2) ? boundaries[4] : -1;
+  }
+
+  public int getAppIdLength() {
+    return (segments > 2) ? boundaries[5] - boundaries[4] : 0;
+  }
+
+  /**
+   * @return where the encoded run id starts, or -1 when the key has none
+   */
+  public int getRunIdOffset() {
+    return runIdOffset;
+  }
+
+  /**
+   * @return where the encoded job id starts, or -1 when the key has none
+   */
+  public int getJobIdOffset() {
+    return jobIdOffset;
+  }
+
+  /**
+   * @return where the task id starts, or -1 when the key has none
+   */
+  public int getTaskIdOffset() {
+    return taskIdOffset;
+  }
+
+  public int getTaskIdLength() {
+    return taskIdLength;
+  }
+
+  /**
+   * @return the number of separated segments found in the key, at most 4:
+   *         cluster, user, app and the remainder holding the run, job and
+   *         task ids
+   */
+  public int getSegments() {
+    return segments;
+  }
+
+  /**
+   * @return whether the key holds all components of a job key
+   */
+  public boolean isJobKey() {
+    return jobIdOffset != -1;
+  }
+
+  /**
+   * @return whether the key holds all components of a task key
+   */
+  public boolean isTaskKey() {
+    return taskIdOffset != -1;
+  }
+
+  /**
+   * @return the length of the {@code cluster!user!appId!encodedRunId} prefix
+   *         of the key that the jobs of a flow share, or -1 when the key has no
+   *         run id
+   */
+  public int getFlowKeyLength() {
+    if (runIdOffset == -1) {
+      return -1;
+    }
+    return runIdOffset + RUN_ID_LENGTH - offset;
+  }
+
+  /**
+   * @param flowKeyBytes the {@code cluster!user!appId!encodedRunId} prefix of
+   *          the row key of another job
+   * @return whether the key is of a job in the same flow, without decoding any
+   *         of its components
+   */
+  public boolean isSameFlow(byte[] flowKeyBytes) {
+    int flowKeyLength = getFlowKeyLength();
+    return flowKeyLength != -1 && Bytes.equals(flowKeyBytes, 0,
+        flowKeyBytes.length, bytes, offset, flowKeyLength);
+  }
+
+  /**
+   * @param jobKey the key of the job this task key is known to belong to, as
+   *          the row is within the task rows of the job
+   * @return a new TaskKey sharing the job components of the given key
+   */
+  public TaskKey toTaskKey(JobKey jobKey) {
+    return new TaskKey(jobKey, getTaskId());
+  }
+
+  /**
+   * @return the cluster, interned
+   */
+  public String getCluster() {
+    return cluster.get(bytes, getClusterOffset(), getClusterLength());
+  }
+
+  /**
+   * @return the user name, interned, or null when the key has none
+   */
+  public String getUserName() {
+    if (segments < 2) {
+      return null;
+    }
+    return userName.get(bytes, getUserNameOffset(), getUserNameLength());
+  }
+
+  /**
+   * @return the app id, or null when the key has none
+   */
+  public String getAppId() {
+    if (segments < 3) {
+      return null;
+    }
+    return appId.get(bytes, getAppIdOffset(), getAppIdLength());
+  }
+
+  /**
+   * @return the run id, or 0 when the key has none
+   */
+  public long getRunId() {
+    if (runIdOffset == -1) {
+      return 0L;
+    }
+    // run id is inverted in the bytes so that runs sort newest first
+    return Long.MAX_VALUE - Bytes.toLong(bytes, runIdOffset);
+  }
+
+  /**
+   * @return the job id, or null when the key has none
+   */
+  public JobId getJobId() {
+    if (jobIdOffset == -1) {
+      return null;
+    }
+    return new JobId(Bytes.toLong(bytes, jobIdOffset),
+        Bytes.toLong(bytes, jobIdOffset + Bytes.SIZEOF_LONG));
+  }
+
+  /**
+   * @return the task id, or null when the key has none
+   */
+  public String getTaskId() {
+    if (taskIdOffset == -1) {
+      return null;
+    }
+    return Bytes.toString(bytes, taskIdOffset, taskIdLength);
+  }
+
+  /**
+   * @return a new JobKey holding the components of the row key
+   */
+  public JobKey toJobKey() {
+    return new JobKey(getCluster(), getUserName(), getAppId(), getRunId(),
+        getJobId());
+  }
+
+  /**
+   * @return a new TaskKey holding the components of the row key
+   */
+  public TaskKey toTaskKey() {
+    return new TaskKey(toJobKey(), getTaskId());
+  }
+
+  /**
+   * The String for a key component, which is reused as long as the component
+   * has the same bytes as the row it was created for.
+   */
+  private static final class CachedString {
+    private final boolean intern;
+    private byte[] cachedBytes = Constants.EMPTY_BYTES;
+    private String value;
+
+    CachedString(boolean intern) {
+      this.intern = intern;
+    }
+
+    String get(byte[] buffer, int start, int len) {
+      if (value == null
+          || !Bytes.equals(cachedBytes, 0, cachedBytes.length, buffer, start,
+              len)) {
+        String decoded = Bytes.toString(buffer, start, len);
+        value = intern ? decoded.intern() : decoded;
+        cachedBytes = ByteUtil.safeCopy(buffer, start, len);
+      }
+      return value;
+    }
+  }
+}
@@ -15,80 +15,145 @@ limitations under the License.
 */
 package com.twitter.hraven.datasource;
 
-import java.io.DataInput;
-import java.io.DataOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.List;
 
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterBase;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.hadoop.hbase.Cell;
 
 import com.twitter.hraven.Constants;
-import com.twitter.hraven.util.ByteUtil;
+import com.twitter.hraven.FlowKey;
 
 /**
  * Match up to N runs of a given app.  Once N runs have been seen, we filter all
  * remaining rows.
+ * <p>
+ * Rows are expected to start with the cluster!user!appId! prefix passed in,
+ * followed by the long encoded run ID. If a version is given, only rows with
+ * that value in the {@link Constants#VERSION_COLUMN} are returned and counted,
+ * so this filter takes the place of a version {@code SingleColumnValueFilter}.
+ * When combined with other filters in a {@code FilterList}, add this filter
+ * last so that rows dropped by the other filters are not counted as runs.
+ * <p>
+ * Runs are counted per region, so a scan spanning several regions can still
+ * return more than N runs and callers need to enforce the limit as well.
+ * Since the filter is evaluated on the region servers, the hraven-core jar
+ * needs to be on their classpath.
  */
 public class RunMatchFilter extends FilterBase {
-  private byte[] appId;
+  /** the encoded run ID of jobs without a run ID, each is its own flow */
+  private static final byte[] NO_RUN_ID =
+      Bytes.toBytes(FlowKey.encodeRunId(0L));
+
+  private byte[] rowPrefix;
   private int maxCount;
+  private byte[] version;
+
+  /** run ID of the last row passed */
   private byte[] lastRunId = null;
   private int seenCount;
 
+  /** per row state, cleared by {@link #reset()} */
+  private final byte[] currentRunId = new byte[Bytes.SIZEOF_LONG];
+  private boolean filterCurrentRow = false;
+
+  /**
+   * Match only a single run of the app identified by the given row prefix
+   * @param rowPrefix cluster!user!appId!
+   */
+  public RunMatchFilter(byte[] rowPrefix) {
+    this(rowPrefix, 1);
+  }
+
   /**
-   * Match only a single run of the given appId
-   * @param appId
+   * Match up to maxCount runs of the app identified by the given row prefix
+   *
+   * @param rowPrefix cluster!user!appId!
+   * @param maxCount
    */
-  public RunMatchFilter(String appId) {
-    this(appId, 1);
+  public RunMatchFilter(byte[] rowPrefix, int maxCount) {
+    this(rowPrefix, maxCount, null);
   }
 
   /**
-   * Match up to maxCount runs of the given appId
+   * Match up to maxCount runs of the given app version
    *
-   * @param appId
+   * @param rowPrefix cluster!user!appId!
    * @param maxCount
+   * @param version if non-null, only rows of this app version are passed
    */
-  public RunMatchFilter(String appId, int maxCount) {
-    this.appId = Bytes.toBytes(appId);
+  public RunMatchFilter(byte[] rowPrefix, int maxCount, String version) {
+    this.rowPrefix = rowPrefix;
     this.maxCount = maxCount;
+    this.version =
+        (version != null && version.length() > 0) ? Bytes.toBytes(version) : null;
+  }
+
+  /**
+   * @return the number of runs passed so far
+   */
+  int getSeenCount() {
+    return seenCount;
   }
 
   @Override
   public void reset() {
-    this.seenCount = 0;
+    this.filterCurrentRow = false;
   }
 
   @Override
   public boolean filterRowKey(byte[] buffer, int offset, int length) {
-    // TODO: don't copy the byte[]
-    byte[] rowkey = new byte[length];
-    System.arraycopy(buffer, offset, rowkey, 0, length);
-    List<ByteUtil.Range> splits = ByteUtil.splitRanges(rowkey, Constants.SEP_BYTES);
-    if (splits.size() < 4) {
-      // invalid row key
+    if (filterAllRemaining()) {
       return true;
     }
-    ByteUtil.Range appRange = splits.get(1);
-    int appCompare = Bytes.compareTo(appId, 0, appId.length,
-        rowkey, appRange.start(), appRange.length());
-    if (appCompare != 0) {
-      return false;
+    if (length < rowPrefix.length + currentRunId.length
+        || Bytes.compareTo(rowPrefix, 0, rowPrefix.length,
+            buffer, offset, rowPrefix.length) != 0) {
+      // not a row of this app
+      filterCurrentRow = true;
+      return true;
     }
-    ByteUtil.Range runRange = splits.get(2);
-    int runLength = runRange.length();
-    if (lastRunId == null ||
-        Bytes.compareTo(lastRunId, 0, lastRunId.length,
-            rowkey, runRange.start(), runLength) != 0) {
-      lastRunId = new byte[runLength];
-      System.arraycopy(rowkey, runRange.start(), lastRunId, 0, runLength);
-      seenCount++;
+    System.arraycopy(buffer, offset + rowPrefix.length, currentRunId, 0,
+        currentRunId.length);
+    return false;
+  }
+
+  @Override
+  public Filter.ReturnCode filterKeyValue(Cell cell) throws IOException {
+    if (version != null
+        && CellUtil.matchingColumn(cell, Constants.INFO_FAM_BYTES,
+            Constants.VERSION_COLUMN_BYTES)
+        && !CellUtil.matchingValue(cell, version)) {
+      filterCurrentRow = true;
+      return Filter.ReturnCode.NEXT_ROW;
     }
+    return Filter.ReturnCode.INCLUDE;
+  }
 
-    return seenCount > maxCount;
+  @Override
+  public boolean hasFilterRow() {
+    return true;
+  }
+
+  @Override
+  public boolean filterRow() throws IOException {
+    if (filterCurrentRow) {
+      return true;
+    }
+    // only count the run once the row is known to be returned
+    if (lastRunId == null || Bytes.equals(currentRunId, NO_RUN_ID)
+        || !Bytes.equals(lastRunId, currentRunId)) {
+      lastRunId = Bytes.copy(currentRunId);
+      seenCount++;
+    }
+    return filterAllRemaining();
   }
 
   @Override
@@ -97,26 +162,43 @@ public class RunMatchFilter extends FilterBase {
     return seenCount > maxCount;
   }
 
-// TODO dogpile days check override  @Override
-  public void write(DataOutput out) throws IOException {
-    out.writeInt(appId.length);
-    out.write(appId);
+  @Override
+  public byte[] toByteArray() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    Bytes.writeByteArray(out, rowPrefix);
     out.writeInt(maxCount);
+    Bytes.writeByteArray(out, version == null ? Constants.EMPTY_BYTES : version);
+    out.close();
+    return bytes.toByteArray();
   }
 
-//TODO dogpile days check override   @Override
-  public void readFields(DataInput in) throws IOException {
-    int appIdLength = in.readInt();
-    this.appId = new byte[appIdLength];
-    in.readFully(appId);
-    this.maxCount = in.readInt();
+  /**
+   * Reverse operation of {@link #toByteArray()}, used by the region servers
+   * to instantiate the filter.
+   *
+   * @param bytes serialized filter
+   * @return a RunMatchFilter instance
+   * @throws DeserializationException
+   */
+  public static RunMatchFilter parseFrom(final byte[] bytes)
+      throws DeserializationException {
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      byte[] rowPrefix = Bytes.readByteArray(in);
+      int maxCount = in.readInt();
+      byte[] version = Bytes.readByteArray(in);
+      return new RunMatchFilter(rowPrefix, maxCount,
+          version.length > 0 ? Bytes.toString(version) : null);
+    } catch (IOException ioe) {
+      throw new DeserializationException(ioe);
+    }
   }
 
   @Override
-  public Filter.ReturnCode filterKeyValue(Cell cell)
-  throws IOException {
-    //TODO dogpiledays
-    return Filter.ReturnCode.SKIP;
+  public String toString() {
+    return this.getClass().getSimpleName() + " " + Bytes.toStringBinary(rowPrefix)
+        + " maxCount=" + maxCount
+        + (version == null ? "" : " version=" + Bytes.toString(version));
   }
-  
 }
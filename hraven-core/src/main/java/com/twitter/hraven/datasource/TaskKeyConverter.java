@@ -18,7 +18,6 @@ package com.twitter.hraven.datasource;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.twitter.hraven.Constants;
-import com.twitter.hraven.JobKey;
 import com.twitter.hraven.TaskKey;
 
 /**
@@ -47,9 +46,6 @@ public class TaskKeyConverter implements ByteConverter<TaskKey> {
    */
   @Override
   public TaskKey fromBytes(byte[] bytes) {
-    byte[][] keyComponents = JobKeyConverter.splitJobKey(bytes);
-    JobKey jobKey = jobKeyConv.parseJobKey(keyComponents);
-    return new TaskKey(jobKey,
-        (keyComponents.length > 5 ? Bytes.toString(keyComponents[5]) : null));
+    return new JobKeyView().set(bytes).toTaskKey();
   }
 }
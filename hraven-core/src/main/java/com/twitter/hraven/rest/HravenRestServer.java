@@ -15,6 +15,7 @@ limitations under the License.
 */
 package com.twitter.hraven.rest;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -22,6 +23,7 @@ import javax.inject.Inject;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HBaseConfiguration;
 
 import com.google.common.collect.Maps;
 import com.google.inject.Module;
@@ -52,12 +54,19 @@ public class HravenRestServer extends AbstractApplication {
   @Override
   public void run() {
     LOG.info("Running");
-    Map<String, String> initParams = Maps.newHashMap();
-    initParams.put("com.sun.jersey.config.property.packages", "com.twitter.hraven.rest");
-    initParams.put("com.sun.jersey.api.json.POJOMappingFeature", "true");
+    // connect to HBase once, the REST resources share the services
+    RestServices services;
+    try {
+      services = RestServices.start(HBaseConfiguration.create());
+    } catch (IOException ioe) {
+      LOG.fatal("Failed to connect to HBase", ioe);
+      throw new RuntimeException("Failed to connect to HBase", ioe);
+    }
 
+    Map<String, String> initParams = Maps.newHashMap();
     httpServer.registerHandler("/",
-      new com.sun.jersey.spi.container.servlet.ServletContainer(), initParams, false);
+      new com.sun.jersey.spi.container.servlet.ServletContainer(
+          services.getResourceConfig()), initParams, false);
 
     // export a metric that printouts the epoch time this service came up
     // metrics can be viewed at hostname:portnumber/vars or
@@ -65,7 +74,11 @@ public class HravenRestServer extends AbstractApplication {
     Stats.exportLong("hravenRestService_StartTimestamp", System.currentTimeMillis());
 
     // await shutdown
-    lifecycle.awaitShutdown();
+    try {
+      lifecycle.awaitShutdown();
+    } finally {
+      RestServices.shutdown();
+    }
   }
 
   /**
@@ -60,8 +60,22 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
   @SuppressWarnings("unused")
   private static final Log LOG = LogFactory.getLog(ObjectMapperProvider.class);
 
+  /**
+   * Writes the objects the custom serializers write out in full, without
+   * filtering. Mappers cache the serializers they introspect and are thread
+   * safe once configured, so a single one is shared by all serializers rather
+   * than building one per object written.
+   */
+  private static final ObjectMapper BEAN_MAPPER = createBeanMapper();
+
+  /**
+   * Shared by all providers, the serializers look up the detail level and
+   * filters of each request in {@link RestResource#serializationContext}.
+   */
+  private static final ObjectMapper CUSTOM_MAPPER = createCustomMapper();
+
   public ObjectMapperProvider() {
-    customMapper = createCustomMapper();
+    customMapper = CUSTOM_MAPPER;
   }
 
   @Override
@@ -90,6 +104,12 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
     return result;
   }
 
+  private static ObjectMapper createBeanMapper() {
+    ObjectMapper result = new ObjectMapper();
+    result.registerModule(addJobMappings(createhRavenModule()));
+    return result;
+  }
+
   private static SimpleModule addJobMappings(SimpleModule module) {
     module.addSerializer(Configuration.class, new ConfigurationSerializer());
     module.addSerializer(CounterMap.class, new CounterSerializer());
@@ -146,14 +166,10 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
 
       if (includeFilter == null && includeCounterFilter == null) {
         // should generate the json for everything in the task details object
-        ObjectMapper om = new ObjectMapper();
-        om.registerModule(addJobMappings(createhRavenModule()));
-        om.writeValue(jsonGenerator, td);
+        BEAN_MAPPER.writeValue(jsonGenerator, td);
       } else {
         // should generate the json for everything in the task details object
         // as per the filtering criteria
-        ObjectMapper om = new ObjectMapper();
-        om.registerModule(addJobMappings(createhRavenModule()));
         jsonGenerator.writeStartObject();
         filteredWrite("taskKey", includeFilter, td.getTaskKey(), jsonGenerator);
         filteredWrite("taskId", includeFilter, td.getTaskId(), jsonGenerator);
@@ -204,14 +220,10 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
       }
 
       if (includeFilter == null && includeCounterFilter == null) {
-        ObjectMapper om = new ObjectMapper();
-        om.registerModule(addJobMappings(createhRavenModule()));
-        om.writeValue(jsonGenerator, jd);
+        BEAN_MAPPER.writeValue(jsonGenerator, jd);
       } else {
         // should generate the json for every field in the job details object
         // as per the filtering criteria
-        ObjectMapper om = new ObjectMapper();
-        om.registerModule(addJobMappings(createhRavenModule()));
         jsonGenerator.writeStartObject();
         filteredWrite("jobKey", includeFilter, jd.getJobKey(), jsonGenerator);
         filteredWrite("jobId", includeFilter, jd.getJobId(), jsonGenerator);
@@ -389,14 +401,10 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
           .get().getLevel();
       if (selectedSerialization == SerializationContext.DetailLevel.EVERYTHING) {
         // should generate the json for everything in the app summary object
-        ObjectMapper om = new ObjectMapper();
-        om.registerModule(addJobMappings(createhRavenModule()));
-        om.writeValue(jsonGenerator, anApp);
+        BEAN_MAPPER.writeValue(jsonGenerator, anApp);
       } else {
         if (selectedSerialization == SerializationContext.DetailLevel.APP_SUMMARY_STATS_NEW_JOBS_ONLY) {
           // should generate the json for stats relevant for new jobs
-          ObjectMapper om = new ObjectMapper();
-          om.registerModule(addJobMappings(createhRavenModule()));
           jsonGenerator.writeStartObject();
           jsonGenerator.writeFieldName("cluster");
           jsonGenerator.writeString(anApp.getKey().getCluster());
@@ -415,8 +423,6 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
           jsonGenerator.writeEndObject();
         } else if (selectedSerialization == SerializationContext.DetailLevel.APP_SUMMARY_STATS_ALL_APPS) {
           // should generate the json for everything in the app summary object
-          ObjectMapper om = new ObjectMapper();
-          om.registerModule(addJobMappings(createhRavenModule()));
           jsonGenerator.writeStartObject();
           jsonGenerator.writeFieldName("cluster");
           jsonGenerator.writeString(anApp.getKey().getCluster());
@@ -478,6 +484,46 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
     }
   }
 
+  /**
+   * checks if the member is to be filtered out or no if filter itself is
+   * null, writes out that member as a number, without boxing it
+   *
+   * @param member
+   * @param includeFilter
+   * @param value
+   * @param jsonGenerator
+   * @throws JsonGenerationException
+   * @throws IOException
+   */
+  public static void filteredWrite(String member, Predicate<String> includeFilter,
+      long value, JsonGenerator jsonGenerator)
+      throws JsonGenerationException, IOException {
+    if (includeFilter == null || includeFilter.apply(member)) {
+      jsonGenerator.writeFieldName(member);
+      jsonGenerator.writeNumber(value);
+    }
+  }
+
+  /**
+   * checks if the member is to be filtered out or no if filter itself is
+   * null, writes out that member as a number, without boxing it
+   *
+   * @param member
+   * @param includeFilter
+   * @param value
+   * @param jsonGenerator
+   * @throws JsonGenerationException
+   * @throws IOException
+   */
+  public static void filteredWrite(String member, Predicate<String> includeFilter,
+      double value, JsonGenerator jsonGenerator)
+      throws JsonGenerationException, IOException {
+    if (includeFilter == null || includeFilter.apply(member)) {
+      jsonGenerator.writeFieldName(member);
+      jsonGenerator.writeNumber(value);
+    }
+  }
+
   /**
    * checks if the member is to be filtered out or no if filter itself is
    * null, writes out that member as a String
@@ -531,15 +577,20 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
         boolean startObjectGroupMap = false;
         jsonGenerator.writeFieldName(member);
 
-        String fullCounterName;
+        // the group prefix is written once per group rather than per counter
+        StringBuilder fullCounterName = new StringBuilder();
         jsonGenerator.writeStartObject();
 
         for (String group : counterMap.getGroups()) {
           Map<String, Counter> groupMap = counterMap.getGroup(group);
+          fullCounterName.setLength(0);
+          fullCounterName.append(group).append('.');
+          int prefixLength = fullCounterName.length();
           for (Map.Entry<String, Counter> nameCounterEntry : groupMap.entrySet()) {
             Counter counter = nameCounterEntry.getValue();
-            fullCounterName = group + "." + counter.getKey();
-            if (includeCounterFilter.apply(fullCounterName)) {
+            fullCounterName.setLength(prefixLength);
+            fullCounterName.append(counter.getKey());
+            if (includeCounterFilter.apply(fullCounterName.toString())) {
               if (startObjectGroupMap == false) {
                 jsonGenerator.writeFieldName(group);
                 jsonGenerator.writeStartObject();
@@ -0,0 +1,82 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import javax.ws.rs.ext.Provider;
+
+import com.sun.jersey.api.core.HttpContext;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.spi.container.ResourceMethodDispatchAdapter;
+import com.sun.jersey.spi.container.ResourceMethodDispatchProvider;
+import com.sun.jersey.spi.dispatch.RequestDispatcher;
+import com.twitter.hraven.EndpointMetrics;
+
+/**
+ * Stops the {@link EndpointMetrics.Request} a resource method started once
+ * the method returns, or as an error once it throws.
+ * <p>
+ * The resource methods keep the request they timed in the
+ * {@link ResponseMetricsFilter#REQUEST_PROPERTY} property of the request
+ * being dispatched. Stopping it here also stops attributing the scans on the
+ * request thread to it, even when the exception is not mapped to a response.
+ */
+@Provider
+public class RequestMetricsDispatchAdapter
+    implements ResourceMethodDispatchAdapter {
+
+  @Override
+  public ResourceMethodDispatchProvider adapt(
+      final ResourceMethodDispatchProvider provider) {
+    return new ResourceMethodDispatchProvider() {
+      @Override
+      public RequestDispatcher create(AbstractResourceMethod method) {
+        RequestDispatcher dispatcher = provider.create(method);
+        return dispatcher == null ? null
+            : new RequestMetricsDispatcher(dispatcher);
+      }
+    };
+  }
+
+  /**
+   * Stops the request started by the resource method it dispatches to.
+   */
+  private static final class RequestMetricsDispatcher
+      implements RequestDispatcher {
+    private final RequestDispatcher dispatcher;
+
+    RequestMetricsDispatcher(RequestDispatcher dispatcher) {
+      this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void dispatch(Object resource, HttpContext context) {
+      boolean succeeded = false;
+      try {
+        dispatcher.dispatch(resource, context);
+        succeeded = true;
+      } finally {
+        EndpointMetrics.Request request = (EndpointMetrics.Request) context
+            .getProperties().get(ResponseMetricsFilter.REQUEST_PROPERTY);
+        if (request != null) {
+          if (succeeded) {
+            request.succeeded();
+          }
+          request.stop();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.common.io.CountingOutputStream;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+import com.twitter.hraven.EndpointMetrics;
+
+/**
+ * Counts the bytes of the serialized responses towards the
+ * {@link EndpointMetrics} of the endpoint that handled the request.
+ * <p>
+ * The resource methods keep the request they timed in the
+ * {@link #REQUEST_PROPERTY} property of the request being responded to.
+ */
+public class ResponseMetricsFilter implements ContainerResponseFilter {
+
+  /** name of the request property holding the {@link EndpointMetrics.Request} */
+  public static final String REQUEST_PROPERTY =
+      EndpointMetrics.Request.class.getName();
+
+  @Override
+  public ContainerResponse filter(ContainerRequest request,
+      ContainerResponse response) {
+    EndpointMetrics.Request endpointRequest =
+        (EndpointMetrics.Request) request.getProperties().get(REQUEST_PROPERTY);
+    if (endpointRequest != null) {
+      response.setContainerResponseWriter(new CountingResponseWriter(
+          response.getContainerResponseWriter(), endpointRequest));
+    }
+    return response;
+  }
+
+  /**
+   * Counts the bytes written to the response entity.
+   */
+  private static final class CountingResponseWriter
+      implements ContainerResponseWriter {
+    private final ContainerResponseWriter writer;
+    private final EndpointMetrics.Request request;
+    private CountingOutputStream out;
+
+    CountingResponseWriter(ContainerResponseWriter writer,
+        EndpointMetrics.Request request) {
+      this.writer = writer;
+      this.request = request;
+    }
+
+    @Override
+    public OutputStream writeStatusAndHeaders(long contentLength,
+        ContainerResponse response) throws IOException {
+      out = new CountingOutputStream(
+          writer.writeStatusAndHeaders(contentLength, response));
+      return out;
+    }
+
+    @Override
+    public void finish() throws IOException {
+      writer.finish();
+      if (out != null) {
+        request.recordBytes(out.getCount());
+      }
+    }
+  }
+}
@@ -18,8 +18,9 @@ package com.twitter.hraven.rest;
 import static com.twitter.hraven.rest.RestJSONResource.SLASH;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
@@ -27,32 +28,33 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.client.Connection;
-import org.apache.hadoop.hbase.client.ConnectionFactory;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Stopwatch;
+import com.sun.jersey.api.core.HttpContext;
 import com.sun.jersey.core.util.Base64;
 import com.twitter.hraven.AppSummary;
 import com.twitter.hraven.Cluster;
 import com.twitter.hraven.Constants;
+import com.twitter.hraven.EndpointMetrics;
 import com.twitter.hraven.Flow;
 import com.twitter.hraven.HdfsConstants;
 import com.twitter.hraven.HdfsStats;
 import com.twitter.hraven.HravenResponseMetrics;
 import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.QualifiedJobId;
 import com.twitter.hraven.TaskDetails;
 import com.twitter.hraven.datasource.AppSummaryService;
 import com.twitter.hraven.datasource.AppVersionService;
 import com.twitter.hraven.datasource.FlowKeyConverter;
 import com.twitter.hraven.datasource.HdfsStatsService;
+import com.twitter.hraven.datasource.JobColumnSelection;
 import com.twitter.hraven.datasource.JobHistoryService;
 import com.twitter.hraven.datasource.ProcessingException;
 import com.twitter.hraven.datasource.VersionInfo;
@@ -70,23 +72,16 @@ public class RestResource {
 
   private static final Log LOG = LogFactory.getLog(RestResource.class);
 
-  private static final Configuration HBASE_CONF = HBaseConfiguration.create();
-  // TODO use regular lifecycle to create and close connection
-  private static final Connection HBASE_CONNECTION = connectToHBase(HBASE_CONF);
+  /** the services shared by all requests, injected by the server */
+  @Context
+  private RestServices services;
 
-  /**
-   * @param hbaseConf used to connect to HBase
-   * @return connection to HBase, or throw a RuntimeException if an IOException
-   *         occurs.
-   */
-  private static Connection connectToHBase(Configuration hbaseConf) {
-    try {
-      return ConnectionFactory.createConnection(hbaseConf);
-    } catch (IOException ioe) {
-      LOG.fatal("Failed to connect to HBase", ioe);
-      throw new RuntimeException("Failed to connect to HBase", ioe);
-    }
-  }
+  /** the request being served */
+  @Context
+  private HttpContext httpContext;
+
+  /** name of the serialized job field holding the job configuration */
+  private static final String JOB_CONFIGURATION_FIELD = "configuration";
 
   public static final ThreadLocal<SerializationContext> serializationContext =
       new ThreadLocal<SerializationContext>() {
@@ -99,6 +94,17 @@ public class RestResource {
         }
       };
 
+  /**
+   * starts timing a request to an endpoint, the request is kept in the request
+   * properties for the {@link ResponseMetricsFilter} to count the bytes of the
+   * response and is stopped by the {@link RequestMetricsDispatchAdapter} once
+   * the resource method returns or throws
+   */
+  private void startRequest(EndpointMetrics endpoint) {
+    httpContext.getProperties().put(ResponseMetricsFilter.REQUEST_PROPERTY,
+        endpoint.start());
+  }
+
   @GET
   @Path("job/{cluster}/{jobId}")
   @Produces(MediaType.APPLICATION_JSON)
@@ -107,6 +113,7 @@ public class RestResource {
       @QueryParam("include") List<String> includeFields,
       @QueryParam("includeCounter") List<String> includeCounters) throws IOException {
     LOG.info("Fetching JobDetails for jobId=" + jobId);
+    startRequest(HravenResponseMetrics.JOB_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
     Predicate<String> includeFilter = null;
     if (includeFields != null && !includeFields.isEmpty()) {
@@ -121,9 +128,19 @@ public class RestResource {
     serializationContext.set(
         new SerializationContext(SerializationContext.DetailLevel.EVERYTHING,
             null, null, includeFilter, null, includeCountersFilter));
-    JobHistoryService jobHistoryService =
-        new JobHistoryService(HBASE_CONF, HBASE_CONNECTION);
-    JobDetails jobDetails = jobHistoryService.getJobByJobID(cluster, jobId);
+    final JobHistoryService jobHistoryService =
+        services.getJobHistoryService();
+    final QualifiedJobId qualifiedJobId = new QualifiedJobId(cluster, jobId);
+    final JobColumnSelection columns =
+        getJobColumns(includeFields, null, includeCounters);
+    JobDetails jobDetails = services.getResultCache().getJob(
+        qualifiedJobId, false, columns, new Callable<JobDetails>() {
+          @Override
+          public JobDetails call() throws IOException {
+            return jobHistoryService.getJobByJobID(qualifiedJobId, false,
+                columns);
+          }
+        });
     timer.stop();
     if (jobDetails != null) {
       LOG.info("For job/{cluster}/{jobId} with input query:" + " job/" + cluster
@@ -139,9 +156,6 @@ public class RestResource {
           + StringUtil.buildParam("includeCounter", includeCounters)
           + " No jobDetails found, but spent " + timer);
     }
-    // export latency metrics
-    HravenResponseMetrics.JOB_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
 
     return jobDetails;
 
@@ -155,6 +169,7 @@ public class RestResource {
       @QueryParam("include") List<String> includeFields,
       @QueryParam("includeCounter") List<String> includeCounters) throws IOException {
     LOG.info("Fetching tasks info for jobId=" + jobId);
+    startRequest(HravenResponseMetrics.TASKS_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
 
     Predicate<String> includeFilter = null;
@@ -171,10 +186,20 @@ public class RestResource {
         new SerializationContext(SerializationContext.DetailLevel.EVERYTHING,
             null, null, null, includeFilter, includeCountersFilter));
 
-    JobHistoryService jobHistoryService =
-        new JobHistoryService(HBASE_CONF, HBASE_CONNECTION);
-    JobDetails jobDetails =
-        jobHistoryService.getJobByJobID(cluster, jobId, true);
+    final JobHistoryService jobHistoryService =
+        services.getJobHistoryService();
+    final QualifiedJobId qualifiedJobId = new QualifiedJobId(cluster, jobId);
+    // only the tasks are returned, so skip the job's config and counters
+    final JobColumnSelection columns = new JobColumnSelection(
+        Collections.<String>emptyList(), Collections.<String>emptyList());
+    JobDetails jobDetails = services.getResultCache().getJob(
+        qualifiedJobId, true, columns, new Callable<JobDetails>() {
+          @Override
+          public JobDetails call() throws IOException {
+            return jobHistoryService.getJobByJobID(qualifiedJobId, true,
+                columns);
+          }
+        });
     List<TaskDetails> tasks = null;
     if (jobDetails != null) {
       tasks = jobDetails.getTasks();
@@ -205,6 +230,7 @@ public class RestResource {
       throws IOException {
     LOG.info(String.format("Fetching Flow for cluster=%s, jobId=%s", cluster,
         jobId));
+    startRequest(HravenResponseMetrics.JOBFLOW_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
     Predicate<String> jobFilter = null;
     if (includeJobFields != null && !includeJobFields.isEmpty()) {
@@ -219,9 +245,20 @@ public class RestResource {
     serializationContext.set(
         new SerializationContext(SerializationContext.DetailLevel.EVERYTHING,
             null, flowFilter, jobFilter, null));
-    JobHistoryService jobHistoryService =
-        new JobHistoryService(HBASE_CONF, HBASE_CONNECTION);
-    Flow flow = jobHistoryService.getFlowByJobID(cluster, jobId, false);
+    final JobHistoryService jobHistoryService =
+        services.getJobHistoryService();
+    final QualifiedJobId qualifiedJobId = new QualifiedJobId(cluster, jobId);
+    final JobColumnSelection columns =
+        getJobColumns(includeJobFields, null, null);
+    Flow flow = services.getResultCache().getFlowByJobId(
+        qualifiedJobId, false, columns, new Callable<Flow>() {
+          @Override
+          public Flow call() throws IOException {
+            return jobHistoryService.getFlowByJobID(
+                qualifiedJobId.getCluster(), qualifiedJobId.getJobIdString(),
+                false, columns);
+          }
+        });
     timer.stop();
 
     if (flow != null) {
@@ -239,9 +276,6 @@ public class RestResource {
           + " No flow found, spent " + timer);
     }
 
-    // export latency metrics
-    HravenResponseMetrics.JOBFLOW_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return flow;
   }
 
@@ -259,6 +293,7 @@ public class RestResource {
       @QueryParam("includeJobField") List<String> includeJobFields)
       throws IOException {
 
+    startRequest(HravenResponseMetrics.FLOW_VERSION_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
 
     if (startTime == 0) {
@@ -292,8 +327,8 @@ public class RestResource {
     serializationContext.set(
         new SerializationContext(SerializationContext.DetailLevel.EVERYTHING,
             configFilter, flowFilter, jobFilter, null));
-    List<Flow> flows =
-        getFlowList(cluster, user, appId, version, startTime, endTime, limit);
+    List<Flow> flows = getFlowList(cluster, user, appId, version, startTime,
+        endTime, limit, getJobColumns(includeJobFields, includeConfig, null));
     timer.stop();
 
     StringBuilder builderIncludeConfigs = new StringBuilder();
@@ -325,9 +360,6 @@ public class RestResource {
           + " No flows fetched, spent " + timer);
     }
 
-    // export latency metrics
-    HravenResponseMetrics.FLOW_VERSION_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return flows;
   }
 
@@ -344,6 +376,7 @@ public class RestResource {
       @QueryParam("includeJobField") List<String> includeJobFields)
       throws IOException {
 
+    startRequest(HravenResponseMetrics.FLOW_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
     Predicate<String> configFilter = null;
     if (includeConfig != null && !includeConfig.isEmpty()) {
@@ -366,8 +399,8 @@ public class RestResource {
         new SerializationContext(SerializationContext.DetailLevel.EVERYTHING,
             configFilter, flowFilter, jobFilter, null));
 
-    List<Flow> flows =
-        getFlowList(cluster, user, appId, null, startTime, endTime, limit);
+    List<Flow> flows = getFlowList(cluster, user, appId, null, startTime,
+        endTime, limit, getJobColumns(includeJobFields, includeConfig, null));
     timer.stop();
 
     StringBuilder builderIncludeConfigs = new StringBuilder();
@@ -399,9 +432,6 @@ public class RestResource {
           + " No flows fetched, spent " + timer);
     }
 
-    // export latency metrics
-    HravenResponseMetrics.FLOW_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return flows;
 
   }
@@ -427,6 +457,7 @@ public class RestResource {
             + startRowParam + "&startTime=" + startTime + "&endTime=" + endTime
             + "&includeJobs=" + includeJobs);
 
+    startRequest(HravenResponseMetrics.FLOW_STATS_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
     byte[] startRow = null;
     if (startRowParam != null) {
@@ -462,7 +493,7 @@ public class RestResource {
     }
 
     JobHistoryService jobHistoryService =
-        new JobHistoryService(HBASE_CONF, HBASE_CONNECTION);
+        services.getJobHistoryService();
     List<Flow> flows = jobHistoryService.getFlowTimeSeriesStats(cluster, user,
         appId, version, startTime, endTime, limit + 1, startRow);
     PaginatedResult<Flow> flowStatsPage = new PaginatedResult<Flow>(limit);
@@ -510,9 +541,6 @@ public class RestResource {
         + StringUtil.buildParam("includeJobField", includeJobFields)
         + " fetched " + flows.size() + " in " + timer);
 
-    // export latency metrics
-    HravenResponseMetrics.FLOW_STATS_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return flowStatsPage;
   }
 
@@ -523,6 +551,7 @@ public class RestResource {
       @PathParam("cluster") String cluster, @PathParam("user") String user,
       @PathParam("appId") String appId, @QueryParam("limit") int limit)
       throws IOException {
+    startRequest(HravenResponseMetrics.APPVERSIONS_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
 
     if (LOG.isTraceEnabled()) {
@@ -532,7 +561,8 @@ public class RestResource {
     serializationContext.set(
         new SerializationContext(SerializationContext.DetailLevel.EVERYTHING));
 
-    AppVersionService appVersionService = new AppVersionService(HBASE_CONNECTION);
+    AppVersionService appVersionService =
+        services.getAppVersionService();
 
     List<VersionInfo> distinctVersions =
         appVersionService.getDistinctVersions(StringUtils.trimToEmpty(cluster),
@@ -544,9 +574,6 @@ public class RestResource {
         + limit + " fetched #number of VersionInfo " + distinctVersions.size()
         + " in ");// + timer);
 
-    // export latency metrics
-    HravenResponseMetrics.APPVERSIONS_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return distinctVersions;
   }
 
@@ -567,8 +594,8 @@ public class RestResource {
   }
 
   private List<Flow> getFlowList(String cluster, String user, String appId,
-      String version, long startTime, long endTime, int limit)
-      throws IOException {
+      String version, long startTime, long endTime, int limit,
+      JobColumnSelection columns) throws IOException {
     if (limit < 1) {
       limit = 1;
     }
@@ -577,13 +604,40 @@ public class RestResource {
         cluster, user, appId, version, limit));
 
     JobHistoryService jobHistoryService =
-        new JobHistoryService(HBASE_CONF, HBASE_CONNECTION);
+        services.getJobHistoryService();
     List<Flow> flows = jobHistoryService.getFlowSeries(cluster, user, appId,
-        version, false, startTime, endTime, limit);
+        version, false, startTime, endTime, limit, columns);
     LOG.info(String.format("Found %s flows", flows.size()));
     return flows;
   }
 
+  /**
+   * Determines which job configuration and counter columns have to be read
+   * from HBase to serialize the requested job fields.
+   *
+   * @param includeJobFields the job fields to return, all if empty
+   * @param includeConfig the configuration properties to return, all if empty
+   * @param includeCounters the counters to return, all if empty
+   * @return the job columns to read
+   */
+  private static JobColumnSelection getJobColumns(List<String> includeJobFields,
+      List<String> includeConfig, List<String> includeCounters) {
+    boolean hasJobFields =
+        includeJobFields != null && !includeJobFields.isEmpty();
+    boolean hasCounters = includeCounters != null && !includeCounters.isEmpty();
+
+    List<String> configKeys = null;
+    // a counter filter on its own also filters out all of the job fields
+    if ((hasJobFields || hasCounters) && !(hasJobFields
+        && includeJobFields.contains(JOB_CONFIGURATION_FIELD))) {
+      configKeys = Collections.emptyList();
+    } else if (includeConfig != null && !includeConfig.isEmpty()) {
+      configKeys = includeConfig;
+    }
+    return new JobColumnSelection(configKeys,
+        hasCounters ? includeCounters : null);
+  }
+
   @GET
   @Path("hdfs/{cluster}/")
   @Produces(MediaType.APPLICATION_JSON)
@@ -608,10 +662,12 @@ public class RestResource {
     LOG.info(String.format(
         "Fetching hdfs stats for cluster=%s, path=%s limit=%d, runId=%d",
         cluster, pathPrefix, limit, runid));
+    startRequest(HravenResponseMetrics.HDFS_STATS_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
     serializationContext.set(
         new SerializationContext(SerializationContext.DetailLevel.EVERYTHING));
-    HdfsStatsService hdfsStatsService = new HdfsStatsService(HBASE_CONF, HBASE_CONNECTION);
+    HdfsStatsService hdfsStatsService =
+        services.getHdfsStatsService();
     List<HdfsStats> hdfsStats =
         hdfsStatsService.getAllDirs(cluster, pathPrefix, limit, runid);
     timer.stop();
@@ -639,9 +695,6 @@ public class RestResource {
       }
     }
 
-    // export latency metrics
-    HravenResponseMetrics.HDFS_STATS_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return hdfsStats;
   }
 
@@ -681,8 +734,9 @@ public class RestResource {
     LOG.info(String.format(
         "Fetching hdfs timeseries stats for cluster=%s, path=%s limit=%d, starttime=%d endtime=%d",
         cluster, path, limit, starttime, endtime));
+    startRequest(HravenResponseMetrics.HDFS_TIMESERIES_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
-    List<HdfsStats> hdfsStats = new HdfsStatsService(HBASE_CONF, HBASE_CONNECTION)
+    List<HdfsStats> hdfsStats = services.getHdfsStatsService()
         .getHdfsTimeSeriesStats(cluster, path, limit, starttime, endtime);
     timer.stop();
 
@@ -697,9 +751,6 @@ public class RestResource {
           + " fetched 0 HdfsStats in " + timer);
     }
 
-    // export latency metrics
-    HravenResponseMetrics.HDFS_TIMESERIES_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return hdfsStats;
   }
 
@@ -710,6 +761,7 @@ public class RestResource {
       @QueryParam("user") String user, @QueryParam("startTime") long startTime,
       @QueryParam("endTime") long endTime, @QueryParam("limit") int limit)
       throws IOException {
+    startRequest(HravenResponseMetrics.NEW_JOBS_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
 
     if (limit == 0) {
@@ -730,10 +782,10 @@ public class RestResource {
 
     LOG.info("Fetching new Jobs for cluster=" + cluster + " user=" + user
         + " startTime=" + startTime + " endTime=" + endTime);
-    AppSummaryService as = new AppSummaryService(HBASE_CONNECTION);
+    AppSummaryService as = services.getAppSummaryService();
     // get the row keys from AppVersions table via JobHistoryService
     JobHistoryService jobHistoryService =
-        new JobHistoryService(HBASE_CONF, HBASE_CONNECTION);
+        services.getJobHistoryService();
     List<AppSummary> newApps =
         as.getNewApps(jobHistoryService, StringUtils.trimToEmpty(cluster),
             StringUtils.trimToEmpty(user), startTime, endTime, limit);
@@ -748,9 +800,6 @@ public class RestResource {
     serializationContext.set(new SerializationContext(
         SerializationContext.DetailLevel.APP_SUMMARY_STATS_NEW_JOBS_ONLY));
 
-    // export latency metrics
-    HravenResponseMetrics.NEW_JOBS_API_LATENCY_VALUE
-        .set(timer.elapsed(TimeUnit.MILLISECONDS));
     return newApps;
   }
 
@@ -761,6 +810,7 @@ public class RestResource {
       @QueryParam("user") String user, @QueryParam("startTime") long startTime,
       @QueryParam("endTime") long endTime, @QueryParam("limit") int limit)
       throws IOException {
+    startRequest(HravenResponseMetrics.ALL_APPS_API_METRICS);
     Stopwatch timer = new Stopwatch().start();
 
     if (limit == 0) {
@@ -781,7 +831,7 @@ public class RestResource {
 
     LOG.info("Fetching all apps for cluster=" + cluster + " user=" + user
         + " startTime=" + startTime + " endTime=" + endTime);
-    AppSummaryService as = new AppSummaryService(HBASE_CONNECTION);
+    AppSummaryService as = services.getAppSummaryService();
     List<AppSummary> newApps = as.getAllApps(StringUtils.trimToEmpty(cluster),
         StringUtils.trimToEmpty(user), startTime, endTime, limit);
     timer.stop();
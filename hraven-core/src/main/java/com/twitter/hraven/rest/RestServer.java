@@ -22,6 +22,7 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.mortbay.jetty.Connector;
 import org.mortbay.jetty.Server;
 import org.mortbay.jetty.nio.SelectChannelConnector;
@@ -30,7 +31,6 @@ import org.mortbay.jetty.servlet.ServletHolder;
 import org.mortbay.thread.QueuedThreadPool;
 
 import com.google.common.util.concurrent.AbstractIdleService;
-import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.spi.container.servlet.ServletContainer;
 
 /**
@@ -56,10 +56,11 @@ public class RestServer extends AbstractIdleService {
 
   @Override
   protected void startUp() throws Exception {
+    RestServices services = RestServices.start(HBaseConfiguration.create());
+
     // setup the jetty config
-    ServletHolder sh = new ServletHolder(ServletContainer.class);
-    sh.setInitParameter("com.sun.jersey.config.property.packages", "com.twitter.hraven.rest");
-    sh.setInitParameter(JSONConfiguration.FEATURE_POJO_MAPPING, "true");
+    ServletHolder sh =
+        new ServletHolder(new ServletContainer(services.getResourceConfig()));
 
     server = new Server();
 
@@ -88,7 +89,11 @@ public class RestServer extends AbstractIdleService {
 
   @Override
   protected void shutDown() throws Exception {
-    server.stop();
+    try {
+      server.stop();
+    } finally {
+      RestServices.shutdown();
+    }
   }
 
   private static void printUsage(Options opts) {
@@ -0,0 +1,184 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.Context;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+
+import com.sun.jersey.api.core.PackagesResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.spi.inject.SingletonTypeInjectableProvider;
+import com.twitter.hraven.datasource.AppSummaryService;
+import com.twitter.hraven.datasource.AppVersionService;
+import com.twitter.hraven.datasource.HdfsStatsService;
+import com.twitter.hraven.datasource.JobHistoryService;
+
+/**
+ * Holds the HBase connection, the datasource services and the result cache
+ * used by the REST resources, so that they are built once per server instead
+ * of once per request.
+ * <p>
+ * The services only keep the shared {@link Connection} and stateless key
+ * converters, so they can be used from all request threads at the same time.
+ * They get their {@code Table} handles from the connection for each call,
+ * since table handles are cheap to create but not thread safe.
+ * <p>
+ * The server calls {@link #start(Configuration)} when starting up, serves the
+ * resources of {@link #getResourceConfig()}, which get the services injected
+ * as a {@link Context} field, and calls {@link #shutdown()} from its stop hook.
+ * The services cannot be used once they have been shut down.
+ */
+public class RestServices implements Closeable {
+  private static final Log LOG = LogFactory.getLog(RestServices.class);
+
+  private static volatile RestServices instance;
+
+  private final Configuration hbaseConf;
+  private final Connection hbaseConnection;
+  private final JobHistoryService jobHistoryService;
+  private final AppSummaryService appSummaryService;
+  private final AppVersionService appVersionService;
+  private final HdfsStatsService hdfsStatsService;
+  private final ResultCache resultCache;
+
+  /**
+   * Connects to HBase and builds the services.
+   *
+   * @param hbaseConf used to connect to HBase
+   * @throws IOException if the connection or the services cannot be created
+   */
+  RestServices(Configuration hbaseConf) throws IOException {
+    this.hbaseConf = hbaseConf;
+    this.hbaseConnection = ConnectionFactory.createConnection(hbaseConf);
+    try {
+      this.jobHistoryService =
+          new JobHistoryService(hbaseConf, hbaseConnection);
+      this.appSummaryService = new AppSummaryService(hbaseConnection);
+      this.appVersionService = new AppVersionService(hbaseConnection);
+      this.hdfsStatsService = new HdfsStatsService(hbaseConf, hbaseConnection);
+      this.resultCache = new ResultCache(hbaseConf);
+    } catch (IOException ioe) {
+      hbaseConnection.close();
+      throw ioe;
+    }
+  }
+
+  /**
+   * Starts the services shared by the REST resources, if they are not
+   * running yet.
+   *
+   * @param hbaseConf used to connect to HBase
+   * @return the running services
+   * @throws IOException if HBase could not be connected to
+   */
+  public static synchronized RestServices start(Configuration hbaseConf)
+      throws IOException {
+    if (instance == null) {
+      LOG.info("Starting REST services");
+      instance = new RestServices(hbaseConf);
+    }
+    return instance;
+  }
+
+  /**
+   * @return the running services
+   * @throws IllegalStateException if the services were not started or have
+   *           been shut down
+   */
+  public static RestServices get() {
+    RestServices services = instance;
+    if (services == null) {
+      throw new IllegalStateException("REST services are not running");
+    }
+    return services;
+  }
+
+  /**
+   * Stops the running services and closes their HBase connection.
+   */
+  public static synchronized void shutdown() {
+    if (instance != null) {
+      LOG.info("Shutting down REST services");
+      try {
+        instance.close();
+      } catch (IOException ioe) {
+        LOG.error("Failed to close the HBase connection", ioe);
+      }
+      instance = null;
+    }
+  }
+
+  /**
+   * @return the configuration of the REST resources, with these services
+   *         injected into the {@link Context} fields of type
+   *         {@link RestServices}
+   */
+  public ResourceConfig getResourceConfig() {
+    Map<String, Object> props = new HashMap<String, Object>();
+    props.put(PackagesResourceConfig.PROPERTY_PACKAGES,
+        RestServices.class.getPackage().getName());
+    props.put(JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE);
+    props.put(ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS,
+        ResponseMetricsFilter.class.getName());
+    ResourceConfig resourceConfig = new PackagesResourceConfig(props);
+    resourceConfig.getSingletons().add(
+        new SingletonTypeInjectableProvider<Context, RestServices>(
+            RestServices.class, this) {
+        });
+    return resourceConfig;
+  }
+
+  public Configuration getHbaseConf() {
+    return hbaseConf;
+  }
+
+  public JobHistoryService getJobHistoryService() {
+    return jobHistoryService;
+  }
+
+  public AppSummaryService getAppSummaryService() {
+    return appSummaryService;
+  }
+
+  public AppVersionService getAppVersionService() {
+    return appVersionService;
+  }
+
+  public HdfsStatsService getHdfsStatsService() {
+    return hdfsStatsService;
+  }
+
+  public ResultCache getResultCache() {
+    return resultCache;
+  }
+
+  @Override
+  public void close() throws IOException {
+    appSummaryService.close();
+    hbaseConnection.close();
+  }
+}
@@ -0,0 +1,294 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.HravenResponseMetrics;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.QualifiedJobId;
+import com.twitter.hraven.TaskDetails;
+import com.twitter.hraven.datasource.JobColumnSelection;
+
+/**
+ * Read-through cache for the job and flow results served by the REST API.
+ * <p>
+ * Once a job history file has been loaded, its job is not updated anymore, so
+ * results of finished jobs are cached for
+ * {@link Constants#RESULT_CACHE_TTL_CONF_KEY}. Jobs that have not finished,
+ * and flows that have not finished or that may still get new jobs, are
+ * cached for {@link Constants#RESULT_CACHE_RUNNING_TTL_CONF_KEY} only.
+ * <p>
+ * Entries are weighed by the size of the HBase cells their jobs and tasks were
+ * read from, which is known without serializing them, and the least recently
+ * used ones are evicted once {@link Constants#RESULT_CACHE_MAX_BYTES_CONF_KEY}
+ * is reached. Hits, misses, evictions and the cached bytes are exported through
+ * {@link HravenResponseMetrics}.
+ * <p>
+ * Cached results are shared by the request threads and must not be modified
+ * by callers.
+ */
+public class ResultCache {
+  private static final Log LOG = LogFactory.getLog(ResultCache.class);
+
+  /** hadoop1 and hadoop2 job states after which the job does not change */
+  static final Set<String> FINISHED_JOB_STATES =
+      ImmutableSet.of("SUCCESS", "SUCCEEDED", "FAILED", "KILLED", "ERROR");
+
+  /** estimated memory held by a job or task besides its raw cells */
+  static final long JOB_OVERHEAD_BYTES = 1024L;
+  static final long TASK_OVERHEAD_BYTES = 256L;
+
+  private final Cache<Key, Entry> cache;
+  private final long runningTtlMillis;
+  private final long flowSettleMillis;
+
+  /**
+   * @param conf holding the cache settings
+   */
+  public ResultCache(Configuration conf) {
+    long maxBytes = conf.getLong(Constants.RESULT_CACHE_MAX_BYTES_CONF_KEY,
+        Constants.DEFAULT_RESULT_CACHE_MAX_BYTES);
+    long ttlSeconds = conf.getLong(Constants.RESULT_CACHE_TTL_CONF_KEY,
+        Constants.DEFAULT_RESULT_CACHE_TTL);
+    this.runningTtlMillis = TimeUnit.SECONDS.toMillis(
+        conf.getLong(Constants.RESULT_CACHE_RUNNING_TTL_CONF_KEY,
+            Constants.DEFAULT_RESULT_CACHE_RUNNING_TTL));
+    this.flowSettleMillis = TimeUnit.SECONDS.toMillis(
+        conf.getLong(Constants.RESULT_CACHE_FLOW_SETTLE_CONF_KEY,
+            Constants.DEFAULT_RESULT_CACHE_FLOW_SETTLE));
+
+    if (maxBytes > 0) {
+      LOG.info("Caching up to " + maxBytes + " bytes of results for "
+          + ttlSeconds + " seconds");
+      this.cache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+          .weigher(new Weigher<Key, Entry>() {
+            @Override
+            public int weigh(Key key, Entry entry) {
+              return entry.weight;
+            }
+          }).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+          .removalListener(new RemovalListener<Key, Entry>() {
+            @Override
+            public void onRemoval(RemovalNotification<Key, Entry> removal) {
+              if (removal.getValue() != null) {
+                HravenResponseMetrics.RESULT_CACHE_BYTES_VALUE
+                    .addAndGet(-removal.getValue().weight);
+              }
+              if (removal.wasEvicted()
+                  || removal.getCause() == RemovalCause.EXPLICIT) {
+                HravenResponseMetrics.RESULT_CACHE_EVICTIONS_VALUE
+                    .incrementAndGet();
+              }
+            }
+          }).build();
+    } else {
+      LOG.info("Result caching is disabled");
+      this.cache = null;
+    }
+  }
+
+  /**
+   * Returns the job, loading it on a miss.
+   *
+   * @param jobId the job to return
+   * @param populateTasks whether the job's tasks are populated
+   * @param columns the job columns read
+   * @param loader loads the job from HBase, may return {@code null}
+   * @return the job, or {@code null} if it was not found
+   * @throws IOException if loading the job failed
+   */
+  public JobDetails getJob(QualifiedJobId jobId, boolean populateTasks,
+      JobColumnSelection columns, Callable<JobDetails> loader)
+      throws IOException {
+    return get(new Key(Kind.JOB, jobId, populateTasks, columns), loader);
+  }
+
+  /**
+   * Returns the flow of the job, loading it on a miss.
+   *
+   * @param jobId a job of the flow to return
+   * @param populateTasks whether the tasks of the flow's jobs are populated
+   * @param columns the job columns read
+   * @param loader loads the flow from HBase, may return {@code null}
+   * @return the flow, or {@code null} if it was not found
+   * @throws IOException if loading the flow failed
+   */
+  public Flow getFlowByJobId(QualifiedJobId jobId, boolean populateTasks,
+      JobColumnSelection columns, Callable<Flow> loader) throws IOException {
+    return get(new Key(Kind.FLOW, jobId, populateTasks, columns), loader);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T get(Key key, Callable<T> loader) throws IOException {
+    if (cache == null) {
+      return call(loader);
+    }
+
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null) {
+      if (entry.expiresAt > System.currentTimeMillis()) {
+        HravenResponseMetrics.RESULT_CACHE_HITS_VALUE.incrementAndGet();
+        return (T) entry.value;
+      }
+      cache.invalidate(key);
+    }
+
+    HravenResponseMetrics.RESULT_CACHE_MISSES_VALUE.incrementAndGet();
+    T value = call(loader);
+    if (value != null) {
+      long ttlMillis = isFinished(value) ? Long.MAX_VALUE : runningTtlMillis;
+      if (ttlMillis > 0) {
+        Entry newEntry = new Entry(value, weigh(value),
+            ttlMillis == Long.MAX_VALUE ? Long.MAX_VALUE
+                : System.currentTimeMillis() + ttlMillis);
+        HravenResponseMetrics.RESULT_CACHE_BYTES_VALUE
+            .addAndGet(newEntry.weight);
+        cache.put(key, newEntry);
+      }
+    }
+    return value;
+  }
+
+  private static <T> T call(Callable<T> loader) throws IOException {
+    try {
+      return loader.call();
+    } catch (IOException ioe) {
+      throw ioe;
+    } catch (RuntimeException re) {
+      throw re;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * @return whether the job or flow won't change anymore
+   */
+  boolean isFinished(Object value) {
+    if (value instanceof JobDetails) {
+      return FINISHED_JOB_STATES.contains(((JobDetails) value).getStatus());
+    } else if (value instanceof Flow) {
+      Flow flow = (Flow) value;
+      for (JobDetails job : flow.getJobs()) {
+        if (!FINISHED_JOB_STATES.contains(job.getStatus())) {
+          return false;
+        }
+      }
+      // later jobs of the flow may still be coming
+      return flow.getFinishTime() + flowSettleMillis < System
+          .currentTimeMillis();
+    }
+    return false;
+  }
+
+  /**
+   * @return an estimate of the memory held by the job or flow, from the size
+   *         of the HBase cells its jobs and tasks were read from
+   */
+  static int weigh(Object value) {
+    long weight = 0L;
+    if (value instanceof JobDetails) {
+      weight = weigh((JobDetails) value);
+    } else if (value instanceof Flow) {
+      for (JobDetails job : ((Flow) value).getJobs()) {
+        weight += weigh(job);
+      }
+    }
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, weight));
+  }
+
+  private static long weigh(JobDetails job) {
+    long weight = JOB_OVERHEAD_BYTES + job.getRawSize();
+    for (TaskDetails task : job.getTasks()) {
+      weight += TASK_OVERHEAD_BYTES + task.getRawSize();
+    }
+    return weight;
+  }
+
+  private enum Kind {
+    JOB, FLOW
+  }
+
+  /**
+   * Identifies a cached result, including how it was loaded.
+   */
+  private static final class Key {
+    private final Kind kind;
+    private final String cluster;
+    private final QualifiedJobId jobId;
+    private final boolean populateTasks;
+    private final JobColumnSelection columns;
+
+    Key(Kind kind, QualifiedJobId jobId, boolean populateTasks,
+        JobColumnSelection columns) {
+      this.kind = kind;
+      // job ID equality does not cover the cluster
+      this.cluster = jobId.getCluster();
+      this.jobId = jobId;
+      this.populateTasks = populateTasks;
+      this.columns = columns;
+    }
+
+    @Override
+    public int hashCode() {
+      return new HashCodeBuilder().append(kind).append(cluster).append(jobId)
+          .append(populateTasks).append(columns).toHashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key otherKey = (Key) other;
+      return new EqualsBuilder().append(kind, otherKey.kind)
+          .append(cluster, otherKey.cluster).append(jobId, otherKey.jobId)
+          .append(populateTasks, otherKey.populateTasks)
+          .append(columns, otherKey.columns).isEquals();
+    }
+  }
+
+  private static final class Entry {
+    private final Object value;
+    private final int weight;
+    private final long expiresAt;
+
+    Entry(Object value, int weight, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -15,16 +15,19 @@ limitations under the License.
 */
 package com.twitter.hraven.rest.client;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -33,11 +36,22 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.codehaus.jackson.Version;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.module.SimpleModule;
-import org.codehaus.jackson.type.TypeReference;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.twitter.hraven.Flow;
 import com.twitter.hraven.JobDetails;
 import com.twitter.hraven.TaskDetails;
@@ -50,15 +64,23 @@ import com.twitter.hraven.rest.RestJSONResource;
 import com.twitter.hraven.util.StringUtil;
 
 /**
- * Java REST client class for fetching from rest server
- *
+ * Java REST client class for fetching from rest server.
+ * <p>
+ * The client keeps a pool of keep-alive connections to the rest server, so
+ * a single instance should be shared for all requests and closed when done.
+ * It is thread safe.
  */
-public class HRavenRestClient {
+public class HRavenRestClient implements Closeable {
   private static final Log LOG = LogFactory.getLog(HRavenRestClient.class);
 
   private String apiHostname;
   private int connectTimeout;
   private int readTimeout;
+  private final int maxConnectionsPerRoute;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  /** runs the async requests, created on first use */
+  private ListeningExecutorService executor;
 
   public static final String URL_PORTION_API_V1 = "api/v1/";
   public static final String AND = "&";
@@ -67,6 +89,9 @@ public class HRavenRestClient {
   public static final String FLOW_API = "flow";
   public static final String EQUAL_TO = "=";
 
+  /** default number of connections kept open to the rest server */
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
   /**
    * Initializes with the given hostname and a default connect and read timeout
    * of 5 seconds.
@@ -78,12 +103,39 @@ public class HRavenRestClient {
 
   public HRavenRestClient(String apiHostname, int connectTimeout,
       int readTimeout) {
+    this(apiHostname, connectTimeout, readTimeout,
+        DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+  }
+
+  /**
+   * @param apiHostname the hostname to connect to
+   * @param connectTimeout connect timeout in milliseconds, also the longest
+   *          time to wait for a pooled connection
+   * @param readTimeout read timeout in milliseconds
+   * @param maxConnectionsPerRoute the number of connections to pool, which is
+   *          also the number of async requests run at once
+   */
+  public HRavenRestClient(String apiHostname, int connectTimeout,
+      int readTimeout, int maxConnectionsPerRoute) {
     this.apiHostname = apiHostname;
     this.connectTimeout = connectTimeout;
     this.readTimeout = readTimeout;
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    this.connectionManager = new PoolingHttpClientConnectionManager();
+    this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    this.connectionManager.setMaxTotal(
+        Math.max(maxConnectionsPerRoute, connectionManager.getMaxTotal()));
+    this.httpClient = HttpClientBuilder.create()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setConnectionRequestTimeout(connectTimeout)
+            .setSocketTimeout(readTimeout).build())
+        .build();
     LOG.info(String.format(
-        "Initializing HRavenRestClient with apiHostname=%s, connectTimeout=%d ms, readTimeout=%d ms",
-        apiHostname, connectTimeout, readTimeout));
+        "Initializing HRavenRestClient with apiHostname=%s, connectTimeout=%d ms, readTimeout=%d ms, "
+            + "maxConnectionsPerRoute=%d",
+        apiHostname, connectTimeout, readTimeout, maxConnectionsPerRoute));
   }
 
   public String getCluster(String hostname) throws IOException {
@@ -93,20 +145,18 @@ public class HRavenRestClient {
     if (LOG.isInfoEnabled()) {
       LOG.info("Requesting cluster for " + hostname);
     }
-    URL url = new URL(urlString);
-    URLConnection connection = url.openConnection();
-    connection.setConnectTimeout(this.connectTimeout);
-    connection.setReadTimeout(this.readTimeout);
-    InputStream input = connection.getInputStream();
-    java.util.Scanner s = new java.util.Scanner(input).useDelimiter("\\A");
-    String cluster = s.hasNext() ? s.next() : "";
+    CloseableHttpResponse response = httpClient.execute(new HttpGet(urlString));
     try {
-      input.close();
-    } catch (IOException ioe) {
-      LOG.error("IOException in closing input stream, returning no error "
-          + ioe.getMessage());
+      String cluster = response.getEntity() == null ? ""
+          : EntityUtils.toString(response.getEntity());
+      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+        throw new IOException("Request to " + urlString + " failed with "
+            + response.getStatusLine());
+      }
+      return cluster;
+    } finally {
+      response.close();
     }
-    return cluster;
   }
 
   public List<Flow> fetchFlows(String cluster, String username,
@@ -320,9 +370,98 @@ public class HRavenRestClient {
     if (LOG.isInfoEnabled()) {
       LOG.info("Requesting job history from " + endpointURL);
     }
-    return new UrlDataLoader<Flow>(endpointURL,
-        new TypeReference<List<Flow>>() {
-        }, connectTimeout, readTimeout).load();
+    return new UrlDataLoader<Flow>(httpClient, endpointURL, Flow.class,
+        connectTimeout, readTimeout).load();
+  }
+
+  /**
+   * Fetches the last flows of each of the given apps concurrently, on up to
+   * as many threads as connections are pooled.
+   *
+   * @param cluster
+   * @param username
+   * @param batchDescs the apps to fetch flows for
+   * @param limit the number of flows per app
+   * @return the pending flows of each app, in the order of the apps
+   */
+  public Map<String, ListenableFuture<List<Flow>>> fetchFlowsAsync(
+      final String cluster, final String username, List<String> batchDescs,
+      final int limit) {
+    Map<String, ListenableFuture<List<Flow>>> flows =
+        new LinkedHashMap<String, ListenableFuture<List<Flow>>>();
+    for (final String batchDesc : batchDescs) {
+      if (flows.containsKey(batchDesc)) {
+        continue;
+      }
+      flows.put(batchDesc, getExecutor().submit(new Callable<List<Flow>>() {
+        @Override
+        public List<Flow> call() throws IOException {
+          return fetchFlows(cluster, username, batchDesc, null, limit);
+        }
+      }));
+    }
+    return flows;
+  }
+
+  /**
+   * Fetches the last flows of each of the given apps concurrently and waits
+   * for all of them.
+   *
+   * @return the flows of each app, in the order of the apps
+   * @throws IOException if fetching the flows of any app failed
+   */
+  public Map<String, List<Flow>> fetchFlows(String cluster, String username,
+      List<String> batchDescs, int limit) throws IOException {
+    Map<String, ListenableFuture<List<Flow>>> pending =
+        fetchFlowsAsync(cluster, username, batchDescs, limit);
+    Map<String, List<Flow>> flows = new LinkedHashMap<String, List<Flow>>();
+    try {
+      for (Map.Entry<String, ListenableFuture<List<Flow>>> e : pending
+          .entrySet()) {
+        flows.put(e.getKey(), e.getValue().get());
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      cancel(pending);
+      throw new IOException("Interrupted while fetching flows", ie);
+    } catch (ExecutionException ee) {
+      cancel(pending);
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      }
+      throw new IOException(ee.getCause());
+    }
+    return flows;
+  }
+
+  private static void cancel(
+      Map<String, ? extends Future<List<Flow>>> pending) {
+    for (Future<List<Flow>> f : pending.values()) {
+      f.cancel(true);
+    }
+  }
+
+  private synchronized ListeningExecutorService getExecutor() {
+    if (executor == null) {
+      executor = MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(maxConnectionsPerRoute,
+              new ThreadFactoryBuilder().setNameFormat("hraven-client-%d")
+                  .setDaemon(true).build()));
+    }
+    return executor;
+  }
+
+  /**
+   * Releases the pooled connections and the threads of async requests.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+    httpClient.close();
   }
 
   /**
@@ -380,9 +519,8 @@ public class HRavenRestClient {
     if (LOG.isInfoEnabled()) {
       LOG.info("Requesting task history from " + endpointURL);
     }
-    return new UrlDataLoader<TaskDetails>(endpointURL,
-        new TypeReference<List<TaskDetails>>() {
-        }, connectTimeout, readTimeout).load();
+    return new UrlDataLoader<TaskDetails>(httpClient, endpointURL,
+        TaskDetails.class, connectTimeout, readTimeout).load();
   }
 
   private static DateFormat DATE_FORMAT =
@@ -528,6 +666,7 @@ public class HRavenRestClient {
           }
         }
       }
+      client.close();
     }
 
     if (dumpJson) {
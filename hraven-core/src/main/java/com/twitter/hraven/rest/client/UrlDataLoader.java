@@ -2,85 +2,121 @@ package com.twitter.hraven.rest.client;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.codehaus.jackson.type.TypeReference;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
 
-import com.twitter.hraven.util.JSONUtil;
+import com.twitter.hraven.ClientObjectMapper;
 
+/**
+ * Loads a JSON list of objects from a URL, using the connections pooled by
+ * the given client. The objects are deserialized one at a time as they are
+ * read off the response.
+ */
 class UrlDataLoader<T> {
 
     private static final Log LOG = LogFactory.getLog(UrlDataLoader.class);
 
-    private String endpointURL;
-    private TypeReference typeRef;
-    private int connectTimeout;
-    private int readTimeout;
-    private boolean useCompression;
+    /** configured once, mappers are thread safe once configured */
+    private static final ObjectMapper MAPPER = createMapper();
 
-    /**
-     * Constructor, defaults to using compression (gzip / deflate).
-     * @param endpointUrl
-     * @param t TypeReference for json deserialization, should be TypeReference<List<T>>.
-     * @throws java.io.IOException
-     */
-    public UrlDataLoader(String endpointUrl, TypeReference t, int connectTimeout, int readTimeout)
-        throws IOException {
-      this(endpointUrl, t, connectTimeout, readTimeout, true);
-    }
+    private final CloseableHttpClient httpClient;
+    private final String endpointURL;
+    private final Class<T> type;
+    private final RequestConfig requestConfig;
 
     /**
      * Constructor.
+     * @param httpClient the client, shared between loaders
      * @param endpointUrl
-     * @param t TypeReference for json deserialization, should be TypeReference<List<T>>.
-     * @throws java.io.IOException
-    */
-    public UrlDataLoader(String endpointUrl, TypeReference t, int connectTimeout, int readTimeout,
-                         boolean useCompression) throws IOException {
+     * @param type the class of the objects in the json list
+     */
+    public UrlDataLoader(CloseableHttpClient httpClient, String endpointUrl,
+        Class<T> type, int connectTimeout, int readTimeout) {
+      this.httpClient = httpClient;
       this.endpointURL = endpointUrl;
-      this.typeRef = t;
-      this.connectTimeout = connectTimeout;
-      this.readTimeout = readTimeout;
-      this.useCompression = useCompression;
-    }
-
-    @SuppressWarnings("unchecked")
-    public List<T> load() throws IOException {
-      InputStream input = null;
-
-      RequestConfig requestConfig =
+      this.type = type;
+      this.requestConfig =
           RequestConfig.custom()
               .setConnectTimeout(connectTimeout)
               .setConnectionRequestTimeout(connectTimeout)
               .setSocketTimeout(readTimeout).build();
-      HttpClientBuilder httpClientBuilder =
-          HttpClientBuilder.create().setDefaultRequestConfig(requestConfig);
+    }
 
-      if (! useCompression) {
-        LOG.info("Not using compression!");
-        httpClientBuilder.disableContentCompression();
-      } else {
-        LOG.debug("Using compression by default! Trying gzip, deflate");
-      }
+    private static ObjectMapper createMapper() {
+      ObjectMapper om = ClientObjectMapper.createCustomMapper();
+      om.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES,
+          false);
+      return om;
+    }
 
-      CloseableHttpClient httpClient = httpClientBuilder.build();
+    public List<T> load() throws IOException {
       HttpGet httpGet = new HttpGet(endpointURL);
-      HttpResponse response = httpClient.execute(httpGet);
+      httpGet.setConfig(requestConfig);
+      CloseableHttpResponse response = httpClient.execute(httpGet);
+      try {
+        HttpEntity entity = response.getEntity();
+        int status = response.getStatusLine().getStatusCode();
+        if (status != HttpStatus.SC_OK) {
+          // releases the connection back to the pool
+          EntityUtils.consumeQuietly(entity);
+          throw new IOException("Request to " + endpointURL + " failed with "
+              + response.getStatusLine());
+        }
+        if (entity == null) {
+          return new ArrayList<T>();
+        }
+        InputStream input = entity.getContent();
+        try {
+          return readList(input, type);
+        } finally {
+          // the response is fully read so the connection can be reused
+          IOUtils.closeQuietly(input);
+        }
+      } finally {
+        IOUtils.closeQuietly(response);
+      }
+    }
 
+    /**
+     * Reads a json list, deserializing each element as it is parsed rather
+     * than building up the whole document first.
+     */
+    static <T> List<T> readList(InputStream input, Class<T> type)
+        throws IOException {
+      JsonParser parser = MAPPER.getJsonFactory().createJsonParser(input);
       try {
-        input = response.getEntity().getContent();
-        return (List<T>) JSONUtil.readJson(input, typeRef);
+        List<T> values = new ArrayList<T>();
+        JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+          return values;
+        }
+        if (token != JsonToken.START_ARRAY) {
+          throw new IOException("Expected a json list but found " + token);
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          values.add(MAPPER.readValue(parser, type));
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Read " + values.size() + " " + type.getSimpleName());
+        }
+        return values;
       } finally {
-        IOUtils.closeQuietly(input);
-        IOUtils.closeQuietly(httpClient);
+        parser.close();
       }
     }
 }
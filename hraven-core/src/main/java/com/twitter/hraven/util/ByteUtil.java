@@ -16,6 +16,7 @@ limitations under the License.
 package com.twitter.hraven.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
@@ -68,6 +69,97 @@ public class ByteUtil {
     }
   }
 
+  /**
+   * Searches byte arrays for one fixed pattern. The skip table for the pattern
+   * is computed once (Boyer-Moore-Horspool), so that a search only looks at a
+   * fraction of the bytes of the array for longer patterns. Use an instance
+   * for a pattern that is searched for repeatedly, for instance in large job
+   * history files. Instances are immutable and can be shared between threads.
+   */
+  public static final class Searcher {
+    private final byte[] pattern;
+    private final int[] skip = new int[256];
+
+    /**
+     * @param pattern to search for, is copied
+     */
+    public Searcher(byte[] pattern) {
+      if (pattern == null) {
+        throw new IllegalArgumentException("Cannot search for null pattern");
+      }
+      this.pattern = pattern.clone();
+      int last = this.pattern.length - 1;
+      Arrays.fill(skip, Math.max(this.pattern.length, 1));
+      for (int i = 0; i < last; i++) {
+        skip[this.pattern[i] & 0xff] = last - i;
+      }
+    }
+
+    /**
+     * @return the length of the pattern
+     */
+    public int length() {
+      return pattern.length;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the pattern in
+     * {@code array} starting at {@code fromIndex}, or {@code -1} if there is
+     * no such occurrence, with the same semantics as
+     * {@link ByteUtil#indexOf(byte[], byte[], int)}.
+     *
+     * @param array to search in
+     * @param fromIndex the index to start the search from
+     */
+    public int indexOf(byte[] array, int fromIndex) {
+      if (array == null) {
+        return -1;
+      }
+      return indexOf(array, fromIndex, array.length);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the pattern that lies
+     * completely within {@code [fromIndex, toIndex)} of {@code array}, or
+     * {@code -1} if there is no such occurrence.
+     *
+     * @param array to search in
+     * @param fromIndex the index to start the search from (inclusive)
+     * @param toIndex the index to end the search at (exclusive)
+     */
+    public int indexOf(byte[] array, int fromIndex, int toIndex) {
+      if (array == null || toIndex > array.length) {
+        return -1;
+      }
+      int patternLength = pattern.length;
+      if (fromIndex < 0 || fromIndex > toIndex - patternLength) {
+        return -1;
+      }
+      if (patternLength == 0) {
+        return fromIndex;
+      }
+
+      int last = patternLength - 1;
+      byte lastByte = pattern[last];
+      int end = toIndex - patternLength;
+      int i = fromIndex;
+      while (i <= end) {
+        byte b = array[i + last];
+        if (b == lastByte) {
+          int j = last - 1;
+          while (j >= 0 && array[i + j] == pattern[j]) {
+            j--;
+          }
+          if (j < 0) {
+            return i;
+          }
+        }
+        i += skip[b & 0xff];
+      }
+      return -1;
+    }
+  }
+
   /**
    * Splits the source array into multiple array segments using the given
    * separator, up to a maximum of count items. This will naturally produce
@@ -127,32 +219,84 @@ public class ByteUtil {
    * @param limit the maximum number of splits to identify in the source
    */
   public static List<Range> splitRanges(byte[] source, byte[] separator, int limit) {
+    return splitRanges(source, 0, source.length, separator, limit);
+  }
+
+  /**
+   * Returns a list of ranges identifying [start, end) -- closed, open --
+   * positions within the source byte array that the part of the source from
+   * offset for the given length would be split into using the separator
+   * byte array. The positions are relative to the start of the source array.
+   * @param source the source data
+   * @param offset of the part of the source to split
+   * @param length of the part of the source to split
+   * @param separator the separator pattern to look for
+   * @param limit the maximum number of splits to identify in the source
+   */
+  public static List<Range> splitRanges(byte[] source, int offset, int length,
+      byte[] separator, int limit) {
     List<Range> segments = new ArrayList<Range>();
-    int start = 0;
-    itersource: for (int i = 0; i < source.length; i++) {
-      for (int j = 0; j < separator.length; j++) {
-        if (source[i + j] != separator[j]) {
-          continue itersource;
+    int end = offset + length;
+    int start = offset;
+    if (separator.length > 0) {
+      int i = indexOf(source, separator, start, end);
+      while (i != -1) {
+        if (limit > 0 && segments.size() >= (limit - 1)) {
+          // everything else goes in one final segment
+          break;
         }
+        segments.add(new Range(start, i));
+        start = i + separator.length;
+        i = indexOf(source, separator, start, end);
       }
-      // all separator elements matched
-      if (limit > 0 && segments.size() >= (limit-1)) {
-        // everything else goes in one final segment
-        break;
-      }
-
-      segments.add(new Range(start, i));
-      start = i + separator.length;
-      // i will be incremented again in outer for loop
-      i += separator.length-1;
     }
     // add in remaining to a final range
-    if (start <= source.length) {
-      segments.add(new Range(start, source.length));
-    }
+    segments.add(new Range(start, end));
     return segments;
   }
 
+  /**
+   * Identifies the segments the part of the source from offset for the given
+   * length would be split into using the separator, without allocating
+   * anything. The start (inclusive) and end (exclusive) positions of segment
+   * {@code n}, relative to the start of the source array, are stored in
+   * {@code boundaries[2n]} and {@code boundaries[2n+1]}. At most
+   * {@code boundaries.length / 2} segments are identified, the last one
+   * holding the remainder of the source.
+   *
+   * @param source the source data
+   * @param offset of the part of the source to split
+   * @param length of the part of the source to split
+   * @param separator the separator pattern to look for
+   * @param boundaries to store the segment positions in, should hold at least
+   *          two positions
+   * @return the number of segments stored in {@code boundaries}
+   */
+  public static int splitOffsets(byte[] source, int offset, int length,
+      byte[] separator, int[] boundaries) {
+    int maxSegments = boundaries.length / 2;
+    if (maxSegments == 0) {
+      throw new IllegalArgumentException(
+          "boundaries should hold at least one segment");
+    }
+    int end = offset + length;
+    int start = offset;
+    int segments = 0;
+    if (separator.length > 0) {
+      int i = indexOf(source, separator, start, end);
+      while (i != -1 && segments < maxSegments - 1) {
+        boundaries[2 * segments] = start;
+        boundaries[2 * segments + 1] = i;
+        segments++;
+        start = i + separator.length;
+        i = indexOf(source, separator, start, end);
+      }
+    }
+    boundaries[2 * segments] = start;
+    boundaries[2 * segments + 1] = end;
+    return segments + 1;
+  }
+
   /**
    * Returns a single byte array containing all of the individual component
    * arrays separated by the separator array.
@@ -204,13 +348,36 @@ public class ByteUtil {
    *          the index to start the search from in {@code array}
    */
   public static int indexOf(byte[] array, byte[] target, int fromIndex) {
+    if (array == null) {
+      return -1;
+    }
+    return indexOf(array, target, fromIndex, array.length);
+  }
 
-    if (array == null || target == null) {
+  /**
+   * Returns the index (start position) of the first occurrence of the specified
+   * {@code target} that lies completely within {@code [fromIndex, toIndex)} of
+   * {@code array}, or {@code -1} if there is no such occurrence. For a target
+   * that is searched for repeatedly in large arrays, see {@link Searcher}.
+   *
+   * @param array
+   *          the array to search for the sequence {@code target}
+   * @param target
+   *          the array to search for as a sub-sequence of {@code array}
+   * @param fromIndex
+   *          the index to start the search from in {@code array}
+   * @param toIndex
+   *          the index to end the search at in {@code array}, exclusive
+   */
+  public static int indexOf(byte[] array, byte[] target, int fromIndex,
+      int toIndex) {
+
+    if (array == null || target == null || toIndex > array.length) {
       return -1;
     }
 
     // Target cannot be beyond array boundaries
-    if (fromIndex < 0 || (fromIndex > (array.length - target.length))) {
+    if (fromIndex < 0 || (fromIndex > (toIndex - target.length))) {
       return -1;
     }
 
@@ -220,13 +387,24 @@ public class ByteUtil {
       return fromIndex;
     }
 
-    firstbyte: for (int i = fromIndex; i < array.length - target.length + 1; i++) {
-      for (int j = 0; j < target.length; j++) {
-        if (array[i + j] != target[j]) {
-          continue firstbyte;
+    byte first = target[0];
+    int end = toIndex - target.length;
+    for (int i = fromIndex; i <= end; i++) {
+      // skip ahead to the next occurrence of the first byte
+      if (array[i] != first) {
+        while (++i <= end && array[i] != first) {
+        }
+        if (i > end) {
+          break;
         }
       }
-      return i;
+      int j = 1;
+      while (j < target.length && array[i + j] == target[j]) {
+        j++;
+      }
+      if (j == target.length) {
+        return i;
+      }
     }
     return -1;
   }
@@ -41,6 +41,20 @@ public class HadoopConfUtil {
 	 */
 	public static String getUserNameInConf(Configuration jobConf)
 			throws IllegalArgumentException {
+		return getUserNameInConf(wrap(jobConf));
+	}
+
+	/**
+	 * Get the user name from the job conf check for hadoop2 config param, then
+	 * hadoop1
+	 * 
+	 * @param jobConf
+	 * @return userName
+	 * 
+	 * @throws IllegalArgumentException
+	 */
+	public static String getUserNameInConf(JobConfProperties jobConf)
+			throws IllegalArgumentException {
 		String userName = jobConf.get(Constants.USER_CONF_KEY_HADOOP2);
 		if (StringUtils.isBlank(userName)) {
 			userName = jobConf.get(Constants.USER_CONF_KEY);
@@ -63,6 +77,18 @@ public class HadoopConfUtil {
 	 *         false if the job conf does not contain that parameter
 	 */
 	public static boolean contains(Configuration jobConf, String name) {
+		return contains(wrap(jobConf), name);
+	}
+
+	/**
+	 * checks if the jobConf contains a certain parameter
+	 * 
+	 * @param jobConf
+	 * @param name
+	 * @return true if the job conf contains that parameter
+	 *         false if the job conf does not contain that parameter
+	 */
+	public static boolean contains(JobConfProperties jobConf, String name) {
 		if (StringUtils.isNotBlank(jobConf.get(name))) {
 			return true;
 		} else {
@@ -78,6 +104,17 @@ public class HadoopConfUtil {
 	 * @return queuename
 	 */
 	public static String getQueueName(Configuration jobConf) {
+		return getQueueName(wrap(jobConf));
+	}
+
+	/**
+	 * retrieves the queue name from a hadoop conf
+	 * looks for hadoop2 and hadoop1 settings
+	 * 
+	 * @param jobConf
+	 * @return queuename
+	 */
+	public static String getQueueName(JobConfProperties jobConf) {
 		// look for the hadoop2 queuename first
 		String hRavenQueueName = jobConf.get(Constants.QUEUENAME_HADOOP2);
 		if (StringUtils.isBlank(hRavenQueueName)) {
@@ -104,4 +141,33 @@ public class HadoopConfUtil {
 		}
 		return hRavenQueueName;
 	}
+
+	/**
+	 * Gives read access to the properties of a Hadoop conf, with the
+	 * Configuration semantics for deprecated names and variable expansion
+	 * 
+	 * @param jobConf
+	 * @return the properties of the jobConf, or null for a null jobConf
+	 */
+	public static JobConfProperties wrap(final Configuration jobConf) {
+		if (jobConf == null) {
+			return null;
+		}
+		return new JobConfProperties() {
+			@Override
+			public String get(String name) {
+				return jobConf.get(name);
+			}
+
+			@Override
+			public String get(String name, String defaultValue) {
+				return jobConf.get(name, defaultValue);
+			}
+
+			@Override
+			public long getLong(String name, long defaultValue) {
+				return jobConf.getLong(name, defaultValue);
+			}
+		};
+	}
 }
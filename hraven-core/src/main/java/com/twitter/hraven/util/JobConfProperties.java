@@ -0,0 +1,46 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.util;
+
+/**
+ * Read access to the properties of a job configuration, so that the job
+ * description and queue name can be derived either from a Hadoop
+ * {@link org.apache.hadoop.conf.Configuration} or from a {@link RawJobConf}
+ * read straight from the job conf file.
+ */
+public interface JobConfProperties {
+
+  /**
+   * @param name of the property
+   * @return the value of the property, or null if it is not set
+   */
+  String get(String name);
+
+  /**
+   * @param name of the property
+   * @param defaultValue returned when the property is not set
+   * @return the value of the property, or the default value
+   */
+  String get(String name, String defaultValue);
+
+  /**
+   * @param name of the property
+   * @param defaultValue returned when the property is not set
+   * @return the value of the property as a long, or the default value
+   * @throws NumberFormatException when the value is not a valid long
+   */
+  long getLong(String name, long defaultValue);
+}
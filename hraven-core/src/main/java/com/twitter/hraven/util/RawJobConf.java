@@ -0,0 +1,176 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.util;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The properties of a job conf file, read with a single streaming pass over
+ * the raw bytes instead of loading them into a Hadoop
+ * {@link org.apache.hadoop.conf.Configuration}.
+ * <p>
+ * Properties are kept exactly as they appear in the file: deprecated names are
+ * not mapped to their replacements and variables in values are not expanded.
+ * As with a Configuration, names are trimmed, properties without a value are
+ * skipped, and a later definition of a property replaces an earlier one unless
+ * the earlier one was marked final. Iteration returns the properties in the
+ * order they first appear in the file.
+ * <p>
+ * As this changes the columns stored for a job conf, the ETL only reads job
+ * confs this way when
+ * {@link com.twitter.hraven.Constants#RAW_JOB_CONF_PARSER_CONF_KEY} is set.
+ */
+public class RawJobConf implements JobConfProperties,
+    Iterable<Map.Entry<String, String>> {
+
+  private static final String PROPERTY_TAG = "property";
+  private static final String NAME_TAG = "name";
+  private static final String VALUE_TAG = "value";
+  private static final String FINAL_TAG = "final";
+
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+  static {
+    XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty(
+        XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private final Map<String, String> properties;
+
+  private RawJobConf(Map<String, String> properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * @param jobConfBytes the raw contents of a job conf file
+   * @return the properties in the file
+   * @throws XMLStreamException when the contents are not valid XML
+   */
+  public static RawJobConf parse(byte[] jobConfBytes)
+      throws XMLStreamException {
+    return parse(jobConfBytes, 0, jobConfBytes.length);
+  }
+
+  /**
+   * @param buffer holding the raw contents of a job conf file
+   * @param offset where the contents start in the buffer
+   * @param length of the contents
+   * @return the properties in the file
+   * @throws XMLStreamException when the contents are not valid XML
+   */
+  public static RawJobConf parse(byte[] buffer, int offset, int length)
+      throws XMLStreamException {
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    Set<String> finalNames = new HashSet<String>();
+
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(
+        new ByteArrayInputStream(buffer, offset, length));
+    try {
+      boolean inProperty = false;
+      String name = null;
+      String value = null;
+      boolean isFinal = false;
+
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          String tag = reader.getLocalName();
+          if (PROPERTY_TAG.equals(tag)) {
+            inProperty = true;
+            name = null;
+            value = null;
+            isFinal = false;
+          } else if (inProperty && NAME_TAG.equals(tag)) {
+            name = reader.getElementText().trim();
+          } else if (inProperty && VALUE_TAG.equals(tag)) {
+            value = reader.getElementText();
+          } else if (inProperty && FINAL_TAG.equals(tag)) {
+            isFinal = "true".equals(reader.getElementText().trim());
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT
+            && PROPERTY_TAG.equals(reader.getLocalName())) {
+          inProperty = false;
+          if (name != null && name.length() > 0 && value != null
+              && value.length() > 0 && !finalNames.contains(name)) {
+            properties.put(name, value);
+            if (isFinal) {
+              finalNames.add(name);
+            }
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return new RawJobConf(properties);
+  }
+
+  @Override
+  public String get(String name) {
+    return properties.get(name);
+  }
+
+  @Override
+  public String get(String name, String defaultValue) {
+    String value = properties.get(name);
+    return (value == null) ? defaultValue : value;
+  }
+
+  /**
+   * Reads a long the way {@link org.apache.hadoop.conf.Configuration} does:
+   * the value is trimmed and may be hexadecimal when prefixed with 0x.
+   */
+  @Override
+  public long getLong(String name, long defaultValue) {
+    String value = properties.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    value = value.trim();
+    boolean negative = value.startsWith("-");
+    String digits = negative ? value.substring(1) : value;
+    if (digits.startsWith("0x") || digits.startsWith("0X")) {
+      long hex = Long.parseLong(digits.substring(2), 16);
+      return negative ? -hex : hex;
+    }
+    return Long.parseLong(value);
+  }
+
+  /**
+   * @return the number of properties
+   */
+  public int size() {
+    return properties.size();
+  }
+
+  @Override
+  public Iterator<Map.Entry<String, String>> iterator() {
+    return Collections.unmodifiableMap(properties).entrySet().iterator();
+  }
+}
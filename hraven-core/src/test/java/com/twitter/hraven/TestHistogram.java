@@ -0,0 +1,99 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link Histogram} and the {@link EndpointMetrics} built on it
+ */
+public class TestHistogram {
+
+  @Test
+  public void testBuckets() {
+    int previousIndex = 0;
+    for (long value = 0; value < 100000; value++) {
+      int index = Histogram.bucketIndex(value);
+      long upperBound = Histogram.bucketUpperBound(index);
+      assertTrue(value <= upperBound);
+      // at most 1/8th above the value
+      assertTrue(upperBound - value <= value / 8);
+      // buckets are contiguous
+      if (index != previousIndex) {
+        assertEquals(previousIndex + 1, index);
+        assertEquals(value - 1, Histogram.bucketUpperBound(previousIndex));
+        previousIndex = index;
+      }
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.bucketUpperBound(
+        Histogram.bucketIndex(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentiles() throws Exception {
+    Histogram histogram = new Histogram(1000L);
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value);
+    }
+    // values are reported once their window is complete
+    assertEquals(0L, histogram.getCount());
+    Thread.sleep(1100L);
+
+    assertEquals(1000L, histogram.getCount());
+    assertEquals(1000L, histogram.getMax());
+    assertWithinBucket(500L, histogram.getPercentile(50));
+    assertWithinBucket(900L, histogram.getPercentile(90));
+    assertWithinBucket(990L, histogram.getPercentile(99));
+    assertEquals(1000L, histogram.getPercentile(100));
+  }
+
+  private static void assertWithinBucket(long expected, long actual) {
+    assertTrue("expected " + expected + " but was " + actual,
+        actual >= expected && actual - expected <= expected / 8);
+  }
+
+  @Test
+  public void testEndpointRequests() {
+    EndpointMetrics endpoint = new EndpointMetrics("TEST_API");
+
+    EndpointMetrics.Request request = endpoint.start();
+    assertSame(request, EndpointMetrics.currentRequest());
+    EndpointMetrics.recordScan(10, 100);
+    EndpointMetrics.recordScan(5, 50);
+    request.succeeded();
+    request.stop();
+    // the request is no longer current once it stopped
+    assertNull(EndpointMetrics.currentRequest());
+    assertTrue(endpoint.getLastLatency().get() >= 0L);
+    request.recordBytes(1024L);
+    assertEquals(1L, endpoint.getRequests());
+    assertEquals(0L, endpoint.getErrors());
+    assertEquals(1024L, endpoint.getBytes());
+
+    request = endpoint.start();
+    request.stop();
+    assertEquals(2L, endpoint.getRequests());
+    assertEquals(1L, endpoint.getErrors());
+    assertNull(EndpointMetrics.currentRequest());
+    // scans outside of requests are not recorded
+    EndpointMetrics.recordScan(1, 1);
+  }
+}
@@ -18,6 +18,7 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.*;
 
 /**
@@ -388,4 +389,35 @@ public class TestJobDetails {
     confirmSomeJobDeets(jd);
   }
 
-}
\ No newline at end of file
+  /**
+   * Test that configuration and counters are decoded on first access only
+   */
+  @Test
+  public void testLazyDecoding() {
+    JobDetails jd = new JobDetails(null);
+    NavigableMap<byte[], byte[]> infoValues = getInfoValues(HadoopVersion.TWO);
+    infoValues.put(Bytes.toBytes(Constants.JOB_CONF_COLUMN_PREFIX + Constants.SEP
+        + Constants.HRAVEN_QUEUE), Bytes.toBytes("lazyqueue"));
+    infoValues.put(Bytes.toBytes(Constants.JOB_CONF_COLUMN_PREFIX + Constants.SEP
+        + "mapred.job.name"), Bytes.toBytes(JobDetailsValues.jobName));
+
+    Result result = mock(Result.class);
+    when(result.getFamilyMap(Constants.INFO_FAM_BYTES)).thenReturn(infoValues);
+    jd.populate(result);
+
+    // stats derived from counters and the queue don't need decoding
+    assertEquals("lazyqueue", jd.getQueue());
+    assertEquals(JobDetailsValues.HDFS_BYTES_READ_2, jd.getHdfsBytesRead());
+
+    CounterMap counters = jd.getCounters();
+    assertSame(counters, jd.getCounters());
+    assertEquals(JobDetailsValues.HDFS_BYTES_READ_2,
+      counters.getCounter(Constants.FILESYSTEM_COUNTER_HADOOP2, Constants.HDFS_BYTES_READ)
+          .getValue());
+    assertEquals(2, jd.getConfiguration().size());
+    assertEquals(JobDetailsValues.jobName, jd.getConfiguration().get("mapred.job.name"));
+    assertSame(jd.getConfiguration(), jd.getConfiguration());
+    confirmHadoop2Counters(jd);
+  }
+
+}
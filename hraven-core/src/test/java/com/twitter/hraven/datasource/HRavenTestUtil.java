@@ -19,6 +19,10 @@ import java.io.IOException;
 
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
 
 import com.twitter.hraven.AggregationConstants;
@@ -117,4 +121,28 @@ public class HRavenTestUtil {
         new byte[][] { AggregationConstants.INFO_FAM_BYTES,
             AggregationConstants.SCRATCH_FAM_BYTES });
   }
+
+  /**
+   * Runs the scan to completion and counts the rows the region servers sent
+   * back, used to check how much data a scan ships to the client.
+   *
+   * @return the number of non-empty rows returned by the scan
+   */
+  public static int countScannedRows(Connection hbaseConnection,
+      String tableName, Scan scan) throws IOException {
+    int rowCount = 0;
+    Table table = hbaseConnection.getTable(TableName.valueOf(tableName));
+    ResultScanner scanner = table.getScanner(scan);
+    try {
+      for (Result result : scanner) {
+        if (result != null && !result.isEmpty()) {
+          rowCount++;
+        }
+      }
+    } finally {
+      scanner.close();
+      table.close();
+    }
+    return rowCount;
+  }
 }
@@ -0,0 +1,137 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.util.ByteUtil;
+
+/**
+ * Compares decoding job row keys, and grouping the rows of a flow scan into
+ * flows, through a reused {@link JobKeyView} against the split based decoding
+ * of {@link JobKeyConverter#splitJobKey(byte[])} the scan loops used before.
+ * <p>
+ * Each invocation goes over the rows of 20 flows of 50 jobs, scores are per
+ * row. Run with {@code -prof gc} to compare the bytes allocated per row. See
+ * {@code ObjectMapperProviderBenchmark} for how to run the benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobKeyViewBenchmark {
+
+  private static final int FLOWS = 20;
+  private static final int JOBS_PER_FLOW = 50;
+  private static final int ROWS = FLOWS * JOBS_PER_FLOW;
+
+  private final JobKeyConverter jobKeyConv = new JobKeyConverter();
+  private final JobKeyView keyView = new JobKeyView();
+  private byte[][] rows;
+
+  @Setup
+  public void setup() {
+    rows = new byte[ROWS][];
+    for (int i = 0; i < FLOWS; i++) {
+      for (int j = 0; j < JOBS_PER_FLOW; j++) {
+        rows[i * JOBS_PER_FLOW + j] = jobKeyConv.toBytes(new JobKey(
+            "cluster@dc", "user", "some_application_name", 1400000000000L + i,
+            "job_1400000000000_" + (i * JOBS_PER_FLOW + j)));
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void splitDecode(Blackhole blackhole) {
+    for (byte[] row : rows) {
+      blackhole.consume(
+          jobKeyConv.parseJobKey(JobKeyConverter.splitJobKey(row)));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void viewDecode(Blackhole blackhole) {
+    for (byte[] row : rows) {
+      blackhole.consume(keyView.set(row).toJobKey());
+    }
+  }
+
+  /**
+   * Groups the rows into flows the way createFromResults did: copying the row
+   * out of the result, decoding its key and checking the current flow for it.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int splitFlowGrouping(Blackhole blackhole) {
+    int flows = 0;
+    Flow currentFlow = null;
+    for (byte[] row : rows) {
+      JobKey currentKey = jobKeyConv.parseJobKey(
+          JobKeyConverter.splitJobKey(Arrays.copyOf(row, row.length)));
+      if (currentFlow == null || !currentFlow.contains(currentKey)) {
+        currentFlow = new Flow(new FlowKey(currentKey));
+        flows++;
+      }
+      blackhole.consume(currentKey);
+    }
+    return flows;
+  }
+
+  /**
+   * Groups the rows into flows the way createFromResults does now: comparing
+   * the flow prefix of the row in place and decoding the key of kept rows
+   * only.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int viewFlowGrouping(Blackhole blackhole) {
+    int flows = 0;
+    byte[] currentFlowKey = null;
+    for (byte[] row : rows) {
+      keyView.set(row, 0, row.length);
+      if (currentFlowKey == null || !keyView.isSameFlow(currentFlowKey)) {
+        currentFlowKey = ByteUtil.safeCopy(keyView.getBytes(),
+            keyView.getOffset(), keyView.getFlowKeyLength());
+        blackhole.consume(new Flow(new FlowKey(keyView.getCluster(),
+            keyView.getUserName(), keyView.getAppId(), keyView.getRunId())));
+        flows++;
+      }
+      blackhole.consume(keyView.toJobKey());
+    }
+    return flows;
+  }
+}
@@ -17,10 +17,13 @@ limitations under the License.
 package com.twitter.hraven.datasource;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +42,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -49,8 +53,11 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.twitter.hraven.AggregationConstants;
+import com.twitter.hraven.AppAggregationKey;
+import com.twitter.hraven.AppKey;
 import com.twitter.hraven.AppSummary;
 import com.twitter.hraven.Constants;
+import com.twitter.hraven.Flow;
 import com.twitter.hraven.GenerateFlowTestData;
 import com.twitter.hraven.JobDetails;
 import com.twitter.hraven.JobKey;
@@ -145,6 +152,67 @@ public class TestAppSummaryService {
     }
   }
 
+  @Test
+  public void testSummarizeAppsMatchesFullFlows() throws Exception {
+    String cluster = "summarizeAppsCluster";
+    String user = "testuser";
+    JobHistoryService jhs =
+        new JobHistoryService(UTIL.getConfiguration(), hbaseConnection);
+    AppSummaryService appSummaryService =
+        new AppSummaryService(hbaseConnection);
+
+    List<AppKey> appKeys = new ArrayList<AppKey>();
+    for (int i = 0; i < 4; i++) {
+      String appId = "summarizeApp" + i;
+      Map<String, String> config = new HashMap<String, String>();
+      config.put(Constants.HRAVEN_QUEUE, "queue" + i);
+      for (long runId = 10L; runId <= 30L; runId += 10L) {
+        flowDataGen.loadFlow(cluster, user, appId, runId, "v" + runId, i + 1,
+            10 * runId, idService, historyTable, config);
+      }
+      appKeys.add(new AppKey(cluster, user, appId));
+    }
+
+    List<AppSummary> summaries =
+        appSummaryService.summarizeApps(jhs, appKeys, 0L, 35L);
+    assertEquals(appKeys.size(), summaries.size());
+    for (int i = 0; i < appKeys.size(); i++) {
+      AppKey ak = appKeys.get(i);
+      AppSummary expected = new AppSummary(ak);
+      for (Flow f : jhs.getFlowSeries(cluster, user, ak.getAppId(), null,
+          false, 0L, 35L, Integer.MAX_VALUE)) {
+        expected.addFlow(f);
+      }
+      AppSummary actual = summaries.get(i);
+      assertEquals(ak, actual.getKey());
+      assertEquals(3, actual.getNumberRuns());
+      assertEquals(expected.getNumberRuns(), actual.getNumberRuns());
+      assertEquals(expected.getJobCount(), actual.getJobCount());
+      assertEquals(expected.getMapSlotMillis(), actual.getMapSlotMillis());
+      assertEquals(expected.getReduceSlotMillis(),
+          actual.getReduceSlotMillis());
+      assertEquals(expected.getTotalMaps(), actual.getTotalMaps());
+      assertEquals(expected.getTotalReduces(), actual.getTotalReduces());
+      assertEquals(expected.getMbMillis(), actual.getMbMillis());
+      assertEquals("queue" + i + Constants.SEP, actual.getQueuesAsString());
+      assertEquals(expected.getQueuesAsString(), actual.getQueuesAsString());
+      assertEquals(expected.getFirstRunId(), actual.getFirstRunId());
+      assertEquals(expected.getLastRunId(), actual.getLastRunId());
+    }
+
+    // the threads of the service are kept for the next call
+    assertEquals(summaries.size(),
+        appSummaryService.summarizeApps(jhs, appKeys, 0L, 35L).size());
+
+    appSummaryService.close();
+    try {
+      appSummaryService.summarizeApps(jhs, appKeys, 0L, 35L);
+      fail("Expected a closed service not to summarize apps");
+    } catch (IOException expected) {
+      // the threads are stopped
+    }
+  }
+
   @Test
   public void testGetDayTimestamp() throws IOException {
     long ts = 1402698420000L;
@@ -347,6 +415,78 @@ public class TestAppSummaryService {
     assertEquals(30L, a.get(0).getTotalReduces());
   }
 
+  /**
+   * combines jobs of two runs in an aggregation buffer, two of them of the
+   * same run, and checks that they are written as one aggregation row
+   * @throws IOException
+   */
+  @Test
+  public void testAggregationBuffer() throws IOException {
+    AppSummaryService appSummaryService =
+        new AppSummaryService(hbaseConnection);
+    AppAggregationBuffer buffer =
+        new AppAggregationBuffer(appSummaryService, 3, Long.MAX_VALUE);
+    long runId = 1402704960000L;
+    for (int i = 1; i <= 3; i++) {
+      JobDetails jd = new JobDetails(new JobKey("bufferCluster", "user",
+          "appid", i < 3 ? runId : runId + 1000L, "job_1402359360000_000" + i));
+      jd.setTotalMaps(10L * i);
+      jd.setMegabyteMillis(33L * i);
+      jd.setCost(200.0 * i);
+      jd.setQueue("queue_" + (i % 2));
+      assertFalse(buffer.isFull());
+      buffer.add(jd, AggregationConstants.AGGREGATION_TYPE.DAILY,
+          Bytes.toBytes("raw" + i));
+    }
+    assertTrue(buffer.isFull());
+    assertEquals(3, buffer.size());
+
+    List<AppAggregation> written = buffer.flush();
+    assertEquals(0, buffer.size());
+    assertEquals(1, written.size());
+    assertEquals(3, written.get(0).getSourceRows().size());
+
+    AppAggregationKey key = appSummaryService.getAggregationKey(
+        new JobKey("bufferCluster", "user", "appid", runId, "job"),
+        AggregationConstants.AGGREGATION_TYPE.DAILY);
+    Result result = dailyAggTable
+        .get(new Get(new AppAggregationKeyConverter().toBytes(key)));
+    assertEquals(3L, Bytes.toLong(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.TOTAL_JOBS_BYTES)));
+    assertEquals(60L, Bytes.toLong(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.TOTAL_MAPS_BYTES)));
+    assertEquals(198L, Bytes.toLong(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.MEGABYTEMILLIS_BYTES)));
+    assertEquals(1200.0, Bytes.toDouble(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.JOBCOST_BYTES)), 0.0001);
+    // the number of runs is incremented for every job
+    assertEquals(3L, Bytes.toLong(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.NUMBER_RUNS_BYTES)));
+    assertEquals("queue_1!queue_0!", Bytes.toString(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.HRAVEN_QUEUE_BYTES)));
+
+    // a later job of a run already counted still adds a run
+    JobDetails jd = new JobDetails(new JobKey("bufferCluster", "user",
+        "appid", runId, "job_1402359360000_0004"));
+    jd.setQueue("queue_1");
+    buffer.add(jd, AggregationConstants.AGGREGATION_TYPE.DAILY, null);
+    assertEquals(1, buffer.flush().size());
+    result = dailyAggTable
+        .get(new Get(new AppAggregationKeyConverter().toBytes(key)));
+    assertEquals(4L, Bytes.toLong(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.TOTAL_JOBS_BYTES)));
+    assertEquals(4L, Bytes.toLong(result.getValue(
+        AggregationConstants.INFO_FAM_BYTES,
+        AggregationConstants.NUMBER_RUNS_BYTES)));
+  }
+
   @AfterClass
   public static void tearDownAfterClass() throws Exception {
     try {
@@ -17,6 +17,7 @@ package com.twitter.hraven.datasource;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -124,6 +125,29 @@ public class TestAppVersionService {
     }
   }
 
+  @Test
+  public void testAddVersionBuffered() throws Exception {
+    String appId = "addVersionBuffered";
+    AppVersionService service = new AppVersionService(hbaseConnection, true);
+
+    assertTrue(service.addVersion(cluster, user, appId, "v1", 10));
+    // already known with an earlier timestamp, skipped
+    assertFalse(service.addVersion(cluster, user, appId, "v1", 20));
+    assertFalse(service.addVersion(cluster, user, appId, "v1", 10));
+    // an earlier timestamp is still written
+    assertTrue(service.addVersion(cluster, user, appId, "v1", 5));
+    assertTrue(service.addVersion(cluster, user, appId, "v2", 30));
+
+    List<VersionInfo> versions =
+        new AppVersionService(hbaseConnection).getDistinctVersions(cluster,
+            user, appId);
+    assertEquals(2, versions.size());
+    assertEquals("v2", versions.get(0).getVersion());
+    assertEquals(30L, versions.get(0).getTimestamp());
+    assertEquals("v1", versions.get(1).getVersion());
+    assertEquals(5L, versions.get(1).getTimestamp());
+  }
+
   @Test
   public void testGetLatestVersion() throws Exception {
     Configuration c = UTIL.getConfiguration();
@@ -17,17 +17,20 @@ package com.twitter.hraven.datasource;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.twitter.hraven.Constants;
 import com.twitter.hraven.FlowEvent;
 import com.twitter.hraven.FlowEventKey;
 import com.twitter.hraven.FlowKey;
@@ -90,6 +93,33 @@ public class TestFlowEventService {
 
   }
 
+  @Test
+  public void testBufferedFlowEventReadWrite() throws Exception {
+    FlowEventService service = new FlowEventService(hbaseConnection, true);
+    try {
+      BufferedTableWriter writer = service.getEventWriter();
+      assertNotNull(writer);
+      // the metrics are shared with the other writers to the table
+      BufferedTableWriter.WriteMetrics metrics = writer.getMetrics();
+      long mutations = metrics.getMutations();
+      FlowKey flowKey = new FlowKey(TEST_CLUSTER, TEST_USER, TEST_APP + "Buffered",
+          System.currentTimeMillis());
+      List<FlowEvent> events = generateEvents(flowKey, 5);
+      for (FlowEvent event : events) {
+        service.addEvent(event);
+      }
+
+      // the buffered events are written before reading
+      assertEvents(events, service.getFlowEvents(flowKey));
+      assertEquals(mutations + 5L, metrics.getMutations());
+      assertEquals(0L, metrics.getFailures());
+      assertSame(metrics, BufferedTableWriter.getTableMetrics(
+          TableName.valueOf(Constants.FLOW_EVENT_TABLE)));
+    } finally {
+      service.close();
+    }
+  }
+
   private List<FlowEvent> generateEvents(FlowKey flowKey, int count) {
     List<FlowEvent> events = new ArrayList<FlowEvent>(count);
     long now = System.currentTimeMillis();
@@ -169,6 +169,45 @@ public class TestFlowQueueService {
 
   }
 
+  @Test
+  public void testBufferedMoveFlow() throws Exception {
+    String cluster = "buffered@test";
+    FlowQueueService service = new FlowQueueService(hbaseConnection, true);
+    try {
+      BufferedTableWriter writer = service.getFlowQueueWriter();
+      assertNotNull(writer);
+      long mutations = writer.getMetrics().getMutations();
+
+      FlowQueueKey key = new FlowQueueKey(cluster, Flow.Status.RUNNING,
+          System.currentTimeMillis(), "bufferedFlow");
+      Flow flow = new Flow(null);
+      flow.setQueueKey(key);
+      flow.setJobGraphJSON("{}");
+      flow.setFlowName("bufferedFlow");
+      flow.setUserName(TEST_USER);
+      flow.setProgress(50);
+      service.updateFlow(key, flow);
+
+      // the buffered update is written before the row to move is read
+      FlowQueueKey newKey = new FlowQueueKey(cluster, Flow.Status.SUCCEEDED,
+          key.getTimestamp(), key.getFlowId());
+      service.moveFlow(key, newKey);
+      // the put and the delete of the move are buffered too
+      assertEquals(mutations + 3L, writer.getMetrics().getMutations());
+
+      // and written before the flows are read
+      List<Flow> succeeded =
+          service.getFlowsForStatus(cluster, Flow.Status.SUCCEEDED, 10);
+      assertEquals(1, succeeded.size());
+      assertFlowEquals(newKey, flow, succeeded.get(0));
+      assertEquals(0,
+          service.getFlowsForStatus(cluster, Flow.Status.RUNNING, 10).size());
+      assertEquals(0L, writer.getMetrics().getFailures());
+    } finally {
+      service.close();
+    }
+  }
+
   protected void assertFlowEquals(FlowQueueKey expectedKey, Flow expectedFlow,
       Flow resultFlow) {
     assertNotNull(resultFlow.getQueueKey());
@@ -15,9 +15,12 @@ limitations under the License.
 */
 package com.twitter.hraven.datasource;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -27,9 +30,13 @@ import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -172,6 +179,61 @@ public class TestJobHistoryRawService {
     assertEquals(expts, st);
   }
 
+  @Test
+  public void testGetHistoryRawTableScansParallel() throws Exception {
+    String cluster = "rawscan@dc";
+    Table rawTable = hbaseConnection
+        .getTable(TableName.valueOf(Constants.HISTORY_RAW_TABLE));
+    JobHistoryRawService rawService = new JobHistoryRawService(hbaseConnection);
+    try {
+      List<Put> puts = new ArrayList<Put>();
+      for (int i = 1; i <= 25; i++) {
+        Put p = new Put(rawService.getRowKey(cluster,
+            String.format("job_201306192120_%04d", i)));
+        p.addColumn(Constants.INFO_FAM_BYTES,
+            Constants.JOBCONF_LAST_MODIFIED_COL_BYTES, Bytes.toBytes(1L));
+        p.addColumn(Constants.INFO_FAM_BYTES,
+            Constants.JOBHISTORY_LAST_MODIFIED_COL_BYTES, Bytes.toBytes(1L));
+        puts.add(p);
+      }
+      rawTable.put(puts);
+    } finally {
+      rawTable.close();
+    }
+
+    List<Scan> serial =
+        rawService.getHistoryRawTableScans(cluster, null, null, false, 10);
+    List<Scan> parallel =
+        rawService.getHistoryRawTableScans(cluster, null, null, false, 10, 4);
+    assertEquals(3, serial.size());
+    assertEquals(serial.size(), parallel.size());
+    for (int i = 0; i < serial.size(); i++) {
+      assertArrayEquals(serial.get(i).getStartRow(),
+          parallel.get(i).getStartRow());
+      assertArrayEquals(serial.get(i).getStopRow(),
+          parallel.get(i).getStopRow());
+    }
+  }
+
+  @Test
+  public void testGetRegionScan() throws IOException {
+    Scan scan = new Scan(Bytes.toBytes("c"), Bytes.toBytes("f"));
+    Scan regionScan = JobHistoryRawService.getRegionScan(scan,
+        HConstants.EMPTY_START_ROW, Bytes.toBytes("d"));
+    assertArrayEquals(Bytes.toBytes("c"), regionScan.getStartRow());
+    assertArrayEquals(Bytes.toBytes("d"), regionScan.getStopRow());
+
+    regionScan = JobHistoryRawService.getRegionScan(scan, Bytes.toBytes("d"),
+        HConstants.EMPTY_END_ROW);
+    assertArrayEquals(Bytes.toBytes("d"), regionScan.getStartRow());
+    assertArrayEquals(Bytes.toBytes("f"), regionScan.getStopRow());
+
+    assertNull(JobHistoryRawService.getRegionScan(scan, Bytes.toBytes("f"),
+        Bytes.toBytes("g")));
+    assertNull(JobHistoryRawService.getRegionScan(scan, Bytes.toBytes("a"),
+        Bytes.toBytes("c")));
+  }
+
   /**
    * Clean up after unit tests.
    *
@@ -18,12 +18,17 @@ package com.twitter.hraven.datasource;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -46,7 +51,10 @@ import com.twitter.hraven.Flow;
 import com.twitter.hraven.GenerateFlowTestData;
 import com.twitter.hraven.HadoopVersion;
 import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobHistoryKeys;
 import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskDetails;
+import com.twitter.hraven.TaskKey;
 
 /**
  * Round-trip testing for storage and retrieval of data in job_history table.
@@ -431,6 +439,111 @@ public class TestJobHistoryService {
 
   }
 
+  @Test
+  public void testRunMatchFilterLimitsRowsScanned() throws Exception {
+    // 20 runs of two jobs each, alternating between two versions
+    for (int i = 0; i < 20; i++) {
+      flowDataGen.loadFlow("c4@local", "ruser", "appRuns", 1395786700000L + i,
+          (i % 2 == 0) ? "even" : "odd", 2, 10, idService, historyTable);
+    }
+    byte[] rowPrefix = Bytes.toBytes("c4@local" + Constants.SEP + "ruser"
+        + Constants.SEP + "appRuns" + Constants.SEP);
+
+    JobHistoryService clientLimited =
+        new JobHistoryService(UTIL.getConfiguration(), hbaseConnection);
+    Configuration serverLimitConf = new Configuration(UTIL.getConfiguration());
+    serverLimitConf.setBoolean(Constants.RUN_MATCH_FILTER_CONF_KEY, true);
+    JobHistoryService serverLimited =
+        new JobHistoryService(serverLimitConf, hbaseConnection);
+
+    // without the filter the whole app is streamed back to the client
+    assertEquals(40, HRavenTestUtil.countScannedRows(hbaseConnection,
+        Constants.HISTORY_TABLE, clientLimited.createFlowScan(rowPrefix, 3, null)));
+    assertEquals(20, HRavenTestUtil.countScannedRows(hbaseConnection,
+        Constants.HISTORY_TABLE, clientLimited.createFlowScan(rowPrefix, 3, "even")));
+    // with the filter, only the rows for the requested runs are returned
+    assertEquals(6, HRavenTestUtil.countScannedRows(hbaseConnection,
+        Constants.HISTORY_TABLE, serverLimited.createFlowScan(rowPrefix, 3, null)));
+    assertEquals(6, HRavenTestUtil.countScannedRows(hbaseConnection,
+        Constants.HISTORY_TABLE, serverLimited.createFlowScan(rowPrefix, 3, "even")));
+
+    // and the flows returned are the same
+    assertFlowsEqual(
+        clientLimited.getFlowSeries("c4@local", "ruser", "appRuns", 3),
+        serverLimited.getFlowSeries("c4@local", "ruser", "appRuns", 3));
+    List<Flow> evenFlows = serverLimited.getFlowSeries("c4@local", "ruser",
+        "appRuns", "even", false, 3);
+    assertFlowsEqual(clientLimited.getFlowSeries("c4@local", "ruser",
+        "appRuns", "even", false, 3), evenFlows);
+    for (Flow f : evenFlows) {
+      assertEquals("even", f.getVersion());
+    }
+    assertFlowsEqual(
+        clientLimited.getFlowTimeSeriesStats("c4@local", "ruser", "appRuns",
+            "odd", 0L, 0L, 4, null),
+        serverLimited.getFlowTimeSeriesStats("c4@local", "ruser", "appRuns",
+            "odd", 0L, 0L, 4, null));
+  }
+
+  @Test
+  public void testJobColumnSelection() throws Exception {
+    Map<String, String> config = new HashMap<String, String>();
+    config.put("testproperty1", "value1");
+    config.put("testproperty2", "value2");
+    config.put(Constants.HRAVEN_QUEUE, "columnsqueue");
+    flowDataGen.loadFlow("c5@local", "puser", "appColumns", 1395786700000L,
+        "a", 2, 10, idService, historyTable, config);
+
+    JobHistoryService service =
+        new JobHistoryService(UTIL.getConfiguration(), hbaseConnection);
+    Flow flow = service.getLatestFlow("c5@local", "puser", "appColumns");
+    assertNotNull(flow);
+    // add counters outside of the groups the job stats are derived from
+    JobKeyConverter keyConv = new JobKeyConverter();
+    for (JobDetails j : flow.getJobs()) {
+      Put p = new Put(keyConv.toBytes(j.getJobKey()));
+      p.addColumn(Constants.INFO_FAM_BYTES,
+          Bytes.toBytes("g!custom.group!WANTED"), Bytes.toBytes(1L));
+      p.addColumn(Constants.INFO_FAM_BYTES,
+          Bytes.toBytes("g!custom.group!UNWANTED"), Bytes.toBytes(2L));
+      historyTable.put(p);
+    }
+
+    List<Flow> flows = service.getFlowSeries("c5@local", "puser",
+        "appColumns", null, false, 0L, 0L, 1,
+        new JobColumnSelection(Arrays.asList("testproperty1"),
+            Arrays.asList("custom.group.WANTED")));
+    assertEquals(1, flows.size());
+    // stats derived from counters are still complete
+    checkSomeFlowStats("a", HadoopVersion.ONE, 2, 10, flows);
+    for (JobDetails j : flows.get(0).getJobs()) {
+      assertEquals("value1", j.getConfiguration().get("testproperty1"));
+      assertNull(j.getConfiguration().get("testproperty2"));
+      assertEquals("columnsqueue", j.getQueue());
+      assertEquals(1L,
+          j.getCounters().getCounter("custom.group", "WANTED").getValue());
+      assertNull(j.getCounters().getCounter("custom.group", "UNWANTED"));
+
+      JobDetails j2 = service.getJobByJobID(j.getJobKey().getQualifiedJobId(),
+          false, new JobColumnSelection(Collections.<String>emptyList(),
+              Collections.<String>emptyList()));
+      assertJob(j, j2);
+      assertNull(j2.getConfiguration().get("testproperty1"));
+      assertEquals("columnsqueue", j2.getQueue());
+      assertNull(j2.getCounters().getCounter("custom.group", "WANTED"));
+      assertEquals(10L, j2.getHdfsBytesRead());
+      assertEquals(10L, j2.getMapSlotMillis());
+    }
+  }
+
+  private void assertFlowsEqual(List<Flow> expected, List<Flow> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getFlowKey(), actual.get(i).getFlowKey());
+      assertEquals(expected.get(i).getJobCount(), actual.get(i).getJobCount());
+    }
+  }
+
   private void assertJob(JobDetails expected, JobDetails actual) {
     assertNotNull(actual);
     assertEquals(expected.getJobKey(), actual.getJobKey());
@@ -439,6 +552,61 @@ public class TestJobHistoryService {
     assertEquals(expected.getVersion(), actual.getVersion());
   }
 
+  @Test
+  public void testPopulateTasksOfFlows() throws Exception {
+    String cluster = "tasks@local";
+    flowDataGen.loadFlow(cluster, "tuser", "taskApp", 100L, "a", 2, 10,
+        idService, historyTable);
+    flowDataGen.loadFlow(cluster, "tuser", "taskApp", 200L, "a", 2, 10,
+        idService, historyTable);
+    // another version, its jobs sort in between the flows of version a
+    flowDataGen.loadFlow(cluster, "tuser", "taskApp", 150L, "b", 2, 10,
+        idService, historyTable);
+
+    JobHistoryService service =
+        new JobHistoryService(UTIL.getConfiguration(), hbaseConnection);
+    List<Flow> flows = service.getFlowSeries(cluster, "tuser", "taskApp", 10);
+    assertEquals(3, flows.size());
+
+    // write a task count per job that tells the jobs apart
+    TaskKeyConverter taskKeyConv = new TaskKeyConverter();
+    Table taskTable = hbaseConnection
+        .getTable(TableName.valueOf(Constants.HISTORY_TASK_TABLE));
+    Map<JobKey, Integer> taskCounts = new HashMap<JobKey, Integer>();
+    int taskCount = 1;
+    for (Flow f : flows) {
+      for (JobDetails j : f.getJobs()) {
+        for (int t = 0; t < taskCount; t++) {
+          String taskId = "task_" + j.getJobId() + "_m_00000" + t;
+          Put p = new Put(
+              taskKeyConv.toBytes(new TaskKey(j.getJobKey(), taskId)));
+          p.addColumn(Constants.INFO_FAM_BYTES,
+              JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TASKID),
+              Bytes.toBytes(taskId));
+          taskTable.put(p);
+        }
+        taskCounts.put(j.getJobKey(), taskCount);
+        taskCount++;
+      }
+    }
+    taskTable.close();
+
+    List<Flow> withTasks =
+        service.getFlowSeries(cluster, "tuser", "taskApp", "a", true, 10);
+    assertEquals(2, withTasks.size());
+    for (Flow f : withTasks) {
+      assertEquals("a", f.getVersion());
+      for (JobDetails j : f.getJobs()) {
+        assertEquals(taskCounts.get(j.getJobKey()).intValue(),
+            j.getTasks().size());
+        for (TaskDetails task : j.getTasks()) {
+          assertEquals(0, j.getJobKey().compareTo(task.getTaskKey()));
+          assertTrue(task.getTaskId().startsWith("task_" + j.getJobId()));
+        }
+      }
+    }
+  }
+
   @AfterClass
   public static void tearDownAfterClass() throws Exception {
     try {
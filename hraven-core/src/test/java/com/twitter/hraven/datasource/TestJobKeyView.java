@@ -0,0 +1,189 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskKey;
+import com.twitter.hraven.util.ByteUtil;
+
+/**
+ * Tests that {@link JobKeyView} decodes the same keys as splitting the row
+ * key into copied components does
+ */
+public class TestJobKeyView {
+
+  private final JobKeyConverter jobKeyConv = new JobKeyConverter();
+  private final TaskKeyConverter taskKeyConv = new TaskKeyConverter();
+
+  private void assertDecodes(byte[] rowKey) {
+    byte[][] components = JobKeyConverter.splitJobKey(rowKey);
+    JobKey expected = jobKeyConv.parseJobKey(components);
+    String expectedTaskId =
+        components.length > 5 ? Bytes.toString(components[5]) : null;
+
+    // also decode the key from within a larger buffer
+    byte[] buffer = Bytes.add(Bytes.toBytes("xx"), rowKey, Bytes.toBytes("yy"));
+    JobKeyView[] views = new JobKeyView[] { new JobKeyView().set(rowKey),
+        new JobKeyView().set(buffer, 2, rowKey.length) };
+    for (JobKeyView view : views) {
+      TaskKey actual = view.toTaskKey();
+      assertEquals(expected.getCluster(), actual.getCluster());
+      assertEquals(expected.getUserName(), actual.getUserName());
+      assertEquals(expected.getAppId(), actual.getAppId());
+      assertEquals(expected.getRunId(), actual.getRunId());
+      assertEquals(expected.getJobId(), actual.getJobId());
+      assertEquals(expectedTaskId, actual.getTaskId());
+    }
+  }
+
+  @Test
+  public void testDecode() {
+    JobKey key = new JobKey("cluster1@identifier1", "user1", "app1", 13,
+        "job_20120101235959_0001");
+    assertDecodes(jobKeyConv.toBytes(key));
+    assertDecodes(taskKeyConv.toBytes(new TaskKey(key, "m_000001_0")));
+    assertDecodes(taskKeyConv.toBytes(new TaskKey(key, "")));
+
+    // run id whose encoding contains the separator
+    long runId = Long.MAX_VALUE - Bytes.toLong(Bytes.toBytes(
+        "!!!!!!!!"));
+    key = new JobKey("c1@local", "user1", "app1", runId,
+        "job_201206201718_1941");
+    assertDecodes(jobKeyConv.toBytes(key));
+    assertDecodes(taskKeyConv.toBytes(new TaskKey(key, "r_000002_1")));
+
+    // partial keys
+    assertDecodes(jobKeyConv.toBytes(
+        new JobKey("c1@local", "user1", "", 1234L, "job_201206201718_1941")));
+    assertDecodes(ByteUtil.join(Constants.SEP_BYTES, Bytes.toBytes("c1@local"),
+        Bytes.toBytes("user1"), Bytes.toBytes("app1"),
+        Bytes.toBytes(Long.MAX_VALUE - 15L)));
+    assertDecodes(ByteUtil.join(Constants.SEP_BYTES, Bytes.toBytes("c1@local"),
+        Bytes.toBytes("user1"), Bytes.toBytes("app1"), Bytes.toBytes(15)));
+    assertDecodes(ByteUtil.join(Constants.SEP_BYTES, Bytes.toBytes("c1@local"),
+        Bytes.toBytes("user1")));
+    assertDecodes(Bytes.toBytes("c1@local"));
+  }
+
+  @Test
+  public void testOffsets() {
+    JobKey key = new JobKey("c1@local", "user1", "app1", 15L,
+        "job_201206201718_1941");
+    byte[] rowKey = taskKeyConv.toBytes(new TaskKey(key, "m_1"));
+    JobKeyView view = new JobKeyView().set(rowKey);
+
+    assertEquals(0, view.getClusterOffset());
+    assertEquals(8, view.getClusterLength());
+    assertEquals(9, view.getUserNameOffset());
+    assertEquals(5, view.getUserNameLength());
+    assertEquals(15, view.getAppIdOffset());
+    assertEquals(4, view.getAppIdLength());
+    assertEquals(20, view.getRunIdOffset());
+    assertEquals(29, view.getJobIdOffset());
+    assertEquals(46, view.getTaskIdOffset());
+    assertEquals(3, view.getTaskIdLength());
+    assertEquals(15L, view.getRunId());
+
+    view.set(Bytes.toBytes("c1@local"));
+    assertEquals(-1, view.getUserNameOffset());
+    assertEquals(-1, view.getAppIdOffset());
+    assertEquals(-1, view.getRunIdOffset());
+    assertNull(view.getUserName());
+    assertNull(view.getJobId());
+    assertNull(view.getTaskId());
+  }
+
+  @Test
+  public void testReuseStrings() {
+    JobKeyView view = new JobKeyView();
+    view.set(jobKeyConv.toBytes(new JobKey("c1@local", "user1", "app1", 1L,
+        "job_201206201718_0001")));
+    String cluster = view.getCluster();
+    String user = view.getUserName();
+    String app = view.getAppId();
+    assertSame("c1@local", cluster);
+
+    view.set(jobKeyConv.toBytes(new JobKey("c1@local", "user1", "app1", 2L,
+        "job_201206201718_0002")));
+    assertSame(cluster, view.getCluster());
+    assertSame(user, view.getUserName());
+    assertSame(app, view.getAppId());
+    assertEquals(2L, view.getRunId());
+
+    view.set(jobKeyConv.toBytes(new JobKey("c1@local", "user2", "app2", 3L,
+        "job_201206201718_0003")));
+    assertSame(cluster, view.getCluster());
+    assertEquals("user2", view.getUserName());
+    assertEquals("app2", view.getAppId());
+  }
+
+  @Test
+  public void testSameFlow() {
+    JobKey key = new JobKey("c1@local", "user1", "app1", 15L,
+        "job_201206201718_1941");
+    byte[] rowKey = jobKeyConv.toBytes(key);
+    JobKeyView view = new JobKeyView().set(rowKey);
+    assertTrue(view.isJobKey());
+    assertFalse(view.isTaskKey());
+    assertEquals(4, view.getSegments());
+    assertEquals(28, view.getFlowKeyLength());
+    byte[] flowKey = ByteUtil.safeCopy(rowKey, 0, view.getFlowKeyLength());
+
+    // another job of the same run, within a larger buffer
+    byte[] otherJob = jobKeyConv.toBytes(new JobKey("c1@local", "user1",
+        "app1", 15L, "job_201206201718_1942"));
+    byte[] buffer = Bytes.add(Bytes.toBytes("xx"), otherJob);
+    assertTrue(view.set(buffer, 2, otherJob.length).isSameFlow(flowKey));
+    assertTrue(view.set(taskKeyConv.toBytes(new TaskKey(key, "m_1")))
+        .isSameFlow(flowKey));
+    assertFalse(view.set(jobKeyConv.toBytes(new JobKey("c1@local", "user1",
+        "app1", 16L, "job_201206201718_1942"))).isSameFlow(flowKey));
+    assertFalse(view.set(jobKeyConv.toBytes(new JobKey("c1@local", "user1",
+        "app2", 15L, "job_201206201718_1942"))).isSameFlow(flowKey));
+
+    // keys too short for a job are rejected rather than read
+    view.set(ByteUtil.join(Constants.SEP_BYTES, Bytes.toBytes("c1@local"),
+        Bytes.toBytes("user1")));
+    assertEquals(2, view.getSegments());
+    assertFalse(view.isJobKey());
+    assertEquals(-1, view.getFlowKeyLength());
+    assertFalse(view.isSameFlow(flowKey));
+  }
+
+  @Test
+  public void testTaskKeyOfJob() {
+    JobKey key = new JobKey("c1@local", "user1", "app1", 15L,
+        "job_201206201718_1941");
+    TaskKey expected = new TaskKey(key, "r_000002_1");
+    JobKeyView view = new JobKeyView().set(taskKeyConv.toBytes(expected));
+    assertTrue(view.isTaskKey());
+    TaskKey actual = view.toTaskKey(key);
+    assertEquals(expected, actual);
+    assertEquals("r_000002_1", actual.getTaskId());
+    // the job components are shared rather than decoded again
+    assertSame(key.getQualifiedJobId(), actual.getQualifiedJobId());
+  }
+}
@@ -0,0 +1,162 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig.Feature;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.module.SimpleModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.AppSummary;
+import com.twitter.hraven.Counter;
+import com.twitter.hraven.CounterMap;
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.HdfsStats;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskDetails;
+
+/**
+ * Compares serializing a list of flows through the shared mappers of the
+ * {@link ObjectMapperProvider} against the previous serializers, which built
+ * and configured a new mapper for every job they wrote.
+ * <p>
+ * The benchmarks are not run by the unit tests. To run them, compile the
+ * tests and start the JMH runner on the test classpath, for example:
+ *
+ * <pre>
+ * mvn -pl hraven-core test-compile dependency:build-classpath \
+ *     -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+ * java -cp target/test-classes:target/classes:$(cat target/test.classpath) \
+ *     org.openjdk.jmh.Main ObjectMapperProviderBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectMapperProviderBenchmark {
+
+  /** number of jobs in each of the 10 flows serialized */
+  @Param({ "50", "500" })
+  public int jobsPerFlow;
+
+  private List<Flow> flows;
+  private ObjectMapper sharedMapper;
+  private ObjectMapper mapperPerJob;
+
+  @Setup
+  public void setup() {
+    flows = new ArrayList<Flow>();
+    for (int i = 0; i < 10; i++) {
+      Flow flow = new Flow(new FlowKey("cluster@dc", "user", "app", 1000L + i));
+      for (int j = 0; j < jobsPerFlow; j++) {
+        JobDetails job = new JobDetails(new JobKey("cluster@dc", "user", "app",
+            1000L + i, "job_201306192120_" + (i * jobsPerFlow + j)));
+        job.setTotalMaps(j);
+        job.setCost(1.5 * j);
+        job.getCounters().add(new Counter("FileSystemCounters",
+            "HDFS_BYTES_READ", 100L * j));
+        job.getCounters().add(new Counter("FileSystemCounters",
+            "HDFS_BYTES_WRITTEN", 10L * j));
+        flow.addJob(job);
+      }
+      flows.add(flow);
+    }
+    RestResource.serializationContext.remove();
+    sharedMapper = new ObjectMapperProvider().getContext(Flow.class);
+    mapperPerJob = createMapperPerJob();
+  }
+
+  @Benchmark
+  public byte[] sharedMapper() throws IOException {
+    return sharedMapper.writeValueAsBytes(flows);
+  }
+
+  @Benchmark
+  public byte[] mapperPerJob() throws IOException {
+    return mapperPerJob.writeValueAsBytes(flows);
+  }
+
+  /**
+   * @return the custom mapper as it was configured before the serializers
+   *         shared their mappers
+   */
+  private static ObjectMapper createMapperPerJob() {
+    ObjectMapper result = new ObjectMapper();
+    result.configure(Feature.INDENT_OUTPUT, true);
+    SimpleModule module = createJobModule();
+    module.addSerializer(Flow.class,
+        new ObjectMapperProvider.FlowSerializer());
+    module.addSerializer(AppSummary.class,
+        new ObjectMapperProvider.AppSummarySerializer());
+    module.addSerializer(TaskDetails.class,
+        new ObjectMapperProvider.TaskDetailsSerializer());
+    module.addSerializer(JobDetails.class, new MapperPerJobSerializer());
+    result.registerModule(module);
+    return result;
+  }
+
+  private static SimpleModule createJobModule() {
+    SimpleModule module =
+        new SimpleModule("hRavenModule", new Version(0, 4, 0, null));
+    module.addSerializer(Configuration.class,
+        new ObjectMapperProvider.ConfigurationSerializer());
+    module.addSerializer(CounterMap.class,
+        new ObjectMapperProvider.CounterSerializer());
+    module.addSerializer(HdfsStats.class,
+        new ObjectMapperProvider.HdfsStatsSerializer());
+    return module;
+  }
+
+  /**
+   * The unfiltered path of the previous job serializer, which built a mapper
+   * for every job it wrote.
+   */
+  private static class MapperPerJobSerializer
+      extends JsonSerializer<JobDetails> {
+    @Override
+    public void serialize(JobDetails jd, JsonGenerator jsonGenerator,
+        SerializerProvider serializerProvider) throws IOException {
+      ObjectMapper om = new ObjectMapper();
+      om.registerModule(createJobModule());
+      om.writeValue(jsonGenerator, jd);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.twitter.hraven.Counter;
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobKey;
+
+/**
+ * Tests the serializers of the {@link ObjectMapperProvider}
+ */
+public class TestObjectMapperProvider {
+
+  private static List<Flow> createFlows(int flowCount, int jobCount) {
+    List<Flow> flows = new ArrayList<Flow>();
+    for (int i = 0; i < flowCount; i++) {
+      Flow flow = new Flow(new FlowKey("cluster@dc", "user", "app", 1000L + i));
+      for (int j = 0; j < jobCount; j++) {
+        JobDetails job = new JobDetails(new JobKey("cluster@dc", "user", "app",
+            1000L + i, "job_201306192120_" + (i * jobCount + j)));
+        job.setTotalMaps(j);
+        job.setCost(1.5 * j);
+        job.getCounters().add(new Counter("FileSystemCounters",
+            "HDFS_BYTES_READ", 100L * j));
+        job.getCounters().add(new Counter("FileSystemCounters",
+            "HDFS_BYTES_WRITTEN", 10L * j));
+        flow.addJob(job);
+      }
+      flows.add(flow);
+    }
+    return flows;
+  }
+
+  @After
+  public void resetContext() {
+    RestResource.serializationContext.remove();
+  }
+
+  @Test
+  public void testSharedMapper() throws Exception {
+    ObjectMapper om = new ObjectMapperProvider().getContext(Flow.class);
+    assertSame(om, new ObjectMapperProvider().getContext(Flow.class));
+
+    List<Flow> flows = createFlows(10, 50);
+    JsonNode tree = om.readTree(om.writeValueAsString(flows));
+    assertEquals(10, tree.size());
+    JsonNode jobs = tree.get(3).get("jobs");
+    assertEquals(50, jobs.size());
+    JsonNode job = jobs.get(7);
+    assertEquals("job_201306192120_157", job.get("jobId").getTextValue());
+    assertEquals(7L, job.get("totalMaps").getLongValue());
+    assertEquals(10.5, job.get("cost").getDoubleValue(), 0.0001);
+    assertEquals(700L, job.get("counters").get("FileSystemCounters")
+        .get("HDFS_BYTES_READ").getLongValue());
+    assertEquals(50, tree.get(3).get("jobCount").getIntValue());
+  }
+
+  @Test
+  public void testFilteredJobs() throws Exception {
+    RestResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_WITH_JOB_STATS,
+        null,
+        new SerializationContext.FieldNameFilter(
+            Lists.newArrayList("jobCount", "cost")),
+        new SerializationContext.FieldNameFilter(
+            Lists.newArrayList("jobId", "totalMaps")),
+        null,
+        new SerializationContext.FieldNameFilter(
+            Lists.newArrayList("FileSystemCounters.HDFS_BYTES_WRITTEN"))));
+    ObjectMapper om = new ObjectMapperProvider().getContext(Flow.class);
+
+    JsonNode flow = om.readTree(om.writeValueAsString(createFlows(1, 5)))
+        .get(0);
+    assertEquals(5, flow.get("jobCount").getIntValue());
+    assertEquals(15.0, flow.get("cost").getDoubleValue(), 0.0001);
+    assertNull(flow.get("totalMaps"));
+
+    JsonNode job = flow.get("jobs").get(3);
+    assertEquals(3L, job.get("totalMaps").getLongValue());
+    assertTrue(job.has("jobId"));
+    assertFalse(job.has("cost"));
+    JsonNode counters = job.get("counters").get("FileSystemCounters");
+    assertEquals(30L, counters.get("HDFS_BYTES_WRITTEN").getLongValue());
+    assertFalse(counters.has("HDFS_BYTES_READ"));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.jersey.api.core.ResourceConfig;
+
+/**
+ * Tests the lifecycle of the {@link RestServices}
+ */
+public class TestRestServices {
+
+  private static HBaseTestingUtility UTIL;
+
+  @BeforeClass
+  public static void setupBeforeClass() throws Exception {
+    UTIL = new HBaseTestingUtility();
+    UTIL.startMiniCluster();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    RestServices.shutdown();
+    UTIL.shutdownMiniCluster();
+  }
+
+  private static void assertNotRunning() {
+    try {
+      RestServices.get();
+      fail("Expected the REST services not to be running");
+    } catch (IllegalStateException expected) {
+      // not started, or shut down
+    }
+  }
+
+  @Test
+  public void testStartAndShutdown() throws Exception {
+    assertNotRunning();
+
+    RestServices services = RestServices.start(UTIL.getConfiguration());
+    assertSame(services, RestServices.get());
+    // starting again keeps the running services
+    assertSame(services, RestServices.start(UTIL.getConfiguration()));
+    assertNotNull(services.getJobHistoryService());
+    assertNotNull(services.getResultCache());
+
+    ResourceConfig resourceConfig = services.getResourceConfig();
+    assertEquals(1, resourceConfig.getSingletons().size());
+
+    RestServices.shutdown();
+    // the services are not silently started again
+    assertNotRunning();
+
+    RestServices restarted = RestServices.start(UTIL.getConfiguration());
+    assertNotSame(services, restarted);
+    assertSame(restarted, RestServices.get());
+    RestServices.shutdown();
+    assertNotRunning();
+  }
+}
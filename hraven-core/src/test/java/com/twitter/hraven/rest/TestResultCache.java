@@ -0,0 +1,192 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.HravenResponseMetrics;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.QualifiedJobId;
+import com.twitter.hraven.TaskDetails;
+import com.twitter.hraven.TaskKey;
+import com.twitter.hraven.datasource.JobColumnSelection;
+
+/**
+ * Unit tests for the {@link ResultCache}
+ */
+public class TestResultCache {
+
+  private static final String CLUSTER = "cluster@dc";
+  private static final String JOB_ID = "job_201306192120_0003";
+
+  /**
+   * loads a job with the given status and counts the loads
+   */
+  private static class JobLoader implements Callable<JobDetails> {
+    private final AtomicInteger loads = new AtomicInteger();
+    private final String status;
+
+    JobLoader(String status) {
+      this.status = status;
+    }
+
+    @Override
+    public JobDetails call() {
+      loads.incrementAndGet();
+      if (status == null) {
+        return null;
+      }
+      JobDetails job = new JobDetails(
+          new JobKey(CLUSTER, "user", "app", 1234L, JOB_ID));
+      job.setStatus(status);
+      return job;
+    }
+  }
+
+  @Test
+  public void testFinishedJobIsCached() throws Exception {
+    ResultCache cache = new ResultCache(new Configuration(false));
+    QualifiedJobId jobId = new QualifiedJobId(CLUSTER, JOB_ID);
+    JobLoader loader = new JobLoader("SUCCEEDED");
+    long hits = HravenResponseMetrics.RESULT_CACHE_HITS_VALUE.get();
+
+    JobDetails job = cache.getJob(jobId, false, JobColumnSelection.ALL, loader);
+    assertSame(job, cache.getJob(new QualifiedJobId(CLUSTER, JOB_ID), false,
+        JobColumnSelection.ALL, loader));
+    assertEquals(1, loader.loads.get());
+    assertEquals(hits + 1, HravenResponseMetrics.RESULT_CACHE_HITS_VALUE.get());
+    assertTrue(HravenResponseMetrics.RESULT_CACHE_BYTES_VALUE.get() > 0);
+
+    // a different cluster, column selection or task population is a miss
+    cache.getJob(new QualifiedJobId("other@dc", JOB_ID), false,
+        JobColumnSelection.ALL, loader);
+    cache.getJob(jobId, true, JobColumnSelection.ALL, loader);
+    cache.getJob(jobId, false, new JobColumnSelection(
+        Collections.<String>emptyList(), null), loader);
+    assertEquals(4, loader.loads.get());
+  }
+
+  @Test
+  public void testRunningAndMissingJobs() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setLong(Constants.RESULT_CACHE_RUNNING_TTL_CONF_KEY, 0L);
+    ResultCache cache = new ResultCache(conf);
+    QualifiedJobId jobId = new QualifiedJobId(CLUSTER, JOB_ID);
+
+    JobLoader running = new JobLoader("RUNNING");
+    cache.getJob(jobId, false, JobColumnSelection.ALL, running);
+    cache.getJob(jobId, false, JobColumnSelection.ALL, running);
+    assertEquals(2, running.loads.get());
+
+    JobLoader missing = new JobLoader(null);
+    assertNull(cache.getJob(jobId, true, JobColumnSelection.ALL, missing));
+    assertNull(cache.getJob(jobId, true, JobColumnSelection.ALL, missing));
+    assertEquals(2, missing.loads.get());
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setLong(Constants.RESULT_CACHE_MAX_BYTES_CONF_KEY, 0L);
+    ResultCache cache = new ResultCache(conf);
+    QualifiedJobId jobId = new QualifiedJobId(CLUSTER, JOB_ID);
+    JobLoader loader = new JobLoader("SUCCESS");
+    cache.getJob(jobId, false, JobColumnSelection.ALL, loader);
+    cache.getJob(jobId, false, JobColumnSelection.ALL, loader);
+    assertEquals(2, loader.loads.get());
+  }
+
+  @Test
+  public void testFlowIsFinished() {
+    ResultCache cache = new ResultCache(new Configuration(false));
+    Flow flow = new Flow(new FlowKey(CLUSTER, "user", "app", 1234L));
+    JobDetails job =
+        new JobDetails(new JobKey(CLUSTER, "user", "app", 1234L, JOB_ID));
+    job.setStatus("SUCCESS");
+    job.setFinishTime(System.currentTimeMillis());
+    flow.addJob(job);
+    // the flow may still get more jobs
+    assertFalse(cache.isFinished(flow));
+
+    job.setFinishTime(System.currentTimeMillis() - 2 * 1000L
+        * Constants.DEFAULT_RESULT_CACHE_FLOW_SETTLE);
+    flow = new Flow(new FlowKey(CLUSTER, "user", "app", 1234L));
+    flow.addJob(job);
+    assertTrue(cache.isFinished(flow));
+
+    JobDetails running =
+        new JobDetails(new JobKey(CLUSTER, "user", "app", 1234L, JOB_ID));
+    running.setStatus("RUNNING");
+    flow.addJob(running);
+    assertFalse(cache.isFinished(flow));
+  }
+
+  @Test
+  public void testWeigh() {
+    JobKey jobKey = new JobKey(CLUSTER, "user", "app", 1234L, JOB_ID);
+    byte[] row = Bytes.toBytes("row");
+    Cell status = new KeyValue(row, Constants.INFO_FAM_BYTES,
+        Bytes.toBytes("status"), Bytes.toBytes("SUCCEEDED"));
+    Cell config = new KeyValue(row, Constants.INFO_FAM_BYTES,
+        Bytes.toBytes("c!mapreduce.job.name"), new byte[10000]);
+    JobDetails job = new JobDetails(jobKey);
+    job.populate(Result.create(new Cell[] { config, status }));
+    long rawSize = CellUtil.estimatedSerializedSizeOf(status)
+        + CellUtil.estimatedSerializedSizeOf(config);
+    assertEquals(rawSize, job.getRawSize());
+    assertEquals(ResultCache.JOB_OVERHEAD_BYTES + rawSize,
+        ResultCache.weigh(job));
+
+    // tasks are weighed by their columns
+    Map<byte[], byte[]> taskValues =
+        new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+    taskValues.put(Bytes.toBytes("taskid"), new byte[1000]);
+    TaskDetails task = new TaskDetails(new TaskKey(jobKey, "task_1"));
+    task.populate(taskValues);
+    assertEquals(1006L, task.getRawSize());
+    job.addTask(task);
+    assertEquals(ResultCache.JOB_OVERHEAD_BYTES + rawSize
+        + ResultCache.TASK_OVERHEAD_BYTES + 1006L, ResultCache.weigh(job));
+
+    Flow flow = new Flow(new FlowKey(CLUSTER, "user", "app", 1234L));
+    flow.addJob(job);
+    flow.addJob(new JobDetails(jobKey));
+    assertEquals(ResultCache.weigh(job) + ResultCache.JOB_OVERHEAD_BYTES,
+        ResultCache.weigh(flow));
+  }
+}
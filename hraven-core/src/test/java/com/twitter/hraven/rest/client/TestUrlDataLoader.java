@@ -0,0 +1,86 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.rest.ObjectMapperProvider;
+
+/**
+ * Tests the streaming deserialization of the {@link UrlDataLoader}
+ */
+public class TestUrlDataLoader {
+
+  @Test
+  public void testReadFlows() throws Exception {
+    List<Flow> flows = new ArrayList<Flow>();
+    for (int i = 0; i < 3; i++) {
+      Flow flow = new Flow(new FlowKey("cluster@dc", "user", "app" + i,
+          1000L * (i + 1)));
+      for (int j = 0; j < i + 1; j++) {
+        JobDetails job = new JobDetails(new JobKey("cluster@dc", "user",
+            "app" + i, 1000L * (i + 1), "job_201306192120_000" + j));
+        job.setTotalMaps(10L * j);
+        flow.addJob(job);
+      }
+      flows.add(flow);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ObjectMapperProvider.createCustomMapper().writeValue(out, flows);
+
+    List<Flow> read = UrlDataLoader.readList(
+        new ByteArrayInputStream(out.toByteArray()), Flow.class);
+    assertEquals(flows.size(), read.size());
+    for (int i = 0; i < flows.size(); i++) {
+      assertEquals(flows.get(i).getCluster(), read.get(i).getCluster());
+      assertEquals(flows.get(i).getAppId(), read.get(i).getAppId());
+      assertEquals(flows.get(i).getRunId(), read.get(i).getRunId());
+      assertEquals(flows.get(i).getJobs(), read.get(i).getJobs());
+      assertEquals(flows.get(i).getJobCount(), read.get(i).getJobCount());
+      assertEquals(flows.get(i).getTotalMaps(), read.get(i).getTotalMaps());
+    }
+  }
+
+  @Test
+  public void testReadEmpty() throws Exception {
+    assertTrue(UrlDataLoader.readList(
+        new ByteArrayInputStream(Bytes.toBytes("[]")), Flow.class).isEmpty());
+    assertTrue(UrlDataLoader.readList(
+        new ByteArrayInputStream(Bytes.toBytes("null")), Flow.class)
+        .isEmpty());
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadNotAList() throws Exception {
+    UrlDataLoader.readList(
+        new ByteArrayInputStream(Bytes.toBytes("{\"jobCount\": 1}")),
+        Flow.class);
+  }
+}
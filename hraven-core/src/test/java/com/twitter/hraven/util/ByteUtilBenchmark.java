@@ -0,0 +1,179 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Compares the {@link ByteUtil.Searcher} and the offset based splits against
+ * the nested-loop search and the copying split they replace, which are kept
+ * here as {@link #nestedLoopIndexOf(byte[], byte[], int)} and
+ * {@link #copyingSplit(byte[], byte[], int)}.
+ * <p>
+ * The searches look for the submit time of a job in a synthetic hadoop 2
+ * history file, with the job submitted event after {@link #historyMB} MB of
+ * other events. See {@code ObjectMapperProviderBenchmark} for how to run the
+ * benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteUtilBenchmark {
+
+  private static final ByteUtil.Searcher JOB_SUBMIT_EVENT_SEARCHER =
+      new ByteUtil.Searcher(Constants.JOB_SUBMIT_EVENT_BYTES);
+  private static final ByteUtil.Searcher SUBMIT_TIME_PREFIX_HADOOP2_SEARCHER =
+      new ByteUtil.Searcher(Constants.SUBMIT_TIME_PREFIX_HADOOP2_BYTES);
+
+  /** size of the events before the job submitted event */
+  @Param({ "1", "64" })
+  public int historyMB;
+
+  private byte[] history;
+  private byte[] rowKey;
+  private final int[] boundaries = new int[8];
+
+  @Setup
+  public void setup() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] event = Bytes.toBytes("{\"type\":\"TASK_FINISHED\",\"event\":"
+        + "{\"org.apache.hadoop.mapreduce.jobhistory.TaskFinished\":"
+        + "{\"taskid\":\"task_1400000000000_0001_m_000001\",\"taskType\":"
+        + "\"MAP\",\"finishTime\":1400000012345,\"status\":\"SUCCEEDED\"}}}\n");
+    while (out.size() < historyMB * 1024 * 1024) {
+      out.write(event);
+    }
+    out.write(Bytes.toBytes("{\"type\":\"JOB_SUBMITTED\",\"event\":"
+        + "{\"org.apache.hadoop.mapreduce.jobhistory.JobSubmitted\":"
+        + "{\"jobid\":\"job_1400000000000_0001\",\"jobName\":\"benchmark\","
+        + "\"userName\":\"user\",\"submitTime\":1400000000000}}}\n"));
+    history = out.toByteArray();
+
+    rowKey = ByteUtil.join(Constants.SEP_BYTES, Bytes.toBytes("cluster@dc"),
+        Bytes.toBytes("user"), Bytes.toBytes("some_application_name"),
+        Bytes.toBytes(Long.MAX_VALUE - 1400000000000L),
+        Bytes.toBytes("job_1400000000000_0001"));
+  }
+
+  @Benchmark
+  public int nestedLoopSubmitTime() {
+    int start = nestedLoopIndexOf(history, Constants.JOB_SUBMIT_EVENT_BYTES, 0);
+    return nestedLoopIndexOf(history,
+        Constants.SUBMIT_TIME_PREFIX_HADOOP2_BYTES, start);
+  }
+
+  @Benchmark
+  public int indexOfSubmitTime() {
+    int start = ByteUtil.indexOf(history, Constants.JOB_SUBMIT_EVENT_BYTES, 0);
+    return ByteUtil.indexOf(history,
+        Constants.SUBMIT_TIME_PREFIX_HADOOP2_BYTES, start);
+  }
+
+  @Benchmark
+  public int searcherSubmitTime() {
+    int start = JOB_SUBMIT_EVENT_SEARCHER.indexOf(history, 0);
+    return SUBMIT_TIME_PREFIX_HADOOP2_SEARCHER.indexOf(history, start);
+  }
+
+  @Benchmark
+  public byte[][] copyingSplitRowKey() {
+    return copyingSplit(rowKey, Constants.SEP_BYTES, 4);
+  }
+
+  @Benchmark
+  public int splitOffsetsRowKey() {
+    int segments = ByteUtil.splitOffsets(rowKey, 0, rowKey.length,
+        Constants.SEP_BYTES, boundaries);
+    return boundaries[2 * segments - 1];
+  }
+
+  /**
+   * The nested-loop search {@link ByteUtil#indexOf(byte[], byte[], int)} used
+   * before the searcher was added.
+   */
+  private static int nestedLoopIndexOf(byte[] array, byte[] target,
+      int fromIndex) {
+    if (fromIndex < 0 || (fromIndex > (array.length - target.length))) {
+      return -1;
+    }
+    firstbyte: for (int i = fromIndex; i < array.length - target.length + 1; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (array[i + j] != target[j]) {
+          continue firstbyte;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * The copying {@link ByteUtil#split(byte[], byte[], int)} used before the
+   * offset based splits were added.
+   */
+  private static byte[][] copyingSplit(byte[] source, byte[] separator,
+      int limit) {
+    List<ByteUtil.Range> segments = new ArrayList<ByteUtil.Range>();
+    int start = 0;
+    itersource: for (int i = 0; i < source.length - separator.length + 1; i++) {
+      for (int j = 0; j < separator.length; j++) {
+        if (source[i + j] != separator[j]) {
+          continue itersource;
+        }
+      }
+      if (limit > 0 && segments.size() >= (limit - 1)) {
+        break;
+      }
+      segments.add(new ByteUtil.Range(start, i));
+      start = i + separator.length;
+      i += separator.length - 1;
+    }
+    segments.add(new ByteUtil.Range(start, source.length));
+
+    byte[][] splits = new byte[segments.size()][];
+    for (int i = 0; i < segments.size(); i++) {
+      ByteUtil.Range r = segments.get(i);
+      byte[] tmp = new byte[r.length()];
+      if (tmp.length > 0) {
+        System.arraycopy(source, r.start(), tmp, 0, r.length());
+      }
+      splits[i] = tmp;
+    }
+    return splits;
+  }
+}
@@ -256,6 +256,76 @@ public class TestByteUtil {
     assertIndexOf(8, array, ack, 8);
   }
 
+  @Test
+  public void testSearcher() {
+    byte[] array = Bytes.toBytes("quackattack");
+    ByteUtil.Searcher ack = new ByteUtil.Searcher(Bytes.toBytes("ack"));
+    assertEquals(3, ack.length());
+    assertEquals(-1, ack.indexOf(null, 0));
+    assertEquals(2, ack.indexOf(array, 0));
+    assertEquals(2, ack.indexOf(array, 2));
+    assertEquals(8, ack.indexOf(array, 3));
+    assertEquals(-1, ack.indexOf(array, 9));
+    assertEquals(-1, ack.indexOf(array, -3));
+    assertEquals(-1, ack.indexOf(array, 3, 10));
+    assertEquals(8, ack.indexOf(array, 3, 11));
+
+    ByteUtil.Searcher empty = new ByteUtil.Searcher(Constants.EMPTY_BYTES);
+    assertEquals(5, empty.indexOf(array, 5));
+    assertEquals(-1, empty.indexOf(array, array.length + 1));
+
+    // the searcher should find the same occurrences as indexOf
+    byte[] history = Bytes.toBytes("Avro-Json {\"type\":\"JOB_SUBMITTED\","
+        + "\"submitTime\":1329348443227,\"type\":\"JOB_SUBMITTED\"}");
+    ByteUtil.Searcher submitted =
+        new ByteUtil.Searcher(Constants.JOB_SUBMIT_EVENT_BYTES);
+    for (int i = 0; i < history.length; i++) {
+      assertEquals(ByteUtil.indexOf(history, Constants.JOB_SUBMIT_EVENT_BYTES,
+          i), submitted.indexOf(history, i));
+    }
+  }
+
+  @Test
+  public void testSplitRangesInPart() {
+    // a partial separator at the end of the source is not a separator
+    List<ByteUtil.Range> ranges = ByteUtil.splitRanges(
+        Bytes.toBytes("ab::c:"), Bytes.toBytes("::"));
+    assertEquals(2, ranges.size());
+    assertEquals(0, ranges.get(0).start());
+    assertEquals(2, ranges.get(0).end());
+    assertEquals(4, ranges.get(1).start());
+    assertEquals(6, ranges.get(1).end());
+
+    // only the part of the source is split, positions are in the source
+    byte[] source = Bytes.toBytes("xx!abc!def!yy");
+    ranges = ByteUtil.splitRanges(source, 3, 7, sep1, -1);
+    assertEquals(2, ranges.size());
+    assertEquals(3, ranges.get(0).start());
+    assertEquals(6, ranges.get(0).end());
+    assertEquals(7, ranges.get(1).start());
+    assertEquals(10, ranges.get(1).end());
+  }
+
+  @Test
+  public void testSplitOffsets() {
+    int[] boundaries = new int[6];
+    int segments = ByteUtil.splitOffsets(source3, 0, source3.length, sep3,
+        boundaries);
+    assertEquals(3, segments);
+    assertArrayEquals(new int[] { 0, 0, 2, 6, 8, 15 }, boundaries);
+
+    boundaries = new int[2];
+    segments = ByteUtil.splitOffsets(source1, 4, 7, sep1, boundaries);
+    assertEquals(1, segments);
+    assertArrayEquals(new int[] { 4, 11 }, boundaries);
+
+    try {
+      ByteUtil.splitOffsets(source1, 0, source1.length, sep1, new int[1]);
+      fail("Should have failed without room for a segment");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
   /**
    * @param expectedIndex
    *          where the index is expected to be
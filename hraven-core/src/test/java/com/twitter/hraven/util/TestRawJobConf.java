@@ -0,0 +1,143 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.Framework;
+import com.twitter.hraven.JobDescFactory;
+
+/**
+ * Tests that {@link RawJobConf} reads the same properties as a
+ * {@link Configuration} loaded from the same job conf
+ */
+public class TestRawJobConf {
+
+  private static final String JOB_CONF_FILE_NAME =
+      "src/test/resources/job_1329348432655_0001_conf.xml";
+
+  private static RawJobConf parse(String xml) throws XMLStreamException {
+    return RawJobConf.parse(Bytes.toBytes(xml));
+  }
+
+  @Test
+  public void testMatchesConfiguration() throws Exception {
+    byte[] contents = Files.toByteArray(new File(JOB_CONF_FILE_NAME));
+    RawJobConf rawJobConf = RawJobConf.parse(contents);
+
+    Configuration jobConf = new Configuration(false);
+    jobConf.addResource(new ByteArrayInputStream(contents));
+
+    assertTrue(rawJobConf.size() > 0);
+    for (Map.Entry<String, String> entry : rawJobConf) {
+      assertEquals(entry.getKey(), jobConf.getRaw(entry.getKey()),
+          entry.getValue());
+    }
+    assertEquals(HadoopConfUtil.getUserNameInConf(jobConf),
+        HadoopConfUtil.getUserNameInConf(rawJobConf));
+    assertEquals(HadoopConfUtil.getQueueName(jobConf),
+        HadoopConfUtil.getQueueName(rawJobConf));
+    assertEquals(JobDescFactory.getCluster(jobConf),
+        JobDescFactory.getCluster(rawJobConf));
+    assertEquals(JobDescFactory.getFramework(jobConf),
+        JobDescFactory.getFramework(rawJobConf));
+  }
+
+  @Test
+  public void testParseRange() throws Exception {
+    byte[] xml = Bytes.toBytes("<configuration><property><name>a</name>"
+        + "<value>1</value></property></configuration>");
+    byte[] buffer = Bytes.add(Bytes.toBytes("xx"), xml, Bytes.toBytes("yy"));
+    RawJobConf rawJobConf = RawJobConf.parse(buffer, 2, xml.length);
+    assertEquals(1, rawJobConf.size());
+    assertEquals("1", rawJobConf.get("a"));
+  }
+
+  @Test
+  public void testProperties() throws Exception {
+    RawJobConf rawJobConf = parse("<?xml version=\"1.0\"?><configuration>"
+        + "<property><name> trimmed </name><value> kept </value></property>"
+        + "<property><name>empty</name><value></value></property>"
+        + "<property><name>novalue</name></property>"
+        + "<property><name>entity</name><value>a&amp;b<![CDATA[<c>]]></value>"
+        + "</property>"
+        + "<property><name>overridden</name><value>1</value></property>"
+        + "<property><name>final</name><value>1</value><final>true</final>"
+        + "</property>"
+        + "<property><name>overridden</name><value>2</value></property>"
+        + "<property><name>final</name><value>2</value></property>"
+        + "<property><name>" + Constants.PIG_CONF_KEY + "</name>"
+        + "<value>x</value></property>"
+        + "</configuration>");
+
+    assertEquals(" kept ", rawJobConf.get("trimmed"));
+    assertNull(rawJobConf.get("empty"));
+    assertNull(rawJobConf.get("novalue"));
+    assertEquals("default", rawJobConf.get("novalue", "default"));
+    assertEquals("a&b<c>", rawJobConf.get("entity"));
+    assertEquals("2", rawJobConf.get("overridden"));
+    assertEquals("1", rawJobConf.get("final"));
+    assertEquals(5, rawJobConf.size());
+    assertEquals(Framework.PIG, JobDescFactory.getFramework(rawJobConf));
+
+    // properties are iterated in the order they first appear
+    Iterator<Map.Entry<String, String>> properties = rawJobConf.iterator();
+    assertEquals("trimmed", properties.next().getKey());
+    assertEquals("entity", properties.next().getKey());
+    assertEquals("overridden", properties.next().getKey());
+  }
+
+  @Test
+  public void testGetLong() throws Exception {
+    RawJobConf rawJobConf = parse("<configuration>"
+        + "<property><name>decimal</name><value> 42 </value></property>"
+        + "<property><name>hex</name><value>0x10</value></property>"
+        + "<property><name>negativehex</name><value>-0x10</value></property>"
+        + "<property><name>invalid</name><value>abc</value></property>"
+        + "</configuration>");
+    assertEquals(42L, rawJobConf.getLong("decimal", 0L));
+    assertEquals(16L, rawJobConf.getLong("hex", 0L));
+    assertEquals(-16L, rawJobConf.getLong("negativehex", 0L));
+    assertEquals(7L, rawJobConf.getLong("missing", 7L));
+    try {
+      rawJobConf.getLong("invalid", 0L);
+      fail("Should have failed on an invalid long");
+    } catch (NumberFormatException expected) {
+      // expected
+    }
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void testInvalidXml() throws Exception {
+    parse("<configuration><property><name>a</name>");
+  }
+}
@@ -0,0 +1,237 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.datasource.AppVersionService;
+
+/**
+ * Adds app versions through an {@link AppVersionService} in the background, so
+ * that the caller does not wait for the get and conditional put round trips of
+ * each version.
+ * <p>
+ * Versions are collected until the background thread is free to write them,
+ * and each cluster, user, app and version is written only once per batch,
+ * with the earliest run id added for it. Since only the earliest timestamp of
+ * a version is ever stored, this stores the same timestamps as adding every
+ * version as it comes.
+ * <p>
+ * Each added version gets a sequence number. Versions are written in the
+ * order they are added, and {@link #getWrittenSequence()} tells up to which
+ * sequence number all of them are written, so that callers can hold back
+ * whatever must only be written once the version is stored.
+ * <p>
+ * A version that could not be added fails the next call to
+ * {@link #addVersion}, {@link #flush()} or {@link #close()}, and no later
+ * version is reported as written.
+ */
+public class AppVersionWriter implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(AppVersionWriter.class);
+
+  private final AppVersionService appVersionService;
+  private final ExecutorService executor;
+
+  /** versions waiting to be written, by cluster!user!app!version */
+  private Map<String, PendingVersion> pending =
+      new LinkedHashMap<String, PendingVersion>();
+  /** the batch being written, null if none */
+  private Future<?> inFlight = null;
+  /** the first failure to add a version */
+  private IOException failure = null;
+  /** sequence number of the last version added */
+  private long addedSequence = 0L;
+  /** sequence number up to which all versions are written */
+  private long writtenSequence = 0L;
+
+  /**
+   * @param appVersionService to add the versions with
+   */
+  public AppVersionWriter(AppVersionService appVersionService) {
+    this.appVersionService = appVersionService;
+    this.executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("app-version-writer-%d")
+            .setDaemon(true).build());
+  }
+
+  /**
+   * Queues a version to be added, see
+   * {@link AppVersionService#addVersion(String, String, String, String, long)}
+   *
+   * @return the sequence number of the version, written once
+   *         {@link #getWrittenSequence()} is at least this number
+   * @throws IOException when an earlier version could not be added
+   */
+  public synchronized long addVersion(String cluster, String user,
+      String appId, String version, long timestamp) throws IOException {
+    checkFailure();
+    String key = new StringBuilder(cluster).append(Constants.SEP).append(user)
+        .append(Constants.SEP).append(appId).append(Constants.SEP)
+        .append(version).toString();
+    PendingVersion existing = pending.get(key);
+    if (existing == null) {
+      pending.put(key,
+          new PendingVersion(cluster, user, appId, version, timestamp));
+    } else if (timestamp < existing.timestamp) {
+      existing.timestamp = timestamp;
+    }
+    addedSequence++;
+    if (inFlight == null || inFlight.isDone()) {
+      submitPending();
+    }
+    return addedSequence;
+  }
+
+  /**
+   * @return the sequence number up to which all added versions are written
+   */
+  public synchronized long getWrittenSequence() {
+    return writtenSequence;
+  }
+
+  /**
+   * Hands the pending versions to the background thread.
+   */
+  private void submitPending() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    final List<PendingVersion> batch =
+        new ArrayList<PendingVersion>(pending.values());
+    final long batchSequence = addedSequence;
+    pending = new LinkedHashMap<String, PendingVersion>();
+    inFlight = executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        for (PendingVersion v : batch) {
+          try {
+            appVersionService.addVersion(v.cluster, v.user, v.appId,
+                v.version, v.timestamp);
+          } catch (IOException ioe) {
+            setFailure(v, ioe);
+            return;
+          } catch (RuntimeException re) {
+            setFailure(v, re);
+            return;
+          }
+        }
+        setWritten(batchSequence);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Added " + batch.size() + " app versions");
+        }
+      }
+    });
+  }
+
+  private synchronized void setWritten(long sequence) {
+    if (failure == null) {
+      writtenSequence = sequence;
+    }
+  }
+
+  private synchronized void setFailure(PendingVersion v, Exception e) {
+    if (failure == null) {
+      String msg = "Failed to add version " + v.version + " of app "
+          + v.appId + " for user " + v.user + " on cluster " + v.cluster;
+      LOG.error(msg, e);
+      failure = new IOException(msg, e);
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException(failure.getMessage(), failure);
+    }
+  }
+
+  /**
+   * Adds all queued versions and waits until they are written.
+   *
+   * @throws IOException when a version could not be added
+   */
+  public void flush() throws IOException {
+    while (true) {
+      Future<?> batch;
+      synchronized (this) {
+        checkFailure();
+        if (inFlight == null || inFlight.isDone()) {
+          if (pending.isEmpty()) {
+            return;
+          }
+          submitPending();
+        }
+        batch = inFlight;
+      }
+      try {
+        batch.get();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while adding app versions", ie);
+      } catch (ExecutionException ee) {
+        throw new IOException("Failed to add app versions", ee.getCause());
+      }
+    }
+  }
+
+  /**
+   * Adds all queued versions and stops the background thread.
+   *
+   * @throws IOException when a version could not be added
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * A version to add, with the earliest timestamp seen for it.
+   */
+  private static final class PendingVersion {
+    final String cluster;
+    final String user;
+    final String appId;
+    final String version;
+    long timestamp;
+
+    PendingVersion(String cluster, String user, String appId, String version,
+        long timestamp) {
+      this.cluster = cluster;
+      this.user = user;
+      this.appId = appId;
+      this.version = version;
+      this.timestamp = timestamp;
+    }
+  }
+}
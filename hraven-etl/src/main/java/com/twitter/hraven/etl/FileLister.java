@@ -16,11 +16,19 @@ limitations under the License.
 package com.twitter.hraven.etl;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,6 +47,12 @@ public class FileLister {
 
   private static final Log LOG = LogFactory.getLog(FileLister.class);
 
+  /**
+   * How far off the day of its date directory the modification time of a job
+   * file may be when pruning, to allow for time zones.
+   */
+  static final long DATE_DIR_SLACK_MILLIS = 24L * 60 * 60 * 1000;
+
   /**
    * Default constructor.
    */
@@ -46,30 +60,186 @@ public class FileLister {
   }
 
   /**
-   * Recursively traverses the dirs to get the list of
-   * files for a given path filtered as per the input path range filter
+   * Receives the files found while walking a directory tree. Files are handed
+   * over as they are listed, possibly from several threads at once.
+   */
+  public interface FileStatusVisitor {
+    void visit(FileStatus fileStatus) throws IOException;
+  }
+
+  /**
+   * Lists the files under the given path, handing those accepted by the filter
+   * to the visitor as they are found. Sub directories are listed in parallel
+   * by a work-stealing pool.
    *
+   * @param recurse - whether or not to traverse recursively
+   * @param hdfs - the file system
+   * @param inputPath - the path to traverse for getting the list of files
+   * @param pathFilter - the filter to include/exclude certain files
+   * @param threads - how many directories to list at the same time
+   * @param visitor - receives the accepted files, must be thread safe
+   * @throws IOException
    */
-  private static void traverseDirs(List<FileStatus> fileStatusesList, FileSystem hdfs,
-      Path inputPath, JobFileModifiedRangePathFilter jobFileModifiedRangePathFilter)
-          throws IOException
-  {
-    // get all the files and dirs in the current dir
-    FileStatus allFiles[] = hdfs.listStatus(inputPath);
-    for (FileStatus aFile: allFiles) {
-      if (aFile.isDir()) {
-        //recurse here
-        traverseDirs(fileStatusesList, hdfs, aFile.getPath(), jobFileModifiedRangePathFilter);
-      }
-      else {
-        // check if the pathFilter is accepted for this file
-        if (jobFileModifiedRangePathFilter.accept(aFile.getPath())) {
-          fileStatusesList.add(aFile);
+  public static void walk(boolean recurse, FileSystem hdfs, Path inputPath,
+      JobFileModifiedRangePathFilter pathFilter, int threads,
+      FileStatusVisitor visitor) throws IOException {
+    walk(recurse, hdfs, inputPath, pathFilter, threads, false, visitor);
+  }
+
+  /**
+   * Like {@link #walk(boolean, FileSystem, Path, JobFileModifiedRangePathFilter, int, FileStatusVisitor)},
+   * optionally without listing the date directories of a job history done dir
+   * ({@code yyyy/MM} and {@code yyyy/MM/dd}) whose name is outside of the
+   * range of the filter.
+   * <p>
+   * A directory is named after the modification time of the job files when
+   * they were partitioned, while the filter checks the modification time of
+   * the copies, so pruning loses the files copied into a date directory more
+   * than a day later. Only prune when that cannot happen.
+   *
+   * @param pruneDateDirs - whether to skip date directories by their name
+   * @throws IOException
+   */
+  public static void walk(boolean recurse, FileSystem hdfs, Path inputPath,
+      JobFileModifiedRangePathFilter pathFilter, int threads,
+      boolean pruneDateDirs, FileStatusVisitor visitor) throws IOException {
+    ListingTask root = new ListingTask(recurse, hdfs, inputPath, pathFilter,
+        pruneDateDirs, visitor);
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+    try {
+      pool.invoke(root);
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    } finally {
+      pool.shutdown();
+    }
+    LOG.info("Listed " + root.listedDirs.get() + " directories under "
+        + inputPath.toUri() + ", skipped " + root.prunedDirs.get()
+        + " date directories outside of the modification time range");
+  }
+
+  /**
+   * Lists one directory and forks a task for each of its sub directories.
+   */
+  private static class ListingTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean recurse;
+    private final FileSystem hdfs;
+    private final Path dir;
+    private final JobFileModifiedRangePathFilter pathFilter;
+    private final boolean pruneDateDirs;
+    private final FileStatusVisitor visitor;
+    private final AtomicLong listedDirs;
+    private final AtomicLong prunedDirs;
+
+    ListingTask(boolean recurse, FileSystem hdfs, Path dir,
+        JobFileModifiedRangePathFilter pathFilter, boolean pruneDateDirs,
+        FileStatusVisitor visitor) {
+      this(recurse, hdfs, dir, pathFilter, pruneDateDirs, visitor,
+          new AtomicLong(), new AtomicLong());
+    }
+
+    private ListingTask(boolean recurse, FileSystem hdfs, Path dir,
+        JobFileModifiedRangePathFilter pathFilter, boolean pruneDateDirs,
+        FileStatusVisitor visitor, AtomicLong listedDirs,
+        AtomicLong prunedDirs) {
+      this.recurse = recurse;
+      this.hdfs = hdfs;
+      this.dir = dir;
+      this.pathFilter = pathFilter;
+      this.pruneDateDirs = pruneDateDirs;
+      this.visitor = visitor;
+      this.listedDirs = listedDirs;
+      this.prunedDirs = prunedDirs;
+    }
+
+    @Override
+    protected void compute() {
+      List<ListingTask> subTasks = new ArrayList<ListingTask>();
+      try {
+        // get all the files and dirs in the current dir
+        FileStatus allFiles[] = hdfs.listStatus(dir);
+        listedDirs.incrementAndGet();
+        for (FileStatus aFile : allFiles) {
+          if (aFile.isDirectory()) {
+            if (!recurse) {
+              continue;
+            }
+            if (pruneDateDirs && isOutsideRange(aFile.getPath(), pathFilter)) {
+              prunedDirs.incrementAndGet();
+            } else {
+              subTasks.add(new ListingTask(recurse, hdfs, aFile.getPath(),
+                  pathFilter, pruneDateDirs, visitor, listedDirs,
+                  prunedDirs));
+            }
+          } else if (pathFilter.accept(aFile)) {
+            visitor.visit(aFile);
+          }
         }
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
       }
+      invokeAll(subTasks);
     }
   }
 
+  /**
+   * Checks whether a job history date directory is named after a day outside
+   * of the range of the filter, allowing {@link #DATE_DIR_SLACK_MILLIS} for
+   * time zones. This goes by the name only, files copied into the directory
+   * later can still be in range.
+   *
+   * @param dir a directory
+   * @param pathFilter the filter to check against
+   * @return whether the directory is a {@code yyyy/MM} or {@code yyyy/MM/dd}
+   *         directory entirely outside of the range of the filter
+   */
+  static boolean isOutsideRange(Path dir,
+      JobFileModifiedRangePathFilter pathFilter) {
+    Calendar start = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    start.clear();
+    int period;
+    Path parent = dir.getParent();
+    Path grandParent = parent == null ? null : parent.getParent();
+    if (parent != null && isNumber(parent.getName(), 4)
+        && isNumber(dir.getName(), 2)) {
+      // yyyy/MM
+      start.set(Integer.parseInt(parent.getName()),
+          Integer.parseInt(dir.getName()) - 1, 1);
+      period = Calendar.MONTH;
+    } else if (grandParent != null && isNumber(grandParent.getName(), 4)
+        && isNumber(parent.getName(), 2) && isNumber(dir.getName(), 2)) {
+      // yyyy/MM/dd
+      start.set(Integer.parseInt(grandParent.getName()),
+          Integer.parseInt(parent.getName()) - 1,
+          Integer.parseInt(dir.getName()));
+      period = Calendar.DAY_OF_MONTH;
+    } else {
+      return false;
+    }
+    long startMillis = start.getTimeInMillis();
+    start.add(period, 1);
+    long endMillis = start.getTimeInMillis();
+    // the filter accepts (min, max]
+    return endMillis + DATE_DIR_SLACK_MILLIS <= pathFilter
+        .getMinModificationTimeMillis()
+        || startMillis - DATE_DIR_SLACK_MILLIS > pathFilter
+            .getMaxModificationTimeMillis();
+  }
+
+  private static boolean isNumber(String name, int digits) {
+    if (name.length() != digits) {
+      return false;
+    }
+    for (int i = 0; i < digits; i++) {
+      if (!Character.isDigit(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Gets the list of files for a given path filtered as per the input path range filter
    * Can go into directories recursively
@@ -85,16 +255,35 @@ public class FileLister {
   public static FileStatus[] listFiles (boolean recurse, FileSystem hdfs, Path inputPath,
       JobFileModifiedRangePathFilter jobFileModifiedRangePathFilter) throws IOException
   {
-    if (recurse) {
-      List<FileStatus> fileStatusesList = new ArrayList<FileStatus>();
-      traverseDirs(fileStatusesList, hdfs, inputPath, jobFileModifiedRangePathFilter);
-      FileStatus[] fileStatuses = (FileStatus[]) fileStatusesList.toArray(
-          new FileStatus[fileStatusesList.size()]);
-      return fileStatuses;
-    }
-    else {
-      return hdfs.listStatus(inputPath, jobFileModifiedRangePathFilter);
-    }
+    return listFiles(recurse, hdfs, inputPath, jobFileModifiedRangePathFilter, 1);
+  }
+
+  /**
+   * Gets the list of files for a given path filtered as per the input path range filter
+   * Can go into directories recursively, listing up to the given number of
+   * directories at the same time. The files are in no particular order.
+   *
+   * @param recurse - whether or not to traverse recursively
+   * @param hdfs - the file system
+   * @param inputPath - the path to traverse for getting the list of files
+   * @param jobFileModifiedRangePathFilter - the filter to include/exclude certain files
+   * @param threads - how many directories to list at the same time
+   *
+   * @return array of file status.
+   * @throws IOException
+   */
+  public static FileStatus[] listFiles(boolean recurse, FileSystem hdfs,
+      Path inputPath, JobFileModifiedRangePathFilter jobFileModifiedRangePathFilter,
+      int threads) throws IOException {
+    final Queue<FileStatus> fileStatuses = new ConcurrentLinkedQueue<FileStatus>();
+    walk(recurse, hdfs, inputPath, jobFileModifiedRangePathFilter, threads,
+        new FileStatusVisitor() {
+          @Override
+          public void visit(FileStatus fileStatus) {
+            fileStatuses.add(fileStatus);
+          }
+        });
+    return fileStatuses.toArray(new FileStatus[fileStatuses.size()]);
   }
 
   /**
@@ -115,10 +304,27 @@ public class FileLister {
   public static FileStatus[] getListFilesToProcess(long maxFileSize, boolean recurse,
       FileSystem hdfs, Path inputPath, JobFileModifiedRangePathFilter pathFilter)
       throws IOException {
+    return getListFilesToProcess(maxFileSize, recurse, hdfs, inputPath,
+        pathFilter, 1);
+  }
+
+  /**
+   * Like {@link #getListFilesToProcess(long, boolean, FileSystem, Path, JobFileModifiedRangePathFilter)}
+   * with up to the given number of directories listed at the same time.
+   *
+   * @param threads - how many directories to list at the same time
+   * @return - array of FileStatus of files to be processed, in no particular
+   *         order
+   * @throws IOException
+   */
+  public static FileStatus[] getListFilesToProcess(long maxFileSize, boolean recurse,
+      FileSystem hdfs, Path inputPath, JobFileModifiedRangePathFilter pathFilter,
+      int threads) throws IOException {
 
     LOG.info(" in getListFilesToProcess maxFileSize=" + maxFileSize
         + " inputPath= " + inputPath.toUri());
-    FileStatus[] origList = listFiles(recurse, hdfs, inputPath, pathFilter);
+    FileStatus[] origList =
+        listFiles(recurse, hdfs, inputPath, pathFilter, threads);
     if (origList == null) {
       LOG.info(" No files found, orig list returning 0");
       return new FileStatus[0];
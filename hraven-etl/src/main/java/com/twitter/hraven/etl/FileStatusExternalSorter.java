@@ -0,0 +1,238 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * Sorts file statuses by modification time in a bounded amount of memory.
+ * Statuses are collected in runs of a fixed size; each full run is sorted and
+ * spilled to a local temporary file. The runs are merged as the statuses are
+ * read back, so at most one run plus one status per spilled run is held in
+ * memory. When all statuses fit in one run nothing is spilled.
+ * <p>
+ * Statuses can be added from several threads at once, such as by a
+ * {@link FileLister#walk} of a directory tree.
+ */
+public class FileStatusExternalSorter implements FileLister.FileStatusVisitor,
+    Closeable {
+
+  private static final Log LOG =
+      LogFactory.getLog(FileStatusExternalSorter.class);
+
+  private static final Comparator<FileStatus> MODIFICATION_COMPARATOR =
+      new FileStatusModificationComparator();
+
+  private final int runSize;
+  private final File tmpDir;
+  private final List<FileStatus> run;
+  private final List<File> spills = new ArrayList<File>();
+  private long count = 0;
+
+  /**
+   * @param runSize how many statuses to hold in memory before spilling them
+   * @param tmpDir local directory to spill runs to, {@code null} for the
+   *          default temporary directory
+   */
+  public FileStatusExternalSorter(int runSize, File tmpDir) {
+    if (runSize < 1) {
+      throw new IllegalArgumentException("Run size must be at least 1, not "
+          + runSize);
+    }
+    this.runSize = runSize;
+    this.tmpDir = tmpDir;
+    this.run = new ArrayList<FileStatus>(Math.min(runSize, 1024));
+  }
+
+  @Override
+  public synchronized void visit(FileStatus fileStatus) throws IOException {
+    run.add(fileStatus);
+    count++;
+    if (run.size() >= runSize) {
+      spill();
+    }
+  }
+
+  private void spill() throws IOException {
+    Collections.sort(run, MODIFICATION_COMPARATOR);
+    File spill = File.createTempFile("hraven-filestatus-", ".run", tmpDir);
+    // track it before writing, so that it is deleted on close regardless
+    spills.add(spill);
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(spill)));
+    try {
+      out.writeInt(run.size());
+      for (FileStatus fileStatus : run) {
+        fileStatus.write(out);
+      }
+    } finally {
+      out.close();
+    }
+    LOG.info("Spilled run of " + run.size() + " file statuses to " + spill);
+    run.clear();
+  }
+
+  /**
+   * @return how many statuses were added
+   */
+  public synchronized long size() {
+    return count;
+  }
+
+  /**
+   * @return how many runs were spilled to disk
+   */
+  public synchronized int getSpillCount() {
+    return spills.size();
+  }
+
+  /**
+   * Hands all the added statuses to the visitor, by ascending modification
+   * time.
+   *
+   * @param visitor receives the statuses
+   * @throws IOException when a spilled run cannot be read or the visitor fails
+   */
+  public synchronized void merge(FileLister.FileStatusVisitor visitor)
+      throws IOException {
+    Collections.sort(run, MODIFICATION_COMPARATOR);
+    PriorityQueue<Run> queue = new PriorityQueue<Run>(spills.size() + 1,
+        new Comparator<Run>() {
+          @Override
+          public int compare(Run run1, Run run2) {
+            return MODIFICATION_COMPARATOR.compare(run1.head, run2.head);
+          }
+        });
+    List<Run> runs = new ArrayList<Run>(spills.size() + 1);
+    try {
+      runs.add(new MemoryRun(run.iterator()));
+      for (File spill : spills) {
+        runs.add(new SpilledRun(spill));
+      }
+      for (Run r : runs) {
+        if (r.advance()) {
+          queue.add(r);
+        }
+      }
+      while (!queue.isEmpty()) {
+        Run next = queue.poll();
+        visitor.visit(next.head);
+        if (next.advance()) {
+          queue.add(next);
+        }
+      }
+    } finally {
+      for (Run r : runs) {
+        r.close();
+      }
+    }
+  }
+
+  /**
+   * Deletes the spilled runs.
+   */
+  @Override
+  public synchronized void close() {
+    for (File spill : spills) {
+      if (!spill.delete()) {
+        LOG.warn("Could not delete spilled run " + spill);
+      }
+    }
+    spills.clear();
+    run.clear();
+  }
+
+  /**
+   * Sorted statuses read one at a time.
+   */
+  private static abstract class Run implements Closeable {
+    /** the current status of the run */
+    FileStatus head;
+
+    /**
+     * Moves on to the next status.
+     *
+     * @return whether there was one
+     */
+    abstract boolean advance() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+  }
+
+  private static class MemoryRun extends Run {
+    private final Iterator<FileStatus> iterator;
+
+    MemoryRun(Iterator<FileStatus> iterator) {
+      this.iterator = iterator;
+    }
+
+    @Override
+    boolean advance() {
+      if (!iterator.hasNext()) {
+        return false;
+      }
+      head = iterator.next();
+      return true;
+    }
+  }
+
+  private static class SpilledRun extends Run {
+    private final DataInputStream in;
+    private int remaining;
+
+    SpilledRun(File spill) throws IOException {
+      this.in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(spill)));
+      this.remaining = in.readInt();
+    }
+
+    @Override
+    boolean advance() throws IOException {
+      if (remaining == 0) {
+        return false;
+      }
+      remaining--;
+      head = new FileStatus();
+      head.readFields(in);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
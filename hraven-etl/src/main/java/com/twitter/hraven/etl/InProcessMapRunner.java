@@ -0,0 +1,441 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.MultiTableOutputFormat;
+import org.apache.hadoop.hbase.mapreduce.TableOutputFormat;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hraven.Constants;
+
+/**
+ * Runs a mapper that writes puts to HBase within this process rather than as
+ * a MapReduce job, for batches small enough that submitting a job takes
+ * longer than the work itself.
+ * <p>
+ * Each thread runs its own instance of the mapper, which takes its records one
+ * at a time from a shared {@link RecordSource}. The puts are written through a
+ * {@link BufferedMutator} per table and thread. As with
+ * {@link MultiTableOutputFormat} the output key names the table, an empty key
+ * writes to the default table as with {@link TableOutputFormat}.
+ *
+ * @param <KEYIN> the input key type of the mapper
+ * @param <VALUEIN> the input value type of the mapper
+ */
+public class InProcessMapRunner<KEYIN, VALUEIN> {
+
+  private static final Log LOG = LogFactory.getLog(InProcessMapRunner.class);
+
+  private final Configuration conf;
+  private final Connection hbaseConnection;
+  private final Class<? extends Mapper<KEYIN, VALUEIN, ImmutableBytesWritable, Put>> mapperClass;
+  private final TableName defaultTable;
+  private final int threads;
+
+  /**
+   * @param conf handed to the mappers
+   * @param hbaseConnection to write the puts with
+   * @param mapperClass the mapper to run
+   * @param defaultTable to write all puts to, whatever their output key. If
+   *          {@code null}, the output key of each put names its table.
+   * @param threads how many mappers to run at the same time
+   */
+  public InProcessMapRunner(Configuration conf, Connection hbaseConnection,
+      Class<? extends Mapper<KEYIN, VALUEIN, ImmutableBytesWritable, Put>> mapperClass,
+      TableName defaultTable, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Need at least 1 thread, not "
+          + threads);
+    }
+    this.conf = conf;
+    this.hbaseConnection = hbaseConnection;
+    this.mapperClass = mapperClass;
+    this.defaultTable = defaultTable;
+    this.threads = threads;
+  }
+
+  /**
+   * @param conf holding {@link Constants#IN_PROCESS_MAX_JOB_FILES_CONF_KEY}
+   * @param jobFiles how many job files there are to map
+   * @return whether a batch of this many job files is small enough to be
+   *         mapped in process
+   */
+  public static boolean isSmallBatch(Configuration conf, long jobFiles) {
+    int maxJobFiles = conf.getInt(Constants.IN_PROCESS_MAX_JOB_FILES_CONF_KEY,
+        Constants.DEFAULT_IN_PROCESS_MAX_JOB_FILES);
+    return maxJobFiles > 0 && jobFiles <= maxJobFiles;
+  }
+
+  /**
+   * @param conf holding {@link Constants#IN_PROCESS_THREADS_CONF_KEY}
+   * @return how many mappers to run at the same time
+   */
+  public static int getThreads(Configuration conf) {
+    return Math.max(1, conf.getInt(Constants.IN_PROCESS_THREADS_CONF_KEY,
+        Constants.DEFAULT_IN_PROCESS_THREADS));
+  }
+
+  /**
+   * Maps all the records of the source and closes it. The puts of each mapper
+   * are flushed once it is done.
+   *
+   * @param source of the records to map
+   * @return the counters of all mappers together
+   * @throws IOException when a mapper failed. The other mappers stop taking
+   *           records once one has failed.
+   * @throws InterruptedException when interrupted while waiting for the
+   *           mappers
+   */
+  public Counters run(RecordSource<KEYIN, VALUEIN> source)
+      throws IOException, InterruptedException {
+    long start = System.currentTimeMillis();
+    AtomicBoolean failed = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder()
+            .setNameFormat(mapperClass.getSimpleName() + "-%d")
+            .setDaemon(true).build());
+    try {
+      List<Future<Counters>> futures = new ArrayList<Future<Counters>>(threads);
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new MapTask(source, failed, i)));
+      }
+
+      Counters counters = new Counters();
+      IOException failure = null;
+      for (Future<Counters> future : futures) {
+        try {
+          counters.incrAllCounters(future.get());
+        } catch (ExecutionException ee) {
+          if (failure == null) {
+            failure = new IOException(mapperClass.getSimpleName()
+                + " failed in process", ee.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      LOG.info("Ran " + mapperClass.getSimpleName() + " in process on "
+          + threads + " threads in "
+          + (System.currentTimeMillis() - start) + " ms");
+      return counters;
+    } finally {
+      executor.shutdownNow();
+      synchronized (source) {
+        source.close();
+      }
+    }
+  }
+
+  /**
+   * Hands out the records to map. Only called by one mapper at a time.
+   */
+  public interface RecordSource<K, V> extends Closeable {
+    /**
+     * @return the next record, {@code null} when there are no more. Not reused
+     *         for later records.
+     */
+    Pair<K, V> next() throws IOException;
+  }
+
+  /**
+   * @param conf to read the file with
+   * @param path of the sequence file
+   * @param keyClass of the keys in the file
+   * @param valueClass of the values in the file
+   * @return the records of a sequence file, as a {@link SequenceFile} input
+   *         format would read them
+   * @throws IOException when the file cannot be opened
+   */
+  public static <K extends Writable, V extends Writable> RecordSource<K, V> sequenceFileSource(
+      final Configuration conf, Path path, final Class<K> keyClass,
+      final Class<V> valueClass) throws IOException {
+    final SequenceFile.Reader reader =
+        new SequenceFile.Reader(conf, SequenceFile.Reader.file(path));
+    return new RecordSource<K, V>() {
+      @Override
+      public Pair<K, V> next() throws IOException {
+        K key = ReflectionUtils.newInstance(keyClass, conf);
+        V value = ReflectionUtils.newInstance(valueClass, conf);
+        if (!reader.next(key, value)) {
+          return null;
+        }
+        return new Pair<K, V>(key, value);
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  /**
+   * @param hbaseConnection to scan with
+   * @param table to scan
+   * @param scan of the rows to return
+   * @return the rows of a table scan, keyed by row key as a table input format
+   *         would return them
+   * @throws IOException when the scan cannot be started
+   */
+  public static RecordSource<ImmutableBytesWritable, Result> scanSource(
+      Connection hbaseConnection, TableName table, Scan scan)
+      throws IOException {
+    final Table scanned = hbaseConnection.getTable(table);
+    final ResultScanner scanner;
+    try {
+      scanner = scanned.getScanner(scan);
+    } catch (IOException ioe) {
+      scanned.close();
+      throw ioe;
+    }
+    return new RecordSource<ImmutableBytesWritable, Result>() {
+      @Override
+      public Pair<ImmutableBytesWritable, Result> next() throws IOException {
+        Result result = scanner.next();
+        if (result == null) {
+          return null;
+        }
+        return new Pair<ImmutableBytesWritable, Result>(
+            new ImmutableBytesWritable(result.getRow()), result);
+      }
+
+      @Override
+      public void close() throws IOException {
+        scanner.close();
+        scanned.close();
+      }
+    };
+  }
+
+  /**
+   * Runs one instance of the mapper, as a map task would.
+   */
+  private class MapTask implements Callable<Counters> {
+    private final RecordSource<KEYIN, VALUEIN> source;
+    private final AtomicBoolean failed;
+    private final int id;
+
+    MapTask(RecordSource<KEYIN, VALUEIN> source, AtomicBoolean failed,
+        int id) {
+      this.source = source;
+      this.failed = failed;
+      this.id = id;
+    }
+
+    @Override
+    public Counters call() throws Exception {
+      Counters counters = new Counters();
+      Mapper<KEYIN, VALUEIN, ImmutableBytesWritable, Put> mapper =
+          ReflectionUtils.newInstance(mapperClass, conf);
+      MutatorRecordWriter writer = new MutatorRecordWriter();
+      boolean mapped = false;
+      try {
+        MapContext<KEYIN, VALUEIN, ImmutableBytesWritable, Put> mapContext =
+            new MapContextImpl<KEYIN, VALUEIN, ImmutableBytesWritable, Put>(
+                conf, new TaskAttemptID("inprocess", 0, TaskType.MAP, id, 0),
+                new SharedRecordReader(source, failed), writer, null,
+                new CountersReporter(counters), null);
+        mapper.run(new WrappedMapper<KEYIN, VALUEIN, ImmutableBytesWritable, Put>()
+            .getMapContext(mapContext));
+        mapped = true;
+      } finally {
+        if (!mapped) {
+          failed.set(true);
+        }
+        writer.close(null);
+      }
+      return counters;
+    }
+  }
+
+  /**
+   * Takes the records of a mapper from the shared source.
+   */
+  private class SharedRecordReader extends RecordReader<KEYIN, VALUEIN> {
+    private final RecordSource<KEYIN, VALUEIN> source;
+    private final AtomicBoolean failed;
+    private Pair<KEYIN, VALUEIN> current = null;
+
+    SharedRecordReader(RecordSource<KEYIN, VALUEIN> source,
+        AtomicBoolean failed) {
+      this.source = source;
+      this.failed = failed;
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) {
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+      if (failed.get()) {
+        // no point in going on, the run fails regardless
+        current = null;
+      } else {
+        synchronized (source) {
+          current = source.next();
+        }
+      }
+      return current != null;
+    }
+
+    @Override
+    public KEYIN getCurrentKey() {
+      return current.getFirst();
+    }
+
+    @Override
+    public VALUEIN getCurrentValue() {
+      return current.getSecond();
+    }
+
+    @Override
+    public float getProgress() {
+      return 0.0f;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Writes the puts of a mapper through a buffered mutator per table.
+   */
+  private class MutatorRecordWriter
+      extends RecordWriter<ImmutableBytesWritable, Put> {
+    private final Map<TableName, BufferedMutator> mutators =
+        new HashMap<TableName, BufferedMutator>();
+
+    @Override
+    public void write(ImmutableBytesWritable key, Put put) throws IOException {
+      // like TableOutputFormat, the key is ignored when a table is given;
+      // an empty writable has no bytes to take a length of
+      TableName table = defaultTable;
+      if (table == null) {
+        if (key == null || key.get() == null) {
+          throw new IOException("No table to write put to for row "
+              + Bytes.toStringBinary(put.getRow()));
+        }
+        table = TableName.valueOf(key.copyBytes());
+      }
+      BufferedMutator mutator = mutators.get(table);
+      if (mutator == null) {
+        mutator = hbaseConnection.getBufferedMutator(table);
+        mutators.put(table, mutator);
+      }
+      mutator.mutate(put);
+    }
+
+    /**
+     * Flushes and closes all mutators, even if one of them fails.
+     */
+    @Override
+    public void close(TaskAttemptContext context) throws IOException {
+      IOException caught = null;
+      for (BufferedMutator mutator : mutators.values()) {
+        try {
+          mutator.close();
+        } catch (IOException ioe) {
+          caught = ioe;
+        }
+      }
+      mutators.clear();
+      if (caught != null) {
+        throw caught;
+      }
+    }
+  }
+
+  /**
+   * Keeps the counters of a mapper, progress and status are not tracked.
+   */
+  private static class CountersReporter extends StatusReporter {
+    private final Counters counters;
+
+    CountersReporter(Counters counters) {
+      this.counters = counters;
+    }
+
+    @Override
+    public Counter getCounter(Enum<?> name) {
+      return counters.findCounter(name);
+    }
+
+    @Override
+    public Counter getCounter(String group, String name) {
+      return counters.findCounter(group, name);
+    }
+
+    @Override
+    public void progress() {
+    }
+
+    @Override
+    public float getProgress() {
+      return 0.0f;
+    }
+
+    @Override
+    public void setStatus(String status) {
+    }
+  }
+}
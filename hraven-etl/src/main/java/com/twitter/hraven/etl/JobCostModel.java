@@ -0,0 +1,286 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.Path;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.Framework;
+
+/**
+ * The cost details of the machines jobs run on, read once from the cost
+ * properties file so that the cost of every processed job can be computed
+ * without any file access.
+ * <p>
+ * The cost properties hold, per machine type:
+ * <ul>
+ * <li>{@code <machinetype>.computecost}: the part of the cost of operating a
+ * machine allocated to compute</li>
+ * <li>{@code <machinetype>.machinememory}: the memory available to jobs on the
+ * machine, in megabytes</li>
+ * </ul>
+ * Jobs are costed with the machine type of the cluster,
+ * {@link Constants#HRAVEN_MACHINE_TYPE}, unless the properties map their
+ * queue, with {@code queue.<queuename>.machinetype}, or their framework, with
+ * {@code framework.<pig|scalding|none>.machinetype}, to another machine type.
+ * A queue mapping takes precedence over a framework mapping.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class JobCostModel {
+
+  private static final Log LOG = LogFactory.getLog(JobCostModel.class);
+
+  static final String COMPUTE_COST_SUFFIX = ".computecost";
+  static final String MACHINE_MEMORY_SUFFIX = ".machinememory";
+  static final String QUEUE_PREFIX = "queue.";
+  static final String FRAMEWORK_PREFIX = "framework.";
+  static final String MACHINE_TYPE_SUFFIX = ".machinetype";
+
+  /** machine type used when the cluster does not name one */
+  public static final String DEFAULT_MACHINE_TYPE = "default";
+
+  /**
+   * The cost details of one machine type.
+   */
+  public static final class MachineCost {
+    private final double computeCost;
+    private final long machineMemory;
+
+    MachineCost(double computeCost, long machineMemory) {
+      this.computeCost = computeCost;
+      this.machineMemory = machineMemory;
+    }
+
+    public double getComputeCost() {
+      return computeCost;
+    }
+
+    public long getMachineMemory() {
+      return machineMemory;
+    }
+
+    /**
+     * @param mbMillis the megabyte millis used by a job
+     * @return the cost of the job on this type of machine
+     */
+    public double getJobCost(long mbMillis) {
+      return JobHistoryFileParserBase.calculateJobCost(mbMillis, computeCost,
+          machineMemory);
+    }
+  }
+
+  private static final MachineCost NO_COST = new MachineCost(0.0, 0L);
+
+  private final String defaultMachineType;
+  private final Map<String, MachineCost> machineCosts;
+  private final Map<String, String> queueMachineTypes;
+  private final Map<String, String> frameworkMachineTypes;
+
+  /**
+   * @param costProperties the cost details, may be null when they could not be
+   *          loaded, in which case every job costs 0
+   * @param defaultMachineType of the cluster the jobs ran on
+   */
+  public JobCostModel(Properties costProperties, String defaultMachineType) {
+    this.defaultMachineType = (defaultMachineType == null)
+        ? DEFAULT_MACHINE_TYPE : defaultMachineType;
+
+    Map<String, Double> computeCosts = new HashMap<String, Double>();
+    Map<String, Long> machineMemories = new HashMap<String, Long>();
+    Map<String, String> queues = new HashMap<String, String>();
+    Map<String, String> frameworks = new HashMap<String, String>();
+
+    if (costProperties != null) {
+      for (String name : costProperties.stringPropertyNames()) {
+        String value = costProperties.getProperty(name).trim();
+        if (name.startsWith(QUEUE_PREFIX)
+            && name.endsWith(MACHINE_TYPE_SUFFIX)) {
+          queues.put(strip(name, QUEUE_PREFIX, MACHINE_TYPE_SUFFIX), value);
+        } else if (name.startsWith(FRAMEWORK_PREFIX)
+            && name.endsWith(MACHINE_TYPE_SUFFIX)) {
+          frameworks.put(strip(name, FRAMEWORK_PREFIX, MACHINE_TYPE_SUFFIX)
+              .toLowerCase(), value);
+        } else if (name.endsWith(COMPUTE_COST_SUFFIX)) {
+          try {
+            computeCosts.put(strip(name, "", COMPUTE_COST_SUFFIX),
+                Double.parseDouble(value));
+          } catch (NumberFormatException nfe) {
+            LOG.error("error in conversion to double for compute tco " + name
+                + "=" + value + " using default value of 0");
+          }
+        } else if (name.endsWith(MACHINE_MEMORY_SUFFIX)) {
+          try {
+            machineMemories.put(strip(name, "", MACHINE_MEMORY_SUFFIX),
+                Long.parseLong(value));
+          } catch (NumberFormatException nfe) {
+            LOG.error("error in conversion to long for machine memory " + name
+                + "=" + value + " using default value of 0");
+          }
+        }
+      }
+    }
+
+    Map<String, MachineCost> costs = new HashMap<String, MachineCost>();
+    for (String machineType : computeCosts.keySet()) {
+      Long machineMemory = machineMemories.get(machineType);
+      costs.put(machineType, new MachineCost(computeCosts.get(machineType),
+          (machineMemory == null) ? 0L : machineMemory));
+    }
+    for (String machineType : machineMemories.keySet()) {
+      if (!costs.containsKey(machineType)) {
+        costs.put(machineType,
+            new MachineCost(0.0, machineMemories.get(machineType)));
+      }
+    }
+
+    this.machineCosts = Collections.unmodifiableMap(costs);
+    this.queueMachineTypes = Collections.unmodifiableMap(queues);
+    this.frameworkMachineTypes = Collections.unmodifiableMap(frameworks);
+
+    if (!machineCosts.containsKey(this.defaultMachineType)) {
+      LOG.error("No cost details for machine type " + this.defaultMachineType
+          + ", using default values of 0");
+    }
+    LOG.info("Loaded cost details for machine types " + machineCosts.keySet()
+        + " with queue mappings " + queueMachineTypes
+        + " and framework mappings " + frameworkMachineTypes);
+  }
+
+  private static String strip(String name, String prefix, String suffix) {
+    return name.substring(prefix.length(), name.length() - suffix.length());
+  }
+
+  /**
+   * Loads the cost model from the cost properties file in the distributed
+   * cache, with the machine type of the cluster set in the configuration.
+   *
+   * @param conf of the processing job
+   * @return the cost model, which costs every job at 0 when the cost
+   *         properties file cannot be found or read
+   */
+  public static JobCostModel load(Configuration conf) {
+    String machineType =
+        conf.get(Constants.HRAVEN_MACHINE_TYPE, DEFAULT_MACHINE_TYPE);
+    LOG.debug(" machine type " + machineType);
+
+    Properties prop = null;
+    try {
+      Path[] cacheFiles = DistributedCache.getLocalCacheFiles(conf);
+      if (null != cacheFiles && cacheFiles.length > 0) {
+        for (Path cachePath : cacheFiles) {
+          LOG.debug(" distributed cache path " + cachePath);
+          if (cachePath.getName().equals(Constants.COST_PROPERTIES_FILENAME)) {
+            prop = loadCostProperties(cachePath);
+            break;
+          }
+        }
+      } else {
+        LOG.error(
+            "Unable to find anything (" + Constants.COST_PROPERTIES_FILENAME
+                + ") in distributed cache, continuing with defaults");
+      }
+    } catch (IOException ioe) {
+      LOG.error("IOException reading from distributed cache for "
+          + Constants.COST_PROPERTIES_HDFS_DIR + ", continuing with defaults"
+          + ioe.toString());
+    }
+    if (prop == null) {
+      LOG.error("Could not load properties file, using defaults");
+    }
+    return new JobCostModel(prop, machineType);
+  }
+
+  /**
+   * @param cachePath of the cost properties file
+   * @return the properties, or null when the file cannot be read
+   */
+  static Properties loadCostProperties(Path cachePath) {
+    Properties prop = new Properties();
+    InputStream inp = null;
+    try {
+      inp = new FileInputStream(cachePath.toString());
+      prop.load(inp);
+      return prop;
+    } catch (IOException e) {
+      LOG.error("error loading properties from " + cachePath
+          + ", using default values", e);
+      return null;
+    } finally {
+      if (inp != null) {
+        try {
+          inp.close();
+        } catch (IOException ignore) {
+          // do nothing
+        }
+      }
+    }
+  }
+
+  /**
+   * @param queue the job ran in, may be null
+   * @param framework the job was launched with, may be null
+   * @return the machine type to cost the job with
+   */
+  public String getMachineType(String queue, Framework framework) {
+    String machineType = null;
+    if (queue != null) {
+      machineType = queueMachineTypes.get(queue);
+    }
+    if (machineType == null && framework != null) {
+      machineType = frameworkMachineTypes.get(framework.name().toLowerCase());
+    }
+    return (machineType == null) ? defaultMachineType : machineType;
+  }
+
+  /**
+   * @param machineType
+   * @return the cost details of the machine type, all 0 when unknown
+   */
+  public MachineCost getMachineCost(String machineType) {
+    MachineCost machineCost = machineCosts.get(machineType);
+    return (machineCost == null) ? NO_COST : machineCost;
+  }
+
+  /**
+   * calculates the cost of a job based on mbMillis and the cost details of
+   * the machine type its queue or framework maps to
+   *
+   * @param mbMillis the megabyte millis used by the job
+   * @param queue the job ran in, may be null
+   * @param framework the job was launched with, may be null
+   * @return cost of the job
+   */
+  public double getJobCost(long mbMillis, String queue, Framework framework) {
+    return getMachineCost(getMachineType(queue, framework)).getJobCost(mbMillis);
+  }
+
+  public String getDefaultMachineType() {
+    return defaultMachineType;
+  }
+}
@@ -115,6 +115,29 @@ public class JobFileModifiedRangePathFilter extends JobFilePathFilter {
     }
   }
 
+  /**
+   * Like {@link #accept(Path)}, but takes the modification time from the
+   * given status instead of looking it up on the file system.
+   *
+   * @param fileStatus of a file as listed
+   * @return whether the file is to be accepted.
+   */
+  public boolean accept(FileStatus fileStatus) {
+    Path path = fileStatus.getPath();
+    if (!super.accept(path)) {
+      return false;
+    }
+
+    JobFile jobFile = new JobFile(path.getName());
+    if (jobFile.isJobConfFile() || jobFile.isJobHistoryFile()) {
+      return accept(fileStatus.getModificationTime());
+    } else {
+      // Reject anything that does not match a job conf filename.
+      LOG.info(" Not a valid job conf / job history file "+ path.getName());
+      return false;
+    }
+  }
+
   /**
    * @param fileModificationTimeMillis
    *          in milliseconds since January 1, 1970 UTC
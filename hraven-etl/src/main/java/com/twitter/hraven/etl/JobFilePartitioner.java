@@ -21,7 +21,15 @@ import java.net.URI;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -43,6 +51,9 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hraven.Constants;
 import com.twitter.hraven.util.BatchUtil;
 
 /**
@@ -113,6 +124,16 @@ public class JobFilePartitioner extends Configured implements Tool {
    */
   Path outputPath;
 
+  /**
+   * How many files to copy or move at the same time.
+   */
+  int threads = 1;
+
+  /**
+   * Target directories that are known to exist.
+   */
+  private final Set<Path> existingTargetDirs = new HashSet<Path>();
+
   /**
    * Parse command-line arguments.
    * 
@@ -162,6 +183,13 @@ public class JobFilePartitioner extends Configured implements Tool {
     o.setRequired(false);
     options.addOption(o);
 
+    // Threads
+    o = new Option("t", "threads", true,
+        "Number of files to copy or move in parallel. Default 1");
+    o.setArgName("thread-count");
+    o.setRequired(false);
+    options.addOption(o);
+
     // Debugging
     options.addOption("d", "debug", false, "switch on DEBUG log level");
     o.setRequired(false);
@@ -243,6 +271,22 @@ public class JobFilePartitioner extends Configured implements Tool {
       maXretention = Integer.MAX_VALUE;
     }
 
+    if (commandLine.hasOption("t")) {
+      try {
+        threads = Integer.parseInt(commandLine.getOptionValue("t"));
+      } catch (NumberFormatException nfe) {
+        throw new IllegalArgumentException(
+            "threads option -t is is not a valid number: "
+                + commandLine.getOptionValue("t"), nfe);
+      }
+      if (threads < 1) {
+        throw new IllegalArgumentException(
+            "Cannot use less than 1 thread. Specified threads option -t is: "
+                + commandLine.getOptionValue("t"));
+      }
+    }
+    LOG.info("threads=" + threads);
+
     outputPath = new Path(output);
     FileStatus outputFileStatus = hdfs.getFileStatus(outputPath);
 
@@ -328,32 +372,36 @@ public class JobFilePartitioner extends Configured implements Tool {
     // that include MAPREDUCE-323: on/after hadoop 0.20.203.0
     // on/after cdh3u5
     FileStatus[] jobFileStatusses = FileLister.listFiles(true, hdfs, inputPath,
-        jobFileModifiedRangePathFilter);
+        jobFileModifiedRangePathFilter,
+        myConf.getInt(Constants.FILE_LISTING_THREADS_CONF_KEY,
+            Constants.DEFAULT_FILE_LISTING_THREADS));
 
     LOG.info("Sorting " + jobFileStatusses.length + " job files.");
 
     Arrays.sort(jobFileStatusses, new FileStatusModificationComparator());
 
-    int processedCount = 0;
+    TransferEngine engine = new TransferEngine(threads);
     try {
-
       for (int i = 0; i < jobFileStatusses.length; i++) {
-        FileStatus jobFileStatus = jobFileStatusses[i];
-
-        boolean retain = BatchUtil.shouldRetain(i, maXretention, jobFileStatusses.length);
-        processHDFSSource(hdfs, jobFileStatus, outputPath, myConf,
-            skipExisting, retain);
-        processedCount++;
-        // Print something each 1k files to show progress.
-        if ((i % 1000) == 0) {
-          LOG.info("Processed " + i + " files.");
-        }
-
+        final FileStatus jobFileStatus = jobFileStatusses[i];
+
+        final boolean retain =
+            BatchUtil.shouldRetain(i, maXretention, jobFileStatusses.length);
+        final Path targetDir = getTargetDirectory(hdfs, outputPath,
+            jobFileStatus.getModificationTime());
+        engine.submit(jobFileStatus.getLen(), new Transfer() {
+          @Override
+          public void run() throws IOException {
+            processHDFSSource(hdfs, jobFileStatus, targetDir, myConf,
+                skipExisting, retain);
+          }
+        });
       }
-
-    } finally {
-      LOG.info("Processed " + processedCount + " files.");
+    } catch (Exception e) {
+      engine.abort(e);
+      throw e;
     }
+    engine.finish();
   }
 
  
@@ -375,22 +423,26 @@ public class JobFilePartitioner extends Configured implements Tool {
     }
 
     File[] files = inputFile.listFiles();
-    int processedCount = 0;
+    TransferEngine engine = new TransferEngine(threads);
     try {
-      for (File f : files) {
+      for (final File f : files) {
         // Process only files, not (sub)directories.
         if (f.isFile()) {
-          processPlainFile(hdfs, f, outputPath, skipExisting);
-          processedCount++;
-          // Print something each 100 files to show progress.
-          if ((processedCount % 1000) == 0) {
-            LOG.info("Processed " + processedCount + " files.");
-          }
+          final Path targetDir =
+              getTargetDirectory(hdfs, outputPath, f.lastModified());
+          engine.submit(f.length(), new Transfer() {
+            @Override
+            public void run() throws IOException {
+              processPlainFile(hdfs, f, targetDir, skipExisting);
+            }
+          });
         }
       }
-    } finally {
-      LOG.info("Processed " + processedCount + " files.");
+    } catch (Exception e) {
+      engine.abort(e);
+      throw e;
     }
+    engine.finish();
   }
 
   /**
@@ -401,12 +453,12 @@ public class JobFilePartitioner extends Configured implements Tool {
    * @param fileModTime
    *          of the file that needs to be moved/copied to hdfs
    * @return the existing path in HDFS to write to the file to. Will be created
-   *         if it does not exist.
+   *         if it does not exist. Directories are checked only once per run.
    * @throws IOException
    *           if the year/month/day directory with cannot be created in
    *           outputPath.
    */
-  private Path getTargetDirectory(FileSystem hdfs, Path outputPath,
+  Path getTargetDirectory(FileSystem hdfs, Path outputPath,
       long fileModTime) throws IOException {
     String year = YEAR_FORMAT.format(new Date(fileModTime));
     String month = MONTH_FORMAT.format(new Date(fileModTime));
@@ -416,6 +468,10 @@ public class JobFilePartitioner extends Configured implements Tool {
     Path monthDir = new Path(yearDir, month);
     Path dayDir = new Path(monthDir, day);
 
+    if (existingTargetDirs.contains(dayDir)) {
+      return dayDir;
+    }
+
     // Check if the directory already exists, if not, then insert a record into
     // HBase for it.
     if (!hdfs.exists(dayDir)) {
@@ -426,6 +482,7 @@ public class JobFilePartitioner extends Configured implements Tool {
             + dayDir.getName());
       }
     }
+    existingTargetDirs.add(dayDir);
     return dayDir;
   }
 
@@ -434,7 +491,8 @@ public class JobFilePartitioner extends Configured implements Tool {
    *          FileSystem handle
    * @param f
    *          file to copy to HDFS
-   * @param outputPath
+   * @param targetDir
+   *          existing directory to copy the file to
    * @param skipExisting
    *          skip if the file already exist in the target. File will be
    *          overwritten if already there and this argument is false.
@@ -442,11 +500,8 @@ public class JobFilePartitioner extends Configured implements Tool {
    *           if target directory cannot be created or file cannot be copied to
    *           target directory.
    */
-  private void processPlainFile(FileSystem hdfs, File f, Path outputPath,
+  private void processPlainFile(FileSystem hdfs, File f, Path targetDir,
       boolean skipExisting) throws IOException {
-    long fileModTime = f.lastModified();
-    Path targetDir = getTargetDirectory(hdfs, outputPath, fileModTime);
-
     boolean doCopy = true;
     Path sourceFile = new Path(f.getPath());
     if (skipExisting) {
@@ -466,7 +521,8 @@ public class JobFilePartitioner extends Configured implements Tool {
    *          FileSystem handle
    * @param f
    *          file to process
-   * @param outputPath
+   * @param targetDir
+   *          existing directory to copy or move the file to
    * @param conf
    *          configuration to use for copying.
    * @param skipExisting
@@ -477,12 +533,9 @@ public class JobFilePartitioner extends Configured implements Tool {
    * @throws IOException
    */
   private void processHDFSSource(FileSystem hdfs, FileStatus f,
-      Path outputPath, Configuration conf, boolean skipExisting, boolean retain)
+      Path targetDir, Configuration conf, boolean skipExisting, boolean retain)
       throws IOException {
 
-    long fileModTime = f.getModificationTime();
-    Path targetDir = getTargetDirectory(hdfs, outputPath, fileModTime);
-
     boolean targetExists = false;
     Path target = new Path(targetDir, f.getPath().getName());
     targetExists = hdfs.exists(target);
@@ -524,6 +577,143 @@ public class JobFilePartitioner extends Configured implements Tool {
     }
   }
 
+  /**
+   * A copy or move of one file.
+   */
+  interface Transfer {
+    void run() throws IOException;
+  }
+
+  /**
+   * Runs transfers on a bounded pool of threads and logs the throughput.
+   * Submitting blocks while all threads are busy and as many transfers are
+   * waiting, so that the files to process are not all queued up at once.
+   * After the first failed transfer the remaining ones are skipped, and the
+   * failure is thrown on the next submit or on finish. When submitting fails
+   * for another reason, {@link #abort(Exception)} rather than
+   * {@link #finish()} stops the engine.
+   */
+  static class TransferEngine {
+    private final int threads;
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicReference<IOException> failure =
+        new AtomicReference<IOException>();
+    private final long startNanos = System.nanoTime();
+    private volatile boolean aborted = false;
+
+    TransferEngine(int threads) {
+      this.threads = threads;
+      this.executor = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat(NAME + "-%d")
+              .setDaemon(true).build());
+      this.slots = new Semaphore(2 * threads);
+    }
+
+    /**
+     * @param len size of the file in bytes
+     * @param transfer to run once a thread is available
+     * @throws IOException when an earlier transfer failed
+     */
+    void submit(final long len, final Transfer transfer) throws IOException {
+      checkFailure();
+      try {
+        slots.acquire();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting to transfer", ie);
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (failure.get() == null && !aborted) {
+              transfer.run();
+              bytes.addAndGet(len);
+              // Print something each 1k files to show progress.
+              if ((files.incrementAndGet() % 1000) == 0) {
+                logThroughput();
+              }
+            }
+          } catch (IOException ioe) {
+            failure.compareAndSet(null, ioe);
+          } catch (RuntimeException re) {
+            failure.compareAndSet(null, new IOException(re));
+          } finally {
+            slots.release();
+          }
+        }
+      });
+    }
+
+    /**
+     * Waits for the submitted transfers to complete.
+     *
+     * @throws IOException when a transfer failed
+     */
+    void finish() throws IOException {
+      executor.shutdown();
+      try {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          logThroughput();
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        executor.shutdownNow();
+        throw new IOException("Interrupted while waiting for transfers", ie);
+      } finally {
+        logThroughput();
+      }
+      checkFailure();
+    }
+
+    /**
+     * Skips the transfers that did not start yet and waits for the running
+     * ones to complete, without throwing. A failed transfer is added to the
+     * cause as a suppressed exception.
+     *
+     * @param cause why the transfers are aborted
+     */
+    void abort(Exception cause) {
+      aborted = true;
+      executor.shutdown();
+      try {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          logThroughput();
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        executor.shutdownNow();
+      }
+      logThroughput();
+      IOException ioe = failure.get();
+      if (ioe != null && ioe != cause) {
+        cause.addSuppressed(ioe);
+      }
+    }
+
+    private void checkFailure() throws IOException {
+      IOException ioe = failure.get();
+      if (ioe != null) {
+        throw ioe;
+      }
+    }
+
+    private void logThroughput() {
+      long fileCount = files.get();
+      long byteCount = bytes.get();
+      double seconds =
+          Math.max(1L, System.nanoTime() - startNanos) / 1000000000.0;
+      LOG.info(String.format(
+          "Processed %d files, %d bytes in %.1f seconds with %d threads: "
+              + "%.1f files/s, %.1f bytes/s",
+          fileCount, byteCount, seconds, threads, fileCount / seconds,
+          byteCount / seconds));
+    }
+  }
+
   /**
    * DoIt.
    * 
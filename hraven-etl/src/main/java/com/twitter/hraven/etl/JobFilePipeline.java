@@ -0,0 +1,627 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static com.twitter.hraven.etl.ProcessState.LOADED;
+import static com.twitter.hraven.etl.ProcessState.PREPROCESSED;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobId;
+
+/**
+ * Long running alternative to running {@link JobFilePreprocessor},
+ * {@link JobFileRawLoader} and {@link JobFileProcessor} one after another.
+ * Each batch moves on to the next stage as soon as it is done with the
+ * previous one: a {@link ProcessState#PREPROCESSED} record is loaded right
+ * away, and a {@link ProcessState#LOADED} record is processed right away,
+ * while other batches are still being loaded.
+ * <p>
+ * Loading runs up to a fixed number of batches at a time. Processing runs one
+ * batch at a time, as a batch is processed by scanning the raw table over its
+ * range of job ids, and the ranges of batches cut by modification time
+ * overlap. For the same reason a batch is not processed while a batch with an
+ * overlapping range of job ids is being loaded, and the other way around.
+ * <p>
+ * The stages apply backpressure: records are only loaded while fewer than the
+ * max pending records wait to be processed, and more files are only
+ * preprocessed while fewer than the max pending records wait to be loaded.
+ * <p>
+ * With the default batch size, batches are small enough to be loaded and
+ * processed within the pipeline process itself, see
+ * {@link Constants#IN_PROCESS_MAX_JOB_FILES_CONF_KEY}. Larger batches are
+ * loaded and processed by MapReduce jobs.
+ * <p>
+ * The state of the pipeline is kept in the process records only, so it can be
+ * stopped at any time and the scripts running the stages one at a time can
+ * pick up where it left off, and vice versa.
+ */
+public class JobFilePipeline extends Configured implements Tool {
+
+  final static String NAME = JobFilePipeline.class.getSimpleName();
+  private static Log LOG = LogFactory.getLog(JobFilePipeline.class);
+
+  /**
+   * Number of files to preprocess, and jobs to process, in one batch. Small
+   * enough for the batches to be loaded and processed in process with the
+   * default {@link Constants#DEFAULT_IN_PROCESS_MAX_JOB_FILES}.
+   */
+  private final static int DEFAULT_BATCH_SIZE = 100;
+
+  /**
+   * Maximum size of file that be loaded into raw table : 500 MB
+   */
+  private final static long DEFAULT_RAW_FILE_SIZE_LIMIT = 524288000;
+
+  private final static int DEFAULT_LOAD_CONCURRENCY = 2;
+  private final static int DEFAULT_MAX_PENDING_PROCESSES = 2;
+  private final static int DEFAULT_POLL_SECONDS = 60;
+
+  /**
+   * How many times to try a stage of a record before leaving it for the
+   * scripts to deal with.
+   */
+  private final static int MAX_ATTEMPTS = 3;
+
+  private volatile boolean stopped = false;
+
+  /**
+   * Released when a stage of a record completes, to poll right away.
+   */
+  private final Semaphore wakeUp = new Semaphore(0);
+
+  /**
+   * Default constructor.
+   */
+  public JobFilePipeline() {
+  }
+
+  /**
+   * Used for injecting confs while unit testing
+   *
+   * @param conf
+   */
+  public JobFilePipeline(Configuration conf) {
+    super(conf);
+  }
+
+  /**
+   * Parse command-line arguments.
+   *
+   * @param args command line arguments passed to program.
+   * @return parsed command line.
+   * @throws ParseException
+   */
+  private static CommandLine parseArgs(String[] args) throws ParseException {
+    Options options = new Options();
+
+    // Cluster
+    Option o = new Option("c", "cluster", true,
+        "cluster for which jobs are processed");
+    o.setArgName("cluster");
+    o.setRequired(true);
+    options.addOption(o);
+
+    // Output
+    o = new Option("o", "output", true,
+        "output directory in hdfs. This is where the index files are written.");
+    o.setArgName("output-path");
+    o.setRequired(true);
+    options.addOption(o);
+
+    // Input
+    o = new Option("i", "input", true,
+        "input directory in hdfs. Default is mapred.job.tracker.history.completed.location.");
+    o.setArgName("input-path");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // Batch
+    o = new Option("b", "batchSize", true,
+        "The number of files to preprocess, and jobs to process, in one batch. Default "
+            + DEFAULT_BATCH_SIZE + ". Batches of up to "
+            + Constants.IN_PROCESS_MAX_JOB_FILES_CONF_KEY
+            + " job files are loaded and processed in this process rather than by"
+            + " MapReduce jobs.");
+    o.setArgName("batch-size");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // raw file size limit
+    o = new Option("s", "rawFileSize", true,
+        "The max size of file that can be loaded into raw table. Default "
+            + DEFAULT_RAW_FILE_SIZE_LIMIT);
+    o.setArgName("rawfile-size");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // Threads
+    o = new Option("t", "threads", true,
+        "Number of parallel processing jobs per batch. Default 1");
+    o.setArgName("thread-count");
+    o.setRequired(false);
+    options.addOption(o);
+
+    o = new Option("lc", "loadConcurrency", true,
+        "Number of batches to load at the same time. Default "
+            + DEFAULT_LOAD_CONCURRENCY);
+    o.setArgName("batch-count");
+    o.setRequired(false);
+    options.addOption(o);
+
+    o = new Option("ql", "maxPendingLoads", true,
+        "Number of batches that may wait to be loaded before preprocessing pauses."
+            + " Default twice the load concurrency.");
+    o.setArgName("batch-count");
+    o.setRequired(false);
+    options.addOption(o);
+
+    o = new Option("qp", "maxPendingProcesses", true,
+        "Number of batches that may wait to be processed before loading pauses. Default "
+            + DEFAULT_MAX_PENDING_PROCESSES);
+    o.setArgName("batch-count");
+    o.setRequired(false);
+    options.addOption(o);
+
+    o = new Option("w", "pollSeconds", true,
+        "Seconds to wait between polls for new files and records. Default "
+            + DEFAULT_POLL_SECONDS);
+    o.setArgName("seconds");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // Aggregation
+    o = new Option("a", "aggregate", true,
+        "whether to aggregate job details or not. Default false");
+    o.setArgName("aggregate");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // cost properties file
+    o = new Option("zf", "costFile", true, "The cost properties file location on HDFS");
+    o.setArgName("costfile_loc");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // Machine type
+    o = new Option("m", "machineType", true, "The type of machine this job ran on");
+    o.setArgName("machinetype");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // Debugging
+    options.addOption("d", "debug", false, "switch on DEBUG log level");
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine commandLine = null;
+    try {
+      commandLine = parser.parse(options, args);
+    } catch (Exception e) {
+      System.err.println("ERROR: " + e.getMessage() + "\n");
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(NAME + " ", options, true);
+      System.exit(-1);
+    }
+
+    // Set debug level right away
+    if (commandLine.hasOption("d")) {
+      Logger log = Logger.getLogger(JobFilePipeline.class);
+      log.setLevel(Level.DEBUG);
+    }
+
+    return commandLine;
+  }
+
+  /**
+   * @return the value of the option as a number of at least 1, or the default
+   *         value if the option is not given.
+   */
+  private static int getPositiveInt(CommandLine commandLine, String option,
+      int defaultValue) {
+    if (!commandLine.hasOption(option)) {
+      return defaultValue;
+    }
+    int value;
+    try {
+      value = Integer.parseInt(commandLine.getOptionValue(option));
+    } catch (NumberFormatException nfe) {
+      throw new IllegalArgumentException("option -" + option
+          + " is not a valid number: " + commandLine.getOptionValue(option),
+          nfe);
+    }
+    if (value < 1) {
+      throw new IllegalArgumentException("option -" + option
+          + " must be at least 1, not: " + commandLine.getOptionValue(option));
+    }
+    return value;
+  }
+
+  /*
+   * Do the actual work.
+   *
+   * @see org.apache.hadoop.util.Tool#run(java.lang.String[])
+   */
+  @Override
+  public int run(String[] args) throws Exception {
+
+    final Configuration hbaseConf = HBaseConfiguration.create(getConf());
+
+    // Grab input args and allow for -Dxyz style arguments
+    String[] otherArgs =
+        new GenericOptionsParser(hbaseConf, args).getRemainingArgs();
+
+    // Grab the arguments we're looking for.
+    CommandLine commandLine = parseArgs(otherArgs);
+
+    final String cluster = commandLine.getOptionValue("c");
+    LOG.info("cluster=" + cluster);
+    final int batchSize =
+        getPositiveInt(commandLine, "b", DEFAULT_BATCH_SIZE);
+    final int threadCount = getPositiveInt(commandLine, "t", 1);
+    int loadConcurrency =
+        getPositiveInt(commandLine, "lc", DEFAULT_LOAD_CONCURRENCY);
+    int maxPendingLoads =
+        getPositiveInt(commandLine, "ql", 2 * loadConcurrency);
+    int maxPendingProcesses = getPositiveInt(commandLine, "qp",
+        DEFAULT_MAX_PENDING_PROCESSES);
+    int pollSeconds = getPositiveInt(commandLine, "w", DEFAULT_POLL_SECONDS);
+    LOG.info("batchSize=" + batchSize + " threads=" + threadCount
+        + " loadConcurrency=" + loadConcurrency + " maxPendingLoads="
+        + maxPendingLoads + " maxPendingProcesses=" + maxPendingProcesses
+        + " pollSeconds=" + pollSeconds);
+
+    // The preprocessor parses its own arguments, on top of the -D ones.
+    final List<String> preprocessorArgs = new ArrayList<String>();
+    Collections.addAll(preprocessorArgs, "-c", cluster, "-o",
+        commandLine.getOptionValue("o"), "-b", Integer.toString(batchSize),
+        "-s", commandLine.getOptionValue("s",
+            Long.toString(DEFAULT_RAW_FILE_SIZE_LIMIT)));
+    if (commandLine.hasOption("i")) {
+      Collections.addAll(preprocessorArgs, "-i",
+          commandLine.getOptionValue("i"));
+    }
+
+    final Configuration loadConf = new Configuration(hbaseConf);
+    JobFileRawLoader.configureJobs(loadConf, cluster, false);
+
+    String costFilePath = commandLine.getOptionValue("zf");
+    if (costFilePath == null) {
+      costFilePath = Constants.COST_PROPERTIES_HDFS_DIR;
+    }
+    boolean aggregate = StringUtils.equalsIgnoreCase(
+        commandLine.getOptionValue("a"), Boolean.TRUE.toString());
+    final Configuration processConf = new Configuration(hbaseConf);
+    JobFileProcessor.configureJobs(processConf, cluster, costFilePath,
+        commandLine.getOptionValue("m"), aggregate, false);
+
+    final Connection hbaseConnection =
+        ConnectionFactory.createConnection(hbaseConf);
+    final ProcessRecordService processRecordService =
+        new ProcessRecordService(hbaseConf, hbaseConnection);
+    final JobFileRawLoader loader = new JobFileRawLoader(hbaseConf);
+    final JobFileProcessor processor = new JobFileProcessor(hbaseConf);
+
+    Callable<Integer> preprocessor = new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return new JobFilePreprocessor(hbaseConf).run(
+            preprocessorArgs.toArray(new String[preprocessorArgs.size()]));
+      }
+    };
+    Stage loadStage = new Stage("load", loadConcurrency, wakeUp) {
+      @Override
+      boolean run(ProcessRecord processRecord) throws Exception {
+        Configuration conf = new Configuration(loadConf);
+        conf.setLong(Constants.MR_RUN_CONF_KEY, System.currentTimeMillis());
+        return loader.loadProcessRecord(conf, processRecordService,
+            processRecord, getCompleted() + 1);
+      }
+    };
+    // one at a time, see the class comment
+    Stage processStage = new Stage("process", 1, wakeUp) {
+      @Override
+      boolean run(ProcessRecord processRecord) throws Exception {
+        return processor.processProcessRecords(new Configuration(processConf),
+            hbaseConnection, cluster, batchSize, threadCount,
+            Collections.singletonList(processRecord));
+      }
+    };
+
+    final CountDownLatch done = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(NAME + "-shutdown") {
+      @Override
+      public void run() {
+        LOG.info("Stopping, waiting for the running stages to complete.");
+        stopped = true;
+        wakeUp.release();
+        try {
+          done.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    try {
+      while (!stopped) {
+        poll(processRecordService, cluster, preprocessor, loadStage,
+            processStage, maxPendingLoads, maxPendingProcesses);
+        if (!stopped) {
+          wakeUp.tryAcquire(pollSeconds, TimeUnit.SECONDS);
+          wakeUp.drainPermits();
+        }
+      }
+    } finally {
+      try {
+        loadStage.shutdown();
+        processStage.shutdown();
+        hbaseConnection.close();
+      } finally {
+        done.countDown();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Moves the records of the cluster on as far as the stages allow, and runs
+   * the preprocessor when few enough records wait to be loaded.
+   *
+   * @param processRecordService to look up the records with
+   * @param cluster for which to move records on
+   * @param preprocessor preprocesses the next batches, returns its exit code
+   * @param loadStage loads {@link ProcessState#PREPROCESSED} records
+   * @param processStage processes {@link ProcessState#LOADED} records
+   * @param maxPendingLoads up to how many records may wait to be loaded
+   *          before preprocessing pauses
+   * @param maxPendingProcesses up to how many records may wait to be
+   *          processed before loading pauses
+   * @throws Exception when the records cannot be looked up, or the
+   *           preprocessor fails to run
+   */
+  static void poll(ProcessRecordService processRecordService, String cluster,
+      Callable<Integer> preprocessor, Stage loadStage, Stage processStage,
+      int maxPendingLoads, int maxPendingProcesses) throws Exception {
+    List<ProcessRecord> preprocessed = processRecordService
+        .getProcessRecords(cluster, PREPROCESSED, Integer.MAX_VALUE, null);
+    if (preprocessed.size() < maxPendingLoads) {
+      int exitCode = preprocessor.call();
+      if (exitCode != 0) {
+        LOG.error(JobFilePreprocessor.NAME + " failed with exit code "
+            + exitCode);
+      }
+      preprocessed = processRecordService.getProcessRecords(cluster,
+          PREPROCESSED, Integer.MAX_VALUE, null);
+    }
+    List<ProcessRecord> loaded = processRecordService
+        .getProcessRecords(cluster, LOADED, Integer.MAX_VALUE, null);
+
+    // Records are returned newest first, move the oldest on first.
+    for (int i = loaded.size() - 1; i >= 0; i--) {
+      // wait for the overlapping jobs to be loaded
+      if (loadStage.overlapsRunning(loaded.get(i))) {
+        continue;
+      }
+      if (!processStage.submit(loaded.get(i))) {
+        break;
+      }
+    }
+    // What is being loaded is about to wait for processing too.
+    int pendingProcesses = loaded.size() + loadStage.getRunning();
+    for (int i = preprocessed.size() - 1;
+        i >= 0 && pendingProcesses < maxPendingProcesses; i--) {
+      if (loadStage.isRunning(preprocessed.get(i))
+          || processStage.overlapsRunning(preprocessed.get(i))) {
+        continue;
+      }
+      if (!loadStage.submit(preprocessed.get(i))) {
+        break;
+      }
+      pendingProcesses++;
+    }
+  }
+
+  /**
+   * @return whether the job id ranges of the records overlap, true when
+   *         either range is unknown
+   */
+  static boolean overlaps(ProcessRecord a, ProcessRecord b) {
+    if (a.getMinJobId() == null || a.getMaxJobId() == null
+        || b.getMinJobId() == null || b.getMaxJobId() == null) {
+      return true;
+    }
+    return new JobId(a.getMinJobId()).compareTo(new JobId(b.getMaxJobId())) <= 0
+        && new JobId(b.getMinJobId()).compareTo(new JobId(a.getMaxJobId())) <= 0;
+  }
+
+  /**
+   * Runs one stage of up to a fixed number of records at a time.
+   */
+  abstract static class Stage {
+    private final String name;
+    private final int concurrency;
+    private final Semaphore wakeUp;
+    private final ExecutorService executor;
+    /** the records being run, by process file */
+    private final Map<String, ProcessRecord> running =
+        new HashMap<String, ProcessRecord>();
+    private final ConcurrentMap<String, AtomicInteger> failures =
+        new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger completed = new AtomicInteger();
+
+    /**
+     * @param name of the stage
+     * @param concurrency up to how many records to run at the same time
+     * @param wakeUp released whenever a record completes the stage
+     */
+    Stage(String name, int concurrency, Semaphore wakeUp) {
+      this.name = name;
+      this.concurrency = concurrency;
+      this.wakeUp = wakeUp;
+      this.executor = Executors.newFixedThreadPool(concurrency,
+          new ThreadFactoryBuilder().setNameFormat(NAME + "-" + name + "-%d")
+              .build());
+    }
+
+    /**
+     * Runs the stage for the record, moving it on to the next state.
+     *
+     * @return whether the stage succeeded
+     */
+    abstract boolean run(ProcessRecord processRecord) throws Exception;
+
+    /**
+     * Starts the stage for the record, unless it is already running or has
+     * failed too often.
+     *
+     * @return false if the stage is running as many records as it can, true
+     *         otherwise
+     */
+    boolean submit(final ProcessRecord processRecord) {
+      final String processFile = processRecord.getProcessFile();
+      AtomicInteger failed = failures.get(processFile);
+      if (failed != null && failed.get() >= MAX_ATTEMPTS) {
+        return true;
+      }
+      synchronized (running) {
+        if (running.containsKey(processFile)) {
+          return true;
+        }
+        if (running.size() >= concurrency) {
+          return false;
+        }
+        running.put(processFile, processRecord);
+      }
+      LOG.info("Starting " + name + " of " + processRecord);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          boolean success = false;
+          try {
+            success = Stage.this.run(processRecord);
+          } catch (Exception e) {
+            LOG.error("Failed to " + name + " " + processRecord, e);
+          } finally {
+            if (success) {
+              completed.incrementAndGet();
+            } else {
+              failures.putIfAbsent(processFile, new AtomicInteger());
+              if (failures.get(processFile).incrementAndGet() >= MAX_ATTEMPTS) {
+                LOG.error("Giving up to " + name + " " + processRecord
+                    + " after " + MAX_ATTEMPTS + " attempts");
+              }
+            }
+            // the record is in its next state by now, so it will not be
+            // picked up again
+            synchronized (running) {
+              running.remove(processFile);
+            }
+            wakeUp.release();
+          }
+        }
+      });
+      return true;
+    }
+
+    boolean isRunning(ProcessRecord processRecord) {
+      synchronized (running) {
+        return running.containsKey(processRecord.getProcessFile());
+      }
+    }
+
+    /**
+     * @return whether a record with jobs in the range of the given one is
+     *         being run
+     */
+    boolean overlapsRunning(ProcessRecord processRecord) {
+      synchronized (running) {
+        for (ProcessRecord runningRecord : running.values()) {
+          if (overlaps(runningRecord, processRecord)) {
+            return true;
+          }
+        }
+        return false;
+      }
+    }
+
+    int getRunning() {
+      synchronized (running) {
+        return running.size();
+      }
+    }
+
+    int getCompleted() {
+      return completed.get();
+    }
+
+    /**
+     * Waits for the running records to complete.
+     */
+    void shutdown() throws InterruptedException {
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.info("Waiting for " + getRunning() + " records to " + name);
+      }
+    }
+  }
+
+  /**
+   * DoIt.
+   *
+   * @param args the arguments to do it with
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    ToolRunner.run(new JobFilePipeline(), args);
+  }
+
+}
@@ -15,9 +15,14 @@ limitations under the License.
 */
 package com.twitter.hraven.etl;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,7 +35,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
-import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileSystem.Statistics;
@@ -47,7 +51,6 @@ import org.apache.log4j.Logger;
 
 import com.twitter.hraven.Constants;
 import com.twitter.hraven.datasource.ProcessingException;
-import com.twitter.hraven.util.BatchUtil;
 
 /**
  * Command line tool that can be run on a periodic basis (like daily, hourly, or
@@ -319,29 +322,45 @@ public class JobFilePreprocessor extends Configured implements Tool {
       String timestamp = Constants.TIMESTAMP_FORMAT
           .format(new Date(minModificationTimeMillis));
 
-      ContentSummary contentSummary = hdfs.getContentSummary(inputPath);
-      LOG.info("Listing / filtering (" + contentSummary.getFileCount()
-          + ") files in: " + inputPath + " that are modified since "
-          + timestamp);
+      // No content summary up front, counting a large done dir takes about as
+      // long as listing it.
+      LOG.info("Listing / filtering files in: " + inputPath
+          + " that are modified since " + timestamp);
 
       // get the files in the done folder,
       // need to traverse dirs under done recursively for versions
       // that include MAPREDUCE-323: on/after hadoop 0.20.203.0
       // on/after cdh3u5
-      FileStatus[] jobFileStatusses = FileLister.getListFilesToProcess(
-          maxFileSize, true, hdfs, inputPath, jobFileModifiedRangePathFilter);
-
-      LOG.info("Sorting " + jobFileStatusses.length + " job files.");
-
-      Arrays.sort(jobFileStatusses, new FileStatusModificationComparator());
-
-      // Process these files in batches at a time.
-      int batchCount =
-          BatchUtil.getBatchCount(jobFileStatusses.length, batchSize);
-      LOG.info("Batch count: " + batchCount);
-      for (int b = 0; b < batchCount; b++) {
-        processBatch(jobFileStatusses, b, batchSize, processRecordService,
-            cluster, outputPath);
+      // The files are sorted by modification time as they are listed, with
+      // sorted runs spilled to local disk so that a large backlog does not
+      // have to fit in memory.
+      String sortDir = hbaseConf.get(Constants.PREPROCESS_SORT_DIR_CONF_KEY);
+      FileStatusExternalSorter sorter = new FileStatusExternalSorter(
+          hbaseConf.getInt(Constants.PREPROCESS_SORT_RUN_SIZE_CONF_KEY,
+              Constants.DEFAULT_PREPROCESS_SORT_RUN_SIZE),
+          sortDir == null ? null : new File(sortDir));
+      try {
+        HugeFileSkipper skipper = new HugeFileSkipper(maxFileSize, sorter);
+        FileLister.walk(true, hdfs, inputPath, jobFileModifiedRangePathFilter,
+            hbaseConf.getInt(Constants.FILE_LISTING_THREADS_CONF_KEY,
+                Constants.DEFAULT_FILE_LISTING_THREADS),
+            hbaseConf.getBoolean(
+                Constants.FILE_LISTING_PRUNE_DATE_DIRS_CONF_KEY,
+                Constants.DEFAULT_FILE_LISTING_PRUNE_DATE_DIRS),
+            skipper);
+
+        LOG.info("Sorting " + sorter.size() + " job files in "
+            + (sorter.getSpillCount() + 1) + " runs.");
+
+        // Process these files in batches at a time, as they come out of the
+        // merge.
+        BatchWriter batchWriter = new BatchWriter(batchSize,
+            processRecordService, cluster, outputPath, skipper);
+        sorter.merge(batchWriter);
+        batchWriter.flush();
+        LOG.info("Batch count: " + batchWriter.batch);
+      } finally {
+        sorter.close();
       }
     } finally {
       if (hbaseConnection == null) {
@@ -366,28 +385,106 @@ public class JobFilePreprocessor extends Configured implements Tool {
   }
 
   /**
-   * @param jobFileStatusses statusses sorted by modification time.
-   * @param batch which batch needs to be processed (used to calculate offset in
-   *          jobFileStatusses.
-   * @param batchSize process up to length items (or less as to not exceed the
-   *          length of jobFileStatusses
+   * Passes on the files that can be loaded into the raw table, and remembers
+   * the jobs with a file too large to be stored in an hbase cell, so that
+   * their other file can be left out too. Reference:
+   * {@link https://github.com/twitter/hraven/issues/59}
+   */
+  private static class HugeFileSkipper implements FileLister.FileStatusVisitor {
+    private final long maxFileSize;
+    private final FileLister.FileStatusVisitor next;
+    private final Set<String> hugeJobIds =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    HugeFileSkipper(long maxFileSize, FileLister.FileStatusVisitor next) {
+      this.maxFileSize = maxFileSize;
+      this.next = next;
+    }
+
+    @Override
+    public void visit(FileStatus fileStatus) throws IOException {
+      if (fileStatus.getLen() <= maxFileSize) {
+        next.visit(fileStatus);
+      } else {
+        Path hugeFile = fileStatus.getPath();
+        LOG.info("Filesize " + fileStatus.getLen()
+            + " has exceeded maxFileSize " + maxFileSize + " for "
+            + hugeFile.toUri());
+        hugeJobIds.add(FileLister.getJobIdFromPath(hugeFile));
+      }
+    }
+
+    /**
+     * @return whether the other file of the job was too large
+     */
+    boolean isSkipped(FileStatus fileStatus) {
+      return !hugeJobIds.isEmpty() && hugeJobIds
+          .contains(FileLister.getJobIdFromPath(fileStatus.getPath()));
+    }
+  }
+
+  /**
+   * Cuts the files, sorted by modification time, into batches and writes each
+   * batch as soon as it is full.
+   */
+  private class BatchWriter implements FileLister.FileStatusVisitor {
+    private final int batchSize;
+    private final ProcessRecordService processRecordService;
+    private final String cluster;
+    private final Path outputPath;
+    private final HugeFileSkipper skipper;
+    private final List<FileStatus> jobFileStatusses;
+    private int batch = 0;
+
+    BatchWriter(int batchSize, ProcessRecordService processRecordService,
+        String cluster, Path outputPath, HugeFileSkipper skipper) {
+      this.batchSize = batchSize;
+      this.processRecordService = processRecordService;
+      this.cluster = cluster;
+      this.outputPath = outputPath;
+      this.skipper = skipper;
+      this.jobFileStatusses = new ArrayList<FileStatus>(batchSize);
+    }
+
+    @Override
+    public void visit(FileStatus fileStatus) throws IOException {
+      if (skipper.isSkipped(fileStatus)) {
+        LOG.info("Skipping " + fileStatus.getPath().toUri()
+            + " as the other file of its job is too large");
+        return;
+      }
+      jobFileStatusses.add(fileStatus);
+      if (jobFileStatusses.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    /**
+     * Writes the files collected so far as a batch, if any.
+     */
+    void flush() throws IOException {
+      if (jobFileStatusses.isEmpty()) {
+        return;
+      }
+      processBatch(jobFileStatusses, batch++, processRecordService, cluster,
+          outputPath);
+      jobFileStatusses.clear();
+    }
+  }
+
+  /**
+   * @param jobFileStatusses statusses of one batch sorted by modification
+   *          time.
+   * @param batch which batch is processed
    * @param processRecordService to be used to access create ProcessRecords.
    * @throws IOException when the index file cannot be written or moved, or when
    *           the HBase records cannot be created.
    */
-  private void processBatch(FileStatus jobFileStatusses[], int batch,
-      int batchSize, ProcessRecordService processRecordService, String cluster,
+  private void processBatch(List<FileStatus> jobFileStatusses, int batch,
+      ProcessRecordService processRecordService, String cluster,
       Path outputPath) throws IOException {
 
-    int startIndex = batch * batchSize;
-
-    LOG.info("Batch startIndex: " + startIndex + " batchSize: " + batchSize);
-
-    // Some protection against over and under runs.
-    if ((jobFileStatusses == null) || (startIndex < 0)
-        || (startIndex >= jobFileStatusses.length)) {
-      return;
-    }
+    LOG.info("Batch: " + batch + " size: " + jobFileStatusses.size());
 
     MinMaxJobFileTracker minMaxJobFileTracker = new MinMaxJobFileTracker();
 
@@ -396,12 +493,8 @@ public class JobFilePreprocessor extends Configured implements Tool {
     Writer processFileWriter =
         processRecordService.createProcessFileWriter(initialProcesFile);
 
-    // Make sure we don't run off the end of the array
-    int endIndexExclusive =
-        Math.min((startIndex + batchSize), jobFileStatusses.length);
     try {
-      for (int i = startIndex; i < endIndexExclusive; i++) {
-        FileStatus fileStatus = jobFileStatusses[i];
+      for (FileStatus fileStatus : jobFileStatusses) {
         JobFile jobFile = minMaxJobFileTracker.track(fileStatus);
 
         // String jobfileName = fileStatus.getPath().getName();
@@ -418,7 +511,7 @@ public class JobFilePreprocessor extends Configured implements Tool {
     Path processFile =
         processRecordService.moveProcessFile(initialProcesFile, outputPath);
 
-    int processedJobFiles = endIndexExclusive - startIndex;
+    int processedJobFiles = jobFileStatusses.size();
 
     ProcessRecord processRecord = new ProcessRecord(cluster,
         ProcessState.PREPROCESSED,
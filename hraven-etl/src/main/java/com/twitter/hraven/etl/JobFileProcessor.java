@@ -18,7 +18,9 @@ package com.twitter.hraven.etl;
 import static com.twitter.hraven.etl.ProcessState.LOADED;
 import static com.twitter.hraven.etl.ProcessState.PROCESSED;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -41,13 +43,19 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.MultiTableOutputFormat;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.hadoop.util.Tool;
@@ -55,6 +63,7 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import com.google.common.io.Files;
 import com.twitter.hraven.AggregationConstants;
 import com.twitter.hraven.Constants;
 import com.twitter.hraven.datasource.JobHistoryRawService;
@@ -262,15 +271,9 @@ public class JobFileProcessor extends Configured implements Tool {
     LOG.info("cost properties file on hdfs=" + costFilePath);
     if (costFilePath == null)
       costFilePath = Constants.COST_PROPERTIES_HDFS_DIR;
-    Path hdfsPath = new Path(costFilePath + Constants.COST_PROPERTIES_FILENAME);
-    // add to distributed cache
-    DistributedCache.addCacheFile(hdfsPath.toUri(), hbaseConf);
 
     // Grab the machine type argument
     String machineType = commandLine.getOptionValue("m");
-    // set it as part of conf so that the
-    // hRaven job can access it in the mapper
-    hbaseConf.set(Constants.HRAVEN_MACHINE_TYPE, machineType);
 
     // check if re-aggregate option is forced on
     // if yes, we need to aggregate for this job inspite of
@@ -290,8 +293,6 @@ public class JobFileProcessor extends Configured implements Tool {
     }
     LOG.info(AggregationConstants.RE_AGGREGATION_FLAG_NAME + "="
         + reAggregateFlagValue);
-    hbaseConf.setBoolean(AggregationConstants.RE_AGGREGATION_FLAG_NAME,
-        reAggregateFlagValue);
 
     // set aggregation to off by default
     boolean aggFlagValue = false;
@@ -314,8 +315,6 @@ public class JobFileProcessor extends Configured implements Tool {
       aggFlagValue = false;
     }
     LOG.info(AggregationConstants.AGGREGATION_FLAG_NAME + "=" + aggFlagValue);
-    hbaseConf.setBoolean(AggregationConstants.AGGREGATION_FLAG_NAME,
-        aggFlagValue);
 
     String processFileSubstring = null;
     if (commandLine.hasOption("p")) {
@@ -323,12 +322,8 @@ public class JobFileProcessor extends Configured implements Tool {
     }
     LOG.info("processFileSubstring=" + processFileSubstring);
 
-    // hbase.client.keyvalue.maxsize somehow defaults to 10 MB and we have
-    // history files exceeding that. Disable limit.
-    hbaseConf.setInt("hbase.client.keyvalue.maxsize", 0);
-
-    // Shove this into the jobConf so that we can get it out on the task side.
-    hbaseConf.setStrings(Constants.CLUSTER_JOB_CONF_KEY, cluster);
+    configureJobs(hbaseConf, cluster, costFilePath, machineType, aggFlagValue,
+        reAggregateFlagValue);
 
     boolean success = false;
     Connection hbaseConnection = null;
@@ -353,6 +348,40 @@ public class JobFileProcessor extends Configured implements Tool {
     return success ? 0 : 1;
   }
 
+  /**
+   * Sets up the configuration passed to the processing jobs.
+   *
+   * @param hbaseConf to set up
+   * @param cluster for which to process records.
+   * @param costFilePath hdfs directory of the cost properties file
+   * @param machineType of the cluster, to look up the cost with
+   * @param aggregate whether to aggregate the processed jobs
+   * @param reAggregate whether to aggregate jobs that have been aggregated
+   *          already
+   */
+  static void configureJobs(Configuration hbaseConf, String cluster,
+      String costFilePath, String machineType, boolean aggregate,
+      boolean reAggregate) {
+    Path hdfsPath = new Path(costFilePath + Constants.COST_PROPERTIES_FILENAME);
+    // add to distributed cache
+    DistributedCache.addCacheFile(hdfsPath.toUri(), hbaseConf);
+
+    // set it as part of conf so that the
+    // hRaven job can access it in the mapper
+    hbaseConf.set(Constants.HRAVEN_MACHINE_TYPE, machineType);
+
+    hbaseConf.setBoolean(AggregationConstants.RE_AGGREGATION_FLAG_NAME,
+        reAggregate);
+    hbaseConf.setBoolean(AggregationConstants.AGGREGATION_FLAG_NAME, aggregate);
+
+    // hbase.client.keyvalue.maxsize somehow defaults to 10 MB and we have
+    // history files exceeding that. Disable limit.
+    hbaseConf.setInt("hbase.client.keyvalue.maxsize", 0);
+
+    // Shove this into the jobConf so that we can get it out on the task side.
+    hbaseConf.setStrings(Constants.CLUSTER_JOB_CONF_KEY, cluster);
+  }
+
   /**
    * Pick up the ranges of jobs to process from ProcessRecords. Skip raw rows
    * that have already been processed.
@@ -384,6 +413,38 @@ public class JobFileProcessor extends Configured implements Tool {
     List<ProcessRecord> processRecords =
         getProcessRecords(conf, hbaseConnection, cluster, processFileSubstring);
 
+    return processProcessRecords(conf, hbaseConnection, cluster, batchSize,
+        threadCount, processRecords);
+  }
+
+  /**
+   * Processes the jobs of the given {@link ProcessState#LOADED} records and
+   * marks the records {@link ProcessState#PROCESSED} when all jobs succeeded.
+   *
+   * @param conf used to contact HBase and to run jobs against, set up by
+   *          {@link #configureJobs}. Not to be shared with concurrent calls, as
+   *          it is modified for the jobs.
+   * @param hbaseConnection
+   * @param cluster for which to process records.
+   * @param batchSize the total number of jobs to process in a batch (a MR job
+   *          scanning these many records in the raw table).
+   * @param threadCount how many parallel threads should be used to run Hadoop
+   *          jobs in parallel.
+   * @param processRecords to process
+   * @return whether all jobs of the records were properly processed.
+   * @throws IOException
+   * @throws ClassNotFoundException when problems occur setting up the job.
+   * @throws InterruptedException
+   * @throws ExecutionException when at least one of the jobs could not be
+   *           scheduled.
+   * @throws RowKeyParseException
+   */
+  boolean processProcessRecords(Configuration conf,
+      Connection hbaseConnection, String cluster, int batchSize,
+      int threadCount, List<ProcessRecord> processRecords)
+      throws IOException, InterruptedException, ClassNotFoundException,
+      ExecutionException, RowKeyParseException {
+
     // Bail out early if needed
     if ((processRecords == null) || (processRecords.size() == 0)) {
       return true;
@@ -397,10 +458,22 @@ public class JobFileProcessor extends Configured implements Tool {
       minMaxJobFileTracker.track(processRecord.getMaxJobId());
     }
 
-    List<JobRunner> jobRunners = getJobRunners(conf, hbaseConnection, cluster, false, batchSize,
-        minMaxJobFileTracker.getMinJobId(), minMaxJobFileTracker.getMaxJobId());
+    List<Scan> scans = getRawScans(conf, hbaseConnection, cluster, false,
+        batchSize, minMaxJobFileTracker.getMinJobId(),
+        minMaxJobFileTracker.getMaxJobId());
 
-    boolean success = runJobs(threadCount, jobRunners);
+    long jobFiles = 0;
+    for (ProcessRecord processRecord : processRecords) {
+      jobFiles += processRecord.getProcessedJobFiles();
+    }
+
+    boolean success;
+    if (InProcessMapRunner.isSmallBatch(conf, jobFiles)) {
+      LOG.info("Processing " + jobFiles + " job files in process");
+      success = runInProcess(conf, hbaseConnection, scans);
+    } else {
+      success = runJobs(threadCount, getJobRunners(conf, scans));
+    }
     if (success) {
       updateProcessRecords(conf, hbaseConnection, processRecords);
     }
@@ -430,8 +503,9 @@ public class JobFileProcessor extends Configured implements Tool {
       throws IOException, InterruptedException, ClassNotFoundException,
       ExecutionException, RowKeyParseException {
 
-    List<JobRunner> jobRunners =
-        getJobRunners(conf, hbaseConnection, cluster, true, batchSize, null, null);
+    List<Scan> scans =
+        getRawScans(conf, hbaseConnection, cluster, true, batchSize, null, null);
+    List<JobRunner> jobRunners = getJobRunners(conf, scans);
 
     boolean success = runJobs(threadCount, jobRunners);
     return success;
@@ -548,26 +622,57 @@ public class JobFileProcessor extends Configured implements Tool {
    *          on JobId.
    * @param maxJobId used to end the scan (inclusive). If null then there is no
    *          max limit on jobId.
+   * @return the scans of the raw table, one per batch
    * @throws IOException
    * @throws InterruptedException
-   * @throws ClassNotFoundException
-   * @throws ExecutionException
    * @throws RowKeyParseException
    */
-  private List<JobRunner> getJobRunners(Configuration conf, Connection hbaseConnection, String cluster,
-      boolean reprocess, int batchSize, String minJobId, String maxJobId)
-      throws IOException, InterruptedException, ClassNotFoundException,
-      RowKeyParseException {
-    List<JobRunner> jobRunners = new LinkedList<JobRunner>();
-
+  private List<Scan> getRawScans(Configuration conf,
+      Connection hbaseConnection, String cluster, boolean reprocess,
+      int batchSize, String minJobId, String maxJobId)
+      throws IOException, InterruptedException, RowKeyParseException {
     JobHistoryRawService jobHistoryRawService = new JobHistoryRawService(hbaseConnection);
 
     // Bind all MR jobs together with one runID.
     long now = System.currentTimeMillis();
     conf.setLong(Constants.MR_RUN_CONF_KEY, now);
 
+    int keyScanThreads = conf.getInt(Constants.RAW_KEY_SCAN_THREADS_CONF_KEY,
+        Constants.DEFAULT_RAW_KEY_SCAN_THREADS);
     List<Scan> scanList = jobHistoryRawService.getHistoryRawTableScans(cluster,
-        minJobId, maxJobId, reprocess, batchSize);
+        minJobId, maxJobId, reprocess, batchSize, keyScanThreads);
+
+    for (Scan scan : scanList) {
+      setRawScanCaching(conf, scan);
+    }
+    return scanList;
+  }
+
+  /**
+   * Sets how many raw rows the scan fetches per rpc. Fetching one row at a
+   * time is the default, since every row fetched has to be processed before
+   * the scanner lease expires.
+   *
+   * @param conf the caching and max result size to use
+   * @param scan the scan of the raw table to set them on
+   */
+  static void setRawScanCaching(Configuration conf, Scan scan) {
+    scan.setCaching(conf.getInt(Constants.RAW_SCAN_CACHING_CONF_KEY,
+        Constants.DEFAULT_RAW_SCAN_CACHING));
+    scan.setMaxResultSize(conf.getLong(
+        Constants.RAW_SCAN_MAX_RESULT_SIZE_CONF_KEY,
+        Constants.DEFAULT_RAW_SCAN_MAX_RESULT_SIZE));
+  }
+
+  /**
+   * @param conf used to communicate arguments to the running jobs.
+   * @param scanList the scans of the raw table, one job is run for each
+   * @return the runners of the jobs
+   * @throws IOException
+   */
+  private List<JobRunner> getJobRunners(Configuration conf,
+      List<Scan> scanList) throws IOException {
+    List<JobRunner> jobRunners = new LinkedList<JobRunner>();
 
     for (Scan scan : scanList) {
       Job job = getProcessingJob(conf, scan, scanList.size());
@@ -580,6 +685,92 @@ public class JobFileProcessor extends Configured implements Tool {
 
   }
 
+  /**
+   * Processes the raw rows of the scans the way the jobs of
+   * {@link #getJobRunners} do, but with the mapper run in this process rather
+   * than in Hadoop jobs, see {@link InProcessMapRunner}. The scans are run one
+   * after another.
+   *
+   * @param conf used to communicate arguments to the mappers.
+   * @param hbaseConnection used to scan and write to HBase.
+   * @param scanList the scans of the raw table
+   * @return whether all scans were processed without errors.
+   * @throws IOException when the cost file cannot be copied.
+   * @throws InterruptedException
+   */
+  private boolean runInProcess(Configuration conf, Connection hbaseConnection,
+      List<Scan> scanList) throws IOException, InterruptedException {
+    Configuration localConf = new Configuration(conf);
+    File cacheDir = localizeCacheFiles(localConf);
+    try {
+      InProcessMapRunner<ImmutableBytesWritable, Result> runner =
+          new InProcessMapRunner<ImmutableBytesWritable, Result>(localConf,
+              hbaseConnection, JobFileTableMapper.class, null,
+              InProcessMapRunner.getThreads(localConf));
+      for (Scan scan : scanList) {
+        Counters counters = runner.run(InProcessMapRunner.scanSource(
+            hbaseConnection, TableName.valueOf(Constants.HISTORY_RAW_TABLE),
+            scan));
+        LOG.info("Processed in process: " + counters);
+      }
+      return true;
+    } catch (IOException ioe) {
+      LOG.error("Failed to process in process", ioe);
+      return false;
+    } finally {
+      FileUtil.fullyDelete(cacheDir);
+    }
+  }
+
+  /**
+   * Copies the files added to the distributed cache by {@link #configureJobs}
+   * to a local directory and sets them as the local cache files, where the
+   * mappers look for them when they are not run in a Hadoop job.
+   *
+   * @param conf to read the cache files from and to set the local files in.
+   * @return the local directory, to be deleted when done.
+   * @throws IOException
+   */
+  private static File localizeCacheFiles(Configuration conf)
+      throws IOException {
+    File cacheDir = Files.createTempDir();
+    URI[] cacheFiles = DistributedCache.getCacheFiles(conf);
+    if (cacheFiles != null) {
+      for (URI cacheFile : cacheFiles) {
+        Path hdfsPath = new Path(cacheFile);
+        FileSystem fs = hdfsPath.getFileSystem(conf);
+        if (!fs.exists(hdfsPath)) {
+          LOG.error("Unable to find cache file " + hdfsPath
+              + ", continuing without it");
+          continue;
+        }
+        File localFile = new File(cacheDir, hdfsPath.getName());
+        fs.copyToLocalFile(hdfsPath, new Path(localFile.getAbsolutePath()));
+        DistributedCache.addLocalFiles(conf, localFile.getAbsolutePath());
+      }
+    }
+    return cacheDir;
+  }
+
+  /**
+   * @param conf to use to create and run the job
+   * @return a copy of the configuration, set up for a processing job
+   */
+  static Configuration getProcessingConf(Configuration conf) {
+    Configuration confClone = new Configuration(conf);
+
+    // Turn off speculative execution.
+    // Note: must be BEFORE the job construction with the new mapreduce API.
+    confClone.setBoolean("mapred.map.tasks.speculative.execution", false);
+
+    // Let the mappers' scanners fetch the next rows while the current ones are
+    // parsed.
+    confClone.setBoolean(Scan.HBASE_CLIENT_SCANNER_ASYNC_PREFETCH,
+        confClone.getBoolean(Constants.RAW_SCAN_PREFETCH_CONF_KEY,
+            Constants.DEFAULT_RAW_SCAN_PREFETCH));
+    return confClone;
+  }
+
   /**
    * @param conf to use to create and run the job
    * @param scan to be used to scan the raw table.
@@ -593,11 +784,7 @@ public class JobFileProcessor extends Configured implements Tool {
   private Job getProcessingJob(Configuration conf, Scan scan, int totalJobCount)
       throws IOException {
 
-    Configuration confClone = new Configuration(conf);
-
-    // Turn off speculative execution.
-    // Note: must be BEFORE the job construction with the new mapreduce API.
-    confClone.setBoolean("mapred.map.tasks.speculative.execution", false);
+    Configuration confClone = getProcessingConf(conf);
 
     // Set up job
     Job job = new Job(confClone, getJobName(totalJobCount));
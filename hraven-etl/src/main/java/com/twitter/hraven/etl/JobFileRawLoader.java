@@ -33,9 +33,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
@@ -67,11 +69,6 @@ public class JobFileRawLoader extends Configured implements Tool {
 
   private final AtomicInteger jobCounter = new AtomicInteger(0);
 
-  /**
-   * Used to read files from (if input is HDFS) and to write output to.
-   */
-  FileSystem hdfs;
-
   /**
    * Default constructor
    */
@@ -149,7 +146,6 @@ public class JobFileRawLoader extends Configured implements Tool {
       ClassNotFoundException, InterruptedException {
 
     Configuration hbaseConf = HBaseConfiguration.create(getConf());
-    hdfs = FileSystem.get(hbaseConf);
 
     // Grab input args and allow for -Dxyz style arguments
     String[] otherArgs =
@@ -181,19 +177,14 @@ public class JobFileRawLoader extends Configured implements Tool {
     boolean forceReprocess = commandLine.hasOption("f");
     LOG.info("forceReprocess: " + forceReprocess);
 
-    // hbase.client.keyvalue.maxsize somehow defaults to 10 MB and we have
-    // history files exceeding that. Disable limit.
-    hbaseConf.setInt("hbase.client.keyvalue.maxsize", 0);
-
-    // Shove this into the jobConf so that we can get it out on the task side.
-    hbaseConf.setStrings(Constants.CLUSTER_JOB_CONF_KEY, cluster);
+    configureJobs(hbaseConf, cluster, forceReprocess);
 
     boolean success = true;
     Connection hbaseConnection = null;
     try {
       hbaseConnection = ConnectionFactory.createConnection(hbaseConf);
       success = processRecordsFromHBase(hbaseConf, hbaseConnection, cluster,
-          processFileSubstring, forceReprocess);
+          processFileSubstring);
     } finally {
       if (hbaseConnection == null) {
         success = false;
@@ -214,8 +205,6 @@ public class JobFileRawLoader extends Configured implements Tool {
    * @param processFileSubstring return rows where the process file path
    *          contains this string. If <code>null</code> or empty string, then
    *          no filtering is applied.
-   * @param forceReprocess whether all jobs for which a file is loaded needs to
-   *          be reprocessed.
    * @return whether all job files for all processRecords were properly
    *         processed.
    * @throws IOException
@@ -223,8 +212,7 @@ public class JobFileRawLoader extends Configured implements Tool {
    * @throws InterruptedException
    */
   private boolean processRecordsFromHBase(Configuration myHBaseConf,
-      Connection hbaseConnection, String cluster, String processFileSubstring,
-      boolean forceReprocess)
+      Connection hbaseConnection, String cluster, String processFileSubstring)
       throws IOException, InterruptedException, ClassNotFoundException {
 
     int failures = 0;
@@ -237,25 +225,13 @@ public class JobFileRawLoader extends Configured implements Tool {
 
     LOG.info("ProcessRecords for " + cluster + ": " + processRecords.size());
 
-    // Bind all MR jobs together with one runID.
-    long now = System.currentTimeMillis();
-    myHBaseConf.setLong(Constants.MR_RUN_CONF_KEY, now);
-
-    myHBaseConf.setBoolean(Constants.FORCE_REPROCESS_CONF_KEY, forceReprocess);
-
     // Iterate over 0 based list in reverse order
     for (int j = processRecords.size() - 1; j >= 0; j--) {
       ProcessRecord processRecord = processRecords.get(j);
 
-      LOG.info("Processing " + processRecord);
-
-      boolean success = runRawLoaderJob(myHBaseConf,
-          processRecord.getProcessFile(), processRecords.size());
-      // Bail out on first failure.
-      if (success) {
-        processRecordService.setProcessState(processRecord,
-            ProcessState.LOADED);
-      } else {
+      boolean success = loadProcessRecord(myHBaseConf, processRecordService,
+          processRecord, processRecords.size());
+      if (!success) {
         failures++;
       }
 
@@ -264,6 +240,68 @@ public class JobFileRawLoader extends Configured implements Tool {
     return (failures == 0);
   }
 
+  /**
+   * Sets up the configuration passed to the loading jobs.
+   *
+   * @param myHBaseConf to set up, should be an HBase configuration.
+   * @param cluster for which to load records.
+   * @param forceReprocess whether all jobs for which a file is loaded needs to
+   *          be reprocessed.
+   */
+  static void configureJobs(Configuration myHBaseConf, String cluster,
+      boolean forceReprocess) {
+    // hbase.client.keyvalue.maxsize somehow defaults to 10 MB and we have
+    // history files exceeding that. Disable limit.
+    myHBaseConf.setInt("hbase.client.keyvalue.maxsize", 0);
+
+    // Shove this into the jobConf so that we can get it out on the task side.
+    myHBaseConf.setStrings(Constants.CLUSTER_JOB_CONF_KEY, cluster);
+
+    // Bind all MR jobs together with one runID.
+    long now = System.currentTimeMillis();
+    myHBaseConf.setLong(Constants.MR_RUN_CONF_KEY, now);
+
+    myHBaseConf.setBoolean(Constants.FORCE_REPROCESS_CONF_KEY, forceReprocess);
+  }
+
+  /**
+   * Loads the job files listed in the process file of a
+   * {@link ProcessState#PREPROCESSED} record into the raw table, and marks the
+   * record {@link ProcessState#LOADED} when done.
+   *
+   * @param myHBaseConf set up by
+   *          {@link #configureJobs(Configuration, String, boolean)}. Not to be
+   *          shared with concurrent loads, as it is modified for the job.
+   * @param processRecordService used to update the record.
+   * @param processRecord to load.
+   * @param totalJobCount the total number of jobs that need to be run in this
+   *          batch. Used in job name.
+   * @return whether all job files of the record were loaded.
+   * @throws IOException
+   * @throws InterruptedException
+   * @throws ClassNotFoundException
+   */
+  boolean loadProcessRecord(Configuration myHBaseConf,
+      ProcessRecordService processRecordService, ProcessRecord processRecord,
+      int totalJobCount)
+      throws IOException, InterruptedException, ClassNotFoundException {
+    LOG.info("Processing " + processRecord);
+
+    boolean success;
+    if (InProcessMapRunner.isSmallBatch(myHBaseConf,
+        processRecord.getProcessedJobFiles())) {
+      success = runRawLoaderInProcess(myHBaseConf,
+          processRecord.getProcessFile());
+    } else {
+      success = runRawLoaderJob(myHBaseConf, processRecord.getProcessFile(),
+          totalJobCount);
+    }
+    if (success) {
+      processRecordService.setProcessState(processRecord, ProcessState.LOADED);
+    }
+    return success;
+  }
+
   /**
    * @param conf to use to create and run the job. Should be an HBase
    *          configuration.
@@ -289,6 +327,7 @@ public class JobFileRawLoader extends Configured implements Tool {
     job.setJarByClass(JobFileRawLoader.class);
 
     Path inputPath = new Path(input);
+    FileSystem hdfs = inputPath.getFileSystem(myHBaseConf);
 
     if (hdfs.exists(inputPath)) {
 
@@ -323,6 +362,48 @@ public class JobFileRawLoader extends Configured implements Tool {
     return success;
   }
 
+  /**
+   * Loads the job files listed in the processFile the way
+   * {@link #runRawLoaderJob} does, but with the mapper run in this process
+   * rather than in a Hadoop job, see {@link InProcessMapRunner}.
+   *
+   * @param myHBaseConf to use to contact HBase and HDFS.
+   * @param input path to the processFile
+   * @return whether all job confs were loaded properly.
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  private boolean runRawLoaderInProcess(Configuration myHBaseConf,
+      String input) throws IOException, InterruptedException {
+    Path inputPath = new Path(input);
+    FileSystem hdfs = inputPath.getFileSystem(myHBaseConf);
+
+    if (!hdfs.exists(inputPath)) {
+      System.err.println("Unable to find processFile: " + inputPath);
+      return false;
+    }
+
+    LOG.info("Loading " + inputPath + " in process");
+    Connection hbaseConnection =
+        ConnectionFactory.createConnection(myHBaseConf);
+    try {
+      InProcessMapRunner<JobFile, FileStatus> runner =
+          new InProcessMapRunner<JobFile, FileStatus>(myHBaseConf,
+              hbaseConnection, JobFileRawLoaderMapper.class,
+              TableName.valueOf(Constants.HISTORY_RAW_TABLE),
+              InProcessMapRunner.getThreads(myHBaseConf));
+      runner.run(InProcessMapRunner.sequenceFileSource(myHBaseConf, inputPath,
+          JobFile.class, FileStatus.class));
+    } catch (IOException ioe) {
+      LOG.error("Failed to load " + inputPath + " in process", ioe);
+      return false;
+    } finally {
+      hbaseConnection.close();
+    }
+
+    return hdfs.delete(inputPath, false);
+  }
+
   /**
    * @param totalJobCount how many jobs there will be in total. Used as
    *          indicator in the name how far along this job is.
@@ -27,6 +27,8 @@ import com.twitter.hraven.HadoopVersion;
 import com.twitter.hraven.JobHistoryKeys;
 import com.twitter.hraven.datasource.ProcessingException;
 import com.twitter.hraven.util.ByteUtil;
+import com.twitter.hraven.util.HadoopConfUtil;
+import com.twitter.hraven.util.JobConfProperties;
 
 /**
  *  Abstract class for job history file parsing 
@@ -40,9 +42,21 @@ import com.twitter.hraven.util.ByteUtil;
 public abstract class JobHistoryFileParserBase implements JobHistoryFileParser {
 
   private static final Log LOG = LogFactory.getLog(JobHistoryFileParserBase.class);
-  protected final Configuration jobConf;
+
+  /** searchers for the patterns looked for in every raw job history file */
+  private static final ByteUtil.Searcher JOB_SUBMIT_EVENT_SEARCHER =
+      new ByteUtil.Searcher(Constants.JOB_SUBMIT_EVENT_BYTES);
+  private static final ByteUtil.Searcher SUBMIT_TIME_PREFIX_HADOOP2_SEARCHER =
+      new ByteUtil.Searcher(Constants.SUBMIT_TIME_PREFIX_HADOOP2_BYTES);
+  private static final ByteUtil.Searcher SUBMIT_TIME_PREFIX_SEARCHER =
+      new ByteUtil.Searcher(Constants.SUBMIT_TIME_PREFIX_BYTES);
+  protected final JobConfProperties jobConf;
 
   protected JobHistoryFileParserBase(Configuration conf) {
+    this(HadoopConfUtil.wrap(conf));
+  }
+
+  protected JobHistoryFileParserBase(JobConfProperties conf) {
     this.jobConf = conf;
   }
 
@@ -171,11 +185,11 @@ public abstract class JobHistoryFileParserBase implements JobHistoryFileParser {
     switch (hv) {
     case TWO:
       // look for the job submitted event, since that has the job submit time
-      int startIndex = ByteUtil.indexOf(jobHistoryRaw, Constants.JOB_SUBMIT_EVENT_BYTES, 0);
+      int startIndex = JOB_SUBMIT_EVENT_SEARCHER.indexOf(jobHistoryRaw, 0);
       if (startIndex != -1) {
         // now look for the submit time in this event
         int secondQuoteIndex =
-            ByteUtil.indexOf(jobHistoryRaw, Constants.SUBMIT_TIME_PREFIX_HADOOP2_BYTES, startIndex);
+            SUBMIT_TIME_PREFIX_HADOOP2_SEARCHER.indexOf(jobHistoryRaw, startIndex);
         if (secondQuoteIndex != -1) {
           // read the string that contains the unix timestamp
           String submitTimeMillisString = Bytes.toString(jobHistoryRaw,
@@ -202,7 +216,7 @@ public abstract class JobHistoryFileParserBase implements JobHistoryFileParser {
       // Then we find the place of the next close quote "
       // Then our value is in between those two if valid at all.
 
-      startIndex = ByteUtil.indexOf(jobHistoryRaw, Constants.SUBMIT_TIME_PREFIX_BYTES, 0);
+      startIndex = SUBMIT_TIME_PREFIX_SEARCHER.indexOf(jobHistoryRaw, 0);
       if (startIndex != -1) {
         int prefixEndIndex = startIndex + Constants.SUBMIT_TIME_PREFIX_BYTES.length;
 
@@ -17,7 +17,10 @@ package com.twitter.hraven.etl;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import com.twitter.hraven.Constants;
 import com.twitter.hraven.HadoopVersion;
+import com.twitter.hraven.util.HadoopConfUtil;
+import com.twitter.hraven.util.JobConfProperties;
 
 /**
  * Deal with {@link JobHistoryFileParser} implementations.
@@ -70,6 +73,45 @@ public class JobHistoryFileParserFactory {
    */
   public static JobHistoryFileParser createJobHistoryFileParser(
       byte[] historyFileContents, Configuration jobConf) throws IllegalArgumentException {
+    return createJobHistoryFileParser(historyFileContents, jobConf,
+        Constants.DEFAULT_DIRECT_AVRO_DECODE);
+  }
+
+  /**
+   * creates an instance of
+   * {@link JobHistoryFileParserHadoop2} that can parse post MAPREDUCE-1016 job history files
+   *
+   * @param historyFileContents: history file contents
+   * @param jobConf: the configuration of the job the history file belongs to
+   * @param directDecode: whether history events are read directly off the avro
+   *          records or go through a json text round trip, see
+   *          {@link Constants#DIRECT_AVRO_DECODE_CONF_KEY}
+   *
+   * @return an object that can parse job history files
+   */
+  public static JobHistoryFileParser createJobHistoryFileParser(
+      byte[] historyFileContents, Configuration jobConf, boolean directDecode)
+      throws IllegalArgumentException {
+    return createJobHistoryFileParser(historyFileContents,
+        HadoopConfUtil.wrap(jobConf), directDecode);
+  }
+
+  /**
+   * creates an instance of
+   * {@link JobHistoryFileParserHadoop2} that can parse post MAPREDUCE-1016 job history files
+   *
+   * @param historyFileContents: history file contents
+   * @param jobConf: the properties of the configuration of the job the history
+   *          file belongs to
+   * @param directDecode: whether history events are read directly off the avro
+   *          records or go through a json text round trip, see
+   *          {@link Constants#DIRECT_AVRO_DECODE_CONF_KEY}
+   *
+   * @return an object that can parse job history files
+   */
+  public static JobHistoryFileParser createJobHistoryFileParser(
+      byte[] historyFileContents, JobConfProperties jobConf,
+      boolean directDecode) throws IllegalArgumentException {
 
     if (historyFileContents == null) {
       throw new IllegalArgumentException(
@@ -80,7 +122,7 @@ public class JobHistoryFileParserFactory {
 
     switch (version) {
     case TWO:
-      return new JobHistoryFileParserHadoop2(jobConf);
+      return new JobHistoryFileParserHadoop2(jobConf, directDecode);
 
     default:
       throw new IllegalArgumentException(
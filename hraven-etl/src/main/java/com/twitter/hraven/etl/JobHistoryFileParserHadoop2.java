@@ -11,9 +11,11 @@ package com.twitter.hraven.etl;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +50,7 @@ import com.twitter.hraven.datasource.ProcessingException;
 import com.twitter.hraven.datasource.TaskKeyConverter;
 import com.twitter.hraven.mapreduce.RecordTypes;
 import com.twitter.hraven.util.ByteArrayWrapper;
+import com.twitter.hraven.util.JobConfProperties;
 
 /**
  * Deal with JobHistory file parsing for job history files which are generated after MAPREDUCE-1016
@@ -210,8 +213,25 @@ public class JobHistoryFileParserHadoop2 extends JobHistoryFileParserBase {
 
   }
 
+  /**
+   * when true, event fields are read straight off the decoded
+   * {@link GenericRecord} instead of being rendered to json text and
+   * re-parsed into a {@link JSONObject}
+   */
+  private final boolean directDecode;
+
   JobHistoryFileParserHadoop2(Configuration conf) {
+    this(conf, Constants.DEFAULT_DIRECT_AVRO_DECODE);
+  }
+
+  JobHistoryFileParserHadoop2(Configuration conf, boolean directDecode) {
     super(conf);
+    this.directDecode = directDecode;
+  }
+
+  JobHistoryFileParserHadoop2(JobConfProperties conf, boolean directDecode) {
+    super(conf);
+    this.directDecode = directDecode;
   }
 
   /**
@@ -263,12 +283,14 @@ public class JobHistoryFileParserHadoop2 extends JobHistoryFileParserBase {
           Object eDetails = record.get(EVENT);
 
           // confirm that we got an "event" object
-          if (eDetails != null) {
-            JSONObject eventDetails = new JSONObject(eDetails.toString());
-            processRecords(recType, eventDetails);
-          } else {
+          if (eDetails == null) {
             throw new ProcessingException("expected event details but not found "
                 + record.get(TYPE).toString() + " cannot process this record! " + jobKey);
+          } else if (directDecode && (eDetails instanceof GenericRecord)) {
+            processRecords(recType, (GenericRecord) eDetails);
+          } else {
+            JSONObject eventDetails = new JSONObject(eDetails.toString());
+            processRecords(recType, eventDetails);
           }
         }
       } catch (EOFException eof) {
@@ -408,6 +430,30 @@ public class JobHistoryFileParserHadoop2 extends JobHistoryFileParserBase {
 
   }
 
+  /**
+   * process the counter details straight off the decoded avro JhCounters record,
+   * see {@link #processCounters(Put, JSONObject, String)} for the layout
+   */
+  private void processCounters(Put p, GenericRecord eventDetails, String key) {
+
+    Object counters = eventDetails.get(key);
+    if (!(counters instanceof GenericRecord)) {
+      throw new ProcessingException(" Expected counters for " + key + " but found " + counters
+          + " while processing " + this.jobKey);
+    }
+    GenericRecord avroCounters = (GenericRecord) counters;
+    String counterMetaGroupName = String.valueOf(avroCounters.get(NAME));
+    for (Object group : getList(avroCounters, GROUPS)) {
+      GenericRecord aCounter = (GenericRecord) group;
+      String groupName = String.valueOf(aCounter.get(NAME));
+      for (Object count : getList(aCounter, COUNTS)) {
+        GenericRecord countDetails = (GenericRecord) count;
+        populatePut(p, Constants.INFO_FAM_BYTES, counterMetaGroupName, groupName,
+          String.valueOf(countDetails.get(NAME)), getNumber(countDetails, VALUE).longValue());
+      }
+    }
+  }
+
   /**
    * process the event details as per their data type from schema definition
    * @throws JSONException
@@ -419,48 +465,13 @@ public class JobHistoryFileParserHadoop2 extends JobHistoryFileParserBase {
     if (COUNTER_NAMES.contains(key)) {
       processCounters(p, eventDetails, key);
     } else {
-      String keyH2H1Mapping = JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key);
       String type = fieldTypes.get(recType).get(key);
       if (type.equalsIgnoreCase(TYPE_STRING)) {
-        // look for job status
-        if (JobHistoryKeys.JOB_STATUS.toString().equals(
-          JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key))) {
-          // store it only if it's one of the terminal state events
-          if ((recType.equals(Hadoop2RecordType.JobFinished))
-              || (recType.equals(Hadoop2RecordType.JobUnsuccessfulCompletion))) {
-            this.jobStatus = eventDetails.getString(key);
-          }
-        } else {
-          String value = eventDetails.getString(key);
-          populatePut(p, Constants.INFO_FAM_BYTES, key, value);
-        }
+        processString(p, recType, key, eventDetails.getString(key));
       } else if (type.equalsIgnoreCase(TYPE_LONG)) {
-        long value = eventDetails.getLong(key);
-        populatePut(p, Constants.INFO_FAM_BYTES, key, value);
-        // populate start time of the job for megabytemillis calculations
-        if ((recType.equals(Hadoop2RecordType.JobInited)) &&
-            LAUNCH_TIME_KEY_STR.equals(JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key))) {
-          this.jobDetails.setSubmitTime(value);
-        }
-        // populate end time of the job for megabytemillis calculations
-        if ((recType.equals(Hadoop2RecordType.JobFinished))
-            || (recType.equals(Hadoop2RecordType.JobUnsuccessfulCompletion))) {
-          if (FINISH_TIME_KEY_STR.equals(JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key))) {
-            this.jobDetails.setFinishTime(value);
-          }
-        }
+        processLong(p, recType, key, eventDetails.getLong(key));
       } else if (type.equalsIgnoreCase(TYPE_INT)) {
-        int value = eventDetails.getInt(key);
-        populatePut(p, Constants.INFO_FAM_BYTES, key, value);
-        // populate total maps, reduces of the job
-        if (keyH2H1Mapping != null) {
-          if (keyH2H1Mapping.equals(JobHistoryKeys.TOTAL_MAPS.toString())) {
-            this.jobDetails.setTotalMaps(value);
-          }
-          if (keyH2H1Mapping.equals(JobHistoryKeys.TOTAL_REDUCES.toString())) {
-            this.jobDetails.setTotalReduces(value);
-            }
-        }
+        processInt(p, key, eventDetails.getInt(key));
       } else if (type.equalsIgnoreCase(TYPE_BOOLEAN)) {
         boolean value = eventDetails.getBoolean(key);
         populatePut(p, Constants.INFO_FAM_BYTES, key, Boolean.toString(value));
@@ -481,6 +492,162 @@ public class JobHistoryFileParserHadoop2 extends JobHistoryFileParserBase {
     }
   }
 
+  /**
+   * process the event details as per their data type from schema definition,
+   * reading the values directly from the decoded avro record. The values
+   * written are identical to the ones produced by
+   * {@link #processAllTypes(Put, Hadoop2RecordType, JSONObject, String)}
+   */
+  private void processAllTypes(Put p, Hadoop2RecordType recType, GenericRecord eventDetails,
+      String key) {
+
+    if (COUNTER_NAMES.contains(key)) {
+      processCounters(p, eventDetails, key);
+    } else {
+      String type = fieldTypes.get(recType).get(key);
+      Object value = eventDetails.get(key);
+      if (type.equalsIgnoreCase(TYPE_STRING)) {
+        processString(p, recType, key, String.valueOf(value));
+      } else if (type.equalsIgnoreCase(TYPE_LONG)) {
+        processLong(p, recType, key, getNumber(eventDetails, key).longValue());
+      } else if (type.equalsIgnoreCase(TYPE_INT)) {
+        processInt(p, key, getNumber(eventDetails, key).intValue());
+      } else if (type.equalsIgnoreCase(TYPE_BOOLEAN)) {
+        if (!(value instanceof Boolean)) {
+          throw new ProcessingException("Expected a boolean for " + key + " but found " + value
+              + " while processing " + this.jobKey);
+        }
+        populatePut(p, Constants.INFO_FAM_BYTES, key, value.toString());
+      } else if (type.equalsIgnoreCase(TYPE_ARRAY_INTS)) {
+        populatePut(p, Constants.INFO_FAM_BYTES, key, toJsonArrayString(value));
+      } else if (type.equalsIgnoreCase(NULL_STRING)) {
+        // usually seen in FAILED tasks
+        populatePut(p, Constants.INFO_FAM_BYTES, key, String.valueOf(value));
+      } else if (type.equalsIgnoreCase(TYPE_MAP_STRINGS)) {
+        populatePut(p, Constants.INFO_FAM_BYTES, key, toJsonObjectString(value));
+      } else {
+        throw new ProcessingException("Encountered a new type " + type
+            + " unable to complete processing " + this.jobKey);
+      }
+    }
+  }
+
+  /**
+   * populates a string value, picking up the job status
+   * from the terminal state events
+   */
+  private void processString(Put p, Hadoop2RecordType recType, String key, String value) {
+    // look for job status
+    if (JobHistoryKeys.JOB_STATUS.toString().equals(
+      JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key))) {
+      // store it only if it's one of the terminal state events
+      if ((recType.equals(Hadoop2RecordType.JobFinished))
+          || (recType.equals(Hadoop2RecordType.JobUnsuccessfulCompletion))) {
+        this.jobStatus = value;
+      }
+    } else {
+      populatePut(p, Constants.INFO_FAM_BYTES, key, value);
+    }
+  }
+
+  /**
+   * populates a long value, picking up the
+   * start and end time of the job for megabytemillis calculations
+   */
+  private void processLong(Put p, Hadoop2RecordType recType, String key, long value) {
+    populatePut(p, Constants.INFO_FAM_BYTES, key, value);
+    // populate start time of the job for megabytemillis calculations
+    if ((recType.equals(Hadoop2RecordType.JobInited)) &&
+        LAUNCH_TIME_KEY_STR.equals(JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key))) {
+      this.jobDetails.setSubmitTime(value);
+    }
+    // populate end time of the job for megabytemillis calculations
+    if ((recType.equals(Hadoop2RecordType.JobFinished))
+        || (recType.equals(Hadoop2RecordType.JobUnsuccessfulCompletion))) {
+      if (FINISH_TIME_KEY_STR.equals(JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key))) {
+        this.jobDetails.setFinishTime(value);
+      }
+    }
+  }
+
+  /**
+   * populates an int value, picking up the total maps, reduces of the job
+   */
+  private void processInt(Put p, String key, int value) {
+    populatePut(p, Constants.INFO_FAM_BYTES, key, value);
+    // populate total maps, reduces of the job
+    String keyH2H1Mapping = JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.get(key);
+    if (keyH2H1Mapping != null) {
+      if (keyH2H1Mapping.equals(JobHistoryKeys.TOTAL_MAPS.toString())) {
+        this.jobDetails.setTotalMaps(value);
+      }
+      if (keyH2H1Mapping.equals(JobHistoryKeys.TOTAL_REDUCES.toString())) {
+        this.jobDetails.setTotalReduces(value);
+      }
+    }
+  }
+
+  /**
+   * @return the numeric field of the avro record
+   * @throws ProcessingException if the field is absent or not a number
+   */
+  private Number getNumber(GenericRecord record, String key) {
+    Object value = record.get(key);
+    if (!(value instanceof Number)) {
+      throw new ProcessingException("Expected a number for " + key + " but found " + value
+          + " while processing " + this.jobKey);
+    }
+    return (Number) value;
+  }
+
+  /**
+   * @return the array field of the avro record
+   * @throws ProcessingException if the field is absent or not an array
+   */
+  private Collection<?> getList(GenericRecord record, String key) {
+    Object value = record.get(key);
+    if (!(value instanceof Collection)) {
+      throw new ProcessingException("Expected an array for " + key + " but found " + value
+          + " while processing " + this.jobKey);
+    }
+    return (Collection<?>) value;
+  }
+
+  /**
+   * renders an avro array of ints the same way {@link JSONArray#toString()} does,
+   * for example [12,34,56]
+   */
+  static String toJsonArrayString(Object value) {
+    if (!(value instanceof Collection)) {
+      return String.valueOf(value);
+    }
+    StringBuilder sb = new StringBuilder("[");
+    boolean first = true;
+    for (Object item : (Collection<?>) value) {
+      if (!first) {
+        sb.append(',');
+      }
+      sb.append(item);
+      first = false;
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * renders an avro map of strings (such as the job acls)
+   * the same way {@link JSONObject#toString()} does
+   */
+  static String toJsonObjectString(Object value) {
+    if (!(value instanceof Map)) {
+      return String.valueOf(value);
+    }
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+      map.put(String.valueOf(e.getKey()), String.valueOf(e.getValue()));
+    }
+    return new JSONObject(map).toString();
+  }
+
   /**
    * iterate over the event details and prepare puts
    * @throws JSONException
@@ -494,12 +661,69 @@ public class JobHistoryFileParserHadoop2 extends JobHistoryFileParserBase {
     }
   }
 
+  /**
+   * iterate over the fields of the avro event record and prepare puts
+   */
+  private void iterateAndPreparePuts(GenericRecord eventDetails, Put p,
+      Hadoop2RecordType recType) {
+    for (Schema.Field field : eventDetails.getSchema().getFields()) {
+      processAllTypes(p, recType, eventDetails, field.name());
+    }
+  }
+
   /**
    * process individual records
    * @throws JSONException
    */
   private void processRecords(Hadoop2RecordType recType, JSONObject eventDetails)
       throws JSONException {
+    String idKey = getIdKey(recType);
+    Put p = createPut(recType, (idKey == null) ? null : eventDetails.getString(idKey));
+    iterateAndPreparePuts(eventDetails, p, recType);
+    addPut(recType, p);
+  }
+
+  /**
+   * process individual records read directly off the avro decoder
+   */
+  private void processRecords(Hadoop2RecordType recType, GenericRecord eventDetails) {
+    String idKey = getIdKey(recType);
+    Put p = createPut(recType, (idKey == null) ? null : String.valueOf(eventDetails.get(idKey)));
+    iterateAndPreparePuts(eventDetails, p, recType);
+    addPut(recType, p);
+  }
+
+  /**
+   * @return the name of the field that holds the AM attempt, task or task
+   *         attempt id for this type of record, null for job level records
+   */
+  private String getIdKey(Hadoop2RecordType recType) {
+    switch (recType) {
+    case AMStarted:
+      return APPLICATION_ATTEMPTID;
+    case MapAttemptFinished:
+    case ReduceAttemptFinished:
+    case TaskAttemptFinished:
+    case TaskAttemptStarted:
+    case TaskAttemptUnsuccessfulCompletion:
+      return ATTEMPTID;
+    case TaskFailed:
+    case TaskStarted:
+    case TaskUpdated:
+    case TaskFinished:
+      return TASKID;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * creates the put for an individual record
+   * @param recType
+   * @param id the AM attempt, task or task attempt id for task level records
+   * @return Put keyed by the job or the task
+   */
+  private Put createPut(Hadoop2RecordType recType, String id) {
 
     switch (recType) {
     case JobFinished:
@@ -513,72 +737,56 @@ public class JobHistoryFileParserHadoop2 extends JobHistoryFileParserBase {
     case JobQueueChange:
     case JobSubmitted:
     case JobUnsuccessfulCompletion:
-      Put pJob = new Put(this.jobKeyBytes);
-      iterateAndPreparePuts(eventDetails, pJob, recType);
-      this.jobPuts.add(pJob);
-      break;
+      return new Put(this.jobKeyBytes);
 
     case AMStarted:
-      byte[] amAttemptIdKeyBytes =
-          getAMKey(AM_ATTEMPT_PREFIX, eventDetails.getString(APPLICATION_ATTEMPTID));
       // generate a new put per AM Attempt
-      Put pAM = new Put(amAttemptIdKeyBytes);
-      pAM.addColumn(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
-        Bytes.toBytes(RecordTypes.Task.toString()));
-      iterateAndPreparePuts(eventDetails, pAM, recType);
-      taskPuts.add(pAM);
-      break;
+      return createTaskPut(getAMKey(AM_ATTEMPT_PREFIX, id), RecordTypes.Task);
 
     case MapAttemptFinished:
-      byte[] taskMAttemptIdKeyBytes =
-          getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, eventDetails.getString(ATTEMPTID));
-      Put pMTaskAttempt = new Put(taskMAttemptIdKeyBytes);
-      pMTaskAttempt.addColumn(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
-        Bytes.toBytes(RecordTypes.MapAttempt.toString()));
-      iterateAndPreparePuts(eventDetails, pMTaskAttempt, recType);
-      this.taskPuts.add(pMTaskAttempt);
-      break;
+      return createTaskPut(getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, id),
+        RecordTypes.MapAttempt);
 
     case ReduceAttemptFinished:
-      byte[] taskRAttemptIdKeyBytes =
-          getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, eventDetails.getString(ATTEMPTID));
-      Put pRTaskAttempt = new Put(taskRAttemptIdKeyBytes);
-      pRTaskAttempt.addColumn(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
-        Bytes.toBytes(RecordTypes.ReduceAttempt.toString()));
-      iterateAndPreparePuts(eventDetails, pRTaskAttempt, recType);
-      this.taskPuts.add(pRTaskAttempt);
-      break;
+      return createTaskPut(getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, id),
+        RecordTypes.ReduceAttempt);
 
     case TaskAttemptFinished:
     case TaskAttemptStarted:
     case TaskAttemptUnsuccessfulCompletion:
-      byte[] taskAttemptIdKeyBytes =
-          getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, eventDetails.getString(ATTEMPTID));
-      Put pTaskAttempt = new Put(taskAttemptIdKeyBytes);
-      pTaskAttempt.addColumn(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
-        Bytes.toBytes(RecordTypes.Task.toString()));
-      iterateAndPreparePuts(eventDetails, pTaskAttempt, recType);
-      taskPuts.add(pTaskAttempt);
-      break;
+      return createTaskPut(getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, id),
+        RecordTypes.Task);
 
     case TaskFailed:
     case TaskStarted:
     case TaskUpdated:
     case TaskFinished:
-      byte[] taskIdKeyBytes =
-          getTaskKey(TASK_PREFIX, this.jobNumber, eventDetails.getString(TASKID));
-      Put pTask = new Put(taskIdKeyBytes);
-      pTask.addColumn(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
-        Bytes.toBytes(RecordTypes.Task.toString()));
-      iterateAndPreparePuts(eventDetails, pTask, recType);
-      taskPuts.add(pTask);
-      break;
+      return createTaskPut(getTaskKey(TASK_PREFIX, this.jobNumber, id), RecordTypes.Task);
+
     default:
       LOG.error("Check if recType was modified and has new members?");
       throw new ProcessingException("Check if recType was modified and has new members? " + recType);
     }
   }
 
+  private Put createTaskPut(byte[] taskKeyBytes, RecordTypes recordType) {
+    Put pTask = new Put(taskKeyBytes);
+    pTask.addColumn(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
+      Bytes.toBytes(recordType.toString()));
+    return pTask;
+  }
+
+  /**
+   * adds a populated put to the job or task puts
+   */
+  private void addPut(Hadoop2RecordType recType, Put p) {
+    if (getIdKey(recType) == null) {
+      this.jobPuts.add(p);
+    } else {
+      this.taskPuts.add(p);
+    }
+  }
+
   /**
    * Sets the job ID and strips out the job number (job ID minus the "job_" prefix).
    * @param id
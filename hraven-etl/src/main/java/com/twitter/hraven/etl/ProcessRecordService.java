@@ -51,6 +51,7 @@ import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.Writer;
 
 import com.twitter.hraven.Constants;
+import com.twitter.hraven.datasource.BufferedTableWriter;
 import com.twitter.hraven.datasource.ProcessingException;
 
 /**
@@ -83,6 +84,11 @@ public class ProcessRecordService {
 
   private final Connection hbaseConnection;
 
+  /**
+   * Buffers the record writes, {@code null} if they are written right away.
+   */
+  private final BufferedTableWriter processRecordWriter;
+
   /**
    * Constructor. Note that if the caller closes the passed hbaseConnection,
    * then subsequent method calls to this service will fail.
@@ -94,9 +100,60 @@ public class ProcessRecordService {
    */
   public ProcessRecordService(Configuration myHBaseConf,
       Connection hbaseConnection) throws IOException {
+    this(myHBaseConf, hbaseConnection, false);
+  }
+
+  /**
+   * Constructor. Note that if the caller closes the passed hbaseConnection,
+   * then subsequent method calls to this service will fail.
+   *
+   * @param myHBaseConf configuration of the processing job, not the conf of the
+   *          files we are processing. This should be an HBase conf so that we
+   *          can access the appropriate cluster.
+   * @param bufferWrites whether written records and states are buffered rather
+   *          than written right away. They are written on {@link #flush()}, on
+   *          {@link #close()}, before records are read, and whenever the
+   *          buffer fills up.
+   * @throws IOException in case we have problems connecting to HBase.
+   */
+  public ProcessRecordService(Configuration myHBaseConf,
+      Connection hbaseConnection, boolean bufferWrites) throws IOException {
     this.hbaseConnection = hbaseConnection;
     this.myHBaseConf = myHBaseConf;
     fs = FileSystem.get(myHBaseConf);
+    processRecordWriter = bufferWrites ? new BufferedTableWriter(
+        hbaseConnection, TableName.valueOf(Constants.JOB_FILE_PROCESS_TABLE))
+        : null;
+  }
+
+  /**
+   * @return the writer buffering the record writes, to read its metrics.
+   *         {@code null} if writes are not buffered.
+   */
+  public BufferedTableWriter getProcessRecordWriter() {
+    return processRecordWriter;
+  }
+
+  /**
+   * Writes the buffered records and states, if any.
+   *
+   * @throws IOException if they cannot be written.
+   */
+  public void flush() throws IOException {
+    if (processRecordWriter != null) {
+      processRecordWriter.flush();
+    }
+  }
+
+  /**
+   * Writes the buffered records and states, and releases the writer.
+   *
+   * @throws IOException if they cannot be written.
+   */
+  public void close() throws IOException {
+    if (processRecordWriter != null) {
+      processRecordWriter.close();
+    }
   }
 
   /**
@@ -132,6 +189,11 @@ public class ProcessRecordService {
     put.addColumn(Constants.INFO_FAM_BYTES, Constants.MAX_JOB_ID_COLUMN_BYTES,
         Bytes.toBytes(processRecord.getMaxJobId()));
 
+    if (processRecordWriter != null) {
+      processRecordWriter.mutate(put);
+      return;
+    }
+
     Table processRecordTable = null;
 
     try {
@@ -261,6 +323,9 @@ public class ProcessRecordService {
       scan.setFilter(filterList);
     }
 
+    // read our own buffered writes too
+    flush();
+
     ResultScanner scanner = null;
 
     List<ProcessRecord> records = null;
@@ -364,14 +429,18 @@ public class ProcessRecordService {
     put.addColumn(Constants.INFO_FAM_BYTES,
         Constants.PROCESSING_STATE_COLUMN_BYTES,
         Bytes.toBytes(newState.getCode()));
-    Table processRecordTable = null;
-    try {
-      processRecordTable = hbaseConnection
-          .getTable(TableName.valueOf(Constants.JOB_FILE_PROCESS_TABLE));
-      processRecordTable.put(put);
-    } finally {
-      if (processRecordTable != null) {
-        processRecordTable.close();
+    if (processRecordWriter != null) {
+      processRecordWriter.mutate(put);
+    } else {
+      Table processRecordTable = null;
+      try {
+        processRecordTable = hbaseConnection
+            .getTable(TableName.valueOf(Constants.JOB_FILE_PROCESS_TABLE));
+        processRecordTable.put(put);
+      } finally {
+        if (processRecordTable != null) {
+          processRecordTable.close();
+        }
       }
     }
 
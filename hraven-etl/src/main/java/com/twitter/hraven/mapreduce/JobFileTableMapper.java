@@ -15,18 +15,14 @@ limitations under the License.
 */
 package com.twitter.hraven.mapreduce;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
-import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.filecache.DistributedCache;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
@@ -44,6 +40,8 @@ import com.twitter.hraven.JobDescFactory;
 import com.twitter.hraven.JobDetails;
 import com.twitter.hraven.JobKey;
 import com.twitter.hraven.QualifiedJobId;
+import com.twitter.hraven.datasource.AppAggregation;
+import com.twitter.hraven.datasource.AppAggregationBuffer;
 import com.twitter.hraven.datasource.AppSummaryService;
 import com.twitter.hraven.datasource.AppVersionService;
 import com.twitter.hraven.datasource.JobHistoryByIdService;
@@ -53,11 +51,15 @@ import com.twitter.hraven.datasource.JobKeyConverter;
 import com.twitter.hraven.datasource.MissingColumnInResultException;
 import com.twitter.hraven.datasource.ProcessingException;
 import com.twitter.hraven.datasource.RowKeyParseException;
+import com.twitter.hraven.etl.AppVersionWriter;
+import com.twitter.hraven.etl.JobCostModel;
 import com.twitter.hraven.etl.JobHistoryFileParser;
 import com.twitter.hraven.etl.JobHistoryFileParserBase;
 import com.twitter.hraven.etl.JobHistoryFileParserFactory;
 import com.twitter.hraven.etl.ProcessRecordService;
 import com.twitter.hraven.util.HadoopConfUtil;
+import com.twitter.hraven.util.JobConfProperties;
+import com.twitter.hraven.util.RawJobConf;
 
 /**
  * Takes in results from a scan from {@link ProcessRecordService
@@ -80,6 +82,8 @@ public class JobFileTableMapper
       new ImmutableBytesWritable(Bytes.toBytes(Constants.HISTORY_TASK_TABLE));
   private static final ImmutableBytesWritable RAW_TABLE =
       new ImmutableBytesWritable(Bytes.toBytes(Constants.HISTORY_RAW_TABLE));
+  private static final ImmutableBytesWritable JOB_BY_ID_TABLE =
+      new ImmutableBytesWritable(Bytes.toBytes(Constants.HISTORY_BY_JOBID_TABLE));
 
   private static JobKeyConverter jobKeyConv = new JobKeyConverter();
 
@@ -98,6 +102,19 @@ public class JobFileTableMapper
    */
   private AppVersionService appVersionService = null;
 
+  /**
+   * Adds the versions of the apps in the background.
+   */
+  private AppVersionWriter appVersionWriter = null;
+
+  /**
+   * Success puts of the raw rows whose app version may not be added yet, by
+   * the sequence number of the version. A row is only marked processed once
+   * its version is stored, so that it is processed again when adding the
+   * version fails.
+   */
+  private final SortedMap<Long, Put> heldSuccessPuts = new TreeMap<Long, Put>();
+
   /**
    * Used to store raw blobs of job history and job conf
    */
@@ -108,6 +125,11 @@ public class JobFileTableMapper
    */
   private AppSummaryService appSummaryService = null;
 
+  /**
+   * Combines the aggregations of the jobs of this task
+   */
+  private AppAggregationBuffer aggregationBuffer = null;
+
   private long keyCount = 0;
 
   /**
@@ -120,6 +142,24 @@ public class JobFileTableMapper
    */
   private boolean reAggregationFlag = false;
 
+  /**
+   * determines whether history events are decoded directly off the avro
+   * records, see {@link Constants#DIRECT_AVRO_DECODE_CONF_KEY}
+   */
+  private boolean directAvroDecode = Constants.DEFAULT_DIRECT_AVRO_DECODE;
+
+  /**
+   * determines whether job confs are read with the streaming parser rather
+   * than loaded into a Configuration, see
+   * {@link Constants#RAW_JOB_CONF_PARSER_CONF_KEY}
+   */
+  private boolean rawJobConfParser = Constants.DEFAULT_RAW_JOB_CONF_PARSER;
+
+  /**
+   * cost details of the machines, loaded once from the cost properties file
+   */
+  private JobCostModel costModel = null;
+
   /**
    * @return the key class for the job output data.
    */
@@ -141,7 +181,8 @@ public class JobFileTableMapper
     Configuration myConf = context.getConfiguration();
     hbaseConnection = ConnectionFactory.createConnection(myConf);
     jobHistoryByIdService = new JobHistoryByIdService(hbaseConnection);
-    appVersionService = new AppVersionService(hbaseConnection);
+    appVersionService = new AppVersionService(hbaseConnection, true);
+    appVersionWriter = new AppVersionWriter(appVersionService);
     rawService = new JobHistoryRawService(hbaseConnection);
     // set aggregation to false by default
     aggregationFlag =
@@ -156,6 +197,19 @@ public class JobFileTableMapper
           + " for jobs even if already aggregated status is true in raw table ");
     }
     appSummaryService = new AppSummaryService(hbaseConnection);
+    aggregationBuffer = new AppAggregationBuffer(appSummaryService,
+        myConf.getInt(AggregationConstants.AGGREGATION_BUFFER_SIZE_CONF_KEY,
+            AggregationConstants.DEFAULT_AGGREGATION_BUFFER_SIZE),
+        myConf.getLong(AggregationConstants.AGGREGATION_BUFFER_MILLIS_CONF_KEY,
+            AggregationConstants.DEFAULT_AGGREGATION_BUFFER_MILLIS));
+    directAvroDecode = myConf.getBoolean(Constants.DIRECT_AVRO_DECODE_CONF_KEY,
+        Constants.DEFAULT_DIRECT_AVRO_DECODE);
+    LOG.info(Constants.DIRECT_AVRO_DECODE_CONF_KEY + "=" + directAvroDecode);
+    rawJobConfParser = myConf.getBoolean(
+        Constants.RAW_JOB_CONF_PARSER_CONF_KEY,
+        Constants.DEFAULT_RAW_JOB_CONF_PARSER);
+    LOG.info(Constants.RAW_JOB_CONF_PARSER_CONF_KEY + "=" + rawJobConfParser);
+    costModel = JobCostModel.load(myConf);
 
     keyCount = 0;
   }
@@ -167,13 +221,25 @@ public class JobFileTableMapper
 
     keyCount++;
     boolean success = true;
+    long versionSequence = 0L;
     QualifiedJobId qualifiedJobId = null;
     JobDetails jobDetails = null;
     try {
       qualifiedJobId = rawService.getQualifiedJobIdFromResult(value);
       context.progress();
 
-      Configuration jobConf = rawService.createConfigurationFromResult(value);
+      RawJobConf rawJobConf = null;
+      Configuration hadoopJobConf = null;
+      JobConfProperties jobConf;
+      if (rawJobConfParser) {
+        rawJobConf = rawService.createRawJobConfFromResult(value);
+        jobConf = rawJobConf;
+      } else {
+        // adds the replacement names of deprecated keys, and expands the
+        // variables in the values read for the job description
+        hadoopJobConf = rawService.createConfigurationFromResult(value);
+        jobConf = HadoopConfUtil.wrap(hadoopJobConf);
+      }
       context.progress();
 
       byte[] jobhistoryraw = rawService.getJobHistoryRawFromResult(value);
@@ -207,7 +273,9 @@ public class JobFileTableMapper
           + " submitTimeMillis: " + submitTimeMillis;
       LOG.info(msg);
 
-      List<Put> puts = JobHistoryService.getHbasePuts(jobDesc, jobConf);
+      List<Put> puts = (rawJobConf != null)
+          ? JobHistoryService.getHbasePuts(jobDesc, rawJobConf)
+          : JobHistoryService.getHbasePuts(jobDesc, hadoopJobConf);
 
       LOG.info("Writing " + puts.size() + " JobConf puts to "
           + Constants.HISTORY_TABLE);
@@ -226,12 +294,13 @@ public class JobFileTableMapper
         context.progress();
       }
 
-      // Write secondary index(es)
+      // Write secondary index(es) along with the other puts, the app
+      // versions are added in the background
       LOG.info("Writing secondary indexes");
-      jobHistoryByIdService.writeIndexes(jobKey);
-      context.progress();
-      appVersionService.addVersion(jobDesc.getCluster(), jobDesc.getUserName(),
-          jobDesc.getAppId(), jobDesc.getVersion(), jobDesc.getRunId());
+      context.write(JOB_BY_ID_TABLE, jobHistoryByIdService.getIndexPut(jobKey));
+      versionSequence = appVersionWriter.addVersion(jobDesc.getCluster(),
+          jobDesc.getUserName(), jobDesc.getAppId(), jobDesc.getVersion(),
+          jobDesc.getRunId());
       context.progress();
 
       KeyValue keyValue = value.getColumnLatest(Constants.RAW_FAM_BYTES,
@@ -245,7 +314,7 @@ public class JobFileTableMapper
         historyFileContents = keyValue.getValue();
       }
       JobHistoryFileParser historyFileParser = JobHistoryFileParserFactory
-          .createJobHistoryFileParser(historyFileContents, jobConf);
+          .createJobHistoryFileParser(historyFileContents, jobConf, directAvroDecode);
 
       historyFileParser.parse(historyFileContents, jobKey);
       context.progress();
@@ -298,12 +367,11 @@ public class JobFileTableMapper
       context.progress();
 
       /** post processing steps to get cost of the job */
-      Double jobCost = getJobCost(mbMillis, context.getConfiguration());
-      context.progress();
-      if (jobCost == null) {
-        throw new ProcessingException(
-            " Unable to get job cost calculation for this record!" + jobKey);
-      }
+      String queueName = HadoopConfUtil.getQueueName(jobConf);
+      double jobCost =
+          costModel.getJobCost(mbMillis, queueName, jobDesc.getFramework());
+      LOG.info("jobCost is " + jobCost + " for machine type "
+          + costModel.getMachineType(queueName, jobDesc.getFramework()));
       Put jobCostPut = getJobCostPut(jobCost, jobKey);
       LOG.info("Writing jobCost puts to " + Constants.HISTORY_TABLE);
       context.write(JOB_TABLE, jobCostPut);
@@ -314,7 +382,7 @@ public class JobFileTableMapper
         jobDetails.setCost(jobCost);
         jobDetails.setMegabyteMillis(mbMillis);
         jobDetails.setSubmitTime(jobKey.getRunId());
-        jobDetails.setQueue(HadoopConfUtil.getQueueName(jobConf));
+        jobDetails.setQueue(queueName);
       }
 
     } catch (RowKeyParseException rkpe) {
@@ -357,7 +425,12 @@ public class JobFileTableMapper
     // row, with one succeeding and one failing, there could be a race where the
     // raw does not properly indicate the true status (which is questionable in
     // any case with multiple simultaneous runs with different outcome).
-    context.write(RAW_TABLE, successPut);
+    if (success && versionSequence > 0L) {
+      heldSuccessPuts.put(versionSequence, successPut);
+    } else {
+      context.write(RAW_TABLE, successPut);
+    }
+    writeAddedSuccessPuts(context);
 
     // consider aggregating job details
     if (jobDetails != null) {
@@ -381,47 +454,80 @@ public class JobFileTableMapper
    *
    * if job has already been aggregated, we don't want to mistakenly aggregate
    * again
+   *
+   * the job is added to the aggregation buffer, which combines the jobs of an
+   * app before they are written to the aggregation tables
    */
   private void aggreagteJobStats(JobDetails jobDetails, byte[] rowKey,
       Context context, AggregationConstants.AGGREGATION_TYPE aggType)
       throws IOException, InterruptedException {
-
-    byte[] aggStatusCol = null;
-    switch (aggType) {
-    case DAILY:
-      aggStatusCol =
-          AggregationConstants.JOB_DAILY_AGGREGATION_STATUS_COL_BYTES;
-      break;
-    case WEEKLY:
-      aggStatusCol =
-          AggregationConstants.JOB_WEEKLY_AGGREGATION_STATUS_COL_BYTES;
-      break;
-    default:
-      LOG.error("Unknown aggregation type " + aggType);
-      return;
+    aggregationBuffer.add(jobDetails, aggType, rowKey);
+    if (aggregationBuffer.isFull()) {
+      flushAggregations(context);
     }
+  }
 
-    boolean aggStatus =
-        appSummaryService.aggregateJobDetails(jobDetails, aggType);
+  /**
+   * writes the buffered aggregations, then marks the raw rows of the jobs that
+   * were aggregated with their aggregation status so that they are not
+   * aggregated again on the next scan
+   */
+  private void flushAggregations(Context context)
+      throws IOException, InterruptedException {
+    int jobs = aggregationBuffer.size();
+    List<AppAggregation> written = aggregationBuffer.flush();
     context.progress();
-    LOG.debug("Status of aggreagting stats for " + aggType + "=" + aggStatus);
-    if (aggStatus) {
-      // update raw table for this history file with aggregation status
-      // Indicate that we processed the agg for this RAW successfully
-      // so that we can skip it on the next scan (or not).
-      Put aggStatusPut =
-          rawService.getAggregatedStatusPut(rowKey, aggStatusCol, aggStatus);
-      // TODO
-      // In the unlikely event of multiple mappers running against one RAW
-      // row, with one succeeding and one failing,
-      // there could be a race where the
-      // raw does not properly indicate the true status
-      // (which is questionable in
-      // any case with multiple simultaneous runs with different outcome).
-      context.write(RAW_TABLE, aggStatusPut);
+    LOG.info("Aggregated " + jobs + " jobs into " + written.size()
+        + " aggregation rows");
+
+    for (AppAggregation aggregation : written) {
+      byte[] aggStatusCol = null;
+      switch (aggregation.getAggType()) {
+      case DAILY:
+        aggStatusCol =
+            AggregationConstants.JOB_DAILY_AGGREGATION_STATUS_COL_BYTES;
+        break;
+      case WEEKLY:
+        aggStatusCol =
+            AggregationConstants.JOB_WEEKLY_AGGREGATION_STATUS_COL_BYTES;
+        break;
+      default:
+        LOG.error("Unknown aggregation type " + aggregation.getAggType());
+        continue;
+      }
+
+      for (byte[] rowKey : aggregation.getSourceRows()) {
+        // update raw table for this history file with aggregation status
+        // Indicate that we processed the agg for this RAW successfully
+        // so that we can skip it on the next scan (or not).
+        Put aggStatusPut =
+            rawService.getAggregatedStatusPut(rowKey, aggStatusCol, true);
+        // TODO
+        // In the unlikely event of multiple mappers running against one RAW
+        // row, with one succeeding and one failing,
+        // there could be a race where the
+        // raw does not properly indicate the true status
+        // (which is questionable in
+        // any case with multiple simultaneous runs with different outcome).
+        context.write(RAW_TABLE, aggStatusPut);
+      }
     }
   }
 
+  /**
+   * writes the held back success puts of the rows whose app version has been
+   * added by now
+   */
+  private void writeAddedSuccessPuts(Context context)
+      throws IOException, InterruptedException {
+    SortedMap<Long, Put> added =
+        heldSuccessPuts.headMap(appVersionWriter.getWrittenSequence() + 1);
+    for (Put successPut : added.values()) {
+      context.write(RAW_TABLE, successPut);
+    }
+    added.clear();
+  }
+
   /**
    * generates a put for the megabytemillis
    * @param mbMillis
@@ -435,105 +541,13 @@ public class JobFileTableMapper
     return pMb;
   }
 
-  /**
-   * looks for cost file in distributed cache
-   * @param cachePath of the cost properties file
-   * @param machineType of the node the job ran on
-   * @throws IOException
-   */
-  Properties loadCostProperties(Path cachePath, String machineType) {
-    Properties prop = new Properties();
-    InputStream inp = null;
-    try {
-      inp = new FileInputStream(cachePath.toString());
-      prop.load(inp);
-      return prop;
-    } catch (FileNotFoundException fnf) {
-      LOG.error("cost properties does not exist, using default values");
-      return null;
-    } catch (IOException e) {
-      LOG.error("error loading properties, using default values");
-      return null;
-    } finally {
-      if (inp != null) {
-        try {
-          inp.close();
-        } catch (IOException ignore) {
-          // do nothing
-        }
-      }
-    }
-  }
-
-  /**
-   * calculates the cost of this job based on mbMillis, machineType and cost
-   * details from the properties file
-   * @param mbMillis
-   * @param currentConf
-   * @return cost of the job
-   */
-  private Double getJobCost(Long mbMillis, Configuration currentConf) {
-    Double computeTco = 0.0;
-    Long machineMemory = 0L;
-    Properties prop = null;
-    String machineType =
-        currentConf.get(Constants.HRAVEN_MACHINE_TYPE, "default");
-    LOG.debug(" machine type " + machineType);
-    try {
-      Path[] cacheFiles = DistributedCache.getLocalCacheFiles(currentConf);
-      if (null != cacheFiles && cacheFiles.length > 0) {
-        for (Path cachePath : cacheFiles) {
-          LOG.debug(" distributed cache path " + cachePath);
-          if (cachePath.getName().equals(Constants.COST_PROPERTIES_FILENAME)) {
-            prop = loadCostProperties(cachePath, machineType);
-            break;
-          }
-        }
-      } else {
-        LOG.error(
-            "Unable to find anything (" + Constants.COST_PROPERTIES_FILENAME
-                + ") in distributed cache, continuing with defaults");
-      }
-
-    } catch (IOException ioe) {
-      LOG.error("IOException reading from distributed cache for "
-          + Constants.COST_PROPERTIES_HDFS_DIR + ", continuing with defaults"
-          + ioe.toString());
-    }
-    if (prop != null) {
-      String computeTcoStr = prop.getProperty(machineType + ".computecost");
-      try {
-        computeTco = Double.parseDouble(computeTcoStr);
-      } catch (NumberFormatException nfe) {
-        LOG.error("error in conversion to long for compute tco " + computeTcoStr
-            + " using default value of 0");
-      }
-      String machineMemStr = prop.getProperty(machineType + ".machinememory");
-      try {
-        machineMemory = Long.parseLong(machineMemStr);
-      } catch (NumberFormatException nfe) {
-        LOG.error("error in conversion to long for machine memory  "
-            + machineMemStr + " using default value of 0");
-      }
-    } else {
-      LOG.error("Could not load properties file, using defaults");
-    }
-
-    Double jobCost = JobHistoryFileParserBase.calculateJobCost(mbMillis,
-        computeTco, machineMemory);
-    LOG.info("from cost properties file, jobCost is " + jobCost
-        + " based on compute tco: " + computeTco + " machine memory: "
-        + machineMemory + " for machine type " + machineType);
-    return jobCost;
-  }
-
   /**
    * generates a put for the job cost
    * @param jobCost
    * @param jobKey
    * @return the put with job cost
    */
-  private Put getJobCostPut(Double jobCost, JobKey jobKey) {
+  private Put getJobCostPut(double jobCost, JobKey jobKey) {
     Put pJobCost = new Put(jobKeyConv.toBytes(jobKey));
     pJobCost.addColumn(Constants.INFO_FAM_BYTES, Constants.JOBCOST_BYTES,
         Bytes.toBytes(jobCost));
@@ -545,8 +559,22 @@ public class JobFileTableMapper
       Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context)
       throws java.io.IOException, InterruptedException {
 
-    if (hbaseConnection != null) {
-      hbaseConnection.close();
+    try {
+      if (aggregationBuffer != null) {
+        flushAggregations(context);
+      }
+      if (appVersionWriter != null) {
+        // rows whose version could not be added are left unprocessed
+        appVersionWriter.close();
+        writeAddedSuccessPuts(context);
+      }
+    } finally {
+      if (appSummaryService != null) {
+        appSummaryService.close();
+      }
+      if (hbaseConnection != null) {
+        hbaseConnection.close();
+      }
     }
   }
 }
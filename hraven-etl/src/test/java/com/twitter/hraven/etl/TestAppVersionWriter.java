@@ -0,0 +1,198 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.twitter.hraven.datasource.AppVersionService;
+import com.twitter.hraven.datasource.HRavenTestUtil;
+import com.twitter.hraven.datasource.VersionInfo;
+
+/**
+ * Tests that {@link AppVersionWriter} stores the earliest timestamp of every
+ * version added
+ */
+public class TestAppVersionWriter {
+
+  private static final String CLUSTER = "cluster1@identifier";
+  private static final String USER = "user1";
+
+  private static HBaseTestingUtility UTIL;
+  private static Connection hbaseConnection;
+
+  @BeforeClass
+  public static void setupBeforeClass() throws Exception {
+    UTIL = new HBaseTestingUtility();
+    UTIL.startMiniCluster();
+    HRavenTestUtil.createAppVersionTable(UTIL);
+    hbaseConnection = ConnectionFactory.createConnection(UTIL.getConfiguration());
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    if (hbaseConnection != null) {
+      hbaseConnection.close();
+    }
+    UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testAddVersions() throws Exception {
+    AppVersionService service = new AppVersionService(hbaseConnection, true);
+    // an earlier timestamp that is already stored is kept
+    service.addVersion(CLUSTER, USER, "app1", "v1", 5L);
+
+    AppVersionWriter writer = new AppVersionWriter(service);
+    for (int i = 0; i < 100; i++) {
+      writer.addVersion(CLUSTER, USER, "app1", "v" + (i % 3), 1000L - i);
+      writer.addVersion(CLUSTER, USER, "app2", "v" + (i % 2), 1000L + i);
+    }
+    writer.close();
+
+    Map<String, Long> app1 = getVersions(service, "app1");
+    assertEquals(3, app1.size());
+    assertEquals(Long.valueOf(5L), app1.get("v1"));
+    assertEquals(Long.valueOf(1000L - 99), app1.get("v0"));
+    assertEquals(Long.valueOf(1000L - 98), app1.get("v2"));
+
+    Map<String, Long> app2 = getVersions(service, "app2");
+    assertEquals(2, app2.size());
+    assertEquals(Long.valueOf(1000L), app2.get("v0"));
+    assertEquals(Long.valueOf(1001L), app2.get("v1"));
+  }
+
+  @Test
+  public void testFlush() throws Exception {
+    AppVersionService service = new AppVersionService(hbaseConnection);
+    AppVersionWriter writer = new AppVersionWriter(service);
+    try {
+      writer.addVersion(CLUSTER, USER, "app3", "v1", 20L);
+      long sequence = writer.addVersion(CLUSTER, USER, "app3", "v1", 10L);
+      writer.flush();
+      assertEquals(Long.valueOf(10L), getVersions(service, "app3").get("v1"));
+      assertEquals(sequence, writer.getWrittenSequence());
+
+      // the writer can be used again after a flush
+      writer.addVersion(CLUSTER, USER, "app3", "v2", 30L);
+      writer.flush();
+      assertEquals(2, getVersions(service, "app3").size());
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Fails to add the versions of the app named "bad", with a runtime
+   * exception for the version named "runtime"
+   */
+  private static class FailingAppVersionService extends AppVersionService {
+    FailingAppVersionService() throws IOException {
+      super(hbaseConnection);
+    }
+
+    @Override
+    public boolean addVersion(String cluster, String user, String appId,
+        String version, long timestamp) throws IOException {
+      if ("bad".equals(appId)) {
+        if ("runtime".equals(version)) {
+          throw new IllegalStateException("failing " + version);
+        }
+        throw new IOException("failing " + version);
+      }
+      return super.addVersion(cluster, user, appId, version, timestamp);
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    AppVersionWriter writer =
+        new AppVersionWriter(new FailingAppVersionService());
+    long good = writer.addVersion(CLUSTER, USER, "app4", "v1", 10L);
+    writer.flush();
+    assertEquals(good, writer.getWrittenSequence());
+
+    long bad = writer.addVersion(CLUSTER, USER, "bad", "v1", 20L);
+    try {
+      writer.flush();
+      fail("Expected the failed version to fail the flush");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("bad"));
+    }
+    assertTrue(writer.getWrittenSequence() < bad);
+    try {
+      writer.addVersion(CLUSTER, USER, "app4", "v2", 30L);
+      fail("Expected the failed version to fail later versions");
+    } catch (IOException expected) {
+      // expected
+    }
+    try {
+      writer.close();
+      fail("Expected the failed version to fail the close");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRuntimeFailure() throws Exception {
+    AppVersionWriter writer =
+        new AppVersionWriter(new FailingAppVersionService());
+    long bad = writer.addVersion(CLUSTER, USER, "bad", "runtime", 20L);
+    // the failure surfaces on a later add, without a flush
+    try {
+      for (int i = 0; i < 100; i++) {
+        writer.addVersion(CLUSTER, USER, "app5", "v" + i, 30L);
+        Thread.sleep(50);
+      }
+      fail("Expected the failed version to fail later versions");
+    } catch (IOException expected) {
+      assertTrue(expected.getCause().getCause() instanceof IllegalStateException);
+    }
+    assertTrue(writer.getWrittenSequence() < bad);
+    try {
+      writer.close();
+      fail("Expected the failed version to fail the close");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  private static Map<String, Long> getVersions(AppVersionService service,
+      String appId) throws Exception {
+    List<VersionInfo> versions =
+        service.getDistinctVersions(CLUSTER, USER, appId);
+    Map<String, Long> timestamps = new HashMap<String, Long>();
+    for (VersionInfo version : versions) {
+      timestamps.put(version.getVersion(), version.getTimestamp());
+    }
+    return timestamps;
+  }
+}
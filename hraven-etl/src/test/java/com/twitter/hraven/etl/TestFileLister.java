@@ -16,11 +16,14 @@ limitations under the License.
 package com.twitter.hraven.etl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -240,6 +243,77 @@ public class TestFileLister {
     assertTrue(prunedList.length == 4);
   }
 
+  @Test
+  public void testListFilesKeepsFilesInOldDateDirectories() throws IOException {
+    FileSystem hdfs = FileSystem.get(UTIL.getConfiguration());
+    long jan05 = 1451952000000L;
+    long jan10 = 1452384000000L;
+    long jan12 = 1452556800000L;
+    long jan15 = 1452816000000L;
+    long jan20 = 1453248000000L;
+
+    // partitioned late, so in range but in a date directory named before it
+    createJobFile(hdfs, "/walk/2016/01/01/000000/job_1329341111111_0001_conf.xml", jan15);
+    createJobFile(hdfs, "/walk/2016/01/15/000000/job_1329341111111_0002_conf.xml", jan15);
+    createJobFile(hdfs, "/walk/2016/01/15/000000/job_1329341111111_0003_conf.xml", jan05);
+    createJobFile(hdfs, "/walk/other/job_1329341111111_0004_conf.xml", jan12);
+
+    JobFileModifiedRangePathFilter pathFilter =
+        new JobFileModifiedRangePathFilter(UTIL.getConfiguration(), jan10, jan20);
+    FileStatus[] files =
+        FileLister.listFiles(true, hdfs, new Path("/walk"), pathFilter, 4);
+    assertEquals(3, files.length);
+    Set<String> names = new HashSet<String>();
+    for (FileStatus file : files) {
+      names.add(file.getPath().getName());
+    }
+    assertTrue(names.contains("job_1329341111111_0001_conf.xml"));
+    assertTrue(names.contains("job_1329341111111_0002_conf.xml"));
+    assertTrue(names.contains("job_1329341111111_0004_conf.xml"));
+
+    assertEquals(0, FileLister.listFiles(false, hdfs, new Path("/walk"),
+        pathFilter, 4).length);
+
+    // pruning by name is opt in, and does skip the old directory
+    final Set<String> pruned = new HashSet<String>();
+    FileLister.walk(true, hdfs, new Path("/walk"), pathFilter, 4, true,
+        new FileLister.FileStatusVisitor() {
+          @Override
+          public void visit(FileStatus fileStatus) {
+            synchronized (pruned) {
+              pruned.add(fileStatus.getPath().getName());
+            }
+          }
+        });
+    assertEquals(2, pruned.size());
+    assertFalse(pruned.contains("job_1329341111111_0001_conf.xml"));
+
+    hdfs.delete(new Path("/walk"), true);
+  }
+
+  private static void createJobFile(FileSystem hdfs, String name,
+      long modificationTime) throws IOException {
+    Path path = new Path(name);
+    assertTrue(hdfs.createNewFile(path));
+    hdfs.setTimes(path, modificationTime, -1);
+  }
+
+  @Test
+  public void testIsOutsideRange() {
+    JobFileModifiedRangePathFilter pathFilter =
+        new JobFileModifiedRangePathFilter(UTIL.getConfiguration(),
+            1452384000000L, 1453248000000L);
+    assertTrue(FileLister.isOutsideRange(new Path("/done/2015/12"), pathFilter));
+    assertFalse(FileLister.isOutsideRange(new Path("/done/2016/01"), pathFilter));
+    assertTrue(FileLister.isOutsideRange(new Path("/done/2016/01/08"), pathFilter));
+    assertFalse(FileLister.isOutsideRange(new Path("/done/2016/01/09"), pathFilter));
+    assertFalse(FileLister.isOutsideRange(new Path("/done/2016/01/21"), pathFilter));
+    assertTrue(FileLister.isOutsideRange(new Path("/done/2016/01/22"), pathFilter));
+    assertFalse(FileLister.isOutsideRange(new Path("/done/2015/12/01/000000"),
+        pathFilter));
+    assertFalse(FileLister.isOutsideRange(new Path("/done"), pathFilter));
+  }
+
   @Test
   public void testGetJobIdFromPath() {
     String JOB_HISTORY_FILE_NAME =
@@ -0,0 +1,96 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the {@link FileStatusExternalSorter}
+ */
+public class TestFileStatusExternalSorter {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private static List<FileStatus> sort(FileStatusExternalSorter sorter)
+      throws IOException {
+    final List<FileStatus> sorted = new ArrayList<FileStatus>();
+    sorter.merge(new FileLister.FileStatusVisitor() {
+      @Override
+      public void visit(FileStatus fileStatus) {
+        sorted.add(fileStatus);
+      }
+    });
+    return sorted;
+  }
+
+  @Test
+  public void testSpilledRuns() throws IOException {
+    File dir = tmpDir.newFolder("runs");
+    FileStatusExternalSorter sorter = new FileStatusExternalSorter(10, dir);
+    Random random = new Random(42L);
+    for (int i = 0; i < 95; i++) {
+      sorter.visit(new FileStatus(i, false, 3, 128L, random.nextInt(50), new Path(
+          "/done/job_1329348432655_" + String.format("%04d", i) + "_conf.xml")));
+    }
+    assertEquals(95L, sorter.size());
+    assertEquals(9, sorter.getSpillCount());
+    assertEquals(9, dir.list().length);
+
+    List<FileStatus> sorted = sort(sorter);
+    assertEquals(95, sorted.size());
+    for (int i = 1; i < sorted.size(); i++) {
+      assertTrue(sorted.get(i - 1).getModificationTime() <= sorted.get(i)
+          .getModificationTime());
+    }
+    // spilled statuses are read back whole
+    for (FileStatus fileStatus : sorted) {
+      String name = fileStatus.getPath().getName();
+      assertEquals(Integer.parseInt(name.substring(18, 22)),
+          fileStatus.getLen());
+    }
+
+    sorter.close();
+    assertEquals(0, dir.list().length);
+  }
+
+  @Test
+  public void testInMemory() throws IOException {
+    FileStatusExternalSorter sorter =
+        new FileStatusExternalSorter(100, tmpDir.getRoot());
+    sorter.visit(new FileStatus(0, false, 3, 128L, 17, new Path("/b")));
+    sorter.visit(new FileStatus(0, false, 3, 128L, 13, new Path("/a")));
+    assertEquals(0, sorter.getSpillCount());
+    List<FileStatus> sorted = sort(sorter);
+    assertEquals(2, sorted.size());
+    assertEquals("a", sorted.get(0).getPath().getName());
+    assertEquals("b", sorted.get(1).getPath().getName());
+    sorter.close();
+  }
+}
@@ -0,0 +1,249 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Tests that {@link InProcessMapRunner} maps all records and writes their puts
+ * to the tables named by the mapper
+ */
+public class TestInProcessMapRunner {
+
+  private static final TableName DEFAULT_TABLE =
+      TableName.valueOf("test_inprocess_default");
+  private static final TableName NAMED_TABLE =
+      TableName.valueOf("test_inprocess_named");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private static HBaseTestingUtility UTIL;
+  private static Connection hbaseConnection;
+
+  @BeforeClass
+  public static void setupBeforeClass() throws Exception {
+    UTIL = new HBaseTestingUtility();
+    UTIL.startMiniCluster();
+    UTIL.createTable(DEFAULT_TABLE, FAMILY);
+    UTIL.createTable(NAMED_TABLE, FAMILY);
+    hbaseConnection = ConnectionFactory.createConnection(UTIL.getConfiguration());
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    if (hbaseConnection != null) {
+      hbaseConnection.close();
+    }
+    UTIL.shutdownMiniCluster();
+  }
+
+  /**
+   * Writes each record with an empty key, like the raw loader does, and with
+   * the key of the named table as well when the value says so
+   */
+  public static class TestMapper
+      extends Mapper<Text, Text, ImmutableBytesWritable, Put> {
+    private static final ImmutableBytesWritable EMPTY =
+        new ImmutableBytesWritable();
+    private static final ImmutableBytesWritable NAMED =
+        new ImmutableBytesWritable(NAMED_TABLE.getName());
+
+    @Override
+    protected void map(Text key, Text value, Context context)
+        throws IOException, InterruptedException {
+      if ("fail".equals(value.toString())) {
+        throw new IOException("Failing on " + key);
+      }
+      Put put = new Put(Bytes.toBytes(key.toString()));
+      put.addColumn(FAMILY, QUALIFIER, Bytes.toBytes(value.toString()));
+      context.write(EMPTY, put);
+      if ("named".equals(value.toString())) {
+        context.write(NAMED, put);
+      }
+      context.getCounter("test", "mapped").increment(1);
+    }
+  }
+
+  /**
+   * Writes each record to the default table by name, and to the named table
+   * as well when the value says so
+   */
+  public static class RoutingMapper
+      extends Mapper<Text, Text, ImmutableBytesWritable, Put> {
+    private static final ImmutableBytesWritable DEFAULT =
+        new ImmutableBytesWritable(DEFAULT_TABLE.getName());
+    private static final ImmutableBytesWritable NAMED =
+        new ImmutableBytesWritable(NAMED_TABLE.getName());
+
+    @Override
+    protected void map(Text key, Text value, Context context)
+        throws IOException, InterruptedException {
+      Put put = new Put(Bytes.toBytes(key.toString()));
+      put.addColumn(FAMILY, QUALIFIER, Bytes.toBytes(value.toString()));
+      context.write(DEFAULT, put);
+      if ("named".equals(value.toString())) {
+        context.write(NAMED, put);
+      }
+      context.getCounter("test", "mapped").increment(1);
+    }
+  }
+
+  private static Path writeRecords(String name, int count, int failAt)
+      throws IOException {
+    Configuration conf = UTIL.getConfiguration();
+    Path path = new Path("/inprocess/" + name + ".seq");
+    SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+        SequenceFile.Writer.file(path),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(Text.class));
+    try {
+      for (int i = 0; i < count; i++) {
+        String value = (i == failAt) ? "fail" : (i % 2 == 0 ? "named" : "default");
+        writer.append(new Text(name + "-" + i), new Text(value));
+      }
+    } finally {
+      writer.close();
+    }
+    return path;
+  }
+
+  @Test
+  public void testRun() throws Exception {
+    Configuration conf = UTIL.getConfiguration();
+    Path path = writeRecords("run", 100, -1);
+
+    InProcessMapRunner<Text, Text> runner = new InProcessMapRunner<Text, Text>(
+        conf, hbaseConnection, TestMapper.class, DEFAULT_TABLE, 3);
+    Counters counters = runner.run(InProcessMapRunner.sequenceFileSource(conf,
+        path, Text.class, Text.class));
+    assertEquals(100L, counters.findCounter("test", "mapped").getValue());
+
+    Table defaultTable = hbaseConnection.getTable(DEFAULT_TABLE);
+    Table namedTable = hbaseConnection.getTable(NAMED_TABLE);
+    try {
+      for (int i = 0; i < 100; i++) {
+        Get get = new Get(Bytes.toBytes("run-" + i));
+        Result result = defaultTable.get(get);
+        assertFalse(result.isEmpty());
+        assertEquals(i % 2 == 0 ? "named" : "default",
+            Bytes.toString(result.getValue(FAMILY, QUALIFIER)));
+        // the keys are ignored when a default table is given
+        assertFalse(namedTable.exists(get));
+      }
+    } finally {
+      defaultTable.close();
+      namedTable.close();
+    }
+  }
+
+  @Test
+  public void testRunRoutedByKey() throws Exception {
+    Configuration conf = UTIL.getConfiguration();
+    Path path = writeRecords("routed", 20, -1);
+
+    InProcessMapRunner<Text, Text> runner = new InProcessMapRunner<Text, Text>(
+        conf, hbaseConnection, RoutingMapper.class, null, 2);
+    Counters counters = runner.run(InProcessMapRunner.sequenceFileSource(conf,
+        path, Text.class, Text.class));
+    assertEquals(20L, counters.findCounter("test", "mapped").getValue());
+
+    Table defaultTable = hbaseConnection.getTable(DEFAULT_TABLE);
+    Table namedTable = hbaseConnection.getTable(NAMED_TABLE);
+    try {
+      for (int i = 0; i < 20; i++) {
+        Get get = new Get(Bytes.toBytes("routed-" + i));
+        assertTrue(defaultTable.exists(get));
+        assertEquals(i % 2 == 0, namedTable.exists(get));
+      }
+    } finally {
+      defaultTable.close();
+      namedTable.close();
+    }
+  }
+
+  @Test
+  public void testRunWithoutTable() throws Exception {
+    Configuration conf = UTIL.getConfiguration();
+    Path path = writeRecords("notable", 5, -1);
+
+    // an empty key names no table
+    InProcessMapRunner<Text, Text> runner = new InProcessMapRunner<Text, Text>(
+        conf, hbaseConnection, TestMapper.class, null, 1);
+    try {
+      runner.run(InProcessMapRunner.sequenceFileSource(conf, path, Text.class,
+          Text.class));
+      fail("Expected a put without a table to fail the run");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRunFails() throws Exception {
+    Configuration conf = UTIL.getConfiguration();
+    Path path = writeRecords("fails", 20, 7);
+
+    InProcessMapRunner<Text, Text> runner = new InProcessMapRunner<Text, Text>(
+        conf, hbaseConnection, TestMapper.class, DEFAULT_TABLE, 2);
+    try {
+      runner.run(InProcessMapRunner.sequenceFileSource(conf, path, Text.class,
+          Text.class));
+      fail("Expected the failing record to fail the run");
+    } catch (IOException expected) {
+      assertTrue(expected.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testIsSmallBatch() {
+    Configuration conf = new Configuration(false);
+    assertTrue(InProcessMapRunner.isSmallBatch(conf,
+        Constants.DEFAULT_IN_PROCESS_MAX_JOB_FILES));
+    assertFalse(InProcessMapRunner.isSmallBatch(conf,
+        Constants.DEFAULT_IN_PROCESS_MAX_JOB_FILES + 1));
+
+    conf.setInt(Constants.IN_PROCESS_MAX_JOB_FILES_CONF_KEY, 0);
+    assertFalse(InProcessMapRunner.isSmallBatch(conf, 0));
+    assertFalse(InProcessMapRunner.isSmallBatch(conf, 1));
+  }
+}
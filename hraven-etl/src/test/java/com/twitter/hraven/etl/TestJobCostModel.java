@@ -0,0 +1,100 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.Framework;
+
+/**
+ * Tests that {@link JobCostModel} costs jobs with the machine type their queue
+ * or framework maps to
+ */
+public class TestJobCostModel {
+
+  private static final double DELTA = 0.0001;
+  private static final long MB_MILLIS = Constants.MILLIS_ONE_DAY * 1024L;
+
+  private static Properties getCostProperties() {
+    Properties prop = new Properties();
+    prop.setProperty("default.computecost", "10");
+    prop.setProperty("default.machinememory", "1024");
+    prop.setProperty("highmem.computecost", "30");
+    prop.setProperty("highmem.machinememory", "2048");
+    prop.setProperty("broken.computecost", "abc");
+    prop.setProperty("broken.machinememory", "1024");
+    prop.setProperty("queue.adhoc.machinetype", "highmem");
+    prop.setProperty("queue.broken.machinetype", "broken");
+    prop.setProperty("framework.scalding.machinetype", "highmem");
+    return prop;
+  }
+
+  @Test
+  public void testGetJobCost() {
+    JobCostModel model = new JobCostModel(getCostProperties(), "default");
+
+    assertEquals(10.0, model.getJobCost(MB_MILLIS, "etl", Framework.PIG),
+        DELTA);
+    assertEquals(15.0, model.getJobCost(MB_MILLIS, "adhoc", Framework.PIG),
+        DELTA);
+    assertEquals(15.0, model.getJobCost(MB_MILLIS, "etl", Framework.SCALDING),
+        DELTA);
+    assertEquals(10.0, model.getJobCost(MB_MILLIS, null, null), DELTA);
+    // an invalid compute cost costs the job at 0
+    assertEquals(0.0, model.getJobCost(MB_MILLIS, "broken", Framework.NONE),
+        DELTA);
+    assertEquals(1024L, model.getMachineCost("broken").getMachineMemory());
+  }
+
+  @Test
+  public void testGetMachineType() {
+    JobCostModel model = new JobCostModel(getCostProperties(), "default");
+    assertEquals("highmem", model.getMachineType("adhoc", Framework.NONE));
+    // the queue mapping takes precedence over the framework mapping
+    assertEquals("broken", model.getMachineType("broken", Framework.SCALDING));
+    assertEquals("highmem", model.getMachineType("etl", Framework.SCALDING));
+    assertEquals("default", model.getMachineType("etl", Framework.NONE));
+  }
+
+  @Test
+  public void testMissingCostDetails() {
+    JobCostModel model = new JobCostModel(null, null);
+    assertEquals(JobCostModel.DEFAULT_MACHINE_TYPE,
+        model.getDefaultMachineType());
+    assertEquals(0.0, model.getJobCost(MB_MILLIS, "adhoc", Framework.PIG),
+        DELTA);
+
+    model = new JobCostModel(getCostProperties(), "unknown");
+    assertEquals(0.0, model.getJobCost(MB_MILLIS, "etl", Framework.PIG),
+        DELTA);
+  }
+
+  @Test
+  public void testLoadWithoutCacheFiles() {
+    Configuration conf = new Configuration(false);
+    conf.set(Constants.HRAVEN_MACHINE_TYPE, "highmem");
+    JobCostModel model = JobCostModel.load(conf);
+    assertEquals("highmem", model.getDefaultMachineType());
+    assertEquals(0.0, model.getJobCost(MB_MILLIS, "etl", Framework.PIG),
+        DELTA);
+  }
+}
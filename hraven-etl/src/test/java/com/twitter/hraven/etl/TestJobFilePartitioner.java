@@ -0,0 +1,289 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests that {@link JobFilePartitioner} copies job files into date directories
+ * of the local file system, and how its transfers run and fail
+ */
+public class TestJobFilePartitioner {
+
+  /** 2016-01-01 12:00 UTC */
+  private static final long DAY_1 = 1451649600000L;
+  /** 2016-01-02 12:00 UTC */
+  private static final long DAY_2 = DAY_1 + 86400000L;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private Configuration conf;
+  private FileSystem localFs;
+  private File input;
+  private File output;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    conf.set("fs.defaultFS", "file:///");
+    localFs = FileSystem.getLocal(conf);
+    input = tmpDir.newFolder("input");
+    output = tmpDir.newFolder("output");
+  }
+
+  private void createJobFile(String name, long modificationTime)
+      throws IOException {
+    File jobFile = new File(input, name);
+    Files.write(name.getBytes("UTF-8"), jobFile);
+    assertTrue(jobFile.setLastModified(modificationTime));
+  }
+
+  private void createJobFiles() throws IOException {
+    for (int i = 1; i <= 4; i++) {
+      createJobFile("job_1329348432655_000" + i + "_conf.xml",
+          i <= 2 ? DAY_1 : DAY_2);
+    }
+  }
+
+  /**
+   * @return the number of files in the directory, without the checksums
+   *         written along with them
+   */
+  private static int countFiles(File dir) {
+    int count = 0;
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isFile() && !file.getName().startsWith(".")) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private int runPartitioner(String... args) throws Exception {
+    JobFilePartitioner partitioner = new JobFilePartitioner();
+    partitioner.setConf(conf);
+    return partitioner.run(args);
+  }
+
+  @Test
+  public void testCopyToDateDirectories() throws Exception {
+    createJobFiles();
+
+    assertEquals(0, runPartitioner("-i", input.toURI().toString(), "-o",
+        output.getAbsolutePath(), "-t", "3"));
+
+    assertEquals(2, countFiles(new File(output, "2016/01/01")));
+    assertEquals(2, countFiles(new File(output, "2016/01/02")));
+    // files are copied, not moved
+    assertEquals(4, countFiles(input));
+  }
+
+  @Test
+  public void testFailingCopy() throws Exception {
+    createJobFiles();
+    // a directory in place of the target file cannot be overwritten
+    File dayDir = new File(output, "2016/01/02");
+    assertTrue(new File(dayDir, "job_1329348432655_0003_conf.xml").mkdirs());
+
+    try {
+      runPartitioner("-i", input.toURI().toString(), "-o",
+          output.getAbsolutePath(), "-t", "2");
+      fail("Expected the copy to fail");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage(),
+          expected.getMessage().contains("job_1329348432655_0003_conf.xml"));
+    }
+  }
+
+  @Test
+  public void testThreadsOption() throws Exception {
+    createJobFiles();
+    try {
+      runPartitioner("-i", input.toURI().toString(), "-o",
+          output.getAbsolutePath(), "-t", "0");
+      fail("Expected less than 1 thread to be rejected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+    assertEquals(0, countFiles(new File(output, "2016/01/01")));
+  }
+
+  @Test
+  public void testExistingTargetDirs() throws IOException {
+    JobFilePartitioner partitioner = new JobFilePartitioner();
+    Path outputPath = new Path(output.toURI());
+    Path dayDir = partitioner.getTargetDirectory(localFs, outputPath, DAY_1);
+    assertTrue(new File(output, "2016/01/01").isDirectory());
+    assertEquals(new Path(outputPath, "2016/01/01"), dayDir);
+
+    // the directory is known to exist, so it is not checked again
+    assertTrue(localFs.delete(dayDir, true));
+    assertEquals(dayDir,
+        partitioner.getTargetDirectory(localFs, outputPath, DAY_1));
+    assertFalse(new File(output, "2016/01/01").exists());
+  }
+
+  @Test
+  public void testTransferEngineBound() throws Exception {
+    final JobFilePartitioner.TransferEngine engine =
+        new JobFilePartitioner.TransferEngine(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final AtomicInteger completed = new AtomicInteger();
+    final JobFilePartitioner.Transfer transfer =
+        new JobFilePartitioner.Transfer() {
+          @Override
+          public void run() throws IOException {
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+              maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+              release.await();
+            } catch (InterruptedException ie) {
+              throw new IOException(ie);
+            } finally {
+              running.decrementAndGet();
+            }
+            completed.incrementAndGet();
+          }
+        };
+
+    // two running and two waiting transfers take up all of the slots
+    for (int i = 0; i < 4; i++) {
+      engine.submit(1L, transfer);
+    }
+    final CountDownLatch submitted = new CountDownLatch(1);
+    Thread submitter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          engine.submit(1L, transfer);
+          submitted.countDown();
+        } catch (IOException ioe) {
+          // the count stays at 1
+        }
+      }
+    };
+    submitter.start();
+    assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+    assertTrue(submitted.await(10, TimeUnit.SECONDS));
+    engine.finish();
+    assertEquals(5, completed.get());
+    assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void testTransferEngineFailure() throws Exception {
+    JobFilePartitioner.TransferEngine engine =
+        new JobFilePartitioner.TransferEngine(1);
+    final IOException failure = new IOException("copy failed");
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger completed = new AtomicInteger();
+    engine.submit(1L, new JobFilePartitioner.Transfer() {
+      @Override
+      public void run() throws IOException {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new IOException(ie);
+        }
+        throw failure;
+      }
+    });
+    // runs on the same thread after the failure, so it is skipped
+    engine.submit(1L, new JobFilePartitioner.Transfer() {
+      @Override
+      public void run() {
+        completed.incrementAndGet();
+      }
+    });
+    release.countDown();
+    try {
+      engine.finish();
+      fail("Expected the failed transfer to be thrown");
+    } catch (IOException ioe) {
+      assertSame(failure, ioe);
+    }
+    assertEquals(0, completed.get());
+
+    engine = new JobFilePartitioner.TransferEngine(1);
+    final IllegalStateException runtimeFailure =
+        new IllegalStateException("bad file");
+    engine.submit(1L, new JobFilePartitioner.Transfer() {
+      @Override
+      public void run() {
+        throw runtimeFailure;
+      }
+    });
+    try {
+      engine.finish();
+      fail("Expected the failed transfer to be thrown");
+    } catch (IOException ioe) {
+      assertSame(runtimeFailure, ioe.getCause());
+    }
+  }
+
+  @Test
+  public void testTransferEngineAbort() throws Exception {
+    JobFilePartitioner.TransferEngine engine =
+        new JobFilePartitioner.TransferEngine(1);
+    final IOException failure = new IOException("copy failed");
+    final CountDownLatch started = new CountDownLatch(1);
+    engine.submit(1L, new JobFilePartitioner.Transfer() {
+      @Override
+      public void run() throws IOException {
+        started.countDown();
+        throw failure;
+      }
+    });
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    // the failure of the submitting thread is kept, the failed transfer is
+    // added to it
+    IOException cause = new IOException("listing failed");
+    engine.abort(cause);
+    assertEquals(1, cause.getSuppressed().length);
+    assertSame(failure, cause.getSuppressed()[0]);
+  }
+}
@@ -0,0 +1,198 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.twitter.hraven.datasource.HRavenTestUtil;
+
+/**
+ * Tests that {@link JobFilePipeline} moves overlapping batches through the
+ * load and process stages without processing overlapping jobs at the same
+ * time
+ */
+public class TestJobFilePipeline {
+
+  private static final String CLUSTER = "cluster1@identifier";
+
+  private static HBaseTestingUtility UTIL;
+  private static Connection hbaseConnection;
+
+  @BeforeClass
+  public static void setupBeforeClass() throws Exception {
+    UTIL = new HBaseTestingUtility();
+    UTIL.startMiniCluster();
+    HRavenTestUtil.createProcessTable(UTIL);
+    hbaseConnection = ConnectionFactory.createConnection(UTIL.getConfiguration());
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    if (hbaseConnection != null) {
+      hbaseConnection.close();
+    }
+    UTIL.shutdownMiniCluster();
+  }
+
+  private static ProcessRecord record(int batch, int minSeq, int maxSeq) {
+    return new ProcessRecord(CLUSTER, ProcessState.PREPROCESSED,
+        1000L * batch, 1000L * (batch + 1), 2 * (maxSeq - minSeq + 1),
+        "/processing/batch-" + batch, "job_1400000000000_" + minSeq,
+        "job_1400000000000_" + maxSeq);
+  }
+
+  @Test
+  public void testOverlaps() {
+    assertTrue(JobFilePipeline.overlaps(record(1, 10, 20), record(2, 15, 30)));
+    assertTrue(JobFilePipeline.overlaps(record(1, 10, 20), record(2, 20, 30)));
+    assertTrue(JobFilePipeline.overlaps(record(1, 10, 40), record(2, 20, 30)));
+    assertFalse(JobFilePipeline.overlaps(record(1, 10, 20), record(2, 21, 30)));
+    assertFalse(JobFilePipeline.overlaps(record(2, 21, 30), record(1, 10, 20)));
+    // sequence numbers compare as numbers
+    assertFalse(JobFilePipeline.overlaps(record(1, 9, 9), record(2, 10, 10)));
+  }
+
+  /**
+   * Tracks the records running in a stage, and counts the records that ran
+   * while a record with overlapping jobs ran in the other stage
+   */
+  private static class Tracker {
+    private final List<ProcessRecord> loading = new ArrayList<ProcessRecord>();
+    private final List<ProcessRecord> processing =
+        new ArrayList<ProcessRecord>();
+    private int maxProcessing = 0;
+    private int conflicts = 0;
+
+    synchronized void start(List<ProcessRecord> running,
+        List<ProcessRecord> other, ProcessRecord processRecord) {
+      for (ProcessRecord otherRecord : other) {
+        if (JobFilePipeline.overlaps(otherRecord, processRecord)) {
+          conflicts++;
+        }
+      }
+      if (running == processing) {
+        for (ProcessRecord runningRecord : processing) {
+          if (JobFilePipeline.overlaps(runningRecord, processRecord)) {
+            conflicts++;
+          }
+        }
+      }
+      running.add(processRecord);
+      if (running == processing) {
+        maxProcessing = Math.max(maxProcessing, processing.size());
+      }
+    }
+
+    synchronized void finish(List<ProcessRecord> running,
+        ProcessRecord processRecord) {
+      running.remove(processRecord);
+    }
+  }
+
+  @Test
+  public void testPollOverlappingBatches() throws Exception {
+    final ProcessRecordService processRecordService =
+        new ProcessRecordService(UTIL.getConfiguration(), hbaseConnection);
+    // every batch overlaps the ones next to it, the last one overlaps none
+    for (int batch = 1; batch <= 6; batch++) {
+      processRecordService.writeJobRecord(
+          record(batch, 10 * batch, 10 * batch + 15));
+    }
+    processRecordService.writeJobRecord(record(7, 1000, 1010));
+
+    final Tracker tracker = new Tracker();
+    final AtomicInteger preprocessed = new AtomicInteger();
+    Callable<Integer> preprocessor = new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        preprocessed.incrementAndGet();
+        return 0;
+      }
+    };
+    Semaphore wakeUp = new Semaphore(0);
+    JobFilePipeline.Stage loadStage =
+        new JobFilePipeline.Stage("load", 3, wakeUp) {
+          @Override
+          boolean run(ProcessRecord processRecord) throws Exception {
+            tracker.start(tracker.loading, tracker.processing, processRecord);
+            try {
+              Thread.sleep(50);
+              processRecordService.setProcessState(processRecord,
+                  ProcessState.LOADED);
+            } finally {
+              tracker.finish(tracker.loading, processRecord);
+            }
+            return true;
+          }
+        };
+    JobFilePipeline.Stage processStage =
+        new JobFilePipeline.Stage("process", 1, wakeUp) {
+          @Override
+          boolean run(ProcessRecord processRecord) throws Exception {
+            tracker.start(tracker.processing, tracker.loading, processRecord);
+            try {
+              Thread.sleep(50);
+              processRecordService.setProcessState(processRecord,
+                  ProcessState.PROCESSED);
+            } finally {
+              tracker.finish(tracker.processing, processRecord);
+            }
+            return true;
+          }
+        };
+
+    try {
+      for (int round = 0; round < 200; round++) {
+        JobFilePipeline.poll(processRecordService, CLUSTER, preprocessor,
+            loadStage, processStage, 2, 4);
+        if (processRecordService.getProcessRecords(CLUSTER,
+            ProcessState.PROCESSED, Integer.MAX_VALUE, null).size() == 7) {
+          break;
+        }
+        wakeUp.tryAcquire(1, TimeUnit.SECONDS);
+        wakeUp.drainPermits();
+      }
+    } finally {
+      loadStage.shutdown();
+      processStage.shutdown();
+    }
+
+    assertEquals(7, processRecordService.getProcessRecords(CLUSTER,
+        ProcessState.PROCESSED, Integer.MAX_VALUE, null).size());
+    assertEquals(0, tracker.conflicts);
+    assertEquals(1, tracker.maxProcessing);
+    assertEquals(7, loadStage.getCompleted());
+    assertEquals(7, processStage.getCompleted());
+    // the preprocessor only ran once fewer than 2 records waited to be loaded
+    assertTrue(preprocessed.get() > 0);
+  }
+}
@@ -0,0 +1,68 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Scan;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Tests that the raw scan settings of {@link JobFileProcessor} reach the scans
+ * and the configuration of the processing jobs
+ */
+public class TestJobFileProcessor {
+
+  @Test
+  public void testRawScanCachingDefaults() {
+    Configuration conf = new Configuration(false);
+    Scan scan = new Scan();
+    JobFileProcessor.setRawScanCaching(conf, scan);
+    assertEquals(1, scan.getCaching());
+    assertEquals(Constants.DEFAULT_RAW_SCAN_MAX_RESULT_SIZE,
+        scan.getMaxResultSize());
+
+    Configuration processingConf = JobFileProcessor.getProcessingConf(conf);
+    assertFalse(processingConf.getBoolean(
+        Scan.HBASE_CLIENT_SCANNER_ASYNC_PREFETCH, true));
+    assertFalse(processingConf.getBoolean(
+        "mapred.map.tasks.speculative.execution", true));
+  }
+
+  @Test
+  public void testRawScanCaching() {
+    Configuration conf = new Configuration(false);
+    conf.setInt(Constants.RAW_SCAN_CACHING_CONF_KEY, 20);
+    conf.setLong(Constants.RAW_SCAN_MAX_RESULT_SIZE_CONF_KEY, 4096L);
+    conf.setBoolean(Constants.RAW_SCAN_PREFETCH_CONF_KEY, true);
+    Scan scan = new Scan();
+    JobFileProcessor.setRawScanCaching(conf, scan);
+    assertEquals(20, scan.getCaching());
+    assertEquals(4096L, scan.getMaxResultSize());
+
+    Configuration processingConf = JobFileProcessor.getProcessingConf(conf);
+    assertTrue(processingConf.getBoolean(
+        Scan.HBASE_CLIENT_SCANNER_ASYNC_PREFETCH, false));
+    // the configuration passed in is left as it is
+    assertFalse(conf.getBoolean(Scan.HBASE_CLIENT_SCANNER_ASYNC_PREFETCH,
+        false));
+  }
+}
@@ -16,6 +16,7 @@ import static org.junit.Assert.assertTrue;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -314,4 +315,54 @@ public class TestJobHistoryFileParserHadoop2 {
     assertTrue(foundQueue);
   }
 
+  /**
+   * confirm that decoding the events directly off the avro records
+   * produces exactly the same puts as the json round trip
+   */
+  @Test
+  public void testDirectDecodeMatchesJsonDecode() throws IOException {
+    final String[] JOB_HISTORY_FILE_NAMES = {
+        "src/test/resources/job_1329348432655_0001-1329348443227-user-Sleep+job-1329348468601-10-1-SUCCEEDED-default.jhist",
+        "src/test/resources/job_1329348432999_0003-1329348443227-user-Sleep+job-1329348468601-10-1-SUCCEEDED-default.jhist",
+        "src/test/resources/job_1410289045532_259974-1411647985641-user35-SomeJobName-1411647999554-1-0-SUCCEEDED-root.someQueueName-1411647995323.jhist" };
+    final String JOB_CONF_FILE_NAME =
+        "src/test/resources/job_1329348432655_0001_conf.xml";
+    Configuration jobConf = new Configuration();
+    jobConf.addResource(new Path(JOB_CONF_FILE_NAME));
+    JobKey jobKey = new JobKey("cluster1", "user", "Sleep", 1, "job_1329348432655_0001");
+
+    for (String fileName : JOB_HISTORY_FILE_NAMES) {
+      byte[] contents = Files.toByteArray(new File(fileName));
+
+      JobHistoryFileParserHadoop2 jsonParser = new JobHistoryFileParserHadoop2(jobConf, false);
+      jsonParser.parse(contents, jobKey);
+      JobHistoryFileParserHadoop2 directParser = new JobHistoryFileParserHadoop2(jobConf, true);
+      directParser.parse(contents, jobKey);
+
+      assertEquals(jsonParser.getJobPuts().size(), directParser.getJobPuts().size());
+      assertEquals(jsonParser.getTaskPuts().size(), directParser.getTaskPuts().size());
+      assertEquals(getCells(jsonParser.getJobPuts()), getCells(directParser.getJobPuts()));
+      assertEquals(getCells(jsonParser.getTaskPuts()), getCells(directParser.getTaskPuts()));
+      assertEquals(jsonParser.getMegaByteMillis(), directParser.getMegaByteMillis());
+      assertEquals(jsonParser.getJobDetails().getTotalMaps(),
+          directParser.getJobDetails().getTotalMaps());
+      assertEquals(jsonParser.getJobDetails().getTotalReduces(),
+          directParser.getJobDetails().getTotalReduces());
+    }
+  }
+
+  private Set<String> getCells(List<Put> puts) {
+    Set<String> cells = new HashSet<String>();
+    for (Put p : puts) {
+      for (List<Cell> familyCells : p.getFamilyCellMap().values()) {
+        for (Cell c : familyCells) {
+          cells.add(Bytes.toStringBinary(CellUtil.cloneRow(c)) + "/"
+              + Bytes.toStringBinary(CellUtil.cloneFamily(c)) + ":"
+              + Bytes.toStringBinary(CellUtil.cloneQualifier(c)) + "="
+              + Bytes.toStringBinary(CellUtil.cloneValue(c)));
+        }
+      }
+    }
+    return cells;
+  }
 }
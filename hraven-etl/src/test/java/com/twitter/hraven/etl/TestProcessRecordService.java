@@ -0,0 +1,97 @@
+/*
+Copyright 2016 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.twitter.hraven.datasource.BufferedTableWriter;
+import com.twitter.hraven.datasource.HRavenTestUtil;
+
+/**
+ * Tests that the buffered writes of {@link ProcessRecordService} are written
+ * on flush and before records are read
+ */
+public class TestProcessRecordService {
+
+  private static final String CLUSTER = "buffered@identifier";
+
+  private static HBaseTestingUtility UTIL;
+  private static Connection hbaseConnection;
+
+  @BeforeClass
+  public static void setupBeforeClass() throws Exception {
+    UTIL = new HBaseTestingUtility();
+    UTIL.startMiniCluster();
+    HRavenTestUtil.createProcessTable(UTIL);
+    hbaseConnection = ConnectionFactory.createConnection(UTIL.getConfiguration());
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    if (hbaseConnection != null) {
+      hbaseConnection.close();
+    }
+    UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testBufferedWriteJobRecord() throws Exception {
+    ProcessRecordService unbuffered =
+        new ProcessRecordService(UTIL.getConfiguration(), hbaseConnection);
+    ProcessRecordService service = new ProcessRecordService(
+        UTIL.getConfiguration(), hbaseConnection, true);
+    try {
+      BufferedTableWriter writer = service.getProcessRecordWriter();
+      assertNotNull(writer);
+      long mutations = writer.getMetrics().getMutations();
+
+      ProcessRecord processRecord = new ProcessRecord(CLUSTER,
+          ProcessState.PREPROCESSED, 1000L, 2000L, 4, "/processing/buffered",
+          "job_1400000000000_0001", "job_1400000000000_0004");
+      service.writeJobRecord(processRecord);
+      // the record stays in the buffer until it is flushed
+      assertEquals(0, unbuffered.getProcessRecords(CLUSTER, Integer.MAX_VALUE,
+          null).size());
+      service.flush();
+      assertEquals(1, unbuffered.getProcessRecords(CLUSTER, Integer.MAX_VALUE,
+          null).size());
+
+      ProcessRecord loaded =
+          service.setProcessState(processRecord, ProcessState.LOADED);
+      assertEquals(ProcessState.LOADED, loaded.getProcessState());
+      // the buffered state is written before the records are read
+      List<ProcessRecord> records = service.getProcessRecords(CLUSTER,
+          ProcessState.LOADED, Integer.MAX_VALUE, null);
+      assertEquals(1, records.size());
+      assertEquals(processRecord.getKey(), records.get(0).getKey());
+      assertEquals("/processing/buffered", records.get(0).getProcessFile());
+      assertEquals(mutations + 2L, writer.getMetrics().getMutations());
+      assertEquals(0L, writer.getMetrics().getFailures());
+    } finally {
+      service.close();
+    }
+  }
+}